@@ -55,6 +55,8 @@ public class NxtGenUtils {
                     "   ClipOverlappingReadPairs\n" +
                     "   CountReads\n" +
                     "   SubstractBam\n" +
+                    "   IndexPileup\n" +
+                    "   ConvertPileup\n" +
                     "   ClipPrimerSequences\n" +
                     "   GatherGatkBqsrReports\n" +
                     "";
@@ -0,0 +1,40 @@
+package org.nxtgenutils.bsseq;
+
+import org.nxtgenutils.io.MethylationProfileRecord;
+
+import java.io.IOException;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Receives the methylation profile records generated by a profiler, e.g.
+ * to write them to a file or to aggregate them in memory. The records are
+ * passed in pileup order, the forward strand record of a di-nucleotide
+ * position before the reverse strand record.
+ */
+public interface MethylationProfileRecordHandler {
+
+    /**
+     * Handles a profile record.
+     *
+     * @param profileRecord the profile record, never null
+     * @throws IOException if the record cannot be written
+     */
+    public void handle(MethylationProfileRecord profileRecord) throws IOException;
+
+}
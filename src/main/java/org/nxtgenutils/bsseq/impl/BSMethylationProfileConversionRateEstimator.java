@@ -3,12 +3,12 @@ package org.nxtgenutils.bsseq.impl;
 import org.nxtgenutils.io.MethylationProfileParser;
 import org.nxtgenutils.io.MethylationProfileRecord;
 import org.nxtgenutils.io.MethylationProfileSampleRecord;
+import org.nxtgenutils.io.impl.DinucleotideContext;
 import org.nxtgenutils.io.impl.SimpleMethylationProfileParser;
 
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.Pattern;
 import java.text.NumberFormat;
 import java.text.DecimalFormat;
 
@@ -31,7 +31,6 @@ public class BSMethylationProfileConversionRateEstimator {
      */
     private static Logger logger = Logger.getLogger(BSMethylationProfileConversionRateEstimator.class);
 
-    private static Pattern c_atc = Pattern.compile("C[ATC]");
     private static Set<String> contexts = new HashSet<String>();
 
     static {
@@ -44,9 +43,12 @@ public class BSMethylationProfileConversionRateEstimator {
 
     }
 
-    private Map<String, Map<String, Long>> context2Sample2CCount = new HashMap<String, Map<String, Long>>();
-    private Map<String, Map<String, Long>> context2Sample2TCount = new HashMap<String, Map<String, Long>>();
-    private Map<String, Map<String, Long>> context2Sample2PositionCount = new HashMap<String, Map<String, Long>>();
+    private ContextSampleCounter context2Sample2CCount;
+    private ContextSampleCounter context2Sample2TCount;
+    private ContextSampleCounter context2Sample2PositionCount;
+
+    private int totalContext;
+    private int nonCpGTotalContext;
 
 
     public BSMethylationProfileConversionRateEstimator(File methylationProfileFile,
@@ -91,17 +93,15 @@ public class BSMethylationProfileConversionRateEstimator {
             PrintWriter pw = new PrintWriter(outputPrefix + "non_cpg_conversion_rates.tsv");
             pw.println("sample\tcontext\trate\tpositions");
 
-            for (String context : context2Sample2CCount.keySet()) {
+            for (int contextIndex = 0; contextIndex < contexts.size(); contextIndex++) {
 
-                Map<String, Long> cCount = context2Sample2CCount.get(context);
-                Map<String, Long> tCount = context2Sample2CCount.get(context);
+                String context = context2Sample2CCount.getContexts().get(contextIndex);
 
-                Map<String, Double> conversionRates = calculateBisfulfiteConversionRate(cCount, tCount);
-                Map<String, Long> positionCounts = context2Sample2PositionCount.get(context);
+                Map<String, Double> conversionRates = calculateBisfulfiteConversionRate(context2Sample2CCount, context2Sample2CCount, contextIndex);
 
                 for (String sampleName : conversionRates.keySet()) {
 
-                    long count = positionCounts.get(sampleName);
+                    long count = context2Sample2PositionCount.get(contextIndex, context2Sample2PositionCount.getSampleIndex(sampleName));
                     double rate = conversionRates.get(sampleName);
                     pw.println(sampleName + "\t" + context + "\t" + formatter.format(rate * 100.0) + "\t" + count);
                     pw.flush();
@@ -120,23 +120,25 @@ public class BSMethylationProfileConversionRateEstimator {
     }
 
     /**
-     * @param sampleCCount
-     * @param sampleTCount
-     * @return
+     * @param sampleCCount the C counts by context and sample
+     * @param sampleTCount the T counts by context and sample
+     * @param context      the index of the context
+     * @return the conversion rates by sample name
      */
-    private Map<String, Double> calculateBisfulfiteConversionRate(Map<String, Long> sampleCCount, Map<String, Long> sampleTCount) {
+    private Map<String, Double> calculateBisfulfiteConversionRate(ContextSampleCounter sampleCCount, ContextSampleCounter sampleTCount, int context) {
 
         Map<String, Double> retVal = new HashMap<String, Double>();
 
-        for (String name : sampleCCount.keySet()) {
-            long c = sampleCCount.get(name);
-            long t = sampleTCount.get(name);
+        List<String> sampleNames = sampleCCount.getSampleNames();
+        for (int sample = 0; sample < sampleNames.size(); sample++) {
+            long c = sampleCCount.get(context, sample);
+            long t = sampleTCount.get(context, sample);
             long ct = c + t;
             if (ct == 0) {
-                retVal.put(name, -1.0);
+                retVal.put(sampleNames.get(sample), -1.0);
             } else {
                 double rate = (double) t / (double) ct;
-                retVal.put(name, rate);
+                retVal.put(sampleNames.get(sample), rate);
             }
         }
 
@@ -169,23 +171,15 @@ public class BSMethylationProfileConversionRateEstimator {
 
     private void initialiseMaps(List<String> sampleNames) {
 
-        for (String context : contexts) {
-            context2Sample2CCount.put(context, new HashMap<String, Long>());
-            context2Sample2TCount.put(context, new HashMap<String, Long>());
-            context2Sample2PositionCount.put(context, new HashMap<String, Long>());
-        }
-
-        for (String sample : sampleNames) {
-
-            for (String context : contexts) {
+        //the contexts are reported in the order of the set
+        List<String> contextList = new ArrayList<String>(contexts);
 
-                context2Sample2CCount.get(context).put(sample, (long) 0);
-                context2Sample2TCount.get(context).put(sample, (long) 0);
-                context2Sample2PositionCount.get(context).put(sample, (long) 0);
+        context2Sample2CCount = new ContextSampleCounter(contextList, sampleNames);
+        context2Sample2TCount = new ContextSampleCounter(contextList, sampleNames);
+        context2Sample2PositionCount = new ContextSampleCounter(contextList, sampleNames);
 
-            }
-
-        }
+        totalContext = context2Sample2CCount.getContextIndex("total");
+        nonCpGTotalContext = context2Sample2CCount.getContextIndex("non_cpg_total");
 
     }
 
@@ -202,49 +196,33 @@ public class BSMethylationProfileConversionRateEstimator {
 
             if (sampleRecord.getSnpType() == 0 && !sampleRecord.hasIndels()) {
 
-                retVal = true;
-
-                String sampleName = sampleRecord.getSampleName();
-
-                long currentCcount = context2Sample2CCount.get(sampleRecord.getSampleContext()).get(sampleName);
-                currentCcount = currentCcount + sampleRecord.getCCount();
-                context2Sample2CCount.get(sampleRecord.getSampleContext()).put(sampleName, currentCcount);
-
-                long currentTcount = context2Sample2TCount.get(sampleRecord.getSampleContext()).get(sampleName);
-                currentTcount = currentTcount + sampleRecord.getCtCoverage() - sampleRecord.getCCount();
-                context2Sample2TCount.get(sampleRecord.getSampleContext()).put(sampleName, currentTcount);
-
-                long currentPositionCount = context2Sample2PositionCount.get(sampleRecord.getSampleContext()).get(sampleName);
-                currentPositionCount++;
-                context2Sample2PositionCount.get(sampleRecord.getSampleContext()).put(sampleName, currentPositionCount);
+                int sampleContextCode = sampleRecord.getSampleContextCode();
+                int context = context2Sample2CCount.getContextIndex(sampleContextCode);
+                int sample = context2Sample2CCount.getSampleIndex(sampleRecord.getSampleName());
 
+                //contexts and samples that are not counted
+                if (context < 0 || sample < 0) {
+                    continue;
+                }
 
-                long currentCcountTotal = context2Sample2CCount.get("total").get(sampleName);
-                currentCcountTotal = currentCcountTotal + sampleRecord.getCCount();
-                context2Sample2CCount.get("total").put(sampleName, currentCcountTotal);
-
-                long currentTcountTotal = context2Sample2TCount.get("total").get(sampleName);
-                currentTcountTotal = currentTcountTotal + sampleRecord.getCtCoverage() - sampleRecord.getCCount();
-                context2Sample2TCount.get("total").put(sampleName, currentTcountTotal);
-
-                long currentPositionCountTotal = context2Sample2PositionCount.get("total").get(sampleName);
-                currentPositionCountTotal++;
-                context2Sample2PositionCount.get("total").put(sampleName, currentPositionCountTotal);
+                retVal = true;
 
+                long cCount = sampleRecord.getCCount();
+                long tCount = sampleRecord.getCtCoverage() - sampleRecord.getCCount();
 
-                if (c_atc.matcher(sampleRecord.getSampleContext()).matches()) {
+                context2Sample2CCount.add(context, sample, cCount);
+                context2Sample2TCount.add(context, sample, tCount);
+                context2Sample2PositionCount.increment(context, sample);
 
-                    long currentCcountNonCpG = context2Sample2CCount.get("non_cpg_total").get(sampleName);
-                    currentCcountNonCpG = currentCcountNonCpG + sampleRecord.getCCount();
-                    context2Sample2CCount.get("non_cpg_total").put(sampleName, currentCcountNonCpG);
+                context2Sample2CCount.add(totalContext, sample, cCount);
+                context2Sample2TCount.add(totalContext, sample, tCount);
+                context2Sample2PositionCount.increment(totalContext, sample);
 
-                    long currentTcountNonCpG = context2Sample2TCount.get("non_cpg_total").get(sampleName);
-                    currentTcountNonCpG = currentTcountNonCpG + sampleRecord.getCtCoverage() - sampleRecord.getCCount();
-                    context2Sample2TCount.get("non_cpg_total").put(sampleName, currentTcountNonCpG);
+                if (DinucleotideContext.isNonCpGCytosine(sampleContextCode)) {
 
-                    long currentPositionCountNonCpG = context2Sample2PositionCount.get("non_cpg_total").get(sampleName);
-                    currentPositionCountNonCpG++;
-                    context2Sample2PositionCount.get("non_cpg_total").put(sampleName, currentPositionCountNonCpG);
+                    context2Sample2CCount.add(nonCpGTotalContext, sample, cCount);
+                    context2Sample2TCount.add(nonCpGTotalContext, sample, tCount);
+                    context2Sample2PositionCount.increment(nonCpGTotalContext, sample);
 
                 }
             }
@@ -3,12 +3,12 @@ package org.nxtgenutils.bsseq.impl;
 import org.nxtgenutils.io.MethylationProfileParser;
 import org.nxtgenutils.io.MethylationProfileRecord;
 import org.nxtgenutils.io.MethylationProfileSampleRecord;
+import org.nxtgenutils.io.impl.DinucleotideContext;
 import org.nxtgenutils.io.impl.SimpleMethylationProfileParser;
 import org.nxtgenutils.Strand;
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.Pattern;
 import java.text.NumberFormat;
 import java.text.DecimalFormat;
 
@@ -52,18 +52,18 @@ public class BSMethylationProfileStatisticsGenerator {
     private Map<String, int[][]> cummulativeNonCpGCoverageAcrossSamples = new HashMap<String, int[][]>();
     private Map<String, Map<Integer, List<String>>> group2Coverage2SampleNames = new HashMap<String, Map<Integer, List<String>>>();
 
-    private Map<String, Long> controlCCount = new HashMap<String, Long>();
-    private Map<String, Long> controlTCount = new HashMap<String, Long>();
+    //counts of the control sequence in the single context "total"
+    private ContextSampleCounter controlCCount;
+    private ContextSampleCounter controlTCount;
 
-    private Map<String, Integer> controlConversionRatePositionCount = new HashMap<String, Integer>();
-    private Map<String, Map<String, Integer>> nonCpGConversionRatePositionCount = new HashMap<String, Map<String, Integer>>();
+    private ContextSampleCounter controlConversionRatePositionCount;
+    private ContextSampleCounter nonCpGConversionRatePositionCount;
 
-    private Map<String, Map<String, Long>> nonCpGContextCCount = new HashMap<String, Map<String, Long>>();
-    private Map<String, Map<String, Long>> nonCpGContextTCount = new HashMap<String, Map<String, Long>>();
+    private ContextSampleCounter nonCpGContextCCount;
+    private ContextSampleCounter nonCpGContextTCount;
 
     private Set<String> nonCpGContexts = new HashSet<String>();
-
-    static Pattern c_atc = Pattern.compile("C[ATC]");
+    private int nonCpGTotalContext;
 
     public BSMethylationProfileStatisticsGenerator(File methylationProfileFile,
                                                    File sampleNamesFile,
@@ -298,7 +298,7 @@ public class BSMethylationProfileStatisticsGenerator {
         //controle conversion rate
         NumberFormat formatter = new DecimalFormat("#.#");
 
-        Map<String, Double> conversionRates = calculateBisfulfiteConversionRate(controlCCount, controlTCount);
+        Map<String, Double> conversionRates = calculateBisfulfiteConversionRate(controlCCount, controlTCount, 0);
         try {
 
             PrintWriter pw = new PrintWriter(outputPrefix + "controle_conversion_rates.tsv");
@@ -307,7 +307,7 @@ public class BSMethylationProfileStatisticsGenerator {
             pw.println("sample\trate\tpositions");
             for (String sampleName : conversionRates.keySet()) {
 
-                int count = controlConversionRatePositionCount.get(sampleName);
+                long count = controlConversionRatePositionCount.get(0, controlConversionRatePositionCount.getSampleIndex(sampleName));
                 double rate = conversionRates.get(sampleName);
                 pw.println(sampleName + "\t" + formatter.format(rate * 100.0) + "\t" + count);
                 pw.flush();
@@ -326,17 +326,15 @@ public class BSMethylationProfileStatisticsGenerator {
             PrintWriter pw = new PrintWriter(outputPrefix + "non_cpg_conversion_rates.tsv");
             pw.println("sample\tcontext\trate\tpositions");
 
-            for (String context : nonCpGContextCCount.keySet()) {
+            for (int contextIndex = 0; contextIndex < nonCpGContexts.size(); contextIndex++) {
 
-                Map<String, Long> cCount = nonCpGContextCCount.get(context);
-                Map<String, Long> tCount = nonCpGContextCCount.get(context);
+                String context = nonCpGContextCCount.getContexts().get(contextIndex);
 
-                conversionRates = calculateBisfulfiteConversionRate(cCount, tCount);
-                Map<String, Integer> positionCounts = nonCpGConversionRatePositionCount.get(context);
+                conversionRates = calculateBisfulfiteConversionRate(nonCpGContextCCount, nonCpGContextCCount, contextIndex);
 
                 for (String sampleName : conversionRates.keySet()) {
 
-                    int count = positionCounts.get(sampleName);
+                    long count = nonCpGConversionRatePositionCount.get(contextIndex, nonCpGConversionRatePositionCount.getSampleIndex(sampleName));
                     double rate = conversionRates.get(sampleName);
                     pw.println(sampleName + "\t" + context + "\t" + formatter.format(rate * 100.0) + "\t" + count);
                     pw.flush();
@@ -355,23 +353,25 @@ public class BSMethylationProfileStatisticsGenerator {
     }
 
     /**
-     * @param sampleCCount
-     * @param sampleTCount
-     * @return
+     * @param sampleCCount the C counts by context and sample
+     * @param sampleTCount the T counts by context and sample
+     * @param context      the index of the context
+     * @return the conversion rates by sample name
      */
-    private Map<String, Double> calculateBisfulfiteConversionRate(Map<String, Long> sampleCCount, Map<String, Long> sampleTCount) {
+    private Map<String, Double> calculateBisfulfiteConversionRate(ContextSampleCounter sampleCCount, ContextSampleCounter sampleTCount, int context) {
 
         Map<String, Double> retVal = new HashMap<String, Double>();
 
-        for (String name : sampleCCount.keySet()) {
-            long c = sampleCCount.get(name);
-            long t = sampleTCount.get(name);
+        List<String> sampleNames = sampleCCount.getSampleNames();
+        for (int sample = 0; sample < sampleNames.size(); sample++) {
+            long c = sampleCCount.get(context, sample);
+            long t = sampleTCount.get(context, sample);
             long ct = c + t;
             if (ct == 0) {
-                retVal.put(name, -1.0);
+                retVal.put(sampleNames.get(sample), -1.0);
             } else {
                 double rate = (double) t / (double) ct;
-                retVal.put(name, rate);
+                retVal.put(sampleNames.get(sample), rate);
             }
         }
 
@@ -442,54 +442,34 @@ public class BSMethylationProfileStatisticsGenerator {
 
         for (MethylationProfileSampleRecord sampleRecord : profileRecord.getSampleRecords()) {
 
+            int sample = controlCCount.getSampleIndex(sampleRecord.getSampleName());
+            if (sample < 0) {
+                continue;
+            }
+
             if (controlSequence != null && profileRecord.getSequenceName().equals(controlSequence)) {
 
                 retVal = true;
 
-                String sampleName = sampleRecord.getSampleName();
-
-                long currentCcount = controlCCount.get(sampleName);
-                currentCcount = currentCcount + sampleRecord.getCCount();
-                controlCCount.put(sampleName, currentCcount);
-
-                long currentTcount = controlTCount.get(sampleName);
-                currentTcount = currentTcount + sampleRecord.getCtCoverage() - sampleRecord.getCCount();
-                controlTCount.put(sampleName, currentTcount);
-
-                int currentPositionCount = controlConversionRatePositionCount.get(sampleName);
-                currentPositionCount++;
-                controlConversionRatePositionCount.put(sampleName, currentPositionCount);
+                controlCCount.add(0, sample, sampleRecord.getCCount());
+                controlTCount.add(0, sample, sampleRecord.getCtCoverage() - sampleRecord.getCCount());
+                controlConversionRatePositionCount.increment(0, sample);
 
             } else if (sampleRecord.getSnpType() == 0 && !sampleRecord.hasIndels() &&
-                    c_atc.matcher(sampleRecord.getSampleContext()).matches()) {
+                    DinucleotideContext.isNonCpGCytosine(sampleRecord.getSampleContextCode())) {
 
                 retVal = true;
 
-                String sampleName = sampleRecord.getSampleName();
-
-                long currentCcount = nonCpGContextCCount.get(sampleRecord.getSampleContext()).get(sampleRecord.getSampleName());
-                currentCcount = currentCcount + sampleRecord.getCCount();
-                nonCpGContextCCount.get(sampleRecord.getSampleContext()).put(sampleRecord.getSampleName(), currentCcount);
-
-                long currentTcount = nonCpGContextTCount.get(sampleRecord.getSampleContext()).get(sampleRecord.getSampleName());
-                currentTcount = currentTcount + sampleRecord.getCtCoverage() - sampleRecord.getCCount();
-                nonCpGContextTCount.get(sampleRecord.getSampleContext()).put(sampleRecord.getSampleName(), currentTcount);
-
-                long currentCcountTotal = nonCpGContextCCount.get("total").get(sampleRecord.getSampleName());
-                currentCcountTotal = currentCcountTotal + sampleRecord.getCCount();
-                nonCpGContextCCount.get("total").put(sampleRecord.getSampleName(), currentCcountTotal);
+                int context = nonCpGContextCCount.getContextIndex(sampleRecord.getSampleContextCode());
 
-                long currentTcountTotal = nonCpGContextTCount.get("total").get(sampleRecord.getSampleName());
-                currentTcountTotal = currentTcountTotal + sampleRecord.getCtCoverage() - sampleRecord.getCCount();
-                nonCpGContextTCount.get("total").put(sampleRecord.getSampleName(), currentTcountTotal);
+                nonCpGContextCCount.add(context, sample, sampleRecord.getCCount());
+                nonCpGContextTCount.add(context, sample, sampleRecord.getCtCoverage() - sampleRecord.getCCount());
 
-                int currentPositionCount = nonCpGConversionRatePositionCount.get(sampleRecord.getSampleContext()).get(sampleName);
-                currentPositionCount++;
-                nonCpGConversionRatePositionCount.get(sampleRecord.getSampleContext()).put(sampleName, currentPositionCount);
+                nonCpGContextCCount.add(nonCpGTotalContext, sample, sampleRecord.getCCount());
+                nonCpGContextTCount.add(nonCpGTotalContext, sample, sampleRecord.getCtCoverage() - sampleRecord.getCCount());
 
-                int currentPositionCountTotal = nonCpGConversionRatePositionCount.get("total").get(sampleName);
-                currentPositionCountTotal++;
-                nonCpGConversionRatePositionCount.get("total").put(sampleName, currentPositionCountTotal);
+                nonCpGConversionRatePositionCount.increment(context, sample);
+                nonCpGConversionRatePositionCount.increment(nonCpGTotalContext, sample);
 
             }
 
@@ -508,12 +488,8 @@ public class BSMethylationProfileStatisticsGenerator {
         nonCpGContexts.add("CC");
         nonCpGContexts.add("total");
 
-        for (String context : nonCpGContexts) {
-
-            nonCpGContextCCount.put(context, new HashMap<String, Long>());
-            nonCpGContextTCount.put(context, new HashMap<String, Long>());
-            nonCpGConversionRatePositionCount.put(context, new HashMap<String, Integer>());
-        }
+        //the samples in the order of the groups
+        List<String> sampleNames = new ArrayList<String>();
 
         for (String group : sampleGrouping.keySet()) {
 
@@ -539,26 +515,26 @@ public class BSMethylationProfileStatisticsGenerator {
                 cummulativeNonCpGCoverageBySample.put(sample + "_" + Strand.FORWARD, new int[coverageCutOff + 1]);
                 cummulativeNonCpGCoverageBySample.put(sample + "_" + Strand.REVERSE, new int[coverageCutOff + 1]);
 
-                //CT count
-                //control sequence
-                controlCCount.put(sample, (long) 0);
-                controlTCount.put(sample, (long) 0);
-
-
-                //non-CpG context
-                for (String context : nonCpGContexts) {
-
-                    nonCpGContextCCount.get(context).put(sample, (long) 0);
-                    nonCpGContextTCount.get(context).put(sample, (long) 0);
-                    nonCpGConversionRatePositionCount.get(context).put(sample, 0);
-                }
-
-                controlConversionRatePositionCount.put(sample, 0);
+                sampleNames.add(sample);
 
             }
 
         }
 
+        //CT count
+        //control sequence
+        List<String> controlContexts = Collections.singletonList("total");
+        controlCCount = new ContextSampleCounter(controlContexts, sampleNames);
+        controlTCount = new ContextSampleCounter(controlContexts, sampleNames);
+        controlConversionRatePositionCount = new ContextSampleCounter(controlContexts, sampleNames);
+
+        //non-CpG context, reported in the order of the set
+        List<String> contexts = new ArrayList<String>(nonCpGContexts);
+        nonCpGContextCCount = new ContextSampleCounter(contexts, sampleNames);
+        nonCpGContextTCount = new ContextSampleCounter(contexts, sampleNames);
+        nonCpGConversionRatePositionCount = new ContextSampleCounter(contexts, sampleNames);
+        nonCpGTotalContext = nonCpGContextCCount.getContextIndex("total");
+
     }
 
 //    private Map<String, BufferedWriter> intitialiseWriters(String outputPrefix){
@@ -0,0 +1,151 @@
+package org.nxtgenutils.bsseq.impl;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.BinomialDistributionImpl;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Phred scaled cumulative binomial probabilities for a fixed probability
+ * of success, e.g. the bisulfite conversion rate of a sample. The score of
+ * a number of trials and successes is computed on first use and kept in a
+ * table, so that the distribution is evaluated once per coverage and
+ * count instead of once per position. Numbers of trials beyond the size of
+ * the table are computed on every call.
+ * <p/>
+ * The table may be used by several threads. Scores computed by threads
+ * at the same time are identical, so an entry is at worst computed twice.
+ */
+public class BinomialScoreTable {
+
+    /**
+     * the default largest number of trials kept in the table
+     */
+    public static final int DEFAULT_MAX_TRIALS = 512;
+
+    /**
+     * the score of a cumulative probability that evaluates to 0
+     */
+    public static final int MAX_SCORE = 161;
+
+    //marks table entries that have not been computed
+    private static final int UNSET = -2;
+
+    private double probability;
+    private int maxTrials;
+
+    //scores by trials * (trials + 1) / 2 + successes
+    private int[] scores;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(BinomialScoreTable.class);
+
+    /**
+     * Constructs a score table with the default number of trials.
+     *
+     * @param probability the probability of success of a trial
+     */
+    public BinomialScoreTable(double probability) {
+        this(probability, DEFAULT_MAX_TRIALS);
+    }
+
+    /**
+     * Constructs a score table.
+     *
+     * @param probability the probability of success of a trial
+     * @param maxTrials   the largest number of trials kept in the table
+     */
+    public BinomialScoreTable(double probability, int maxTrials) {
+
+        this.probability = probability;
+        this.maxTrials = maxTrials;
+
+        scores = new int[(maxTrials + 1) * (maxTrials + 2) / 2];
+        Arrays.fill(scores, UNSET);
+
+    }
+
+    /**
+     * Returns the probability of success of a trial.
+     *
+     * @return the probability of success
+     */
+    public double getProbability() {
+        return probability;
+    }
+
+    /**
+     * Returns the phred scaled probability of at most a number of successes
+     * in a number of trials.
+     *
+     * @param trials    the number of trials
+     * @param successes the number of successes
+     * @return the score or -1 if the probability cannot be computed
+     */
+    public int getScore(int trials, int successes) {
+
+        if (trials > maxTrials || successes < 0 || successes > trials) {
+            return computeScore(trials, successes);
+        }
+
+        int index = trials * (trials + 1) / 2 + successes;
+
+        int retVal = scores[index];
+        if (retVal == UNSET) {
+            retVal = computeScore(trials, successes);
+            //failures are not kept, so that they are reported every time
+            if (retVal >= 0) {
+                scores[index] = retVal;
+            }
+        }
+
+        return retVal;
+
+    }
+
+    private int computeScore(int trials, int successes) {
+
+        int retVal = -1;
+
+        try {
+
+            // BinomialDistributionImpl does return 0 of the p value is >10^-16.
+            // In this case we will assign a score of 161 which is one more then
+            // the maximum score that can be calculated from the p values returned
+            // by BinomialDistributionImpl and equivivalent to a p-value of 8.9 * 10^-17
+            double p = new BinomialDistributionImpl(trials, probability).cumulativeProbability(successes);
+            if (p == 0.0) {
+                retVal = MAX_SCORE;
+            } else {
+                retVal = (int) Math.round(-10 * Math.log10(p));
+            }
+
+        } catch (MathException e) {
+            logger.error("Exception while scoring methylation level.", e);
+        }
+
+        return retVal;
+
+    }
+
+}
@@ -0,0 +1,279 @@
+package org.nxtgenutils.bsseq.impl;
+
+import org.nxtgenutils.io.impl.DinucleotideContext;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Counts by sequence context and sample, e.g. the C or T base calls of the
+ * non-CpG contexts a conversion rate is estimated from. Contexts and samples
+ * are addressed by their index in the lists the counter is constructed
+ * with, so that a count is updated without map lookups or boxing. The
+ * indexes of context and sample names are looked up once, or by
+ * DinucleotideContext code for di-nucleotide contexts.
+ * <p/>
+ * A counter is not thread safe. Parallel workers count into counters of
+ * their own, which are merged afterwards.
+ */
+public class ContextSampleCounter {
+
+    private List<String> contexts;
+    private List<String> sampleNames;
+
+    private Map<String, Integer> contextIndexes = new HashMap<String, Integer>();
+    private Map<String, Integer> sampleIndexes = new HashMap<String, Integer>();
+
+    //context indexes by DinucleotideContext code
+    private int[] contextIndexesByCode = new int[DinucleotideContext.CONTEXT_CODES];
+
+    //counts by context index * sample count + sample index
+    private long[] counts;
+
+    /**
+     * Constructs a counter with all counts set to 0.
+     *
+     * @param contexts    the context names in index order
+     * @param sampleNames the sample names in index order
+     */
+    public ContextSampleCounter(List<String> contexts, List<String> sampleNames) {
+
+        this.contexts = Collections.unmodifiableList(new ArrayList<String>(contexts));
+        this.sampleNames = Collections.unmodifiableList(new ArrayList<String>(sampleNames));
+
+        Arrays.fill(contextIndexesByCode, -1);
+
+        for (int i = 0; i < this.contexts.size(); i++) {
+
+            String context = this.contexts.get(i);
+            contextIndexes.put(context, i);
+
+            int contextCode = DinucleotideContext.getContextCode(context);
+            if (contextCode != DinucleotideContext.UNKNOWN) {
+                contextIndexesByCode[contextCode] = i;
+            }
+
+        }
+
+        for (int i = 0; i < this.sampleNames.size(); i++) {
+            sampleIndexes.put(this.sampleNames.get(i), i);
+        }
+
+        counts = new long[this.contexts.size() * this.sampleNames.size()];
+
+    }
+
+    /**
+     * Constructs a counter with the contexts and samples of another counter
+     * and all counts set to 0.
+     *
+     * @param counter the counter to take the contexts and samples from
+     */
+    public ContextSampleCounter(ContextSampleCounter counter) {
+        this(counter.contexts, counter.sampleNames);
+    }
+
+    /**
+     * Returns the context names in index order.
+     *
+     * @return the context names
+     */
+    public List<String> getContexts() {
+        return contexts;
+    }
+
+    /**
+     * Returns the sample names in index order.
+     *
+     * @return the sample names
+     */
+    public List<String> getSampleNames() {
+        return sampleNames;
+    }
+
+    /**
+     * Returns the index of a context.
+     *
+     * @param context the context name
+     * @return the index or -1 if the context is not counted
+     */
+    public int getContextIndex(String context) {
+        Integer retVal = contextIndexes.get(context);
+        return retVal == null ? -1 : retVal;
+    }
+
+    /**
+     * Returns the index of a di-nucleotide context.
+     *
+     * @param contextCode the DinucleotideContext code of the context
+     * @return the index or -1 if the context is not counted
+     */
+    public int getContextIndex(int contextCode) {
+
+        if (contextCode < 0 || contextCode >= contextIndexesByCode.length) {
+            return -1;
+        }
+
+        return contextIndexesByCode[contextCode];
+
+    }
+
+    /**
+     * Returns the index of a sample.
+     *
+     * @param sampleName the sample name
+     * @return the index or -1 if the sample is not counted
+     */
+    public int getSampleIndex(String sampleName) {
+        Integer retVal = sampleIndexes.get(sampleName);
+        return retVal == null ? -1 : retVal;
+    }
+
+    /**
+     * Adds to the count of a context and sample.
+     *
+     * @param context the context index
+     * @param sample  the sample index
+     * @param value   the value to add
+     */
+    public void add(int context, int sample, long value) {
+        counts[index(context, sample)] += value;
+    }
+
+    /**
+     * Adds one to the count of a context and sample.
+     *
+     * @param context the context index
+     * @param sample  the sample index
+     */
+    public void increment(int context, int sample) {
+        counts[index(context, sample)]++;
+    }
+
+    /**
+     * Returns the count of a context and sample.
+     *
+     * @param context the context index
+     * @param sample  the sample index
+     * @return the count
+     */
+    public long get(int context, int sample) {
+        return counts[index(context, sample)];
+    }
+
+    /**
+     * Adds the counts of another counter with the same contexts and
+     * samples, e.g. the counter of a parallel worker.
+     *
+     * @param counter the counter to add
+     */
+    public void merge(ContextSampleCounter counter) {
+
+        if (!contexts.equals(counter.contexts) || !sampleNames.equals(counter.sampleNames)) {
+            throw new IllegalArgumentException("Counters of different contexts or samples cannot be merged.");
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += counter.counts[i];
+        }
+
+    }
+
+    /**
+     * Writes the contexts, the samples and the counts, e.g. to checkpoint
+     * the counts of a long run.
+     *
+     * @param out the output
+     * @throws IOException if the counts cannot be written
+     */
+    public void write(DataOutput out) throws IOException {
+
+        writeNames(out, contexts);
+        writeNames(out, sampleNames);
+
+        for (long count : counts) {
+            out.writeLong(count);
+        }
+
+    }
+
+    /**
+     * Replaces the counts with counts written by write(DataOutput) for the
+     * same contexts and samples.
+     *
+     * @param in the input
+     * @throws IOException if the counts cannot be read or have been written
+     *                     for other contexts or samples
+     */
+    public void read(DataInput in) throws IOException {
+
+        List<String> writtenContexts = readNames(in);
+        List<String> writtenSampleNames = readNames(in);
+
+        if (!contexts.equals(writtenContexts) || !sampleNames.equals(writtenSampleNames)) {
+            throw new IOException("Counts of contexts " + writtenContexts + " and samples " + writtenSampleNames + " cannot be read into counter of contexts " +
+                    contexts + " and samples " + sampleNames + ".");
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = in.readLong();
+        }
+
+    }
+
+    private void writeNames(DataOutput out, List<String> names) throws IOException {
+
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+
+    }
+
+    private List<String> readNames(DataInput in) throws IOException {
+
+        int size = in.readInt();
+        List<String> retVal = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            retVal.add(in.readUTF());
+        }
+
+        return retVal;
+
+    }
+
+    private int index(int context, int sample) {
+
+        if (sample < 0 || sample >= sampleNames.size()) {
+            throw new IndexOutOfBoundsException("Sample index: " + sample);
+        }
+
+        return context * sampleNames.size() + sample;
+
+    }
+
+}
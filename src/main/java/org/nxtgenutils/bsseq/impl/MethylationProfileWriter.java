@@ -0,0 +1,298 @@
+package org.nxtgenutils.bsseq.impl;
+
+import org.apache.log4j.Logger;
+import org.nxtgenutils.bsseq.MethylationProfileRecordHandler;
+import org.nxtgenutils.io.MethylationProfileRecord;
+import org.nxtgenutils.io.impl.TabixIndex;
+import org.nxtgenutils.io.impl.TabixIndexBuilder;
+import org.nxtgenutils.util.ParallelBgzfOutputStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Writes methylation profile records to a BGZF compressed profile file and
+ * indexes them with tabix (see TabixIndex). The records are formatted on a
+ * thread of their own and compressed on the deflater threads of a
+ * ParallelBgzfOutputStream. They are handed over in batches through a
+ * bounded queue, so the thread passing the records blocks when the
+ * formatter falls behind. The index is written next to the profile when
+ * the writer is closed, unless the records are not sorted.
+ * <p/>
+ * The records are written as they are passed, i.e. they are scored by the
+ * profiler generating them.
+ */
+public class MethylationProfileWriter implements MethylationProfileRecordHandler, Closeable {
+
+    static private String profileColumnLabels = "chr\t" +
+            "start\t" +
+            "end\t" +
+            "strand\t" +
+            "ref_context\t" +
+            "repeat_masked";
+
+    static private String[] sampleColumnLabels = {"smpl_context",
+            "c_count",
+            "ct_count",
+            "non_ct_count",
+            "m%",
+            "score",
+            "snp",
+            "indels"};
+
+    //the number of profile records handed over to the formatter at a time
+    private static final int BATCH_SIZE = 1024;
+    //the number of batches waiting to be formatted before the writer blocks
+    private static final int QUEUE_CAPACITY = 16;
+
+    private File profileFile;
+    private ParallelBgzfOutputStream outputStream;
+
+    //the index of the records by uncompressed position, null if the profile cannot be indexed
+    private TabixIndexBuilder indexBuilder = TabixIndexBuilder.forMethylationProfile();
+
+    private BlockingQueue<List<MethylationProfileRecord>> batches = new ArrayBlockingQueue<List<MethylationProfileRecord>>(QUEUE_CAPACITY);
+    private List<MethylationProfileRecord> batch = new ArrayList<MethylationProfileRecord>(BATCH_SIZE);
+
+    private Thread thread;
+    private volatile Exception error = null;
+    private boolean closed = false;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(MethylationProfileWriter.class);
+
+    /**
+     * Opens the profile file, prints the header and starts the formatter
+     * thread.
+     *
+     * @param profileFile the BGZF compressed profile file
+     * @param sampleNames the names of the profiled samples in the order of
+     *                    the sample records, see MethylationProfiler.getSampleNames()
+     * @param threads     the number of threads compressing the profile
+     * @throws IOException if the profile file cannot be written
+     */
+    public MethylationProfileWriter(File profileFile, List<String> sampleNames, int threads) throws IOException {
+        this(new ParallelBgzfOutputStream(profileFile, Math.max(1, threads)), profileFile, sampleNames);
+    }
+
+    /**
+     * Prints the header to a profile stream opened before the first record
+     * is known, e.g. to fail before the input is read if the profile file
+     * cannot be written, and starts the formatter thread.
+     *
+     * @param outputStream the stream of the profile file, nothing written yet
+     * @param profileFile  the BGZF compressed profile file
+     * @param sampleNames  the names of the profiled samples
+     * @throws IOException if the header cannot be written
+     */
+    MethylationProfileWriter(ParallelBgzfOutputStream outputStream, File profileFile, List<String> sampleNames) throws IOException {
+
+        this.outputStream = outputStream;
+        this.profileFile = profileFile;
+
+        printLine(formatHeader(sampleNames));
+
+        thread = new Thread(new Runnable() {
+            public void run() {
+                format();
+            }
+        }, "profile-formatter");
+        thread.setDaemon(true);
+        thread.start();
+
+    }
+
+    /**
+     * Returns the header line of a profile.
+     *
+     * @param sampleNames the names of the profiled samples
+     * @return the header line
+     */
+    public static String formatHeader(List<String> sampleNames) {
+
+        StringBuilder retVal = new StringBuilder(profileColumnLabels);
+        for (String sampleName : sampleNames) {
+            for (String label : sampleColumnLabels) {
+                retVal.append("\t").append(sampleName).append("_").append(label);
+            }
+        }
+
+        return retVal.toString();
+
+    }
+
+    /**
+     * Adds a profile record to the current batch.
+     *
+     * @param profileRecord the profile record
+     * @throws IOException if an earlier batch could not be written
+     */
+    public void handle(MethylationProfileRecord profileRecord) throws IOException {
+
+        checkError();
+
+        batch.add(profileRecord);
+
+        if (batch.size() == BATCH_SIZE) {
+            handOver(batch);
+            batch = new ArrayList<MethylationProfileRecord>(BATCH_SIZE);
+        }
+
+    }
+
+    /**
+     * Waits until all records are printed, closes the profile file and
+     * writes the index.
+     *
+     * @throws IOException if the profile could not be written
+     */
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+
+            if (!batch.isEmpty()) {
+                handOver(batch);
+            }
+            //an empty batch marks the end of the records
+            handOver(new ArrayList<MethylationProfileRecord>());
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while writing output file: " + profileFile.getAbsolutePath());
+            }
+
+            checkError();
+
+        } finally {
+            outputStream.close();
+        }
+
+        if (indexBuilder != null) {
+            writeIndex(indexBuilder.build(outputStream), profileFile);
+        }
+
+    }
+
+    /**
+     * Writes the tabix index of a profile next to the profile.
+     *
+     * @param index       the index
+     * @param profileFile the BGZF compressed profile
+     */
+    static void writeIndex(TabixIndex index, File profileFile) {
+
+        File indexFile = TabixIndex.getIndexFile(profileFile);
+        logger.info("Writing methylation profile index to: " + indexFile.getAbsolutePath());
+
+        try {
+            index.write(indexFile);
+        } catch (IOException e) {
+            logger.error("Exception while writing index file: " + indexFile.getAbsolutePath(), e);
+        }
+
+    }
+
+    private void checkError() throws IOException {
+
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException("Exception while formatting methylation profiles.", error);
+        }
+
+    }
+
+    private void handOver(List<MethylationProfileRecord> profileRecords) throws IOException {
+
+        try {
+            batches.put(profileRecords);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while writing output file: " + profileFile.getAbsolutePath());
+        }
+
+    }
+
+    private void format() {
+
+        try {
+
+            List<MethylationProfileRecord> profileRecords;
+            while (!(profileRecords = batches.take()).isEmpty()) {
+
+                //after an exception the batches are drained, so that the profiling thread does not block
+                if (error != null) {
+                    continue;
+                }
+
+                try {
+                    for (MethylationProfileRecord profileRecord : profileRecords) {
+                        print(profileRecord);
+                    }
+                } catch (IOException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+
+            }
+
+        } catch (InterruptedException e) {
+            //the profiling thread has given up waiting
+        }
+
+    }
+
+    private void print(MethylationProfileRecord profileRecord) throws IOException {
+
+        long startPosition = outputStream.getPosition();
+        printLine(profileRecord.formatProfileRecord());
+
+        if (indexBuilder != null) {
+            try {
+                indexBuilder.addRecord(profileRecord.getSequenceName(), profileRecord.getStartPosition() - 1,
+                        profileRecord.getEndPosition(), startPosition, outputStream.getPosition());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Methylation profile is not indexed: " + e.getMessage());
+                indexBuilder = null;
+            }
+        }
+
+    }
+
+    private void printLine(String line) throws IOException {
+        outputStream.write(line.getBytes());
+        outputStream.write('\n');
+    }
+
+}
@@ -1,22 +1,39 @@
 package org.nxtgenutils.bsseq.impl;
 
-import org.nxtgenutils.io.impl.SimpleMultiPileupParser;
+import org.nxtgenutils.io.impl.BinaryMultiPileup;
+import org.nxtgenutils.io.impl.BinaryMultiPileupParser;
+import org.nxtgenutils.io.impl.BaseCallHistogram;
+import org.nxtgenutils.io.impl.ContextWindowCursor;
+import org.nxtgenutils.io.impl.DinucleotideContext;
+import org.nxtgenutils.io.impl.ByteMultiPileupParser;
+import org.nxtgenutils.io.impl.IteratorMultiPileupCursor;
+import org.nxtgenutils.io.impl.ParallelMultiPileupParser;
 import org.nxtgenutils.io.impl.MethylationProfileRecordImpl;
 import org.nxtgenutils.io.impl.MethylationProfileSampleRecordImpl;
+import org.nxtgenutils.io.impl.SequenceContext;
+import org.nxtgenutils.io.impl.TabixIndexBuilder;
 import org.nxtgenutils.io.*;
+import org.nxtgenutils.bsseq.MethylationProfileRecordHandler;
 import org.nxtgenutils.Strand;
+import org.nxtgenutils.util.BgzfBlock;
+import org.nxtgenutils.util.BgzfOutputStream;
+import org.nxtgenutils.util.ParallelBgzfOutputStream;
+import org.nxtgenutils.util.TeeInputStream;
 
 import java.io.*;
 import java.util.*;
-import java.util.zip.GZIPOutputStream;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 
 import org.apache.log4j.Logger;
-import org.apache.commons.math.distribution.BinomialDistribution;
-import org.apache.commons.math.distribution.BinomialDistributionImpl;
-import org.apache.commons.math.MathException;
 
 /**
  * This file is part of NxtGenUtils.
@@ -45,57 +62,87 @@ import org.apache.commons.math.MathException;
  */
 public class MethylationProfiler {
 
-    //sequence name
-    //position
-    //reference base
-    //strand
-    //context
-    //sample x coverage
-    //sample x C
-    //sample x T
-    //sample x Other
-
-    static private String profileColumnLabels = "chr\t" +
-            "start\t" +
-            "end\t" +
-            "strand\t" +
-            "ref_context\t" +
-            "repeat_masked";
-
-    static private String[] sampleColumnLabels = {"smpl_context",
-            "c_count",
-            "ct_count",
-            "non_ct_count",
-            "m%",
-            "score",
-            "snp",
-            "indels"};
-
-    static Pattern cg = Pattern.compile("CG");
-    static Pattern tg = Pattern.compile("TG");
-    static Pattern ag_g = Pattern.compile("[AG]G");
-    static Pattern c_atc = Pattern.compile("C[ATC]");
-    static Pattern ca = Pattern.compile("CA");
-    static Pattern c_ct = Pattern.compile("C[CT]");
-    static Pattern c_act = Pattern.compile("C[ACT]");
-    static Pattern t_act = Pattern.compile("T[ACT]");
-    static Pattern ag_act = Pattern.compile("AG[ACT]");
-    static Pattern atg_atc = Pattern.compile("[ATG][ATC]");
-
     private int outputCounterForwardCpG = 0;
     private int outputCoutnerForwardNonCpG = 0;
     private int outputCounterReverseCpG = 0;
     private int outputCoutnerReverseNonCpG = 0;
 
-    private Map<String, Map<String, Long>> nonCpGContextCCount;
-    private Map<String, Map<String, Long>> nonCpGContextTCount;
+    private ContextSampleCounter nonCpGContextCCount;
+    private ContextSampleCounter nonCpGContextTCount;
+
+    //the index of the total of the non-CpG contexts
+    private int nonCpGTotalContext;
 
     private List<String> sampleNames;
 
+    //the pileups of the selected samples, see SKIPPED_SAMPLE
+    private PileupProjection projection;
+
     private Set<String> nonCpGContexts = new HashSet<String>();
 
     private static String NON_CPG_CONTEXT = "non-CpG-context";
 
+    //the single context of the counts the conversion rate is estimated from
+    private static final List<String> CONVERSION_RATE_CONTEXTS = Collections.singletonList("total");
+
+    /**
+     * sample name placeholder for samples that are not profiled
+     */
+    public static final String SKIPPED_SAMPLE = "-";
+
+    private int parserThreads = 1;
+    private int minBaseQuality = 0;
+    private int threads = 1;
+    private int sampleThreads = 1;
+    private boolean resume = false;
+
+    //the profile output of profile(List, File)
+    private File outputFile = null;
+
+    //the regions of the sample pileup that are profiled, null for the whole pileup
+    private TargetRegions targets = null;
+
+    //records are written if at least minSamples samples have a C/T coverage of minCtCoverage
+    private int minCtCoverage = 0;
+    private int minSamples = 1;
+
+    //records are written for the cytosine contexts (see SequenceContext) flagged by code, null for all cytosines
+    private boolean[] cytosineContexts = null;
+
+    //the length of the sequence contexts the cytosine contexts are classified from
+    private static final int CYTOSINE_CONTEXT_LENGTH = 3;
+
+    //the pool gathering the counts of the samples of a batch of positions, null if not parallel
+    private ForkJoinPool samplePool = null;
+
+    //the per sample counts of the di-nucleotide a record is generated for, see generateProfileRecord
+    private static final ThreadLocal<SiteCounts> SITE_COUNTS = new ThreadLocal<SiteCounts>() {
+        @Override
+        protected SiteCounts initialValue() {
+            return new SiteCounts();
+        }
+    };
+
+    /**
+     * path of the pileup input read from standard input
+     */
+    public static final String STANDARD_INPUT = "-";
+
+    //the binomial scores by sample name, see scoreProfileRecord
+    private Map<String, BinomialScoreTable> scoreTables = new ConcurrentHashMap<String, BinomialScoreTable>();
+
+    //streams can only be read once, so their parsers are kept for all passes
+    private Map<File, MultiPileupParser> streamParsers = new HashMap<File, MultiPileupParser>();
+
+    //the configuration of a profiler built with a Builder
+    private List<String> requestedSampleNames = null;
+    private TargetRegions requestedTargets = null;
+    private String conversionRateFrom = null;
+    private MultiPileupParser controlParser = null;
+
+    //the conversion rate the records of a Builder profiler are scored with
+    private Map<String, Double> conversionRate = null;
+
     /**
      * the log4j logger
      */
@@ -114,6 +161,9 @@ public class MethylationProfiler {
     }
 
     /**
+     * Profiles the sample pileup with the default settings, see Builder and
+     * profile(List, File) for the other settings.
+     *
      * @param mPileupSample
      * @param mPileupControl
      * @param outputFile
@@ -122,147 +172,999 @@ public class MethylationProfiler {
      * @param sampleNames
      */
     public MethylationProfiler(File mPileupSample, File mPileupControl, File outputFile, String estimateBisulfiteConversionRateFrom, List<String> sampleNames) {
+        this(new Builder().setSampleNames(sampleNames).setConversionRateFrom(estimateBisulfiteConversionRateFrom).setOutputFile(outputFile));
+        profile(Collections.singletonList(mPileupSample), mPileupControl);
+    }
+
+    /**
+     * Constructs a profiler that profiles pileups in process, see Builder.
+     * Nothing is read or written before a pileup is profiled.
+     *
+     * @param builder the configuration
+     */
+    private MethylationProfiler(Builder builder) {
+
+        this.requestedSampleNames = builder.sampleNames;
+        this.requestedTargets = builder.targets;
+        this.minCtCoverage = builder.minCtCoverage;
+        this.minSamples = builder.minSamples;
+        this.cytosineContexts = getCytosineContexts(builder.cytosineContexts);
+        this.minBaseQuality = builder.minBaseQuality;
+        this.conversionRate = builder.conversionRate;
+        this.conversionRateFrom = builder.conversionRateFrom;
+        this.controlParser = builder.controlParser;
+        this.outputFile = builder.outputFile;
+        this.threads = Math.max(1, builder.threads);
+        this.parserThreads = builder.parserThreads;
+        this.sampleThreads = builder.sampleThreads;
+        this.resume = builder.resume;
+
+        if (conversionRateFrom != null && conversionRateFrom.equals("")) {
+            conversionRateFrom = NON_CPG_CONTEXT;
+        }
+
+        initializeNonCpGContexts();
+
+    }
+
+    /**
+     * Profiles the sample pileup and writes the profile to the output file
+     * (see Builder.setOutputFile(File)), a BGZF compressed and indexed file
+     * with the suffix .gz. The conversion rates are reported and written
+     * next to the output file, errors are logged and exit the process.
+     * <p/>
+     * The sample and control pileups may be streams, e.g. standard input
+     * (see STANDARD_INPUT) or a named pipe. If the conversion rate is
+     * estimated from a sample stream, the stream is copied to a temporary
+     * file next to the output file while it is read for the estimation and
+     * the profiles are generated from the copy.
+     * <p/>
+     * The sample pileup is profiled on several threads, one reference
+     * sequence (contig) or file at a time, if it is indexed (see
+     * MultiPileupParser.getSequenceNames()) or has been split into several
+     * files (see Builder.setThreads(int)).
+     *
+     * @param mPileupSamples the sample pileup, or the parts of the sample
+     *                       pileup in input order, e.g. one file per contig
+     * @param mPileupControl the control pileup the conversion rate is
+     *                       estimated from, or null to estimate it from
+     *                       the sample pileup
+     * @throws IllegalStateException if no output file is set
+     */
+    public void profile(List<File> mPileupSamples, File mPileupControl) {
+
+        if (outputFile == null) {
+            throw new IllegalStateException("No output file is set, see Builder.setOutputFile(File).");
+        }
+
+        String estimateBisulfiteConversionRateFrom = conversionRateFrom;
+
+        //the profile records are scored with the conversion rate of the
+        //whole sample pileup, so a sample stream is read twice from a copy
+        Map<File, File> spoolFiles = new HashMap<File, File>();
+        if (estimateBisulfiteConversionRateFrom != null && mPileupControl == null) {
+            for (File mPileupSample : mPileupSamples) {
+                if (isStream(mPileupSample)) {
+                    File spoolFile = createSpoolFile(outputFile);
+                    streamParsers.put(mPileupSample, createStreamParser(mPileupSample, spoolFile));
+                    spoolFiles.put(mPileupSample, spoolFile);
+                }
+            }
+        }
+
+        int sampleCount = getSampleCount(mPileupSamples.get(0));
+
+        List<String> sampleNames = requestedSampleNames;
+        if (sampleNames == null) {
+            sampleNames = generateSampleNames(sampleCount);
+        }
+
+        selectSamples(sampleNames, sampleCount);
+
+        initializeNonCpGCountMaps(this.sampleNames);
+
+        //too few samples to split are gathered by the thread reading the pileup
+        if (sampleThreads > 1 && this.sampleNames.size() > SampleRangeTask.MIN_TASK_SAMPLES) {
+            samplePool = new ForkJoinPool(sampleThreads);
+        }
+
+        if (requestedTargets != null) {
+            this.targets = getProfiledRegions(requestedTargets, mPileupControl == null ? estimateBisulfiteConversionRateFrom : null);
+        }
+
+        Map<String, Double> bisulfiteConversionRate = conversionRate;
+        if (bisulfiteConversionRate != null) {
+            for (String sampleName : this.sampleNames) {
+                if (!bisulfiteConversionRate.containsKey(sampleName)) {
+                    logger.error("No conversion rate given for sample: " + sampleName);
+                    System.exit(1);
+                }
+            }
+        }
 
-        if (estimateBisulfiteConversionRateFrom != null && estimateBisulfiteConversionRateFrom.equals("")) {
-            estimateBisulfiteConversionRateFrom = NON_CPG_CONTEXT;
+        if (estimateBisulfiteConversionRateFrom != null) {
+
+            logger.info("Estimating bisulfite conversionr rate...");
+
+            if (mPileupControl != null) {
+                bisulfiteConversionRate = estimateBisulfiteConversionRate(getConversionRateCursor(createPileupParser(mPileupControl), estimateBisulfiteConversionRateFrom, null), estimateBisulfiteConversionRateFrom, null);
+            } else {
+                bisulfiteConversionRate = estimateBisulfiteConversionRate(getSampleConversionRateCursor(mPileupSamples, estimateBisulfiteConversionRateFrom, !spoolFiles.isEmpty()), estimateBisulfiteConversionRateFrom, targets);
+            }
+
+            reportConversionRate(bisulfiteConversionRate, outputFile, estimateBisulfiteConversionRateFrom);
+
+        }
+
+        if (!spoolFiles.isEmpty()) {
+            List<File> spooledSamples = new ArrayList<File>();
+            for (File mPileupSample : mPileupSamples) {
+                spooledSamples.add(spoolFiles.containsKey(mPileupSample) ? spoolFiles.get(mPileupSample) : mPileupSample);
+            }
+            mPileupSamples = spooledSamples;
         }
 
-        int sampleCount = getSampleCount(mPileupSample);
+        List<ProfileUnit> profileUnits = getProfileUnits(mPileupSamples, threads);
+
+        if (profileUnits == null) {
+            if (resume) {
+                logger.warn("Sample pileup cannot be split by contig, profiling without checkpoints.");
+            }
+            profile(mPileupSamples, outputFile, estimateBisulfiteConversionRateFrom, bisulfiteConversionRate);
+        } else {
+            profileUnits(profileUnits, Math.max(1, threads), outputFile, estimateBisulfiteConversionRateFrom, bisulfiteConversionRate);
+        }
+
+        if (samplePool != null) {
+            samplePool.shutdown();
+        }
+
+        logger.info("--------------------------------------------------------");
+        logger.info("non-CpG conversion rate");
+
+        printNonCpGConversionRate();
+
+        String conversionRateOutputPath = outputFile.getAbsolutePath() + "." + NON_CPG_CONTEXT + ".conversion.rate.detailed.tsv";
+        writeNonCpGConversionRate(conversionRateOutputPath);
+
+        for (File spoolFile : spoolFiles.values()) {
+            if (!spoolFile.delete()) {
+                logger.warn("Could not delete temporary pileup file: " + spoolFile.getAbsolutePath());
+            }
+        }
+
+    }
+
+    /**
+     * Profiles the pileups of a parser and passes the profile records to a
+     * handler, see iterator(MultiPileupParser).
+     *
+     * @param pileupParser the sample pileup parser
+     * @param handler      the handler of the profile records
+     * @throws IOException if the handler fails to handle a record
+     */
+    public void profile(MultiPileupParser pileupParser, MethylationProfileRecordHandler handler) throws IOException {
+        handleProfileRecords(iterator(pileupParser), handler);
+    }
+
+    /**
+     * Profiles a sequence of pileup records and passes the profile records
+     * to a handler, see iterator(Iterator).
+     *
+     * @param multiPileups the sample pileup records in pileup order
+     * @param handler      the handler of the profile records
+     * @throws IOException if the handler fails to handle a record
+     */
+    public void profile(Iterator<MultiPileup> multiPileups, MethylationProfileRecordHandler handler) throws IOException {
+        handleProfileRecords(iterator(multiPileups), handler);
+    }
+
+    /**
+     * Returns an iterator over the profile records of the pileups of a
+     * parser, which generates the records as the pileups are read. The
+     * samples are selected and the minimum base quality is set on the
+     * parser. If the conversion rate is estimated and no control pileup
+     * is given, it is estimated from the parser in a pass of its own
+     * before the iterator is returned, so the parser must not read a
+     * stream. The pass is restricted to the control sequence, if the rate
+     * is estimated from one, which is sought if the pileup is indexed. The
+     * parser is restricted to the target regions, if any.
+     *
+     * @param pileupParser the sample pileup parser
+     * @return the profile records in pileup order
+     */
+    public Iterator<MethylationProfileRecord> iterator(MultiPileupParser pileupParser) {
+
+        prepareSamples(pileupParser.getPileupCount() / 2);
+        pileupParser.setProjection(projection);
+        pileupParser.setMinBaseQuality(minBaseQuality);
+        pileupParser.setTargets(targets);
+
+        conversionRate = resolveConversionRate(pileupParser);
+
+        return new ProfileRecordIterator(getContextWindowCursor(pileupParser.cursor()));
+
+    }
+
+    /**
+     * Returns an iterator over the profile records of a sequence of pileup
+     * records, which generates the records as the pileups are read. The
+     * pileup records must hold the pileups of all samples, as samples
+     * cannot be skipped, and a conversion rate can only be estimated from
+     * a control pileup. Records outside the target regions, if any, are
+     * not profiled.
+     *
+     * @param multiPileups the sample pileup records in pileup order
+     * @return the profile records in pileup order
+     * @throws IllegalArgumentException if samples are skipped
+     */
+    public Iterator<MethylationProfileRecord> iterator(Iterator<MultiPileup> multiPileups) {
+
+        MultiPileupCursor pileupCursor = getContextWindowCursor(new IteratorMultiPileupCursor(multiPileups, null));
+
+        //the first record is read for its number of samples and becomes the
+        //previous record of the first di-nucleotide position
+        int sampleCount = 0;
+        if (pileupCursor.next()) {
+            sampleCount = pileupCursor.getCurrent().getPileupCount() / 2;
+        }
+
+        prepareSamples(sampleCount);
+
+        if (this.sampleNames.size() < sampleCount) {
+            throw new IllegalArgumentException("Samples cannot be skipped when profiling pileup records: " + this.sampleNames.size() + " sample names for " + sampleCount + " samples.");
+        }
+
+        conversionRate = resolveConversionRate(null);
+
+        return new ProfileRecordIterator(pileupCursor);
+
+    }
+
+    /**
+     * Returns the names of the profiled samples in the order of the sample
+     * records of the profile records.
+     *
+     * @return the sample names or null before a pileup is profiled
+     */
+    public List<String> getSampleNames() {
+        return sampleNames == null ? null : Collections.unmodifiableList(sampleNames);
+    }
+
+    /**
+     * Returns the conversion rate the profile records are scored with.
+     *
+     * @return the conversion rate by sample name, null if the records are
+     *         not scored
+     */
+    public Map<String, Double> getConversionRate() {
+        return conversionRate;
+    }
+
+    /**
+     * Returns the conversion rate of a non-CpG context of the positions
+     * profiled so far, if the conversion rate is estimated.
+     *
+     * @param context the non-CpG context, e.g. CA or total
+     * @return the conversion rate by sample name, -1 for samples without
+     *         C or T calls in the context
+     * @throws IllegalArgumentException if the context is not a non-CpG context
+     */
+    public Map<String, Double> getNonCpGConversionRate(String context) {
+
+        if (nonCpGContextCCount == null) {
+            throw new IllegalStateException("No pileup has been profiled.");
+        }
+
+        int contextIndex = nonCpGContextCCount.getContextIndex(context);
+        if (contextIndex < 0) {
+            throw new IllegalArgumentException("Unknown non-CpG context: " + context);
+        }
+
+        return calculateBisfulfiteConversionRate(nonCpGContextCCount, nonCpGContextTCount, contextIndex);
+
+    }
+
+    /**
+     * Selects the samples of a pileup for a Builder profiler and resets the
+     * non-CpG counts.
+     *
+     * @param sampleCount the number of samples of the pileup
+     */
+    private void prepareSamples(int sampleCount) {
+
+        List<String> names = requestedSampleNames;
+        if (names == null) {
+            names = generateSampleNames(sampleCount);
+        }
+
+        selectSamples(names, sampleCount);
+        initializeNonCpGCountMaps(this.sampleNames);
+
+        if (requestedTargets != null) {
+            targets = getProfiledRegions(requestedTargets, controlParser == null ? conversionRateFrom : null);
+        }
+
+    }
+
+    /**
+     * Returns the conversion rate the records of a Builder profiler are
+     * scored with, which is estimated from the control pileup or the
+     * sample pileup if it is not given.
+     *
+     * @param pileupParser the sample pileup parser, null if the sample
+     *                     pileup can only be read once
+     * @return the conversion rate by sample name or null if the records
+     *         are not scored
+     */
+    private Map<String, Double> resolveConversionRate(MultiPileupParser pileupParser) {
+
+        if (conversionRateFrom == null) {
+
+            if (conversionRate != null) {
+                for (String sampleName : sampleNames) {
+                    if (!conversionRate.containsKey(sampleName)) {
+                        throw new IllegalArgumentException("No conversion rate given for sample: " + sampleName);
+                    }
+                }
+            }
+
+            return conversionRate;
+
+        }
+
+        MultiPileupParser estimationParser = controlParser != null ? controlParser : pileupParser;
+        if (estimationParser == null) {
+            throw new IllegalStateException("The conversion rate cannot be estimated from pileup records that are read once, a control pileup or a conversion rate is required.");
+        }
+
+        estimationParser.setProjection(projection);
+        estimationParser.setMinBaseQuality(minBaseQuality);
+
+        logger.info("Estimating bisulfite conversionr rate...");
+
+        TargetRegions estimationTargets = controlParser != null ? null : targets;
+
+        return estimateBisulfiteConversionRate(getConversionRateCursor(estimationParser, conversionRateFrom, estimationTargets), conversionRateFrom, estimationTargets);
+
+    }
+
+    private void handleProfileRecords(Iterator<MethylationProfileRecord> profileRecords, MethylationProfileRecordHandler handler) throws IOException {
+
+        while (profileRecords.hasNext()) {
+            handler.handle(profileRecords.next());
+        }
+
+    }
+
+    /**
+     * Profiles a sample pileup on the current thread.
+     *
+     * @param mPileupSamples the sample pileup, or the parts of the sample
+     *                       pileup in input order (see PartsCursor)
+     * @param outputFile     the profile output file
+     * @param estimateBisulfiteConversionRateFrom
+     *                       the control sequence name, NON_CPG_CONTEXT or null
+     * @param conversionRate the conversion rate by sample name, null if it
+     *                       is not estimated
+     */
+    private void profile(List<File> mPileupSamples, File outputFile, String estimateBisulfiteConversionRateFrom, Map<String, Double> conversionRate) {
 
-        if (sampleNames != null) {
-            this.sampleNames = sampleNames;
+        MultiPileupCursor pileupCursor;
+        if (mPileupSamples.size() > 1) {
+            pileupCursor = new PartsCursor(this, mPileupSamples, targets);
         } else {
-            this.sampleNames = generateSampleNames(sampleCount);
+            MultiPileupParser pileupParser = createPileupParser(mPileupSamples.get(0));
+            pileupParser.setTargets(targets);
+            pileupCursor = pileupParser.cursor();
+        }
+
+        pileupCursor = getContextWindowCursor(pileupCursor);
+
+        SampleParallelCursor sampleCursor = null;
+        if (samplePool != null) {
+            sampleCursor = new SampleParallelCursor(this, pileupCursor, targets, samplePool);
+            pileupCursor = sampleCursor;
+        }
+
+        //the output is compressed to BGZF blocks on the deflater threads
+        File profileFile = new File(outputFile.getAbsolutePath() + ".gz");
+        ParallelBgzfOutputStream outputStream = null;
+
+        try {
+            outputStream = new ParallelBgzfOutputStream(profileFile, threads);
+        } catch (IOException e) {
+            logger.error("Exception while opening output file: " + outputFile.getAbsolutePath(), e);
+            System.exit(1);
+        }
+
+        //the records are formatted on the thread of the writer, which prints
+        //the header once the first position has been read
+        MethylationProfileWriter profileWriter = null;
+
+        logger.info("Generating methylation profiles...");
+
+        int lineCounter = 0;
+        while (pileupCursor.next()) {
+
+            lineCounter++;
+
+            if (lineCounter % 1000000 == 0) {
+                logger.info(lineCounter + " lines processed");
+            }
+
+            MultiPileup previousMultiPileup = pileupCursor.getPrevious();
+            MultiPileup currentMultiPileup = pileupCursor.getCurrent();
+
+            if (previousMultiPileup != null && isTargetPair(targets, previousMultiPileup, currentMultiPileup)) {
+
+                MethylationProfileRecord profileRecordForwardStrand = generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.FORWARD, this.sampleNames, estimateBisulfiteConversionRateFrom, nonCpGContextCCount, nonCpGContextTCount, null,
+                        sampleCursor != null ? sampleCursor.getSiteCounts(Strand.FORWARD) : null);
+                MethylationProfileRecord profileRecordReverseStrand = generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.REVERSE, this.sampleNames, estimateBisulfiteConversionRateFrom, nonCpGContextCCount, nonCpGContextTCount, null,
+                        sampleCursor != null ? sampleCursor.getSiteCounts(Strand.REVERSE) : null);
+                profileRecordForwardStrand = selectContext(profileRecordForwardStrand, pileupCursor, Strand.FORWARD);
+                profileRecordReverseStrand = selectContext(profileRecordReverseStrand, pileupCursor, Strand.REVERSE);
+
+                handleProfileRecord(profileWriter, profileRecordForwardStrand, conversionRate, outputFile);
+                handleProfileRecord(profileWriter, profileRecordReverseStrand, conversionRate, outputFile);
+
+            } else if (profileWriter == null) {
+                profileWriter = openProfileWriter(outputStream, profileFile);
+            }
+
+        }
+
+        logger.info(lineCounter + " lines processed");
+
+        try {
+
+            if (profileWriter != null) {
+                profileWriter.close();
+            } else {
+                outputStream.close();
+            }
+
+        } catch (IOException e) {
+            logger.error("Exception while writing output file: " + outputFile.getAbsolutePath(), e);
+            System.exit(1);
+        }
+
+    }
+
+    /**
+     * Starts the writer of the profile, which prints the header.
+     *
+     * @param outputStream the stream of the profile file
+     * @param profileFile  the BGZF compressed profile file
+     * @return the profile writer
+     */
+    private MethylationProfileWriter openProfileWriter(ParallelBgzfOutputStream outputStream, File profileFile) {
+
+        MethylationProfileWriter retVal = null;
+
+        try {
+            retVal = new MethylationProfileWriter(outputStream, profileFile, this.sampleNames);
+        } catch (IOException e) {
+            logger.error("Exception while writing output file: " + profileFile.getAbsolutePath(), e);
+            System.exit(1);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Profiles the parts of a sample pileup (see ProfileUnit) on several
+     * threads. Each part is profiled into a temporary block of BGZF blocks
+     * of its own, and the blocks are concatenated in input order, which
+     * yields a valid BGZF file. The concatenated profile is indexed
+     * afterwards. The non-CpG counts are accumulated per part and added up
+     * in input order. The records of the
+     * di-nucleotide positions made of the last position of one part and the
+     * first position of the next part, which a single pass over the pileup
+     * generates as well, are generated from copies of these positions once
+     * all parts have been profiled.
+     *
+     * @param profileUnits   the parts of the sample pileup in input order
+     * @param threads        the number of threads
+     * @param outputFile     the profile output file
+     * @param estimateBisulfiteConversionRateFrom
+     *                       the control sequence name, NON_CPG_CONTEXT or null
+     * @param conversionRate the conversion rate by sample name, null if it
+     *                       is not estimated
+     */
+    private void profileUnits(List<ProfileUnit> profileUnits, int threads, final File outputFile, final String estimateBisulfiteConversionRateFrom,
+                              final Map<String, Double> conversionRate) {
+
+        logger.info("Generating methylation profiles of " + profileUnits.size() + " pileup parts on " + threads + " threads...");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            int threadCounter = 0;
+
+            public Thread newThread(Runnable runnable) {
+                Thread retVal = new Thread(runnable, "methylation-profiler-" + (++threadCounter));
+                retVal.setDaemon(true);
+                return retVal;
+            }
+
+        });
+
+        ProfileCheckpoint checkpoint = null;
+        if (resume) {
+            try {
+                checkpoint = new ProfileCheckpoint(outputFile, formatManifest(profileUnits, estimateBisulfiteConversionRateFrom, conversionRate));
+            } catch (IOException e) {
+                logger.error("Exception while opening checkpoint of output file: " + outputFile.getAbsolutePath(), e);
+                System.exit(1);
+            }
+        }
+
+        final ProfileCheckpoint unitCheckpoint = checkpoint;
+        List<Future<ProfileBlock>> futures = new ArrayList<Future<ProfileBlock>>();
+        for (int i = 0; i < profileUnits.size(); i++) {
+
+            final ProfileUnit profileUnit = profileUnits.get(i);
+            final int part = i;
+
+            futures.add(executor.submit(new Callable<ProfileBlock>() {
+                public ProfileBlock call() throws IOException {
+
+                    if (unitCheckpoint == null) {
+                        File blockFile = createTemporaryFile(outputFile, ".block");
+                        return profileUnit(profileUnit, blockFile, estimateBisulfiteConversionRateFrom, conversionRate);
+                    }
+
+                    if (unitCheckpoint.isComplete(part)) {
+                        logger.info(profileUnit + ": restored from checkpoint");
+                        return unitCheckpoint.restore(part, createProfileBlock(unitCheckpoint.getBlockFile(part)));
+                    }
+
+                    ProfileBlock retVal = profileUnit(profileUnit, unitCheckpoint.getBlockFile(part), estimateBisulfiteConversionRateFrom, conversionRate);
+                    unitCheckpoint.commit(part, retVal);
+
+                    return retVal;
+
+                }
+            }));
+
+        }
+
+        List<ProfileBlock> blocks = getResults(futures);
+
+        //add up the counts in input order
+        int lineCounter = 0;
+        for (ProfileBlock block : blocks) {
+            lineCounter += block.lineCounter;
+            nonCpGContextCCount.merge(block.nonCpGContextCCount);
+            nonCpGContextTCount.merge(block.nonCpGContextTCount);
+        }
+
+        //di-nucleotide positions spanning two parts
+        for (int i = 0; i < blocks.size(); i++) {
+
+            ProfileBlock block = blocks.get(i);
+            ProfileBlock nextBlock = null;
+            for (int j = i + 1; j < blocks.size() && nextBlock == null; j++) {
+                if (blocks.get(j).firstMultiPileup != null) {
+                    nextBlock = blocks.get(j);
+                }
+            }
+
+            if (block.lastMultiPileup == null || nextBlock == null || !isTargetPair(targets, block.lastMultiPileup, nextBlock.firstMultiPileup)) {
+                continue;
+            }
+
+            MethylationProfileRecord profileRecordForwardStrand = generateProfileRecord(block.lastMultiPileup, nextBlock.firstMultiPileup, Strand.FORWARD, this.sampleNames, estimateBisulfiteConversionRateFrom, nonCpGContextCCount, nonCpGContextTCount, null);
+            MethylationProfileRecord profileRecordReverseStrand = generateProfileRecord(block.lastMultiPileup, nextBlock.firstMultiPileup, Strand.REVERSE, this.sampleNames, estimateBisulfiteConversionRateFrom, nonCpGContextCCount, nonCpGContextTCount, null);
+            if (cytosineContexts != null) {
+                //the parts are contigs, the contexts of the di-nucleotide end at the contigs
+                MultiPileupCursor boundaryCursor = getContextWindowCursor(new IteratorMultiPileupCursor(Arrays.asList(block.lastMultiPileup, nextBlock.firstMultiPileup).iterator(), null));
+                boundaryCursor.next();
+                boundaryCursor.next();
+                profileRecordForwardStrand = selectContext(profileRecordForwardStrand, boundaryCursor, Strand.FORWARD);
+                profileRecordReverseStrand = selectContext(profileRecordReverseStrand, boundaryCursor, Strand.REVERSE);
+            }
+
+            if (profileRecordForwardStrand != null) {
+                block.boundaryRecords.add(profileRecordForwardStrand);
+            }
+            if (profileRecordReverseStrand != null) {
+                block.boundaryRecords.add(profileRecordReverseStrand);
+            }
+
+        }
+
+        logger.info(lineCounter + " lines processed");
+
+        executor.shutdown();
+
+        logger.info("Concatenating methylation profile blocks...");
+
+        File profileFile = new File(outputFile.getAbsolutePath() + ".gz");
+        OutputStream outputStream = null;
+
+        try {
+
+            outputStream = new BufferedOutputStream(new FileOutputStream(profileFile), 1024 * 1024);
+
+            if (lineCounter > 0) {
+                BgzfOutputStream member = new BgzfOutputStream(outputStream);
+                PrintWriter pw = new PrintWriter(member);
+                pw.println(formatHeader());
+                pw.flush();
+                member.finish();
+            }
+
+            for (ProfileBlock block : blocks) {
+
+                copyFile(block.file, outputStream);
+                if (checkpoint == null && !block.file.delete()) {
+                    logger.warn("Could not delete temporary profile file: " + block.file.getAbsolutePath());
+                }
+
+                if (!block.boundaryRecords.isEmpty()) {
+                    BgzfOutputStream member = new BgzfOutputStream(outputStream);
+                    PrintWriter pw = new PrintWriter(member);
+                    for (MethylationProfileRecord profileRecord : block.boundaryRecords) {
+                        printProfileRecord(pw, profileRecord, conversionRate);
+                    }
+                    pw.flush();
+                    member.finish();
+                }
+
+            }
+
+            outputStream.write(BgzfBlock.EOF_BLOCK);
+            outputStream.close();
+
+        } catch (IOException e) {
+            logger.error("Exception while writing output file: " + outputFile.getAbsolutePath(), e);
+            System.exit(1);
+        }
+
+        if (lineCounter > 0) {
+
+            logger.info("Indexing methylation profile...");
+
+            try {
+                MethylationProfileWriter.writeIndex(TabixIndexBuilder.forMethylationProfile().index(profileFile), profileFile);
+            } catch (IOException e) {
+                logger.error("Exception while indexing output file: " + profileFile.getAbsolutePath(), e);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Methylation profile is not indexed: " + e.getMessage());
+            }
+
+        }
+
+        if (checkpoint != null) {
+            checkpoint.delete();
+        }
+
+    }
+
+    /**
+     * Returns the manifest of a checkpointed run, which identifies the input
+     * and the arguments of the run, so that a checkpoint is only resumed by
+     * the same run.
+     */
+    private String formatManifest(List<ProfileUnit> profileUnits, String estimateBisulfiteConversionRateFrom, Map<String, Double> conversionRate) {
+
+        StringBuilder retVal = new StringBuilder();
+
+        for (ProfileUnit profileUnit : profileUnits) {
+            retVal.append("part\t").append(profileUnit.mPileup.getAbsolutePath()).append("\t").append(profileUnit.mPileup.length())
+                    .append("\t").append(profileUnit.mPileup.lastModified()).append("\t").append(profileUnit.sequenceName).append("\n");
+        }
+
+        retVal.append("samples\t").append(projection).append("\t").append(this.sampleNames).append("\n");
+        retVal.append("minBaseQuality\t").append(minBaseQuality).append("\n");
+        if (targets != null) {
+            retVal.append("targets\t").append(targets.getRegionCount()).append("\t").append(targets.hashCode()).append("\n");
+        }
+        if (minCtCoverage > 0 || minSamples > 1) {
+            retVal.append("coverageThreshold\t").append(minCtCoverage).append("\t").append(minSamples).append("\n");
+        }
+        if (cytosineContexts != null) {
+            retVal.append("cytosineContexts\t").append(Arrays.toString(cytosineContexts)).append("\n");
+        }
+        retVal.append("conversionRateFrom\t").append(estimateBisulfiteConversionRateFrom).append("\n");
+
+        if (conversionRate != null) {
+            for (String sampleName : this.sampleNames) {
+                retVal.append("conversionRate\t").append(sampleName).append("\t").append(conversionRate.get(sampleName)).append("\n");
+            }
+        }
+
+        return retVal.toString();
+
+    }
+
+    /**
+     * Profiles a part of the sample pileup into a temporary block, which
+     * holds the BGZF blocks of the formatted profile records without an end
+     * of file marker.
+     */
+    private ProfileBlock profileUnit(ProfileUnit profileUnit, File blockFile, String estimateBisulfiteConversionRateFrom,
+                                     Map<String, Double> conversionRate) throws IOException {
+
+        ProfileBlock retVal = createProfileBlock(blockFile);
+
+        OutputStream outputStream = new FileOutputStream(retVal.file);
+        BgzfOutputStream bgzfStream = new BgzfOutputStream(outputStream);
+        PrintWriter pw = new PrintWriter(bgzfStream);
+
+        MultiPileupCursor pileupCursor = getContextWindowCursor(profileUnit.cursor(createPileupParser(profileUnit.mPileup), targets));
+
+        SampleParallelCursor sampleCursor = null;
+        if (samplePool != null) {
+            sampleCursor = new SampleParallelCursor(this, pileupCursor, targets, samplePool);
+            pileupCursor = sampleCursor;
+        }
+
+        while (pileupCursor.next()) {
+
+            retVal.lineCounter++;
+
+            MultiPileup previousMultiPileup = pileupCursor.getPrevious();
+            MultiPileup currentMultiPileup = pileupCursor.getCurrent();
+
+            if (previousMultiPileup == null) {
+                //a cursor seeking to the next target region drops the previous record
+                if (retVal.firstMultiPileup == null) {
+                    retVal.firstMultiPileup = BinaryMultiPileup.copyOf(currentMultiPileup);
+                }
+                continue;
+            }
+
+            if (!isTargetPair(targets, previousMultiPileup, currentMultiPileup)) {
+                continue;
+            }
+
+            MethylationProfileRecord profileRecordForwardStrand = generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.FORWARD, this.sampleNames, estimateBisulfiteConversionRateFrom, retVal.nonCpGContextCCount, retVal.nonCpGContextTCount, null,
+                    sampleCursor != null ? sampleCursor.getSiteCounts(Strand.FORWARD) : null);
+            MethylationProfileRecord profileRecordReverseStrand = generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.REVERSE, this.sampleNames, estimateBisulfiteConversionRateFrom, retVal.nonCpGContextCCount, retVal.nonCpGContextTCount, null,
+                    sampleCursor != null ? sampleCursor.getSiteCounts(Strand.REVERSE) : null);
+            profileRecordForwardStrand = selectContext(profileRecordForwardStrand, pileupCursor, Strand.FORWARD);
+            profileRecordReverseStrand = selectContext(profileRecordReverseStrand, pileupCursor, Strand.REVERSE);
+
+            printProfileRecord(pw, profileRecordForwardStrand, conversionRate);
+            printProfileRecord(pw, profileRecordReverseStrand, conversionRate);
+
+        }
+
+        if (retVal.lineCounter > 0) {
+            //the last position of the part pairs up with the first position of the next part
+            retVal.lastMultiPileup = BinaryMultiPileup.copyOf(pileupCursor.getCurrent());
+        }
+
+        pw.flush();
+        bgzfStream.finish();
+        outputStream.close();
+
+        logger.info(profileUnit + ": " + retVal.lineCounter + " lines processed");
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns an empty block of a part of the sample pileup.
+     */
+    private ProfileBlock createProfileBlock(File blockFile) {
+        return new ProfileBlock(blockFile, createNonCpGCounter(sampleNames), createNonCpGCounter(sampleNames));
+    }
+
+    /**
+     * Returns the results of tasks in the order of the tasks. Exits if a
+     * task has failed.
+     */
+    private <T> List<T> getResults(List<Future<T>> futures) {
+
+        List<T> retVal = new ArrayList<T>();
+
+        for (Future<T> future : futures) {
+            try {
+                retVal.add(future.get());
+            } catch (InterruptedException e) {
+                logger.error("Interrupted while generating methylation profiles.", e);
+                System.exit(1);
+            } catch (ExecutionException e) {
+                logger.error("Exception while generating methylation profiles.", e.getCause());
+                System.exit(1);
+            }
         }
 
-        nonCpGContexts.add("CT");
-        nonCpGContexts.add("CA");
-        nonCpGContexts.add("CC");
-        nonCpGContexts.add("total");
-
-        initializeNonCpGCountMaps(this.sampleNames);
+        return retVal;
 
-        Map<String, Double> bisulfiteConversionRate = null;
-        if (estimateBisulfiteConversionRateFrom != null) {
+    }
 
-            logger.info("Estimating bisulfite conversionr rate...");
-            File mPileupConversionRate = mPileupSample;
-            if (mPileupControl != null) {
-                mPileupConversionRate = mPileupControl;
-            }
+    /**
+     * Returns the parts of the sample pileup to profile on separate threads,
+     * or null if the sample pileup is profiled on the current thread. A
+     * sample pileup that has been split into several files is profiled one
+     * file at a time. A single sample pileup file is profiled one reference
+     * sequence at a time if it is indexed and more than one thread is used.
+     *
+     * @param mPileupSamples the sample pileup files
+     * @param threads        the number of threads
+     * @return the parts of the sample pileup or null
+     */
+    private List<ProfileUnit> getProfileUnits(List<File> mPileupSamples, int threads) {
 
-            bisulfiteConversionRate = estimateBisulfiteConversionRate(mPileupConversionRate, estimateBisulfiteConversionRateFrom);
+        List<ProfileUnit> retVal = new ArrayList<ProfileUnit>();
 
-            NumberFormat formatter = new DecimalFormat("#.#");
-            for (String name : this.sampleNames) {
-                double rate = bisulfiteConversionRate.get(name);
-                if (rate < 0) {
-                    logger.info(name + ": -");
-                } else {
-                    logger.info(name + ": " + formatter.format(rate * 100.0) + "%");
-                }
+        if (mPileupSamples.size() > 1) {
+            //the cytosine contexts at the ends of a part extend into the adjacent parts
+            if (cytosineContexts != null) {
+                logger.warn("Cytosine contexts span the parts of the sample pileup, profiling on a single thread.");
+                return null;
             }
-
-            //print conversion rates to file
-            String conversionRateOutputPath = outputFile.getAbsolutePath() + "." + NON_CPG_CONTEXT + ".conversion.rate.tsv";
-            if (!estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT)) {
-                conversionRateOutputPath = outputFile.getAbsolutePath() + "." + estimateBisulfiteConversionRateFrom + ".conversion.rate.tsv";
+            for (File mPileup : mPileupSamples) {
+                retVal.add(new ProfileUnit(mPileup, null));
             }
+            return retVal;
+        }
 
-            logger.info("Writing bisulfite conversionr rate to " + conversionRateOutputPath + "...");
-            writeConversionRate(bisulfiteConversionRate, conversionRateOutputPath);
-            logger.info("--------------------------------------------------------");
+        File mPileup = mPileupSamples.get(0);
 
+        //checkpoints are taken by contig on a single thread as well
+        if (threads < 2 && !resume) {
+            return null;
         }
 
-        MultiPileupParser pileupParser = new SimpleMultiPileupParser(mPileupSample);
-        Iterator<MultiPileup> pileupIterator = pileupParser.iterator();
+        if (isStream(mPileup)) {
+            logger.warn("Pileup streams cannot be split by reference sequence, profiling on a single thread.");
+            return null;
+        }
 
-        GZIPOutputStream outputStream = null;
+        List<String> sequenceNames = createPileupParser(mPileup).getSequenceNames();
+        if (sequenceNames == null) {
+            logger.warn("Pileup file is not indexed, profiling on a single thread: " + mPileup.getAbsolutePath());
+            return null;
+        }
 
-        try {
-            outputStream = new GZIPOutputStream(new FileOutputStream(outputFile.getAbsolutePath() + ".gz"));
-        } catch (IOException e) {
-            logger.error("Exception while opening output file: " + outputFile.getAbsolutePath(), e);
-            System.exit(1);
+        for (String sequenceName : sequenceNames) {
+            if (targets == null || targets.hasSequence(sequenceName)) {
+                retVal.add(new ProfileUnit(mPileup, sequenceName));
+            }
         }
 
-        PrintWriter pw = new PrintWriter(outputStream);
+        return retVal;
 
-        logger.info("Generating methylation profiles...");
+    }
 
-        MultiPileup previousMultiPileup = null;
-        int lineCounter = 0;
-        while (pileupIterator.hasNext()) {
+    private void copyFile(File file, OutputStream out) throws IOException {
 
-            lineCounter++;
+        InputStream in = new FileInputStream(file);
 
-            if (lineCounter % 1000000 == 0) {
-                logger.info(lineCounter + " lines processed");
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
             }
+        } finally {
+            in.close();
+        }
 
-            MultiPileup currentMultiPileup = pileupIterator.next();
-
-            if (previousMultiPileup != null) {
+    }
 
-                MethylationProfileRecord profileRecordForwardStrand = generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.FORWARD, this.sampleNames, estimateBisulfiteConversionRateFrom);
-                MethylationProfileRecord profileRecordReverseStrand = generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.REVERSE, this.sampleNames, estimateBisulfiteConversionRateFrom);
+    /**
+     * Returns the header line of the profile.
+     *
+     * @return the header line
+     */
+    private String formatHeader() {
+        return MethylationProfileWriter.formatHeader(this.sampleNames);
+    }
 
-                if (profileRecordForwardStrand != null) {
+    /**
+     * Returns the conversion rate counts the C and T counts of a
+     * di-nucleotide position are added to (see generateProfileRecord), if
+     * the position is part of the conversion rate estimate, and counts the
+     * position.
+     *
+     * @param currentMultiPileup   the second position of the di-nucleotide
+     * @param conversionRateCounts the counts to update
+     * @param estimateBisulfiteConversionRateFrom
+     *                             the control sequence name or NON_CPG_CONTEXT
+     * @return the counts or null if the position is not part of the estimate
+     */
+    private ConversionRateCounts getConversionRateCounts(MultiPileup currentMultiPileup, ConversionRateCounts conversionRateCounts, String estimateBisulfiteConversionRateFrom) {
 
-                    if (estimateBisulfiteConversionRateFrom != null) {
-                        scoreProfileRecord(profileRecordForwardStrand, bisulfiteConversionRate);
-                    }
+        if (estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT) ||
+                estimateBisulfiteConversionRateFrom.equals(currentMultiPileup.getSequenceName())) {
 
-                    pw.println(profileRecordForwardStrand.formatProfileRecord());
-                    pw.flush();
+            conversionRateCounts.controlSampleEntryCounter++;
 
-                }
+            return conversionRateCounts;
 
-                if (profileRecordReverseStrand != null) {
+        }
 
-                    if (estimateBisulfiteConversionRateFrom != null) {
-                        scoreProfileRecord(profileRecordReverseStrand, bisulfiteConversionRate);
-                    }
+        return null;
 
-                    pw.println(profileRecordReverseStrand.formatProfileRecord());
-                    pw.flush();
+    }
 
-                }
+    /**
+     * Scores a profile record if a conversion rate is given and prints it.
+     *
+     * @param pw             the profile output
+     * @param profileRecord  the profile record, nothing is printed if null
+     * @param conversionRate the conversion rate by sample name or null
+     */
+    private void printProfileRecord(PrintWriter pw, MethylationProfileRecord profileRecord, Map<String, Double> conversionRate) {
 
-            } else {
+        if (profileRecord == null) {
+            return;
+        }
 
-                pw.print(profileColumnLabels);
-                for (int i = 0; i < sampleCount; i++) {
-                    for(String label : sampleColumnLabels){
-                        pw.print("\t" + this.sampleNames.get(i) + "_" + label);
-                    }
-                }
-                pw.println();
+        if (conversionRate != null) {
+            scoreProfileRecord(profileRecord, conversionRate);
+        }
 
-            }
+        pw.println(profileRecord.formatProfileRecord());
 
-            previousMultiPileup = currentMultiPileup;
+    }
 
+    /**
+     * Scores a profile record if a conversion rate is given and passes it
+     * to a handler.
+     *
+     * @param handler        the handler, e.g. the profile writer
+     * @param profileRecord  the profile record, nothing is passed if null
+     * @param conversionRate the conversion rate by sample name or null
+     * @param outputFile     the profile output file
+     */
+    private void handleProfileRecord(MethylationProfileRecordHandler handler, MethylationProfileRecord profileRecord, Map<String, Double> conversionRate, File outputFile) {
 
+        if (profileRecord == null) {
+            return;
         }
 
-        pw.close();
+        if (conversionRate != null) {
+            scoreProfileRecord(profileRecord, conversionRate);
+        }
 
         try {
-            outputStream.close();
+            handler.handle(profileRecord);
         } catch (IOException e) {
-            logger.error("Exception while closing output file: " + outputFile.getAbsolutePath(), e);
+            logger.error("Exception while writing output file: " + outputFile.getAbsolutePath(), e);
+            System.exit(1);
         }
 
-        logger.info(lineCounter + " lines processed");
-        logger.info("--------------------------------------------------------");
-        logger.info("non-CpG conversion rate");
+    }
 
-        printNonCpGConversionRate();
+    /**
+     * Logs the estimated conversion rates and writes them to a file next
+     * to the output file.
+     *
+     * @param bisulfiteConversionRate the conversion rate by sample name
+     * @param outputFile              the profile output file
+     * @param estimateBisulfiteConversionRateFrom
+     *                                the control sequence name or NON_CPG_CONTEXT
+     */
+    private void reportConversionRate(Map<String, Double> bisulfiteConversionRate, File outputFile, String estimateBisulfiteConversionRateFrom) {
 
-        String conversionRateOutputPath = outputFile.getAbsolutePath() + "." + NON_CPG_CONTEXT + ".conversion.rate.detailed.tsv";
-        writeNonCpGConversionRate(conversionRateOutputPath);
+        NumberFormat formatter = new DecimalFormat("#.#");
+        for (String name : this.sampleNames) {
+            double rate = bisulfiteConversionRate.get(name);
+            if (rate < 0) {
+                logger.info(name + ": -");
+            } else {
+                logger.info(name + ": " + formatter.format(rate * 100.0) + "%");
+            }
+        }
+
+        //print conversion rates to file
+        String conversionRateOutputPath = outputFile.getAbsolutePath() + "." + NON_CPG_CONTEXT + ".conversion.rate.tsv";
+        if (!estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT)) {
+            conversionRateOutputPath = outputFile.getAbsolutePath() + "." + estimateBisulfiteConversionRateFrom + ".conversion.rate.tsv";
+        }
+
+        logger.info("Writing bisulfite conversionr rate to " + conversionRateOutputPath + "...");
+        writeConversionRate(bisulfiteConversionRate, conversionRateOutputPath);
+        logger.info("--------------------------------------------------------");
 
     }
 
@@ -301,12 +1203,10 @@ public class MethylationProfiler {
         NumberFormat formatter = new DecimalFormat("#.#");
         logger.info("context\tsample\trate");
 
-        for (String context : nonCpGContexts) {
+        for (int contextIndex = 0; contextIndex < nonCpGContexts.size(); contextIndex++) {
 
-            Map<String, Long> cCount = nonCpGContextCCount.get(context);
-            Map<String, Long> tCount = nonCpGContextTCount.get(context);
-
-            Map<String, Double> bisulfiteConversionRate = calculateBisfulfiteConversionRate(cCount, tCount);
+            String context = nonCpGContextCCount.getContexts().get(contextIndex);
+            Map<String, Double> bisulfiteConversionRate = calculateBisfulfiteConversionRate(nonCpGContextCCount, nonCpGContextTCount, contextIndex);
 
             for (String sampleName : sampleNames) {
 
@@ -331,12 +1231,10 @@ public class MethylationProfiler {
 
             PrintWriter conversionRateOutput = new PrintWriter(outputFilePath);
 
-            for (String context : nonCpGContexts) {
-
-                Map<String, Long> cCount = nonCpGContextCCount.get(context);
-                Map<String, Long> tCount = nonCpGContextTCount.get(context);
+            for (int contextIndex = 0; contextIndex < nonCpGContexts.size(); contextIndex++) {
 
-                Map<String, Double> bisulfiteConversionRate = calculateBisfulfiteConversionRate(cCount, tCount);
+                String context = nonCpGContextCCount.getContexts().get(contextIndex);
+                Map<String, Double> bisulfiteConversionRate = calculateBisfulfiteConversionRate(nonCpGContextCCount, nonCpGContextTCount, contextIndex);
 
                 for (String sampleName : sampleNames) {
 
@@ -364,26 +1262,38 @@ public class MethylationProfiler {
     }
 
     /**
-     * @param sampleNames
+     * Sets up the non-CpG contexts the conversion rate is reported for.
      */
-    private void initializeNonCpGCountMaps(List<String> sampleNames) {
+    private void initializeNonCpGContexts() {
 
-        nonCpGContextCCount = new HashMap<String, Map<String, Long>>();
-        nonCpGContextTCount = new HashMap<String, Map<String, Long>>();
-
-        for (String context : nonCpGContexts) {
+        nonCpGContexts.add("CT");
+        nonCpGContexts.add("CA");
+        nonCpGContexts.add("CC");
+        nonCpGContexts.add("total");
 
-            nonCpGContextCCount.put(context, new HashMap<String, Long>());
-            nonCpGContextTCount.put(context, new HashMap<String, Long>());
+    }
 
-            for (String sampleName : sampleNames) {
+    /**
+     * @param sampleNames
+     */
+    private void initializeNonCpGCountMaps(List<String> sampleNames) {
 
-                nonCpGContextCCount.get(context).put(sampleName, (long) 0);
-                nonCpGContextTCount.get(context).put(sampleName, (long) 0);
+        nonCpGContextCCount = createNonCpGCounter(sampleNames);
+        nonCpGContextTCount = createNonCpGCounter(sampleNames);
+        nonCpGTotalContext = nonCpGContextCCount.getContextIndex("total");
 
-            }
-        }
+    }
 
+    /**
+     * Returns a counter of counts by non-CpG context and sample
+     * initialised with 0.
+     *
+     * @param sampleNames the sample names
+     * @return the counter
+     */
+    private ContextSampleCounter createNonCpGCounter(List<String> sampleNames) {
+        //the contexts are reported in the order of the set
+        return new ContextSampleCounter(new ArrayList<String>(nonCpGContexts), sampleNames);
     }
 
     /**
@@ -401,26 +1311,9 @@ public class MethylationProfiler {
                 rateGreateZero = true;
                 int trials = sampleRecord.getCtCoverage();
                 int successes = sampleRecord.getCtCoverage() - sampleRecord.getCCount();
-                BinomialDistribution bd = new BinomialDistributionImpl(trials, rate);
-                double p = -1;
-                try {
-
-                    // BinomialDistributionImpl does return 0 of the p value is >10^-16.
-                    // In this case we will assign a score of 161 which is one more then
-                    // the maximum score that can be calculated from the p values returned
-                    // by BinomialDistributionImpl and equivivalent to a p-value of 8.9 * 10^-17
-                    p = bd.cumulativeProbability(successes);
-                    if (p == 0.0) {
-                        score = 161;
-                    } else {
-                        score = (int) Math.round(-10 * Math.log10(p));
-                    }
-
-                } catch (MathException e) {
-                    logger.error("Exception while scoring methylation level.", e);
-                }
+                score = getScoreTable(sampleRecord.getSampleName(), rate).getScore(trials, successes);
                 if (score == -1) {
-                    logger.error(sampleRecord.getCCount() + "\t" + sampleRecord.getCtCoverage() + "\t" + rate + "\t" + score + "\t" + rateGreateZero + "\t" + successes + "\t" + trials + "\t" + p);
+                    logger.error(sampleRecord.getCCount() + "\t" + sampleRecord.getCtCoverage() + "\t" + rate + "\t" + score + "\t" + rateGreateZero + "\t" + successes + "\t" + trials);
                 }
             }
             sampleRecord.setScore(score);
@@ -430,6 +1323,27 @@ public class MethylationProfiler {
 
     }
 
+    /**
+     * Returns the score table of a sample for a conversion rate, which is
+     * created on first use.
+     *
+     * @param sampleName the sample name
+     * @param rate       the conversion rate of the sample
+     * @return the score table
+     */
+    private BinomialScoreTable getScoreTable(String sampleName, double rate) {
+
+        BinomialScoreTable retVal = scoreTables.get(sampleName);
+
+        if (retVal == null || retVal.getProbability() != rate) {
+            retVal = new BinomialScoreTable(rate);
+            scoreTables.put(sampleName, retVal);
+        }
+
+        return retVal;
+
+    }
+
     /**
      * Generates a list of sample names.
      *
@@ -447,59 +1361,291 @@ public class MethylationProfiler {
     }
 
     /**
-     * Returns the number of samples in a pileup file. For bisulfite sequencing
-     * data there are two pileups, the reverse and forward strand pileup, for each
-     * sample. Thus the number of samples equals the number of pileups devided by
-     * two.
+     * Selects the samples to profile and sets up the projection decoding
+     * their reverse and forward strand pileups. The qualities columns are
+     * never needed for profiling.
+     *
+     * @param sampleNames the sample names, SKIPPED_SAMPLE for samples that
+     *                    are not profiled
+     * @param sampleCount the number of samples in the input pileup file
+     */
+    private void selectSamples(List<String> sampleNames, int sampleCount) {
+
+        this.sampleNames = new ArrayList<String>();
+        List<Integer> pileupIndices = new ArrayList<Integer>();
+
+        for (int i = 0; i < sampleNames.size() && i < sampleCount; i++) {
+
+            String name = sampleNames.get(i);
+            if (name.equals(SKIPPED_SAMPLE) || name.equals("")) {
+                continue;
+            }
+
+            this.sampleNames.add(name);
+            pileupIndices.add(2 * i);
+            pileupIndices.add(2 * i + 1);
+
+        }
+
+        if (sampleNames.size() > sampleCount) {
+            logger.warn(sampleNames.size() + " sample names given for " + sampleCount + " samples, ignoring the remaining names.");
+        }
+
+        int[] indices = new int[pileupIndices.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = pileupIndices.get(i);
+        }
+        projection = new PileupProjection(indices, true, false);
+
+        if (this.sampleNames.size() < sampleCount) {
+            logger.info("Profiling " + this.sampleNames.size() + " of " + sampleCount + " samples: " + projection);
+        }
+
+    }
+
+    /**
+     * Returns a parser for a pileup file. Binary pileup files are read
+     * through a memory mapping, mpileup files are parsed on parallel
+     * threads if more than one parser thread is configured. The parser
+     * decodes the pileups of the selected samples only and drops base
+     * calls below the minimum base quality. The parser of a stream is
+     * created once and returned for each call, as the stream can only be
+     * read once.
      *
      * @param mPileup the pileup file
-     * @return the number of samples in the pileup file
+     * @return the pileup parser
      */
-    private int getSampleCount(File mPileup) {
+    synchronized MultiPileupParser createPileupParser(File mPileup) {
+
+        MultiPileupParser retVal;
 
-        int retVal = 0;
+        if (isStream(mPileup)) {
+            retVal = streamParsers.get(mPileup);
+            if (retVal == null) {
+                retVal = createStreamParser(mPileup, null);
+                streamParsers.put(mPileup, retVal);
+            }
+        } else if (isBinaryPileup(mPileup)) {
+            retVal = new BinaryMultiPileupParser(mPileup);
+        } else if (parserThreads > 1) {
+            retVal = new ParallelMultiPileupParser(mPileup, parserThreads);
+        } else {
+            retVal = new ByteMultiPileupParser(mPileup);
+        }
 
-        MultiPileupParser pileupParser = new SimpleMultiPileupParser(mPileup);
-        Iterator<MultiPileup> pileupIterator = pileupParser.iterator();
-        if (pileupIterator.hasNext()) {
-            MultiPileup currentMultiPileup = pileupIterator.next();
-            retVal = currentMultiPileup.getPileupCount() / 2;
+        //no samples are selected before the number of samples is known
+        if (projection != null) {
+            retVal.setProjection(projection);
         }
+        retVal.setMinBaseQuality(minBaseQuality);
 
         return retVal;
+
     }
 
     /**
-     * @param sampleCCount
-     * @param sampleTCount
-     * @return
+     * Returns a parser for a pileup stream, optionally copying the
+     * stream to a file while it is read.
+     *
+     * @param mPileup   the pileup stream, STANDARD_INPUT or a named pipe
+     * @param spoolFile the file to copy the stream to or null
+     * @return the pileup parser
+     */
+    private MultiPileupParser createStreamParser(File mPileup, File spoolFile) {
+
+        InputStream in = null;
+
+        try {
+
+            if (mPileup.getPath().equals(STANDARD_INPUT)) {
+                in = System.in;
+            } else {
+                in = new FileInputStream(mPileup);
+            }
+
+            if (spoolFile != null) {
+                in = new TeeInputStream(in, new BufferedOutputStream(new FileOutputStream(spoolFile)));
+            }
+
+        } catch (IOException e) {
+            logger.error("Exception while opening pileup stream: " + mPileup.getPath(), e);
+            System.exit(1);
+        }
+
+        if (parserThreads > 1) {
+            return new ParallelMultiPileupParser(in, parserThreads);
+        }
+
+        return new ByteMultiPileupParser(in);
+
+    }
+
+    /**
+     * Returns true if a pileup input is a stream, i.e. standard input or
+     * a named pipe, which can only be read once.
+     *
+     * @param mPileup the pileup input
+     * @return true if the pileup input is a stream
+     */
+    private boolean isStream(File mPileup) {
+        return mPileup.getPath().equals(STANDARD_INPUT) || (mPileup.exists() && !mPileup.isFile());
+    }
+
+    private File createTemporaryFile(File outputFile, String suffix) {
+
+        File retVal = null;
+
+        try {
+            retVal = File.createTempFile(outputFile.getName() + ".tmp", suffix, outputFile.getAbsoluteFile().getParentFile());
+            retVal.deleteOnExit();
+        } catch (IOException e) {
+            logger.error("Exception while creating temporary profile file for: " + outputFile.getAbsolutePath(), e);
+            System.exit(1);
+        }
+
+        return retVal;
+
+    }
+
+    private File createSpoolFile(File outputFile) {
+
+        File retVal = null;
+
+        try {
+            retVal = File.createTempFile(outputFile.getName() + ".", ".pileup", outputFile.getAbsoluteFile().getParentFile());
+            retVal.deleteOnExit();
+        } catch (IOException e) {
+            logger.error("Exception while creating temporary pileup file for: " + outputFile.getAbsolutePath(), e);
+            System.exit(1);
+        }
+
+        logger.info("Copying pileup stream to temporary file: " + retVal.getAbsolutePath());
+
+        return retVal;
+
+    }
+
+    private boolean isBinaryPileup(File mPileup) {
+
+        boolean retVal = false;
+
+        try {
+            retVal = BinaryMultiPileupParser.isBinaryPileup(mPileup);
+        } catch (IOException e) {
+            logger.error("Exception while reading pileup file: " + mPileup.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the number of samples in a pileup file. For bisulfite sequencing
+     * data there are two pileups, the reverse and forward strand pileup, for each
+     * sample. Thus the number of samples equals the number of pileups devided by
+     * two. Only the first line of a file is read. The first line of a stream is
+     * kept for the pass over the stream.
+     *
+     * @param mPileup the pileup file
+     * @return the number of samples in the pileup file
+     */
+    private int getSampleCount(File mPileup) {
+        return createPileupParser(mPileup).getPileupCount() / 2;
+    }
+
+    /**
+     * @param sampleCCount the C counts by context and sample
+     * @param sampleTCount the T counts by context and sample
+     * @param context      the index of the context
+     * @return the conversion rates by sample name
      */
-    private Map<String, Double> calculateBisfulfiteConversionRate(Map<String, Long> sampleCCount, Map<String, Long> sampleTCount) {
+    private Map<String, Double> calculateBisfulfiteConversionRate(ContextSampleCounter sampleCCount, ContextSampleCounter sampleTCount, int context) {
 
         Map<String, Double> retVal = new HashMap<String, Double>();
 
-        for (String name : sampleNames) {
-            long c = sampleCCount.get(name);
-            long t = sampleTCount.get(name);
+        for (int sample = 0; sample < sampleNames.size(); sample++) {
+            long c = sampleCCount.get(context, sample);
+            long t = sampleTCount.get(context, sample);
             long ct = c + t;
             if (ct == 0) {
-                retVal.put(name, -1.0);
+                retVal.put(sampleNames.get(sample), -1.0);
             } else {
                 double rate = (double) t / (double) ct;
-                retVal.put(name, rate);
+                retVal.put(sampleNames.get(sample), rate);
             }
         }
 
-        return retVal;
+        return retVal;
+    }
+
+    /**
+     * Returns a cursor over the records of a pileup the conversion rate is
+     * estimated from. If the rate is estimated from a control sequence, the
+     * cursor is restricted to the sequence, so that an indexed pileup is
+     * sought to the sequence and the lines of other sequences are skipped
+     * before they are parsed otherwise. The target regions of the parser are
+     * restored for the cursors created later.
+     *
+     * @param pileupParser the parser of the pileup
+     * @param estimateBisulfiteConversionRateFrom
+     *                     the control sequence name or NON_CPG_CONTEXT
+     * @param targets      the target regions of the parser or null
+     * @return the cursor
+     */
+    private MultiPileupCursor getConversionRateCursor(MultiPileupParser pileupParser, String estimateBisulfiteConversionRateFrom, TargetRegions targets) {
+
+        if (estimateBisulfiteConversionRateFrom == null || estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT)) {
+            return pileupParser.cursor();
+        }
+
+        List<String> controlSequence = Collections.singletonList(estimateBisulfiteConversionRateFrom);
+        pileupParser.setTargets(targets != null ? targets.restrict(controlSequence) : TargetRegions.forSequence(estimateBisulfiteConversionRateFrom));
+
+        MultiPileupCursor retVal = pileupParser.cursor();
+
+        pileupParser.setTargets(targets);
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns a cursor over the records of the sample pileup the conversion
+     * rate is estimated from, see getConversionRateCursor(MultiPileupParser,
+     * String, TargetRegions). Streams that are copied to a file while they
+     * are read are read to the end, the records outside the target regions
+     * are skipped by estimateBisulfiteConversionRate.
+     *
+     * @param mPileupSamples the sample pileup, or the parts of the sample
+     *                       pileup in input order
+     * @param estimateBisulfiteConversionRateFrom
+     *                       the control sequence name or NON_CPG_CONTEXT
+     * @param isSpooled      true if sample streams are copied to a file
+     * @return the cursor
+     */
+    private MultiPileupCursor getSampleConversionRateCursor(List<File> mPileupSamples, String estimateBisulfiteConversionRateFrom, boolean isSpooled) {
+
+        if (mPileupSamples.size() > 1) {
+            return new PartsCursor(this, mPileupSamples, isSpooled ? null : targets);
+        }
+
+        MultiPileupParser pileupParser = createPileupParser(mPileupSamples.get(0));
+
+        if (isSpooled) {
+            return pileupParser.cursor();
+        }
+
+        return getConversionRateCursor(pileupParser, estimateBisulfiteConversionRateFrom, targets);
+
     }
 
     /**
-     * @param mPileup
+     * @param pileupCursor the cursor of the pileup the rate is estimated from
      * @param estimateBisulfiteConversionRateFrom
      *
      * @return
      */
-    private Map<String, Double> estimateBisulfiteConversionRate(File mPileup, String estimateBisulfiteConversionRateFrom) {
+    private Map<String, Double> estimateBisulfiteConversionRate(MultiPileupCursor pileupCursor, String estimateBisulfiteConversionRateFrom, TargetRegions targets) {
 
         Map<String, Double> retVal = new HashMap<String, Double>();
 
@@ -507,24 +1653,11 @@ public class MethylationProfiler {
             return retVal;
         }
 
-        Map<String, Long> cCount = new HashMap<String, Long>();
-        Map<String, Long> tCount = new HashMap<String, Long>();
-
-        //initialise map keys
-        for (String name : sampleNames) {
-            cCount.put(name, (long) 0);
-            tCount.put(name, (long) 0);
-        }
-
-        MultiPileupParser pileupParser = new SimpleMultiPileupParser(mPileup);
-        Iterator<MultiPileup> pileupIterator = pileupParser.iterator();
+        ConversionRateCounts conversionRateCounts = new ConversionRateCounts(sampleNames);
 
         int lineCounter = 0;
-        int usableLineCounter = 0;
-        int controlSampleEntryCounter = 0;
 
-        MultiPileup previousMultiPileup = null;
-        while (pileupIterator.hasNext()) {
+        while (pileupCursor.next()) {
 
             lineCounter++;
 
@@ -532,74 +1665,71 @@ public class MethylationProfiler {
                 logger.info(lineCounter + " lines processed");
             }
 
-            MultiPileup currentMultiPileup = pileupIterator.next();
+            MultiPileup previousMultiPileup = pileupCursor.getPrevious();
+            MultiPileup currentMultiPileup = pileupCursor.getCurrent();
 
-            if (previousMultiPileup != null) {
+            if (previousMultiPileup != null && isTargetPair(targets, previousMultiPileup, currentMultiPileup)) {
 
-                if (estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT) ||
-                        (!estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT) && estimateBisulfiteConversionRateFrom.equals(currentMultiPileup.getSequenceName()))) {
-
-                    controlSampleEntryCounter++;
-
-                    MethylationProfileRecord profileRecordForwardStrand = generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.FORWARD, sampleNames, null);
-                    MethylationProfileRecord profileRecordReverseStrand = generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.REVERSE, sampleNames, null);
-
-                    if (updateCTCounts(profileRecordForwardStrand, cCount, tCount, estimateBisulfiteConversionRateFrom)) {
-                        usableLineCounter++;
-                    }
-
-                    if (updateCTCounts(profileRecordReverseStrand, cCount, tCount, estimateBisulfiteConversionRateFrom)) {
-                        usableLineCounter++;
-                    }
+                ConversionRateCounts positionConversionRateCounts = getConversionRateCounts(currentMultiPileup, conversionRateCounts, estimateBisulfiteConversionRateFrom);
 
+                //the non-CpG context counts are not updated from the control pileup
+                if (positionConversionRateCounts != null) {
+                    generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.FORWARD, sampleNames, estimateBisulfiteConversionRateFrom, null, null, positionConversionRateCounts);
+                    generateProfileRecord(previousMultiPileup, currentMultiPileup, Strand.REVERSE, sampleNames, estimateBisulfiteConversionRateFrom, null, null, positionConversionRateCounts);
                 }
 
             }
 
-            previousMultiPileup = currentMultiPileup;
-
         }
 
         logger.info(lineCounter + " lines processed");
-        if (!estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT) && controlSampleEntryCounter == 0) {
+        if (!estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT) && conversionRateCounts.controlSampleEntryCounter == 0) {
             logger.warn("BAM file did not contain any pileup records for control sample: " + estimateBisulfiteConversionRateFrom);
         }
-        logger.info("conversion rate estimated from " + usableLineCounter + " cytosin positions");
+        logger.info("conversion rate estimated from " + conversionRateCounts.usableLineCounter + " cytosin positions");
 
-        return calculateBisfulfiteConversionRate(cCount, tCount);
+        return calculateBisfulfiteConversionRate(conversionRateCounts.cCount, conversionRateCounts.tCount, 0);
 
     }
 
 
-    private boolean updateCTCounts(MethylationProfileRecord profileRecord, Map<String, Long> cCount, Map<String, Long> tCount, String estimateBisulfiteConversionRateFrom) {
+    /**
+     * Adds the C and T counts of the samples of a di-nucleotide to the
+     * counts the conversion rate is estimated from.
+     *
+     * @param siteCounts     the counts of the samples
+     * @param sampleCount    the number of samples
+     * @param sequenceName   the sequence name of the di-nucleotide
+     * @param isRepeatMasked true if the di-nucleotide is repeat masked
+     * @param cCount         the C counts by sample
+     * @param tCount         the T counts by sample
+     * @param estimateBisulfiteConversionRateFrom
+     *                       the control sequence name or NON_CPG_CONTEXT
+     * @return true if the counts of any sample were added
+     */
+    private boolean updateCTCounts(SiteCounts siteCounts, int sampleCount, String sequenceName, boolean isRepeatMasked, ContextSampleCounter cCount, ContextSampleCounter tCount,
+                                   String estimateBisulfiteConversionRateFrom) {
 
         boolean retVal = false;
 
-        if(estimateBisulfiteConversionRateFrom == null){
+        if (estimateBisulfiteConversionRateFrom == null || isRepeatMasked) {
             return retVal;
         }
 
-        if (profileRecord != null &&
-                !profileRecord.isRepeatMasked()) {
-
-            for (MethylationProfileSampleRecord sampleRecord : profileRecord.getSampleRecords()) {
-
-                if ((estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT) && c_atc.matcher(sampleRecord.getSampleContext()).matches()
-                        && sampleRecord.getSnpType() == 0 && !sampleRecord.hasIndels())
-                        ||
-                        (!estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT) && profileRecord.getSequenceName().equals(estimateBisulfiteConversionRateFrom))) {
+        boolean isNonCpGEstimate = estimateBisulfiteConversionRateFrom.equals(NON_CPG_CONTEXT);
+        if (!isNonCpGEstimate && !sequenceName.equals(estimateBisulfiteConversionRateFrom)) {
+            return retVal;
+        }
 
-                    retVal = true;
+        for (int sample = 0; sample < sampleCount; sample++) {
 
-                    long currentCcount = cCount.get(sampleRecord.getSampleName());
-                    currentCcount = currentCcount + sampleRecord.getCCount();
-                    cCount.put(sampleRecord.getSampleName(), currentCcount);
+            if (!isNonCpGEstimate || (DinucleotideContext.isNonCpGCytosine(siteCounts.sampleContextCode[sample])
+                    && siteCounts.snpType[sample] == 0 && !siteCounts.hasIndels[sample])) {
 
-                    long currentTcount = tCount.get(sampleRecord.getSampleName());
-                    currentTcount = currentTcount + sampleRecord.getCtCoverage() - sampleRecord.getCCount();
-                    tCount.put(sampleRecord.getSampleName(), currentTcount);
+                retVal = true;
 
-                }
+                cCount.add(0, sample, siteCounts.cCount[sample]);
+                tCount.add(0, sample, siteCounts.tCount[sample]);
 
             }
 
@@ -610,139 +1740,253 @@ public class MethylationProfiler {
     }
 
     /**
+     * Generates the profile record of the cytosine of a di-nucleotide on a
+     * strand, see generateProfileRecord(MultiPileup, MultiPileup, Strand,
+     * List, String, ContextSampleCounter, ContextSampleCounter,
+     * ConversionRateCounts, SiteCounts).
+     */
+    private MethylationProfileRecord generateProfileRecord(MultiPileup previousMultiPileup, MultiPileup currentMultiPileup, Strand strand, List<String> sampleNames, String estimateBisulfiteConversionRateFrom,
+                                                           ContextSampleCounter nonCpGContextCCount, ContextSampleCounter nonCpGContextTCount, ConversionRateCounts conversionRateCounts) {
+        return generateProfileRecord(previousMultiPileup, currentMultiPileup, strand, sampleNames, estimateBisulfiteConversionRateFrom, nonCpGContextCCount, nonCpGContextTCount, conversionRateCounts, null);
+    }
+
+    /**
+     * Generates the profile record of the cytosine of a di-nucleotide on a
+     * strand. The C and T counts of the samples are first gathered as
+     * primitives and added to the non-CpG context counts and the conversion
+     * rate counts, so that positions without a record, e.g. below the
+     * coverage threshold (minCtCoverage and minSamples), are part of the
+     * conversion rate estimate. The record and its sample records are only
+     * built if the position is written.
+     *
      * @param previousMultiPileup
      * @param currentMultiPileup
      * @param strand
      * @param sampleNames
-     * @return
+     * @param nonCpGContextCCount  the non-CpG context C counts or null
+     * @param nonCpGContextTCount  the non-CpG context T counts or null
+     * @param conversionRateCounts the conversion rate counts, if the position
+     *                             is part of the estimate, or null
+     * @param gatheredSiteCounts   the counts of the samples gathered by a
+     *                             SampleParallelCursor or null to gather them
+     * @return the profile record or null
      */
-    private MethylationProfileRecord generateProfileRecord(MultiPileup previousMultiPileup, MultiPileup currentMultiPileup, Strand strand, List<String> sampleNames, String estimateBisulfiteConversionRateFrom) {
+    private MethylationProfileRecord generateProfileRecord(MultiPileup previousMultiPileup, MultiPileup currentMultiPileup, Strand strand, List<String> sampleNames, String estimateBisulfiteConversionRateFrom,
+                                                           ContextSampleCounter nonCpGContextCCount, ContextSampleCounter nonCpGContextTCount, ConversionRateCounts conversionRateCounts,
+                                                           SiteCounts gatheredSiteCounts) {
 
         MethylationProfileRecord retVal = null;
 
-        //check if the reference or any of the samples
-        //has a cytosin at this position
-        boolean isCytosinDiNucleotide = isCytosinDiNucleotide(previousMultiPileup, currentMultiPileup, strand);
+        int sampleCount = previousMultiPileup.getPileupCount() / 2;
+
+        SiteCounts siteCounts = gatheredSiteCounts;
+        if (siteCounts == null) {
 
-        if (isCytosinDiNucleotide) {
+            siteCounts = SITE_COUNTS.get();
+            siteCounts.ensureCapacity(sampleCount);
 
-            String referenceContext = getReferenceContext(previousMultiPileup, currentMultiPileup, strand);
+            //check if the reference or any of the samples
+            //has a cytosin at this position
+            siteCounts.isCytosine = isCytosinDiNucleotide(previousMultiPileup, currentMultiPileup, strand);
+
+            if (siteCounts.isCytosine) {
+                siteCounts.referenceContextCode = ContextWindowCursor.getReferenceContextCode(previousMultiPileup, currentMultiPileup, strand);
+                gatherSiteCounts(previousMultiPileup, currentMultiPileup, strand, siteCounts, 0, sampleCount);
+            }
+
+        }
+
+        if (siteCounts.isCytosine) {
+
+            int referenceContextCode = siteCounts.referenceContextCode;
 
             boolean isRepeatMasked = (previousMultiPileup.isRepeatMasked() || currentMultiPileup.isRepeatMasked());
 
             String sequenceName = previousMultiPileup.getSequenceName();
+
+            //iterate over sample counts in sample order
+
+            boolean hasCoverage = false;
+            int coveredSamples = 0;
+            for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
+
+                int sampleContextCode = siteCounts.sampleContextCode[sampleIndex];
+                int cCount = siteCounts.cCount[sampleIndex];
+                int tCount = siteCounts.tCount[sampleIndex];
+
+                if (siteCounts.totalCoverage[sampleIndex] > 0) {
+                    hasCoverage = true;
+                }
+
+                if (cCount + tCount >= minCtCoverage) {
+                    coveredSamples++;
+                }
+
+                //update non-CpG C and T counts
+                if (nonCpGContextCCount != null && estimateBisulfiteConversionRateFrom != null && !sequenceName.equals(estimateBisulfiteConversionRateFrom) &&
+                        DinucleotideContext.isNonCpGCytosine(sampleContextCode) && siteCounts.snpType[sampleIndex] == 0 &&
+                        !siteCounts.hasIndels[sampleIndex] && !isRepeatMasked
+                        ) {
+
+                    int context = nonCpGContextCCount.getContextIndex(sampleContextCode);
+
+                    nonCpGContextCCount.add(context, sampleIndex, cCount);
+                    nonCpGContextCCount.add(nonCpGTotalContext, sampleIndex, cCount);
+
+                    nonCpGContextTCount.add(context, sampleIndex, tCount);
+                    nonCpGContextTCount.add(nonCpGTotalContext, sampleIndex, tCount);
+
+                }
+
+            }
+
+            //if cytosin has no coverage in any
+            //of the samples on the respective
+            //strand
+            if (!hasCoverage) {
+                return null;
+            }
+
+            if (conversionRateCounts != null && updateCTCounts(siteCounts, sampleCount, sequenceName, isRepeatMasked, conversionRateCounts.cCount, conversionRateCounts.tCount, estimateBisulfiteConversionRateFrom)) {
+                conversionRateCounts.usableLineCounter++;
+            }
+
+            //positions below the coverage threshold are not written
+            if (coveredSamples < minSamples) {
+                return null;
+            }
+
+            String referenceContext = DinucleotideContext.toString(referenceContextCode);
+            if (referenceContext == null) {
+                //reference bases other than A, C, G, T and N are printed as they are
+                referenceContext = getReferenceContext(previousMultiPileup, currentMultiPileup, strand);
+            }
+
             int positionStart = previousMultiPileup.getPosition();
             int positionEnd = currentMultiPileup.getPosition();
 
             retVal = new MethylationProfileRecordImpl(sequenceName, positionStart, positionEnd, strand, referenceContext, isRepeatMasked);
 
-            //iterate over sample pileups
+            for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
 
-            Iterator<Pileup> previousPileups = previousMultiPileup.getPileups().iterator();
-            Iterator<Pileup> currentPileups = currentMultiPileup.getPileups().iterator();
+                int ctCoverage = siteCounts.cCount[sampleIndex] + siteCounts.tCount[sampleIndex];
+                int nonCtCoverage = siteCounts.totalCoverage[sampleIndex] - ctCoverage;
 
-            int sampleCounter = 0;
-            boolean hasCoverage = false;
-            while (previousPileups.hasNext()) {
+                MethylationProfileSampleRecordImpl sampleRecord = new MethylationProfileSampleRecordImpl(retVal, siteCounts.sampleContextCode[sampleIndex], siteCounts.cCount[sampleIndex], ctCoverage, nonCtCoverage);
+                sampleRecord.setSnpType(siteCounts.snpType[sampleIndex]);
+                sampleRecord.setHasIndels(siteCounts.hasIndels[sampleIndex]);
+                sampleRecord.setSampleName(sampleNames.get(sampleIndex));
+                retVal.addSampleRecord(sampleRecord);
 
-                String sampleName = sampleNames.get(sampleCounter);
-                sampleCounter++;
+            }
 
-                Pileup previousReverseStrandPileup = previousPileups.next();
-                Pileup previousForwardStrandPileup = previousPileups.next();
+        }
 
-                Pileup currentReverseStrandPileup = currentPileups.next();
-                Pileup currentForwardStrandPileup = currentPileups.next();
+        return retVal;
 
-                String sampleContext = getSampleContext(previousForwardStrandPileup,
-                        currentForwardStrandPileup,
-                        previousReverseStrandPileup,
-                        currentReverseStrandPileup,
-                        strand);
+    }
 
-                //check for SNPs on the reverse strand
-                int snpType = determineSNPType(referenceContext, sampleContext);
+    /**
+     * Gathers the context, SNP type, indels and counts of a range of samples
+     * at the cytosine of a di-nucleotide. Only the pileups of the samples in
+     * the range are examined, so ranges can be gathered on separate threads.
+     *
+     * @param previousMultiPileup the first position of the di-nucleotide
+     * @param currentMultiPileup  the second position of the di-nucleotide
+     * @param strand              the strand of the cytosine
+     * @param siteCounts          the counts to fill, holding the reference
+     *                            context code
+     * @param fromSample          the first sample of the range
+     * @param toSample            the sample after the last sample of the range
+     */
+    void gatherSiteCounts(MultiPileup previousMultiPileup, MultiPileup currentMultiPileup, Strand strand, SiteCounts siteCounts, int fromSample, int toSample) {
 
-                boolean hasIndels = false;
+        for (int sampleIndex = fromSample; sampleIndex < toSample; sampleIndex++) {
 
-                int cCount = 0;
-                int tCount = 0;
-                int totalCoverage = 0;
+            PileupCounts previousReverseStrandPileup = previousMultiPileup.getPileupCounts(2 * sampleIndex);
+            PileupCounts previousForwardStrandPileup = previousMultiPileup.getPileupCounts(2 * sampleIndex + 1);
 
-                if (strand == Strand.FORWARD) {
+            PileupCounts currentReverseStrandPileup = currentMultiPileup.getPileupCounts(2 * sampleIndex);
+            PileupCounts currentForwardStrandPileup = currentMultiPileup.getPileupCounts(2 * sampleIndex + 1);
 
-                    cCount = previousForwardStrandPileup.getBaseCallCount("C");
-                    tCount = previousForwardStrandPileup.getBaseCallCount("T");
-                    totalCoverage = previousForwardStrandPileup.getCoverage();
+            int sampleContextCode = ContextWindowCursor.getSampleContextCode(previousReverseStrandPileup,
+                    previousForwardStrandPileup,
+                    currentReverseStrandPileup,
+                    currentForwardStrandPileup,
+                    strand);
 
-                    if (previousForwardStrandPileup.hasIndels()) {
-                        hasIndels = true;
-                    }
+            //check for SNPs on the reverse strand
+            int snpType = DinucleotideContext.getSnpType(siteCounts.referenceContextCode, sampleContextCode);
 
-                }
+            boolean hasIndels = false;
 
-                //in reverse strand alignment
-                //Cs on the reverse strand equal to Gs in the forward reference strand
-                //and Ts are equal to As on the forward reference strand
-                else if (strand == Strand.REVERSE) {
+            int cCount = 0;
+            int tCount = 0;
+            int totalCoverage = 0;
 
-                    cCount = currentReverseStrandPileup.getBaseCallCount("G");
-                    tCount = currentReverseStrandPileup.getBaseCallCount("A");
-                    totalCoverage = currentReverseStrandPileup.getCoverage();
+            if (strand == Strand.FORWARD) {
 
-                    if (previousReverseStrandPileup.hasIndels()) {
-                        hasIndels = true;
-                    }
+                cCount = previousForwardStrandPileup.getBaseCallCount("C");
+                tCount = previousForwardStrandPileup.getBaseCallCount("T");
+                totalCoverage = previousForwardStrandPileup.getCoverage();
 
+                if (previousForwardStrandPileup.hasIndels()) {
+                    hasIndels = true;
                 }
 
-                if (totalCoverage > 0) {
-                    hasCoverage = true;
-                }
+            }
 
-                int ctCoverage = cCount + tCount;
-                int nonCtCoverage = totalCoverage - ctCoverage;
+            //in reverse strand alignment
+            //Cs on the reverse strand equal to Gs in the forward reference strand
+            //and Ts are equal to As on the forward reference strand
+            else if (strand == Strand.REVERSE) {
 
+                cCount = currentReverseStrandPileup.getBaseCallCount("G");
+                tCount = currentReverseStrandPileup.getBaseCallCount("A");
+                totalCoverage = currentReverseStrandPileup.getCoverage();
 
-                MethylationProfileSampleRecordImpl sampleRecord = new MethylationProfileSampleRecordImpl(retVal, sampleContext, cCount, ctCoverage, nonCtCoverage);
-                sampleRecord.setSnpType(snpType);
-                sampleRecord.setHasIndels(hasIndels);
-                sampleRecord.setSampleName(sampleName);
-                retVal.addSampleRecord(sampleRecord);
+                if (previousReverseStrandPileup.hasIndels()) {
+                    hasIndels = true;
+                }
 
-                //update non-CpG C and T counts
-                if (estimateBisulfiteConversionRateFrom != null && !retVal.getSequenceName().equals(estimateBisulfiteConversionRateFrom) &&
-                        c_atc.matcher(sampleContext).matches() && sampleRecord.getSnpType() == 0 &&
-                        !sampleRecord.hasIndels() && !retVal.isRepeatMasked()
-                        ) {
+            }
 
-                    long currentCcount = this.nonCpGContextCCount.get(sampleContext).get(sampleName);
-                    currentCcount = currentCcount + cCount;
-                    this.nonCpGContextCCount.get(sampleContext).put(sampleName, currentCcount);
+            siteCounts.sampleContextCode[sampleIndex] = sampleContextCode;
+            siteCounts.snpType[sampleIndex] = snpType;
+            siteCounts.hasIndels[sampleIndex] = hasIndels;
+            siteCounts.cCount[sampleIndex] = cCount;
+            siteCounts.tCount[sampleIndex] = tCount;
+            siteCounts.totalCoverage[sampleIndex] = totalCoverage;
 
-                    long currentTotalCcount = this.nonCpGContextCCount.get("total").get(sampleName);
-                    currentTotalCcount = currentTotalCcount + cCount;
-                    this.nonCpGContextCCount.get("total").put(sampleName, currentTotalCcount);
+        }
 
-                    long currentTcount = this.nonCpGContextTCount.get(sampleContext).get(sampleName);
-                    currentTcount = currentTcount + tCount;
-                    this.nonCpGContextTCount.get(sampleContext).put(sampleName, currentTcount);
+    }
 
-                    long currentTotalTcount = this.nonCpGContextTCount.get("total").get(sampleName);
-                    currentTotalTcount = currentTotalTcount + tCount;
-                    this.nonCpGContextTCount.get("total").put(sampleName, currentTotalTcount);
+    /**
+     * Returns the flags of the cytosine contexts by cytosine context code
+     * (see SequenceContext).
+     *
+     * @param cytosineContexts the names of the cytosine contexts or null
+     * @return the flags or null for all cytosines
+     * @throws IllegalArgumentException if a name is not CG, CHG or CHH
+     */
+    private static boolean[] getCytosineContexts(Collection<String> cytosineContexts) {
 
-                }
+        if (cytosineContexts == null) {
+            return null;
+        }
 
-            }
+        boolean[] retVal = new boolean[SequenceContext.CYTOSINE_CONTEXTS];
 
-            //if cytosin has no coverage in any
-            //of the samples on the respective
-            //strand
-            if (!hasCoverage) {
-                retVal = null;
+        for (String name : cytosineContexts) {
+
+            int cytosineContext = SequenceContext.getCytosineContext(name);
+            if (cytosineContext == SequenceContext.UNKNOWN) {
+                throw new IllegalArgumentException("Unknown cytosine context: " + name);
             }
 
+            retVal[cytosineContext] = true;
+
         }
 
         return retVal;
@@ -750,150 +1994,179 @@ public class MethylationProfiler {
     }
 
     /**
-     * @param previousMultiPileup
-     * @param currentMultiPileup
-     * @param strand
-     * @return
+     * Returns a cursor keeping the window of positions the cytosine contexts
+     * are classified from, if cytosine contexts are selected.
+     *
+     * @param pileupCursor the cursor over the sample pileup
+     * @return the window cursor or the cursor itself
      */
-    private boolean isCytosinDiNucleotide(MultiPileup previousMultiPileup, MultiPileup currentMultiPileup, Strand strand) {
-
-        boolean retVal = false;
+    private MultiPileupCursor getContextWindowCursor(MultiPileupCursor pileupCursor) {
+        return cytosineContexts == null ? pileupCursor : new ContextWindowCursor(pileupCursor, CYTOSINE_CONTEXT_LENGTH);
+    }
 
-        if (strand == Strand.FORWARD) {
+    /**
+     * Returns the profile record of the current di-nucleotide of a cursor
+     * on a strand, if its cytosine is in one of the selected cytosine
+     * contexts.
+     *
+     * @param profileRecord the profile record or null
+     * @param pileupCursor  the cursor returned by getContextWindowCursor, or
+     *                      a SampleParallelCursor on top of it
+     * @param strand        the strand of the cytosine
+     * @return the profile record or null
+     */
+    private MethylationProfileRecord selectContext(MethylationProfileRecord profileRecord, MultiPileupCursor pileupCursor, Strand strand) {
 
-            //check reference first
-            if (previousMultiPileup.getReferenceBase().equalsIgnoreCase("C")) {
-                retVal = true;
-            }
+        if (profileRecord == null || cytosineContexts == null) {
+            return profileRecord;
+        }
 
-            //and then sample
-            else {
+        boolean isSelected;
+        if (pileupCursor instanceof SampleParallelCursor) {
+            isSelected = ((SampleParallelCursor) pileupCursor).isSelectedContext(strand);
+        } else {
+            isSelected = isSelectedContext((ContextWindowCursor) pileupCursor, strand);
+        }
 
-                Iterator<Pileup> previousPileups = previousMultiPileup.getPileups().iterator();
-                while (previousPileups.hasNext()) {
+        return isSelected ? profileRecord : null;
 
-                    //get reverse strand pileup
-                    Pileup previousReverseStrandPileup = previousPileups.next();
+    }
 
-                    //skip forward strand pileup
-                    previousPileups.next();
+    /**
+     * Returns true if the cytosine of the current di-nucleotide of a window
+     * on a strand is in one of the selected cytosine contexts, in the
+     * reference or in any of the samples.
+     */
+    boolean isSelectedContext(ContextWindowCursor contextWindow, Strand strand) {
 
-                    //check on reverse strand if we are dealing with a cytosin
-                    if (previousReverseStrandPileup.getConsensusBaseCall().contains("C")) {
-                        retVal = true;
-                    }
+        int referenceContext = SequenceContext.getCytosineContext(contextWindow.getReferenceContextCode(strand, CYTOSINE_CONTEXT_LENGTH), CYTOSINE_CONTEXT_LENGTH);
+        if (referenceContext != SequenceContext.UNKNOWN && cytosineContexts[referenceContext]) {
+            return true;
+        }
 
-                }
+        int sampleCount = contextWindow.getCurrent().getPileupCount() / 2;
+        for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
 
+            int sampleContext = SequenceContext.getCytosineContext(contextWindow.getSampleContextCode(sampleIndex, strand, CYTOSINE_CONTEXT_LENGTH), CYTOSINE_CONTEXT_LENGTH);
+            if (sampleContext != SequenceContext.UNKNOWN && cytosineContexts[sampleContext]) {
+                return true;
             }
 
-        } else if (strand == Strand.REVERSE) {
+        }
 
-            //check reference first (G on the reference forward strand
-            //means C on the reverse strand)
-            if (currentMultiPileup.getReferenceBase().equalsIgnoreCase("G")) {
-                retVal = true;
-            }
+        return false;
 
-            //and then sample
-            else {                                                                             
+    }
+
+    /**
+     * Returns the regions of the sample pileup that are profiled: the target
+     * regions extended by one position on either side, so that all
+     * di-nucleotides overlapping a target are profiled, and the control
+     * sequence the conversion rate is estimated from, if any.
+     *
+     * @param targets         the target regions
+     * @param controlSequence the sequence the conversion rate is estimated
+     *                        from in the sample pileup or null
+     * @return the profiled regions
+     */
+    private TargetRegions getProfiledRegions(TargetRegions targets, String controlSequence) {
 
-                Iterator<Pileup> currentPileups = currentMultiPileup.getPileups().iterator();
-                while (currentPileups.hasNext()) {
+        TargetRegions retVal = targets.expand(1);
 
-                    //skip reverse strand pileup
-                    currentPileups.next();
+        if (controlSequence != null && !controlSequence.equals(NON_CPG_CONTEXT)) {
+            retVal = retVal.withSequence(controlSequence);
+        }
 
-                    //get forward strand pileup
-                    Pileup currentForwardStrandPileup = currentPileups.next();
+        logger.info("Profiling " + retVal.getRegionCount() + " target regions");
 
-                    //check on forward strand if we are dealing with a C
-                    //on the reverse strand, i.e. a G on the forward strand
-                    if (currentForwardStrandPileup.getConsensusBaseCall().contains("G")) {
-                        retVal = true;
-                    }
+        return retVal;
 
-                }
+    }
 
-            }
+    /**
+     * Returns true if two consecutive pileup records form a di-nucleotide of
+     * the profiled regions, i.e. both lie within the same region. Records of
+     * different regions are consecutive when the positions in between are
+     * skipped.
+     *
+     * @param targets  the profiled regions or null for the whole pileup
+     * @param previous the previous pileup record
+     * @param current  the current pileup record
+     * @return true if the records are paired
+     */
+    static boolean isTargetPair(TargetRegions targets, MultiPileup previous, MultiPileup current) {
 
+        if (targets == null) {
+            return true;
         }
 
-        return retVal;
+        if (!previous.getSequenceName().equals(current.getSequenceName())) {
+            return false;
+        }
+
+        int region = targets.getRegionIndex(current.getSequenceName(), current.getPosition());
+
+        return region >= 0 && region == targets.getRegionIndex(previous.getSequenceName(), previous.getPosition());
 
     }
 
     /**
-     * Returns the sample context of a cytosin di-nucleotide position, i.e. Cp[ACTGN]. Uses base calls
-     * from the oposite genomic template strand to determine the genotype unless there is a G at the
-     * respective position. In that case the oposite strand will have a cytosin position which is subject
-     * to bisulfite conversion and cannot be used to reliably predict the genotype.
-     *
-     * @param previousForwardPileup the first forward strand pileup of the sample in the mpileup file
-     * @param currentForwardPileup  the second forward strand pileup of the sample in the mpileup file
-     * @param previousReversePileup the first reverse strand pileup of the sample in the mpileup file
-     * @param currentReversePileup  the second reverse strand pileup of the sample in the mpileup file
-     * @param strand                the strand for which to return the sample context
-     * @return the CpN di-nucleotide context in the sample
+     * @param previousMultiPileup
+     * @param currentMultiPileup
+     * @param strand
+     * @return
      */
-    private String getSampleContext(Pileup previousForwardPileup,
-                                    Pileup currentForwardPileup,
-                                    Pileup previousReversePileup,
-                                    Pileup currentReversePileup,
-                                    Strand strand) {
+    private boolean isCytosinDiNucleotide(MultiPileup previousMultiPileup, MultiPileup currentMultiPileup, Strand strand) {
 
-        StringBuffer retVal = new StringBuffer();
+        //check reference first and then samples
+        return isReferenceCytosine(previousMultiPileup, currentMultiPileup, strand) ||
+                hasSampleCytosine(previousMultiPileup, currentMultiPileup, strand, 0, previousMultiPileup.getPileupCount() / 2);
 
-        String previousSampleBaseReverseStrand = previousReversePileup.getConsensusBaseCall();
-        String currentSampleBaseReverseStrand = currentReversePileup.getConsensusBaseCall();
+    }
 
-        String previousSampleBaseForwardStrand = previousForwardPileup.getConsensusBaseCall();
-        String currentSampleBaseForwardStrand = currentForwardPileup.getConsensusBaseCall();
+    /**
+     * Returns true if the reference has a cytosine at a di-nucleotide on a strand.
+     */
+    boolean isReferenceCytosine(MultiPileup previousMultiPileup, MultiPileup currentMultiPileup, Strand strand) {
 
-        //check cases where first or second position of di-nucleotide
-        //are subject to methylation on either forward or reverse strand
         if (strand == Strand.FORWARD) {
+            return previousMultiPileup.getReferenceBase().equalsIgnoreCase("C");
+        }
 
+        //G on the reference forward strand
+        //means C on the reverse strand
+        return strand == Strand.REVERSE && currentMultiPileup.getReferenceBase().equalsIgnoreCase("G");
 
-            //if there is a G on the forward strand
-            //the reverse strand will have a cytosin position
-            //which might be methylated and can thus not be used
-            //for SNP determination and we need to use the forward strand
-            String previousSampleBase = previousSampleBaseReverseStrand;
-            if (previousSampleBaseForwardStrand.contains("G")) {
-                previousSampleBase = previousSampleBaseForwardStrand;
-            }
+    }
 
-            String currentSampleBase = currentSampleBaseReverseStrand;
-            if (currentSampleBaseForwardStrand.contains("G")) {
-                currentSampleBase = currentSampleBaseForwardStrand;
-            }
+    /**
+     * Returns true if any sample of a range has a cytosine at a di-nucleotide
+     * on a strand. Only the pileups of the samples in the range are examined.
+     */
+    boolean hasSampleCytosine(MultiPileup previousMultiPileup, MultiPileup currentMultiPileup, Strand strand, int fromSample, int toSample) {
 
-            retVal.append(previousSampleBase).append(currentSampleBase);
+        for (int sampleIndex = fromSample; sampleIndex < toSample; sampleIndex++) {
 
-        } else if (strand == Strand.REVERSE) {
+            if (strand == Strand.FORWARD) {
 
-            //if there is a G on the reverse strand (called as a C on the reference)
-            //the forward strand will have a cytosin position
-            //which might be methylated and can thus not be used
-            //for SNP determination and we need to use reverse strand
-            String previousSampleBase = previousSampleBaseForwardStrand;
-            if (previousSampleBaseReverseStrand.contains("C")) {
-                previousSampleBase = previousSampleBaseReverseStrand;
-            }
+                //check on reverse strand if we are dealing with a cytosin
+                if (previousMultiPileup.getPileupCounts(2 * sampleIndex).getConsensusBaseCall().contains("C")) {
+                    return true;
+                }
 
-            String currentSampleBase = currentSampleBaseForwardStrand;
-            if (currentSampleBaseReverseStrand.contains("C")) {
-                currentSampleBase = currentSampleBaseReverseStrand;
-            }
+            } else if (strand == Strand.REVERSE) {
 
-            retVal.append(complement(currentSampleBase)).append(complement(previousSampleBase));
+                //check on forward strand if we are dealing with a C
+                //on the reverse strand, i.e. a G on the forward strand
+                if (currentMultiPileup.getPileupCounts(2 * sampleIndex + 1).getConsensusBaseCall().contains("G")) {
+                    return true;
+                }
+
+            }
 
-        } else {
-            throw new IllegalArgumentException("Strand must be forward or reverse: " + strand);
         }
 
-        return retVal.toString().toUpperCase();
+        return false;
 
     }
 
@@ -926,174 +2199,358 @@ public class MethylationProfiler {
 
 
     /**
-     * Pattern matching for SNP determination
-     * <p/>
-     * SNP
-     * 0=no SNP
-     * CpG context (CpG in reference)
-     * 1=CG -> TG transition                    loss of cytosin -> false positive unmethylated
-     * 2=CG -> [AG]G transversion               loss of cytosin -> no methylation signal
-     * 3=CG -> C[ATC] transition/transversion   loss of CpG di-nucleotide -> potentially methylated site
-     * 4=CG -> [ATG][ATC]                       loss of CpG di-nucleotide -> no methylation signal
-     * 5=TG -> CG transition                    gain of CpG di-nucleotide -> potential CpG methylation site
-     * 6=[AG]G -> CG transversion               gain of CpG di-nucleotide -> potential CpG methylation site
-     * 7=CA -> CG  transition                   gain of CpG di-nucleotide -> potential CpG methylation site
-     * 8=C[CT] -> CG transversion               gain of CpG di-nucleotide -> potential CpG methylation site
-     * 9=[ATG][ATC] -> CG                       gain of CpG di-nucleotide -> potential CpG methylation site
-     * non-CpG context (non-CpG in reference)
-     * 10=C[ACT] -> T[ACT] transition            loss of cytosin -> false positive unmethylated
-     * 11=C[ACT] -> [AG][ACT] transversion       loss of cytosin -> no methylation signal
-     * 12=T[ACT] -> C[ACT] transition            gain of cytosin -> potential methylation site
-     * 13=[AG][ACT] -> C[ACT] transversion       gain of cytosin -> potential methylation site
-     * 14=other
-     *
-     * @param referenceContext
-     * @param sampleContext
+     * @param nucleotide
      * @return
      */
-    private int determineSNPType(String referenceContext, String sampleContext) {
+    private String complement(String nucleotide) {
+
+        if (nucleotide.toUpperCase().equals("G")) {
+            return "C";
+        } else if (nucleotide.toUpperCase().equals("A")) {
+            return "T";
+        } else if (nucleotide.toUpperCase().equals("T")) {
+            return "A";
+        } else if (nucleotide.toUpperCase().equals("C")) {
+            return "G";
+        } else if (nucleotide.contains("/")) {
 
+            String[] nucleotides = nucleotide.split("/");
+            String firstComplement = complement(nucleotides[0]);
+            String secondComplement = complement(nucleotides[1]);
 
-//        Pattern cg = Pattern.compile("CG");
-//        Pattern tg = Pattern.compile("TG");
-//        Pattern ag_g = Pattern.compile("[AG]G");
-//        Pattern c_atc = Pattern.compile("C[ATC]");
-//        Pattern ca = Pattern.compile("CA");
-//        Pattern c_ct = Pattern.compile("C[CT]");
-//        Pattern c_act = Pattern.compile("C[ACT]");
-//        Pattern t_act = Pattern.compile("T[ACT]");
-//        Pattern ag_act = Pattern.compile("AG[ACT]");
+            return firstComplement + "/" + secondComplement;
 
-        if (referenceContext.equals(sampleContext)) {
-            return 0;
+        } else {
+            return nucleotide;
         }
-        //if one of the sample bases used for SNP determination is not called
-        //we can return -1
-        if (sampleContext.contains("N")) {
-            return -1;
+
+    }
+
+    /**
+     * Generates the profile records of a pileup as they are requested, the
+     * forward strand record of a di-nucleotide position before the reverse
+     * strand record, and scores them if a conversion rate is known.
+     */
+    private class ProfileRecordIterator implements Iterator<MethylationProfileRecord> {
+
+        private MultiPileupCursor pileupCursor;
+
+        //the records of the current di-nucleotide position not returned yet
+        private Deque<MethylationProfileRecord> profileRecords = new ArrayDeque<MethylationProfileRecord>(2);
+        private boolean finished = false;
+
+        ProfileRecordIterator(MultiPileupCursor pileupCursor) {
+            this.pileupCursor = pileupCursor;
         }
 
-        //if one of the sample base calls is heterozygous we return -1
-        if (sampleContext.contains("/")) {
-            return -1;
+        public boolean hasNext() {
+
+            while (profileRecords.isEmpty() && !finished) {
+
+                if (!pileupCursor.next()) {
+                    finished = true;
+                } else if (pileupCursor.getPrevious() != null && isTargetPair(targets, pileupCursor.getPrevious(), pileupCursor.getCurrent())) {
+                    addProfileRecord(Strand.FORWARD);
+                    addProfileRecord(Strand.REVERSE);
+                }
+
+            }
+
+            return !profileRecords.isEmpty();
+
         }
 
-        int retVal = 0;
+        public MethylationProfileRecord next() {
+
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
 
-        //CpG context (CpG in reference)
+            return profileRecords.poll();
 
-        //1 = CG -> TG transition
-        if (cg.matcher(referenceContext).matches() && tg.matcher(sampleContext).matches()) {
-            retVal = 1;
-            logger.debug("1 = CG -> TG transition");
         }
 
-        //2 = CG -> [AG]G transversion
-        else if (cg.matcher(referenceContext).matches() && ag_g.matcher(sampleContext).matches()) {
-            retVal = 2;
-            logger.debug("2 = CG -> [AG]G transversion");
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
 
-        //3 = CG -> C[ATC] transition/transversion
-        else if (cg.matcher(referenceContext).matches() && c_atc.matcher(sampleContext).matches()) {
-            retVal = 3;
-            logger.debug("3 = CG -> C[ATC] transition/transversion");
+        private void addProfileRecord(Strand strand) {
+
+            MethylationProfileRecord profileRecord = selectContext(generateProfileRecord(pileupCursor.getPrevious(), pileupCursor.getCurrent(), strand, sampleNames, conversionRateFrom, nonCpGContextCCount, nonCpGContextTCount, null),
+                    pileupCursor, strand);
+
+            if (profileRecord != null) {
+                if (conversionRate != null) {
+                    scoreProfileRecord(profileRecord, conversionRate);
+                }
+                profileRecords.add(profileRecord);
+            }
+
         }
 
-        //4 = CG -> [ATG][ATC]
-        else if (cg.matcher(referenceContext).matches() && atg_atc.matcher(sampleContext).matches()) {
-            retVal = 4;
-            logger.debug("4 = CG -> [ATG][ATC]");
+    }
+
+    /**
+     * Configures a profiler that profiles pileups in process and passes the
+     * profile records to a MethylationProfileRecordHandler, e.g. a
+     * MethylationProfileWriter, or returns them through an iterator.
+     * In process, the profiler does not report the conversion rates and
+     * throws exceptions instead of exiting. A profiler profiles one pileup
+     * at a time.
+     * <p/>
+     * <pre>
+     * MethylationProfiler profiler = new MethylationProfiler.Builder()
+     *         .setSampleNames(sampleNames)
+     *         .setConversionRateFrom("lambda")
+     *         .build();
+     * Iterator&lt;MethylationProfileRecord&gt; profileRecords = profiler.iterator(pileupParser);
+     * </pre>
+     * <p/>
+     * Pileup files are profiled into an output file with
+     * profile(List, File), which reports the conversion rates and exits on
+     * errors, like the file based constructors. The output file, threads
+     * and checkpoints only apply to it.
+     * <p/>
+     * <pre>
+     * new MethylationProfiler.Builder()
+     *         .setConversionRateFrom("lambda")
+     *         .setOutputFile(outputFile)
+     *         .setThreads(4)
+     *         .build()
+     *         .profile(mPileupSamples, null);
+     * </pre>
+     */
+    public static class Builder {
+
+        private List<String> sampleNames = null;
+        private int minBaseQuality = 0;
+        private Map<String, Double> conversionRate = null;
+        private String conversionRateFrom = null;
+        private MultiPileupParser controlParser = null;
+        private TargetRegions targets = null;
+        private int minCtCoverage = 0;
+        private int minSamples = 1;
+        private Collection<String> cytosineContexts = null;
+        private File outputFile = null;
+        private int threads = 1;
+        private int parserThreads = 1;
+        private int sampleThreads = 1;
+        private boolean resume = false;
+
+        /**
+         * Sets the names of the samples in the order of the pileup.
+         *
+         * @param sampleNames the sample names, see SKIPPED_SAMPLE, or null
+         *                    to profile all samples with generated names
+         * @return this builder
+         */
+        public Builder setSampleNames(List<String> sampleNames) {
+            this.sampleNames = sampleNames == null ? null : new ArrayList<String>(sampleNames);
+            return this;
         }
 
-        //5 = TG -> CG transition
-        else if (tg.matcher(referenceContext).matches() && cg.matcher(sampleContext).matches()) {
-            retVal = 5;
-            logger.debug("5 = TG -> CG transition");
+        /**
+         * Sets the minimum base quality of counted base calls.
+         *
+         * @param minBaseQuality the minimum base quality, 0 by default
+         * @return this builder
+         */
+        public Builder setMinBaseQuality(int minBaseQuality) {
+            this.minBaseQuality = minBaseQuality;
+            return this;
         }
 
-        //6 = [AG]G -> CG transversion
-        else if (ag_g.matcher(referenceContext).matches() && cg.matcher(sampleContext).matches()) {
-            retVal = 6;
-            logger.debug("6 = [AG]G -> CG transversion");
+        /**
+         * Sets the conversion rate the profile records are scored with, e.g.
+         * a rate estimated earlier. The records are not scored if neither a
+         * conversion rate is given nor estimated.
+         *
+         * @param conversionRate the conversion rate by sample name
+         * @return this builder
+         */
+        public Builder setConversionRate(Map<String, Double> conversionRate) {
+            this.conversionRate = conversionRate == null ? null : new HashMap<String, Double>(conversionRate);
+            return this;
         }
 
-        //7 = CA -> CG  transition
-        else if (ca.matcher(referenceContext).matches() && cg.matcher(sampleContext).matches()) {
-            retVal = 7;
-            logger.debug("7 = CA -> CG  transition");
+        /**
+         * Sets where the conversion rate is estimated from before the records
+         * are generated.
+         *
+         * @param conversionRateFrom the control sequence name, or an empty
+         *                           string for the non-CpG contexts
+         * @return this builder
+         */
+        public Builder setConversionRateFrom(String conversionRateFrom) {
+            this.conversionRateFrom = conversionRateFrom;
+            return this;
         }
 
-        //8 = C[CT] -> CG transversion
-        else if (c_ct.matcher(referenceContext).matches() && cg.matcher(sampleContext).matches()) {
-            retVal = 8;
-            logger.debug("8 = C[CT] -> CG transversion");
+        /**
+         * Sets the control pileup the conversion rate is estimated from,
+         * instead of the sample pileup.
+         *
+         * @param controlParser the control pileup parser
+         * @return this builder
+         */
+        public Builder setControlPileup(MultiPileupParser controlParser) {
+            this.controlParser = controlParser;
+            return this;
         }
 
+        /**
+         * Sets the target regions the profiled di-nucleotide positions
+         * overlap, e.g. the targets of a capture panel. By default the whole
+         * pileup is profiled.
+         *
+         * @param targets the target regions or null
+         * @return this builder
+         */
+        public Builder setTargets(TargetRegions targets) {
+            this.targets = targets;
+            return this;
+        }
 
-        //9 = [ATG][ATC] -> CG
-        else if (atg_atc.matcher(referenceContext).matches() && cg.matcher(sampleContext).matches()) {
-            retVal = 9;
-            logger.debug("9 = [ATG][ATC] -> CG");
+        /**
+         * Sets the coverage threshold of the profile records: records are
+         * only returned for positions at which at least minSamples samples
+         * have a C/T coverage of at least minCtCoverage. By default every
+         * cytosine with coverage in any sample is returned.
+         *
+         * @param minCtCoverage the minimum C/T coverage of a sample
+         * @param minSamples    the minimum number of samples with the
+         *                      minimum C/T coverage
+         * @return this builder
+         */
+        public Builder setCoverageThreshold(int minCtCoverage, int minSamples) {
+            this.minCtCoverage = minCtCoverage;
+            this.minSamples = minSamples;
+            return this;
         }
 
+        /**
+         * Sets the cytosine contexts records are returned for, CG, CHG or
+         * CHH, e.g. the non-CpG contexts CHG and CHH. A cytosine is returned
+         * if its context in the reference or in any of the samples is one of
+         * the contexts. By default every cytosine is returned.
+         *
+         * @param cytosineContexts the names of the cytosine contexts or null
+         * @return this builder
+         */
+        public Builder setCytosineContexts(Collection<String> cytosineContexts) {
+            this.cytosineContexts = cytosineContexts == null ? null : new ArrayList<String>(cytosineContexts);
+            return this;
+        }
 
-        //non-CpG context (non-CpG in reference)
+        /**
+         * Sets the file the profile of pileup files is written to by
+         * profile(List, File). The conversion rates are written next to it.
+         *
+         * @param outputFile the output file, the profile is written to the
+         *                   file with the suffix .gz
+         * @return this builder
+         */
+        public Builder setOutputFile(File outputFile) {
+            this.outputFile = outputFile;
+            return this;
+        }
 
-        //10 = C[ACT] -> T[ACT] transition
-        else if (c_act.matcher(referenceContext).matches() && t_act.matcher(sampleContext).matches()) {
-            retVal = 10;
-            logger.debug("10 = C[ACT] -> T[ACT] transition");
+        /**
+         * Sets the number of contigs or files profiled at the same time by
+         * profile(List, File), or the number of threads compressing the
+         * profile if the sample pileup is profiled on a single thread. The
+         * profiles of each contig or file are written to a temporary block,
+         * the blocks are concatenated in input order. The profile and the
+         * conversion rates are the same as those of a single thread.
+         *
+         * @param threads the number of threads, 1 by default
+         * @return this builder
+         */
+        public Builder setThreads(int threads) {
+            this.threads = threads;
+            return this;
         }
 
-        //11 = C[ACT] -> [AG][ACT] transversion
-        else if (c_act.matcher(referenceContext).matches() && ag_act.matcher(sampleContext).matches()) {
-            retVal = 11;
-            logger.debug("11 = C[ACT] -> [AG][ACT] transversion");
+        /**
+         * Sets the number of threads parsing the pileup files profiled by
+         * profile(List, File).
+         *
+         * @param parserThreads the number of threads, 1 by default
+         * @return this builder
+         */
+        public Builder setParserThreads(int parserThreads) {
+            this.parserThreads = parserThreads;
+            return this;
         }
 
-        //12 = T[ACT] -> C[ACT] transition
-        else if (t_act.matcher(referenceContext).matches() && c_act.matcher(sampleContext).matches()) {
-            retVal = 12;
-            logger.debug("12 = T[ACT] -> C[ACT] transition");
+        /**
+         * Sets the number of threads gathering the counts of the samples at
+         * the positions of a contig or file profiled by profile(List, File),
+         * e.g. for pileups of hundreds of samples. The positions are read in
+         * batches, and the samples of a batch are split into ranges that are
+         * counted on a ForkJoin pool. The records are assembled in sample
+         * order, so the profile is the same as that of a single thread.
+         *
+         * @param sampleThreads the number of threads, 1 by default
+         * @return this builder
+         */
+        public Builder setSampleThreads(int sampleThreads) {
+            this.sampleThreads = sampleThreads;
+            return this;
         }
 
-        //13=[AG][ACT] -> C[ACT] transversion
-        else if (ag_act.matcher(referenceContext).matches() && c_act.matcher(sampleContext).matches()) {
-            retVal = 13;
-            logger.debug("13=[AG][ACT] -> C[ACT] transversion");
-        } else {
-            retVal = 14;
+        /**
+         * Sets whether profile(List, File) checkpoints each contig or file
+         * and resumes from the checkpoint of an aborted run. The checkpoint
+         * (see ProfileCheckpoint) is a directory next to the output file,
+         * which holds the blocks of the profiled contigs or files along with
+         * their counts, and is deleted once the profile has been written. A
+         * run with the same input and arguments that finds the checkpoint of
+         * an aborted run skips the contigs or files profiled before. The
+         * sample pileup is split by contig on a single thread as well, it is
+         * profiled without checkpoints if it cannot be split.
+         *
+         * @param resume true to checkpoint the run, false by default
+         * @return this builder
+         */
+        public Builder setResume(boolean resume) {
+            this.resume = resume;
+            return this;
         }
 
-        return retVal;
+        /**
+         * Builds the profiler.
+         *
+         * @return the profiler
+         * @throws IllegalStateException if the conversion rate is both given
+         *                               and estimated
+         */
+        public MethylationProfiler build() {
+
+            if (conversionRate != null && conversionRateFrom != null) {
+                throw new IllegalStateException("The conversion rate is either given or estimated.");
+            }
+
+            return new MethylationProfiler(this);
+
+        }
 
     }
 
     /**
-     * @param nucleotide
-     * @return
+     * The C and T counts by sample the conversion rate is estimated
+     * from, accumulated while the pileup of the estimate is read.
      */
-    private String complement(String nucleotide) {
-
-        if (nucleotide.toUpperCase().equals("G")) {
-            return "C";
-        } else if (nucleotide.toUpperCase().equals("A")) {
-            return "T";
-        } else if (nucleotide.toUpperCase().equals("T")) {
-            return "A";
-        } else if (nucleotide.toUpperCase().equals("C")) {
-            return "G";
-        } else if (nucleotide.contains("/")) {
-
-            String[] nucleotides = nucleotide.split("/");
-            String firstComplement = complement(nucleotides[0]);
-            String secondComplement = complement(nucleotides[1]);
+    private static class ConversionRateCounts {
 
-            return firstComplement + "/" + secondComplement;
+        ContextSampleCounter cCount;
+        ContextSampleCounter tCount;
+        int usableLineCounter = 0;
+        int controlSampleEntryCounter = 0;
 
-        } else {
-            return nucleotide;
+        ConversionRateCounts(List<String> sampleNames) {
+            cCount = new ContextSampleCounter(CONVERSION_RATE_CONTEXTS, sampleNames);
+            tCount = new ContextSampleCounter(CONVERSION_RATE_CONTEXTS, sampleNames);
         }
 
     }
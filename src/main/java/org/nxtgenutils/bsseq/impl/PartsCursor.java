@@ -0,0 +1,103 @@
+package org.nxtgenutils.bsseq.impl;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupCursor;
+import org.nxtgenutils.io.MultiPileupParser;
+import org.nxtgenutils.io.TargetRegions;
+import org.nxtgenutils.io.impl.BinaryMultiPileup;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A cursor over the parts of a sample pileup split into several files,
+ * which are read one after the other on the current thread. The last
+ * position of a part is the previous record of the first position of
+ * the next part, as for parts profiled on threads of their own.
+ */
+class PartsCursor implements MultiPileupCursor {
+
+    private MethylationProfiler profiler;
+    private Iterator<File> parts;
+    private TargetRegions partTargets;
+    private MultiPileupCursor partCursor = null;
+
+    //detached copy of the last position of the parts read so far
+    private MultiPileup lastMultiPileup = null;
+    private boolean isFirstOfPart = false;
+
+    /**
+     * @param profiler    the profiler creating the parsers of the parts
+     * @param mPileups    the parts of the sample pileup in input order
+     * @param partTargets the regions the parts are restricted to or null
+     */
+    PartsCursor(MethylationProfiler profiler, List<File> mPileups, TargetRegions partTargets) {
+        this.profiler = profiler;
+        this.parts = mPileups.iterator();
+        this.partTargets = partTargets;
+    }
+
+    public boolean next() {
+
+        if (partCursor != null && partCursor.next()) {
+            isFirstOfPart = false;
+            return true;
+        }
+
+        while (parts.hasNext()) {
+
+            if (partCursor != null && partCursor.getCurrent() != null) {
+                lastMultiPileup = BinaryMultiPileup.copyOf(partCursor.getCurrent());
+            }
+
+            MultiPileupParser pileupParser = profiler.createPileupParser(parts.next());
+            pileupParser.setTargets(partTargets);
+            partCursor = pileupParser.cursor();
+
+            if (partCursor.next()) {
+                isFirstOfPart = true;
+                return true;
+            }
+
+        }
+
+        return false;
+
+    }
+
+    public MultiPileup getCurrent() {
+        return partCursor == null ? null : partCursor.getCurrent();
+    }
+
+    public MultiPileup getPrevious() {
+        if (partCursor == null) {
+            return null;
+        }
+        return isFirstOfPart ? lastMultiPileup : partCursor.getPrevious();
+    }
+
+    public void close() {
+        if (partCursor != null) {
+            partCursor.close();
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.nxtgenutils.bsseq.impl;
+
+import org.nxtgenutils.io.MethylationProfileRecord;
+import org.nxtgenutils.io.MultiPileup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The temporary block a part of the sample pileup has been profiled
+ * into, with the non-CpG counts accumulated while it was profiled.
+ */
+class ProfileBlock {
+
+    File file;
+    int lineCounter = 0;
+
+    ContextSampleCounter nonCpGContextCCount;
+    ContextSampleCounter nonCpGContextTCount;
+
+    //detached copies of the first and last position of the part
+    MultiPileup firstMultiPileup = null;
+    MultiPileup lastMultiPileup = null;
+
+    //records of the di-nucleotide formed with the first position of the next part
+    List<MethylationProfileRecord> boundaryRecords = new ArrayList<MethylationProfileRecord>();
+
+    /**
+     * @param file                the block file
+     * @param nonCpGContextCCount the C counts by non-CpG context and sample
+     * @param nonCpGContextTCount the T counts by non-CpG context and sample
+     */
+    ProfileBlock(File file, ContextSampleCounter nonCpGContextCCount, ContextSampleCounter nonCpGContextTCount) {
+        this.file = file;
+        this.nonCpGContextCCount = nonCpGContextCCount;
+        this.nonCpGContextTCount = nonCpGContextTCount;
+    }
+
+}
@@ -0,0 +1,221 @@
+package org.nxtgenutils.bsseq.impl;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.impl.BinaryMultiPileup;
+import org.nxtgenutils.io.impl.BinaryMultiPileupParser;
+import org.nxtgenutils.io.impl.BinaryPileupWriter;
+
+import java.io.*;
+import java.util.Iterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The checkpoint of a run profiling the parts of the sample pileup (see
+ * ProfileUnit), a directory next to the output file. For each part that
+ * has been profiled, the directory holds the block of the part, its
+ * counts, its first and last position as a binary pileup file (see
+ * BinaryPileupWriter) and a completion marker, which is written last.
+ * Parts without a completion marker are profiled again. The manifest of
+ * the run identifies the input and the arguments, the checkpoint of
+ * another run is discarded.
+ */
+class ProfileCheckpoint {
+
+    File directory;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(ProfileCheckpoint.class);
+
+    /**
+     * Opens the checkpoint of a run, or creates it if there is no
+     * checkpoint of the same run.
+     *
+     * @param outputFile the profile output file
+     * @param manifest   the manifest of the run
+     * @throws IOException if the checkpoint cannot be created
+     */
+    ProfileCheckpoint(File outputFile, String manifest) throws IOException {
+
+        directory = new File(outputFile.getAbsolutePath() + ".checkpoint");
+        File manifestFile = new File(directory, "manifest");
+
+        if (directory.isDirectory()) {
+
+            if (manifestFile.isFile() && manifest.equals(readManifest(manifestFile))) {
+                logger.info("Resuming from checkpoint: " + directory.getAbsolutePath());
+                return;
+            }
+
+            logger.warn("Discarding checkpoint of another run: " + directory.getAbsolutePath());
+            delete();
+
+        }
+
+        if (!directory.mkdirs()) {
+            throw new IOException("Could not create checkpoint directory: " + directory.getAbsolutePath());
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8");
+        try {
+            writer.write(manifest);
+        } finally {
+            writer.close();
+        }
+
+        logger.info("Checkpointing methylation profiles to: " + directory.getAbsolutePath());
+
+    }
+
+    File getBlockFile(int part) {
+        return getFile(part, ".block");
+    }
+
+    boolean isComplete(int part) {
+        return getFile(part, ".done").isFile();
+    }
+
+    /**
+     * Writes the counts and the first and last position of a profiled
+     * part, whose block has been written, and marks the part complete.
+     */
+    void commit(int part, ProfileBlock block) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile(part, ".counts"))));
+
+        try {
+
+            out.writeInt(block.lineCounter);
+
+            block.nonCpGContextCCount.write(out);
+            block.nonCpGContextTCount.write(out);
+
+        } finally {
+            out.close();
+        }
+
+        if (block.lineCounter > 0) {
+            BinaryPileupWriter boundaryWriter = new BinaryPileupWriter(getFile(part, ".boundary"));
+            try {
+                boundaryWriter.write(block.firstMultiPileup);
+                boundaryWriter.write(block.lastMultiPileup);
+            } finally {
+                boundaryWriter.close();
+            }
+        }
+
+        File marker = getFile(part, ".done");
+        if (!marker.createNewFile() && !marker.isFile()) {
+            throw new IOException("Could not create checkpoint file: " + marker.getAbsolutePath());
+        }
+
+    }
+
+    /**
+     * Reads the counts and the first and last position of a complete part
+     * into the block of the part.
+     *
+     * @param part   the index of the part
+     * @param retVal the empty block of the part, see getBlockFile(int)
+     * @return the block
+     * @throws IOException if the checkpoint files cannot be read
+     */
+    ProfileBlock restore(int part, ProfileBlock retVal) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getFile(part, ".counts"))));
+
+        try {
+
+            retVal.lineCounter = in.readInt();
+
+            retVal.nonCpGContextCCount.read(in);
+            retVal.nonCpGContextTCount.read(in);
+
+        } finally {
+            in.close();
+        }
+
+        if (retVal.lineCounter > 0) {
+
+            File boundaryFile = getFile(part, ".boundary");
+            Iterator<MultiPileup> boundaryIterator = new BinaryMultiPileupParser(boundaryFile).iterator();
+
+            if (!boundaryIterator.hasNext()) {
+                throw new IOException("Truncated checkpoint file: " + boundaryFile.getAbsolutePath());
+            }
+            retVal.firstMultiPileup = BinaryMultiPileup.copyOf(boundaryIterator.next());
+
+            if (!boundaryIterator.hasNext()) {
+                throw new IOException("Truncated checkpoint file: " + boundaryFile.getAbsolutePath());
+            }
+            retVal.lastMultiPileup = BinaryMultiPileup.copyOf(boundaryIterator.next());
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Deletes the checkpoint, e.g. once the profile has been written.
+     */
+    void delete() {
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    logger.warn("Could not delete checkpoint file: " + file.getAbsolutePath());
+                }
+            }
+        }
+
+        if (!directory.delete()) {
+            logger.warn("Could not delete checkpoint directory: " + directory.getAbsolutePath());
+        }
+
+    }
+
+    private File getFile(int part, String suffix) {
+        return new File(directory, part + suffix);
+    }
+
+    private String readManifest(File manifestFile) throws IOException {
+
+        StringBuilder retVal = new StringBuilder();
+
+        Reader reader = new InputStreamReader(new FileInputStream(manifestFile), "UTF-8");
+        try {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                retVal.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return retVal.toString();
+
+    }
+
+}
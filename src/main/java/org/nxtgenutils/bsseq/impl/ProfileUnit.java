@@ -0,0 +1,75 @@
+package org.nxtgenutils.bsseq.impl;
+
+import org.nxtgenutils.io.MultiPileupCursor;
+import org.nxtgenutils.io.MultiPileupParser;
+import org.nxtgenutils.io.TargetRegions;
+import org.nxtgenutils.io.impl.IteratorMultiPileupCursor;
+
+import java.io.File;
+import java.util.Collections;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A part of the sample pileup that is profiled on its own thread, either
+ * a file of a sample pileup that has been split into several files or
+ * a reference sequence of an indexed sample pileup file.
+ */
+class ProfileUnit {
+
+    //the largest position of a reference sequence in a tabix index
+    private static final int MAX_POSITION = 1 << 29;
+
+    File mPileup;
+    //null if the whole file is profiled
+    String sequenceName;
+
+    ProfileUnit(File mPileup, String sequenceName) {
+        this.mPileup = mPileup;
+        this.sequenceName = sequenceName;
+    }
+
+    /**
+     * Returns a cursor over the records of the part.
+     *
+     * @param pileupParser the parser of the pileup file of the part
+     * @param targets      the profiled regions or null for the whole part
+     * @return the cursor
+     */
+    MultiPileupCursor cursor(MultiPileupParser pileupParser, TargetRegions targets) {
+
+        if (targets != null) {
+            //the cursor of an indexed pileup seeks to the target regions of the sequence
+            pileupParser.setTargets(sequenceName == null ? targets : targets.restrict(Collections.singletonList(sequenceName)));
+            return pileupParser.cursor();
+        }
+
+        if (sequenceName == null) {
+            return pileupParser.cursor();
+        }
+
+        return new IteratorMultiPileupCursor(pileupParser.query(sequenceName, 1, MAX_POSITION), null);
+
+    }
+
+    @Override
+    public String toString() {
+        return sequenceName == null ? mPileup.getName() : mPileup.getName() + ":" + sequenceName;
+    }
+
+}
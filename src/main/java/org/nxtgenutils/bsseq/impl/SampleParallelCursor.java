@@ -0,0 +1,251 @@
+package org.nxtgenutils.bsseq.impl;
+
+import org.nxtgenutils.Strand;
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupCursor;
+import org.nxtgenutils.io.TargetRegions;
+import org.nxtgenutils.io.impl.BinaryMultiPileup;
+import org.nxtgenutils.io.impl.ContextWindowCursor;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A cursor over copies of the records of a pileup cursor, which reads
+ * the records in batches of SAMPLE_BATCH_SIZE positions and gathers the
+ * counts of the samples at the di-nucleotides of a batch on the sample
+ * pool (see SampleRangeTask) before the first position of the batch is
+ * returned. The counts of the current position are passed to
+ * generateProfileRecord, which assembles the record in sample order.
+ */
+class SampleParallelCursor implements MultiPileupCursor {
+
+    //the number of positions the counts of the samples are gathered for at once
+    private static final int SAMPLE_BATCH_SIZE = 256;
+
+    private MethylationProfiler profiler;
+    private MultiPileupCursor pileupCursor;
+    private TargetRegions targets;
+    private ForkJoinPool samplePool;
+    private boolean isContextWindow;
+
+    //the records of the batch from slot 1, slot 0 holds the last record of the previous batch
+    private BinaryMultiPileup[] records = new BinaryMultiPileup[SAMPLE_BATCH_SIZE + 1];
+    //true if the record of a slot is preceded by the record of the slot before
+    private boolean[] paired = new boolean[SAMPLE_BATCH_SIZE + 1];
+    //the counts of the forward and reverse strand di-nucleotides ending at a slot
+    private SiteCounts[][] siteCounts = new SiteCounts[SAMPLE_BATCH_SIZE + 1][2];
+    private boolean[][] profiled = new boolean[SAMPLE_BATCH_SIZE + 1][2];
+    //true if the forward and reverse strand cytosines of the di-nucleotide ending at a slot are in a selected context
+    private boolean[][] selected = new boolean[SAMPLE_BATCH_SIZE + 1][2];
+
+    private int recordCount = 0;
+    private int index = 0;
+    private boolean endOfInput = false;
+
+    /**
+     * @param profiler     the profiler the counts are gathered for
+     * @param pileupCursor the cursor of the pileup, a ContextWindowCursor
+     *                     if cytosine contexts are selected
+     * @param targets      the profiled regions or null
+     * @param samplePool   the pool the counts are gathered on
+     */
+    SampleParallelCursor(MethylationProfiler profiler, MultiPileupCursor pileupCursor, TargetRegions targets, ForkJoinPool samplePool) {
+        this.profiler = profiler;
+        this.pileupCursor = pileupCursor;
+        this.targets = targets;
+        this.samplePool = samplePool;
+        this.isContextWindow = pileupCursor instanceof ContextWindowCursor;
+    }
+
+    public boolean next() {
+
+        if (index < recordCount) {
+            index++;
+            return true;
+        }
+
+        if (!readBatch()) {
+            return false;
+        }
+
+        index = 1;
+
+        return true;
+
+    }
+
+    public MultiPileup getCurrent() {
+        return index > 0 ? records[index] : null;
+    }
+
+    public MultiPileup getPrevious() {
+        return index > 0 && paired[index] ? records[index - 1] : null;
+    }
+
+    public void close() {
+        pileupCursor.close();
+    }
+
+    /**
+     * Returns the counts of the samples at the di-nucleotide ending at
+     * the current position.
+     *
+     * @param strand the strand of the cytosine
+     * @return the counts or null if the di-nucleotide is not profiled
+     */
+    SiteCounts getSiteCounts(Strand strand) {
+        int strandIndex = strand == Strand.FORWARD ? 0 : 1;
+        return profiled[index][strandIndex] ? siteCounts[index][strandIndex] : null;
+    }
+
+    /**
+     * Returns true if the cytosine of the di-nucleotide ending at the
+     * current position is in one of the selected cytosine contexts, as
+     * classified by the window cursor the batch has been read from.
+     *
+     * @param strand the strand of the cytosine
+     * @return true if the cytosine context is selected
+     */
+    boolean isSelectedContext(Strand strand) {
+        return selected[index][strand == Strand.FORWARD ? 0 : 1];
+    }
+
+    private boolean readBatch() {
+
+        if (endOfInput || !pileupCursor.next()) {
+            endOfInput = true;
+            return false;
+        }
+
+        //the last record of the batch precedes the first record of the next batch
+        if (recordCount > 0) {
+            BinaryMultiPileup last = records[recordCount];
+            records[recordCount] = records[0];
+            records[0] = last;
+        }
+
+        int count = 0;
+        do {
+
+            count++;
+
+            if (records[count] == null) {
+                records[count] = BinaryMultiPileup.copyOf(pileupCursor.getCurrent());
+            } else {
+                records[count].copyFrom(pileupCursor.getCurrent());
+            }
+            paired[count] = pileupCursor.getPrevious() != null;
+
+            //the window moves on with the batch, so the contexts are classified as the records are copied
+            if (isContextWindow && paired[count]) {
+                selected[count][0] = profiler.isSelectedContext((ContextWindowCursor) pileupCursor, Strand.FORWARD);
+                selected[count][1] = profiler.isSelectedContext((ContextWindowCursor) pileupCursor, Strand.REVERSE);
+            }
+
+        } while (count < SAMPLE_BATCH_SIZE && pileupCursor.next());
+
+        recordCount = count;
+
+        gatherBatch();
+
+        return true;
+
+    }
+
+    /**
+     * Gathers the counts of the samples at the profiled di-nucleotides of
+     * the batch: the samples are checked for cytosines first, where the
+     * reference has none, and the counts are gathered at the cytosines.
+     */
+    private void gatherBatch() {
+
+        int sampleCount = records[1].getPileupCount() / 2;
+
+        for (int i = 1; i <= recordCount; i++) {
+
+            boolean isProfiled = paired[i] && MethylationProfiler.isTargetPair(targets, records[i - 1], records[i]);
+
+            for (int strandIndex = 0; strandIndex < 2; strandIndex++) {
+
+                profiled[i][strandIndex] = isProfiled;
+
+                if (isProfiled) {
+
+                    Strand strand = strandIndex == 0 ? Strand.FORWARD : Strand.REVERSE;
+
+                    if (siteCounts[i][strandIndex] == null) {
+                        siteCounts[i][strandIndex] = new SiteCounts();
+                    }
+
+                    SiteCounts counts = siteCounts[i][strandIndex];
+                    counts.ensureCapacity(sampleCount);
+                    counts.isCytosine = profiler.isReferenceCytosine(records[i - 1], records[i], strand);
+                    counts.isReferenceCytosine = counts.isCytosine;
+                    counts.referenceContextCode = ContextWindowCursor.getReferenceContextCode(records[i - 1], records[i], strand);
+
+                }
+
+            }
+
+        }
+
+        samplePool.invoke(new SampleRangeTask(this, false, 0, sampleCount));
+        samplePool.invoke(new SampleRangeTask(this, true, 0, sampleCount));
+
+    }
+
+    /**
+     * Checks a range of samples for cytosines or gathers their counts at
+     * the profiled di-nucleotides of the batch.
+     *
+     * @param gatherCounts false to check for cytosines, true to gather
+     *                     the counts at the cytosines
+     * @param fromSample   the first sample of the range
+     * @param toSample     the sample after the last sample of the range
+     */
+    void gatherRange(boolean gatherCounts, int fromSample, int toSample) {
+
+        for (int i = 1; i <= recordCount; i++) {
+
+            for (int strandIndex = 0; strandIndex < 2; strandIndex++) {
+
+                if (!profiled[i][strandIndex]) {
+                    continue;
+                }
+
+                Strand strand = strandIndex == 0 ? Strand.FORWARD : Strand.REVERSE;
+                SiteCounts counts = siteCounts[i][strandIndex];
+
+                if (!gatherCounts) {
+                    //the ranges only ever set the flag, the pool publishes it when the tasks are joined
+                    if (!counts.isReferenceCytosine && profiler.hasSampleCytosine(records[i - 1], records[i], strand, fromSample, toSample)) {
+                        counts.isCytosine = true;
+                    }
+                } else if (counts.isCytosine) {
+                    profiler.gatherSiteCounts(records[i - 1], records[i], strand, counts, fromSample, toSample);
+                }
+
+            }
+
+        }
+
+    }
+
+}
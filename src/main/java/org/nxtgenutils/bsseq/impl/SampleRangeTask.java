@@ -0,0 +1,62 @@
+package org.nxtgenutils.bsseq.impl;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Splits the samples of a batch of a SampleParallelCursor into ranges of
+ * at least MIN_TASK_SAMPLES samples, which are examined on the threads of
+ * the sample pool.
+ */
+class SampleRangeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the smallest range of samples a task gathers counts for
+     */
+    static final int MIN_TASK_SAMPLES = 8;
+
+    private SampleParallelCursor cursor;
+    private boolean gatherCounts;
+    private int fromSample;
+    private int toSample;
+
+    SampleRangeTask(SampleParallelCursor cursor, boolean gatherCounts, int fromSample, int toSample) {
+        this.cursor = cursor;
+        this.gatherCounts = gatherCounts;
+        this.fromSample = fromSample;
+        this.toSample = toSample;
+    }
+
+    @Override
+    protected void compute() {
+
+        if (toSample - fromSample < 2 * MIN_TASK_SAMPLES) {
+            cursor.gatherRange(gatherCounts, fromSample, toSample);
+            return;
+        }
+
+        int middle = (fromSample + toSample) >>> 1;
+        invokeAll(new SampleRangeTask(cursor, gatherCounts, fromSample, middle),
+                new SampleRangeTask(cursor, gatherCounts, middle, toSample));
+
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.nxtgenutils.bsseq.impl;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The counts of the samples at the cytosine of a di-nucleotide, which
+ * are checked against the coverage threshold before a profile record is
+ * built. Each thread reuses the counts of its own, see SITE_COUNTS, a
+ * SampleParallelCursor holds the counts of each position of a batch.
+ */
+class SiteCounts {
+
+    boolean isCytosine;
+    boolean isReferenceCytosine;
+    int referenceContextCode;
+
+    int[] sampleContextCode = new int[0];
+    int[] snpType = new int[0];
+    boolean[] hasIndels = new boolean[0];
+    int[] cCount = new int[0];
+    int[] tCount = new int[0];
+    int[] totalCoverage = new int[0];
+
+    void ensureCapacity(int sampleCount) {
+
+        if (sampleContextCode.length < sampleCount) {
+            sampleContextCode = new int[sampleCount];
+            snpType = new int[sampleCount];
+            hasIndels = new boolean[sampleCount];
+            cCount = new int[sampleCount];
+            tCount = new int[sampleCount];
+            totalCoverage = new int[sampleCount];
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+package org.nxtgenutils.cmd;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.nxtgenutils.NxtGenUtils;
+import org.nxtgenutils.io.MultiPileupCursor;
+import org.nxtgenutils.io.impl.BinaryPileupWriter;
+import org.nxtgenutils.io.impl.ByteMultiPileupParser;
+
+/**
+ * This file is part of NxtGenUtils.
+ *
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Converts an mpileup file to the compact binary pileup format (see
+ * BinaryPileupWriter), which ProfileMethylation reads without parsing
+ * text. The conversion is done once for files that are profiled
+ * repeatedly.
+ */
+public class ConvertPileup extends AbstractCommand {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(ConvertPileup.class);
+
+    public ConvertPileup() {
+        usage = "Arguments for ConvertPileup\n" +
+                "\n" +
+                "    -i  --pileupInput <path_to_mpileup>\n" +
+                "    -o  --output <path_to_binary_pileup>\n" +
+                "   [-q  --minBaseQuality <minimum_base_quality_of_counted_base_calls>]";
+    }
+
+    public void run(String[] args) {
+
+        File pileupInput = null;
+        File output = null;
+        int minBaseQuality = 0;
+
+        try {
+
+            for (int i = 0; i < args.length; i++) {
+
+                if (args[i].equals("--pileupInput") || args[i].equals("-i")) {
+                    String filename = args[i + 1];
+                    pileupInput = new File(filename);
+                }
+
+                if (args[i].equals("--output") || args[i].equals("-o")) {
+                    String filename = args[i + 1];
+                    output = new File(filename);
+                }
+
+                if (args[i].equals("--minBaseQuality") || args[i].equals("-q")) {
+                    minBaseQuality = Integer.parseInt(args[i + 1]);
+                }
+
+            }
+
+        } catch (Exception e) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            System.out.println(Arrays.toString(args));
+            logger.error("Exception while reading command line arguments: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (pileupInput == null) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Required input argument --pileupInput missing.");
+            System.exit(1);
+        }
+
+        if (output == null) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Required input argument --output missing.");
+            System.exit(1);
+        }
+
+        if (minBaseQuality < 0) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Minimum base quality must not be negative: " + minBaseQuality);
+            System.exit(1);
+        }
+
+        if (!pileupInput.exists()) {
+            logger.error("No such file: " + pileupInput.getAbsolutePath());
+            System.exit(1);
+        }
+
+        logger.info("Converting mpileup to binary pileup");
+        logger.info("Pileup input file : " + pileupInput.getAbsolutePath());
+        logger.info("Writing binary pileup to: " + output.getAbsolutePath());
+        if (minBaseQuality > 0) {
+            logger.info("Minimum base quality: " + minBaseQuality);
+        }
+        logger.info("--------------------------------------------------------");
+
+        ByteMultiPileupParser parser = new ByteMultiPileupParser(pileupInput);
+        parser.setMinBaseQuality(minBaseQuality);
+
+        MultiPileupCursor cursor = parser.cursor();
+        if (cursor == null) {
+            System.exit(1);
+        }
+
+        long recordCount = 0;
+
+        try {
+
+            BinaryPileupWriter writer = new BinaryPileupWriter(output);
+            try {
+                while (cursor.next()) {
+                    writer.write(cursor.getCurrent());
+                    recordCount++;
+                }
+            } finally {
+                cursor.close();
+                writer.close();
+            }
+
+        } catch (IOException e) {
+            logger.error("Exception while writing binary pileup file: " + output.getAbsolutePath(), e);
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            logger.error("Unable to convert pileup file: " + e.getMessage());
+            System.exit(1);
+        }
+
+        logger.info("Converted " + recordCount + " records (" + pileupInput.length() + " to " + output.length() + " bytes).");
+
+    }
+
+    public static void main(String[] args) {
+        new ConvertPileup().run(args);
+    }
+
+}
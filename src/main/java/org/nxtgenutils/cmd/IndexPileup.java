@@ -0,0 +1,280 @@
+package org.nxtgenutils.cmd;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+
+import org.nxtgenutils.NxtGenUtils;
+import org.nxtgenutils.io.impl.TabixIndex;
+import org.nxtgenutils.io.impl.TabixIndexBuilder;
+import org.nxtgenutils.util.BgzfInputStream;
+import org.nxtgenutils.util.BgzfOutputStream;
+import org.nxtgenutils.util.FileTypeDeterminator;
+
+/**
+ * This file is part of NxtGenUtils.
+ *
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Builds a tabix index (.tbi) for a coordinate sorted mpileup file, which
+ * allows MultiPileupParser.query() to seek directly to a region. BGZF
+ * compressed input is indexed in place. Uncompressed and gzip compressed
+ * input is first recompressed to BGZF.
+ */
+public class IndexPileup extends AbstractCommand {
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(IndexPileup.class);
+
+    public IndexPileup() {
+        usage = "Arguments for IndexPileup\n" +
+                "\n" +
+                "    -i  --pileupInput <path_to_mpileup>\n" +
+                "   [-o  --output <path_to_bgzf_compressed_mpileup>]";
+    }
+
+    public void run(String[] args) {
+
+        File pileupInput = null;
+        File output = null;
+
+        try {
+
+            for (int i = 0; i < args.length; i++) {
+
+                if (args[i].equals("--pileupInput") || args[i].equals("-i")) {
+                    String filename = args[i + 1];
+                    pileupInput = new File(filename);
+                }
+
+                if (args[i].equals("--output") || args[i].equals("-o")) {
+                    String filename = args[i + 1];
+                    output = new File(filename);
+                }
+
+            }
+
+        } catch (Exception e) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            System.out.println(Arrays.toString(args));
+            logger.error("Exception while reading command line arguments: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (pileupInput == null) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Required input argument --pileupInput missing.");
+            System.exit(1);
+        }
+
+        if (!pileupInput.exists()) {
+            logger.error("No such file: " + pileupInput.getAbsolutePath());
+            System.exit(1);
+        }
+
+        try {
+
+            boolean bgzf = FileTypeDeterminator.isBgzf(pileupInput);
+
+            if (output == null) {
+                if (bgzf) {
+                    output = pileupInput;
+                } else if (!isCompressed(pileupInput)) {
+                    output = new File(pileupInput.getPath() + ".gz");
+                } else {
+                    System.out.println(NxtGenUtils.usage);
+                    System.out.println(usage);
+                    logger.error("Argument --output required to recompress gzip compressed input to BGZF.");
+                    System.exit(1);
+                }
+            }
+
+            logger.info("Indexing mpileup");
+            logger.info("Pileup input file : " + pileupInput.getAbsolutePath());
+            if (!bgzf) {
+                logger.info("Writing BGZF compressed pileup to: " + output.getAbsolutePath());
+            }
+            logger.info("Writing index to: " + TabixIndex.getIndexFile(output).getAbsolutePath());
+            logger.info("--------------------------------------------------------");
+
+            TabixIndex index;
+            if (bgzf) {
+                index = indexBgzf(pileupInput);
+            } else {
+                index = compressAndIndex(pileupInput, output);
+            }
+
+            index.write(TabixIndex.getIndexFile(output));
+
+        } catch (IOException e) {
+            logger.error("Exception while indexing pileup file: " + pileupInput.getAbsolutePath(), e);
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            logger.error("Unable to index pileup file: " + e.getMessage());
+            System.exit(1);
+        }
+
+    }
+
+    /**
+     * Indexes a BGZF compressed pileup file.
+     *
+     * @param pileupFile the pileup file
+     * @return the index
+     * @throws IOException if the file cannot be read
+     */
+    private TabixIndex indexBgzf(File pileupFile) throws IOException {
+
+        TabixIndexBuilder builder = TabixIndexBuilder.forPileup();
+        BgzfInputStream in = new BgzfInputStream(pileupFile);
+
+        try {
+
+            LineBuffer line = new LineBuffer();
+            long startOffset = in.getVirtualOffset();
+            while (line.read(in)) {
+                long endOffset = in.getVirtualOffset();
+                addRecord(builder, line, startOffset, endOffset);
+                startOffset = endOffset;
+            }
+
+        } finally {
+            in.close();
+        }
+
+        return builder.build();
+
+    }
+
+    /**
+     * Compresses a pileup file to BGZF and indexes the compressed file.
+     *
+     * @param pileupFile the (uncompressed or gzip compressed) pileup file
+     * @param output     the BGZF output file
+     * @return the index
+     * @throws IOException if the file cannot be read or written
+     */
+    private TabixIndex compressAndIndex(File pileupFile, File output) throws IOException {
+
+        TabixIndexBuilder builder = TabixIndexBuilder.forPileup();
+        InputStream in = FileTypeDeterminator.determineStreamType(new BufferedInputStream(new FileInputStream(pileupFile)));
+        BgzfOutputStream out = new BgzfOutputStream(output);
+
+        try {
+
+            LineBuffer line = new LineBuffer();
+            while (line.read(in)) {
+                long startOffset = out.getVirtualOffset();
+                out.write(line.bytes, 0, line.length);
+                out.write('\n');
+                addRecord(builder, line, startOffset, out.getVirtualOffset());
+            }
+
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        return builder.build();
+
+    }
+
+    private boolean isCompressed(File pileupFile) throws IOException {
+
+        InputStream in = FileTypeDeterminator.determineStreamType(new FileInputStream(pileupFile));
+        try {
+            return !(in instanceof PushbackInputStream);
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+    }
+
+    private void addRecord(TabixIndexBuilder builder, LineBuffer line, long startOffset, long endOffset) {
+
+        if (line.length == 0 || line.bytes[0] == '#') {
+            return;
+        }
+
+        int sequenceEnd = line.indexOf('\t', 0);
+        int positionEnd = line.indexOf('\t', sequenceEnd + 1);
+        if (sequenceEnd < 0) {
+            throw new IllegalArgumentException("Malformed mpileup line: " + new String(line.bytes, 0, line.length));
+        }
+
+        String sequenceName = new String(line.bytes, 0, sequenceEnd);
+        int position = Integer.parseInt(new String(line.bytes, sequenceEnd + 1, (positionEnd < 0 ? line.length : positionEnd) - sequenceEnd - 1));
+
+        builder.addRecord(sequenceName, position - 1, position, startOffset, endOffset);
+
+    }
+
+    /**
+     * Reusable buffer holding the bytes of a line without the line break.
+     */
+    private static class LineBuffer {
+
+        byte[] bytes = new byte[1024];
+        int length;
+
+        /**
+         * Reads the next line from the stream.
+         *
+         * @return false if the end of the stream has been reached
+         */
+        boolean read(InputStream in) throws IOException {
+
+            length = 0;
+            int b;
+            while ((b = in.read()) >= 0 && b != '\n') {
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                bytes[length++] = (byte) b;
+            }
+
+            return b >= 0 || length > 0;
+
+        }
+
+        int indexOf(char c, int from) {
+            for (int i = from; i < length; i++) {
+                if (bytes[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+    }
+
+    public static void main(String[] args) {
+        new IndexPileup().run(args);
+    }
+
+}
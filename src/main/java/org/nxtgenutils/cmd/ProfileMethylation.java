@@ -3,11 +3,15 @@ package org.nxtgenutils.cmd;
 import org.apache.log4j.Logger;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import org.nxtgenutils.NxtGenUtils;
 import org.nxtgenutils.bsseq.impl.MethylationProfiler;
+import org.nxtgenutils.io.TargetRegions;
+import org.nxtgenutils.io.impl.SequenceContext;
+import org.nxtgenutils.io.impl.SimpleBedParser;
 
 /**
  * This file is part of NxtGenUtils.
@@ -44,28 +48,63 @@ public class ProfileMethylation extends AbstractCommand {
     public ProfileMethylation() {
         usage = "Arguments for ProfileMethylation\n" +
                 "\n" +
-                "    -i  --pileupInput <path_to_mpileup>\n" +
+                "    -i  --pileupInput <path_to_mpileup>[,<path_to_mpileup_part_2>,...]\n" +
+                "        (- for standard input, named pipes are read as streams,\n" +
+                "         a pileup split into several files is given in genome order)\n" +
                 "    -o  --profileOutput <path_to_output>\n" +
                 "   [-r  --estimateBisulfiteConversionRate [<control_sample_sequence_name>]]\n" +
                 "   [-c  --controlSamplePileup <path_to_controle_sample_mpileup>]\n" +
-                "   [-s  --sampleNames <sample_name_1,sample_name_2,...,sample_name_n>]";
+                "   [-s  --sampleNames <sample_name_1,sample_name_2,...,sample_name_n>]\n" +
+                "        (samples named - and samples without a name are not profiled)\n" +
+                "   [-p  --parserThreads <number_of_threads_parsing_the_mpileup>]\n" +
+                "   [-q  --minBaseQuality <minimum_base_quality_of_counted_base_calls>]\n" +
+                "   [-t  --threads <number_of_contigs_or_files_profiled_at_the_same_time>]\n" +
+                "        (an mpileup file is split by contig if it is tabix indexed)\n" +
+                "   [    --sampleThreads <number_of_threads_counting_the_samples_of_a_batch_of_positions>]\n" +
+                "        (for pileups of many samples, combined with --parserThreads)\n" +
+                "   [-b  --targets <path_to_target_bed_file>]\n" +
+                "        (profiles the di-nucleotides overlapping the targets, an indexed\n" +
+                "         mpileup is sought to each target)\n" +
+                "   [    --minCtCoverage <minimum_c_t_coverage_of_a_sample>]\n" +
+                "   [    --minSamples <minimum_number_of_samples_with_the_minimum_c_t_coverage>]\n" +
+                "        (writes the positions passing the coverage threshold only, all\n" +
+                "         positions are part of the conversion rate estimate, default 1 sample)\n" +
+                "   [    --cytosineContexts <CG|CHG|CHH>[,<CG|CHG|CHH>,...]]\n" +
+                "        (writes the cytosines in the contexts only, classified from the\n" +
+                "         tri-nucleotide of the reference or of any sample)\n" +
+                "   [    --resume]\n" +
+                "        (checkpoints each contig or file and resumes the run from the\n" +
+                "         checkpoint of an aborted run with the same arguments)";
     }
 
     public void run(String[] args) {
 
         File pileupInput = null;
+        List<File> pileupInputs = null;
         File profileOutput = null;
         File controleSamplePileupInput = null;
         String estimateBisulfiteConversionRate = null;
         List<String> sampleNames = null;
+        int parserThreads = 1;
+        int minBaseQuality = 0;
+        int threads = 1;
+        boolean resume = false;
+        File targetBed = null;
+        int minCtCoverage = 0;
+        int minSamples = 1;
+        int sampleThreads = 1;
+        List<String> cytosineContexts = null;
 
         try {
 
             for (int i = 0; i < args.length; i++) {
 
                 if (args[i].equals("--pileupInput") || args[i].equals("-i")) {
-                    String filename = args[i + 1];
-                    pileupInput = new File(filename);
+                    pileupInputs = new ArrayList<File>();
+                    for (String filename : args[i + 1].split(",")) {
+                        pileupInputs.add(new File(filename));
+                    }
+                    pileupInput = pileupInputs.get(0);
                 }
 
                 if (args[i].equals("--profileOutput") || args[i].equals("-o")) {
@@ -99,6 +138,43 @@ public class ProfileMethylation extends AbstractCommand {
                     sampleNames = Arrays.asList(names);
                 }
 
+                if (args[i].equals("--parserThreads") || args[i].equals("-p")) {
+                    parserThreads = Integer.parseInt(args[i + 1]);
+                }
+
+                if (args[i].equals("--minBaseQuality") || args[i].equals("-q")) {
+                    minBaseQuality = Integer.parseInt(args[i + 1]);
+                }
+
+                if (args[i].equals("--threads") || args[i].equals("-t")) {
+                    threads = Integer.parseInt(args[i + 1]);
+                }
+
+                if (args[i].equals("--resume")) {
+                    resume = true;
+                }
+
+                if (args[i].equals("--targets") || args[i].equals("-b")) {
+                    targetBed = new File(args[i + 1]);
+                }
+
+                if (args[i].equals("--minCtCoverage")) {
+                    minCtCoverage = Integer.parseInt(args[i + 1]);
+                }
+
+                if (args[i].equals("--minSamples")) {
+                    minSamples = Integer.parseInt(args[i + 1]);
+                }
+
+                if (args[i].equals("--sampleThreads")) {
+                    sampleThreads = Integer.parseInt(args[i + 1]);
+                }
+
+                if (args[i].equals("--cytosineContexts")) {
+                    String[] contexts = args[i + 1].split(",");
+                    cytosineContexts = Arrays.asList(contexts);
+                }
+
             }
 
         } catch (Exception e) {
@@ -123,15 +199,93 @@ public class ProfileMethylation extends AbstractCommand {
             System.exit(1);
         }
 
-        if (!pileupInput.exists()) {
-            logger.error("No such file: " + pileupInput.getAbsolutePath());
+        if (parserThreads < 1) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Number of parser threads must be at least 1: " + parserThreads);
+            System.exit(1);
+        }
+
+        if (threads < 1) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Number of threads must be at least 1: " + threads);
+            System.exit(1);
+        }
+
+        if (sampleThreads < 1) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Number of sample threads must be at least 1: " + sampleThreads);
+            System.exit(1);
+        }
+
+        if (minBaseQuality < 0) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Minimum base quality must not be negative: " + minBaseQuality);
+            System.exit(1);
+        }
+
+        if (minCtCoverage < 0) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Minimum C/T coverage must not be negative: " + minCtCoverage);
+            System.exit(1);
+        }
+
+        if (minSamples < 1) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Minimum number of samples must be at least 1: " + minSamples);
+            System.exit(1);
+        }
+
+        if (cytosineContexts != null) {
+            for (String cytosineContext : cytosineContexts) {
+                if (SequenceContext.getCytosineContext(cytosineContext) == SequenceContext.UNKNOWN) {
+                    System.out.println(NxtGenUtils.usage);
+                    System.out.println(usage);
+                    logger.error("Cytosine context must be CG, CHG or CHH: " + cytosineContext);
+                    System.exit(1);
+                }
+            }
+        }
+
+        for (File input : pileupInputs) {
+
+            if (pileupInputs.size() > 1 && isStandardInput(input)) {
+                System.out.println(NxtGenUtils.usage);
+                System.out.println(usage);
+                logger.error("Standard input cannot be part of a pileup split into several files.");
+                System.exit(1);
+            }
+
+            if (!isStandardInput(input) && !input.exists()) {
+                logger.error("No such file: " + input.getAbsolutePath());
+                System.exit(1);
+            }
+
+        }
+
+        if (targetBed != null && !targetBed.exists()) {
+            logger.error("No such file: " + targetBed.getAbsolutePath());
+            System.exit(1);
+        }
+
+        if (isStandardInput(pileupInput) && controleSamplePileupInput != null && isStandardInput(controleSamplePileupInput)) {
+            System.out.println(NxtGenUtils.usage);
+            System.out.println(usage);
+            logger.error("Sample and controle pileup cannot both be read from standard input.");
             System.exit(1);
         }
 
         logger.info("Profiling methylation from BS-seq pileup");
-        logger.info("Sample pileup input file : " + pileupInput.getAbsolutePath());
+        for (File input : pileupInputs) {
+            logger.info("Sample pileup input file : " + getInputName(input));
+        }
         if (controleSamplePileupInput != null) {
-            logger.info("Controle pileup input file : " + controleSamplePileupInput.getAbsolutePath());
+            logger.info("Controle pileup input file : " + getInputName(controleSamplePileupInput));
         }
         logger.info("Writing profile to: " + profileOutput.getAbsolutePath() + ".gz");
 
@@ -151,10 +305,66 @@ public class ProfileMethylation extends AbstractCommand {
             logger.info("Sample names not provided. Will be auto-generated");
         }
 
+        if (parserThreads > 1) {
+            logger.info("Parsing mpileup input on " + parserThreads + " threads");
+        }
+
+        if (sampleThreads > 1) {
+            logger.info("Counting the samples of each batch of positions on " + sampleThreads + " threads");
+        }
+
+        if (minBaseQuality > 0) {
+            logger.info("Minimum base quality: " + minBaseQuality);
+        }
+
+        if (threads > 1) {
+            logger.info("Profiling methylation on " + threads + " threads");
+        }
+
+        if (minCtCoverage > 0 || minSamples > 1) {
+            logger.info("Writing positions with a C/T coverage of at least " + minCtCoverage + " in at least " + minSamples + " samples");
+        }
+
+        if (cytosineContexts != null) {
+            logger.info("Writing cytosines in the contexts: " + cytosineContexts.toString().replace("[", "").replace("]", ""));
+        }
+
+        if (resume) {
+            logger.info("Checkpointing the profiles of each contig or file, resuming from an existing checkpoint");
+        }
+
+        TargetRegions targets = null;
+        if (targetBed != null) {
+            targets = new TargetRegions(new SimpleBedParser(targetBed).iterator());
+            logger.info("Restricting profiles to " + targets.getRegionCount() + " target regions from: " + targetBed.getAbsolutePath());
+        }
+
         logger.info("--------------------------------------------------------");
 
-        new MethylationProfiler(pileupInput, controleSamplePileupInput, profileOutput, estimateBisulfiteConversionRate, sampleNames);
+        MethylationProfiler profiler = new MethylationProfiler.Builder()
+                .setSampleNames(sampleNames)
+                .setConversionRateFrom(estimateBisulfiteConversionRate)
+                .setMinBaseQuality(minBaseQuality)
+                .setTargets(targets)
+                .setCoverageThreshold(minCtCoverage, minSamples)
+                .setCytosineContexts(cytosineContexts)
+                .setOutputFile(profileOutput)
+                .setThreads(threads)
+                .setParserThreads(parserThreads)
+                .setSampleThreads(sampleThreads)
+                .setResume(resume)
+                .build();
+
+        profiler.profile(pileupInputs, controleSamplePileupInput);
+
+    }
+
+    private boolean isStandardInput(File pileupInput) {
+        return pileupInput.getPath().equals(MethylationProfiler.STANDARD_INPUT);
+    }
 
+    private String getInputName(File pileupInput) {
+        return isStandardInput(pileupInput) ? "standard input" : pileupInput.getAbsolutePath();
     }
 
     public static void main(String[] args) {
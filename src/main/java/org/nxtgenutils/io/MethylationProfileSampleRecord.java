@@ -44,6 +44,15 @@ public interface MethylationProfileSampleRecord {
      */
     void setSampleContext(String sampleContext);
 
+    /**
+     * Returns the code of the sample nucleotide context at the profiled
+     * position (see DinucleotideContext).
+     *
+     * @return the sample context code or -1 if the context is not a
+     *         di-nucleotide of consensus base calls
+     */
+    int getSampleContextCode();
+
     /**
      * Returns the number of cytosine base calls at the the profiled position.
      *
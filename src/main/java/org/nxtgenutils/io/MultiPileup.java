@@ -54,6 +54,27 @@ public interface MultiPileup {
      */
     Set<Pileup> getPileups();
 
+    /**
+     * Returns the pileup at an index. Pileups are indexed in the order
+     * of the mpileup columns, i.e. pileup 2n and 2n+1 are the reverse and
+     * forward strand pileups of sample n in a bisulfite mpileup.
+     *
+     * @param index the pileup index
+     * @return the pileup record
+     */
+    Pileup getPileup(int index);
+
+    /**
+     * Returns the base call counts of the pileup at an index. Unlike
+     * getPileup(int), the counts do not require the bases and qualities
+     * columns, which records of binary pileup files rebuild from the
+     * counts.
+     *
+     * @param index the pileup index
+     * @return the base call counts
+     */
+    PileupCounts getPileupCounts(int index);
+
     /**
      * Return the name of the reference sequence.
      *
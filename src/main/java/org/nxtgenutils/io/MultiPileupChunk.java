@@ -0,0 +1,52 @@
+package org.nxtgenutils.io;
+
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ *
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A consecutive range of records of a multi-pileup file which has been
+ * parsed independently of the rest of the file. The chunk carries the last
+ * record of the preceding chunk as overlap record, so that positions at the
+ * start of the chunk can be processed together with their predecessor.
+ */
+public interface MultiPileupChunk {
+
+    /**
+     * Returns the index of the chunk in the file, starting with 0.
+     *
+     * @return the chunk index
+     */
+    int getChunkIndex();
+
+    /**
+     * Returns the last record of the preceding chunk.
+     *
+     * @return the overlap record or null if this is the first chunk or
+     *         the chunk has no records
+     */
+    MultiPileup getOverlapRecord();
+
+    /**
+     * Returns the records of the chunk in file order.
+     *
+     * @return the records, which may be empty
+     */
+    List<MultiPileup> getRecords();
+
+}
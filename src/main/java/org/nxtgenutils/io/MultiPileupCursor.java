@@ -0,0 +1,56 @@
+package org.nxtgenutils.io;
+
+/**
+ * This file is part of NxtGenUtils.
+ *
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A cursor over the records of a multi-pileup file which keeps
+ * the current and the previous record. The records returned by
+ * getCurrent() and getPrevious() are only valid until the next call
+ * to next(), as implementations may overwrite them in place.
+ */
+public interface MultiPileupCursor {
+
+    /**
+     * Advances the cursor to the next record. The current record
+     * becomes the previous record.
+     *
+     * @return false if the end of the file has been reached
+     */
+    boolean next();
+
+    /**
+     * Returns the current record.
+     *
+     * @return the current record or null before the first call to next()
+     */
+    MultiPileup getCurrent();
+
+    /**
+     * Returns the record preceding the current record.
+     *
+     * @return the previous record or null if the current record is the first one
+     */
+    MultiPileup getPrevious();
+
+    /**
+     * Closes the underlying file. Called implicitly when the
+     * end of the file is reached.
+     */
+    void close();
+
+}
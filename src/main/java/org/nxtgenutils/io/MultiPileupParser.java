@@ -1,6 +1,7 @@
 package org.nxtgenutils.io;
 
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * This file is part of NxtGenUtils.
@@ -39,4 +40,85 @@ public interface MultiPileupParser {
      */
     Iterator<MultiPileup> iterator();
 
+    /**
+     * Returns an iterator over the records of a region of a reference
+     * sequence. If the file is BGZF compressed and indexed with tabix
+     * (see TabixIndex) the parser seeks to the region, otherwise the
+     * file is scanned for the region.
+     *
+     * @param sequenceName the name of the reference sequence
+     * @param start        the first position of the region (1-based)
+     * @param end          the last position of the region (inclusive)
+     * @return the MultiPileup iterator
+     */
+    Iterator<MultiPileup> query(String sequenceName, int start, int end);
+
+    /**
+     * Returns a MultiPileup cursor, which exposes the current and
+     * the previous record of the file. Implementations may reuse the
+     * records of the cursor when advancing it.
+     *
+     * @return the MultiPileup cursor
+     */
+    MultiPileupCursor cursor();
+
+    /**
+     * Returns the number of pileups per record of the input, read from
+     * the first record regardless of the projection. If the input is a
+     * stream, the first record is not consumed.
+     *
+     * @return the number of pileups per record or 0 if the input is empty
+     */
+    int getPileupCount();
+
+    /**
+     * Returns the names of the reference sequences of the input in input
+     * order, if the input is indexed, e.g. with tabix (see TabixIndex),
+     * so that the sequences can be queried independently.
+     *
+     * @return the sequence names or null if the input is not indexed
+     */
+    List<String> getSequenceNames();
+
+    /**
+     * Sets whether or not the parser keeps a copy of the mpileup line
+     * for each record, accessible through MultiPileup.getRecordString().
+     * Disabled by default.
+     *
+     * @param retainRecordStrings true if record strings should be retained
+     */
+    void setRetainRecordStrings(boolean retainRecordStrings);
+
+    /**
+     * Sets the pileups and columns to decode. By default all pileups
+     * and columns are decoded (PileupProjection.ALL). The projection
+     * applies to iterators and cursors created after the call.
+     *
+     * @param projection the projection
+     */
+    void setProjection(PileupProjection projection);
+
+    /**
+     * Sets the minimum base quality (Phred score) of counted base calls.
+     * Base calls with a lower quality are dropped in the same pass over the
+     * bases column that counts them and the qualities column is discarded.
+     * The default of 0 counts all base calls.
+     *
+     * @param minBaseQuality the minimum base quality
+     */
+    void setMinBaseQuality(int minBaseQuality);
+
+    /**
+     * Restricts iterators, cursors and queries to the records within target
+     * regions, e.g. the targets of a capture panel. Lines outside the regions
+     * are skipped by their sequence name and position before their pileups
+     * are parsed, and indexed input may be sought past them. The records of
+     * two regions are returned one after the other, i.e. consecutive records
+     * need not be adjacent. By default all records are returned (null). The
+     * regions apply to iterators and cursors created after the call.
+     *
+     * @param targets the target regions or null
+     */
+    void setTargets(TargetRegions targets);
+
 }
@@ -24,18 +24,12 @@ package org.nxtgenutils.io;
 
 /**
  * Interface to access information in a pileup record of a multi-pileup record in
- * a multi-pileup file generated with the samtools mpileup command.
+ * a multi-pileup file generated with the samtools mpileup command, i.e. the
+ * base call counts (see PileupCounts) along with the bases and qualities columns.
  *
  * @author Michael Mueller
  */
-public interface Pileup {
-
-    /**
-     * Returns the depth of coverage at the given sequence position.
-     *
-     * @return the depth of coverage
-     */
-    public int getCoverage();
+public interface Pileup extends PileupCounts {
 
     /**
      * Returns the base called at the given sequence position.
@@ -44,40 +38,6 @@ public interface Pileup {
      */
     public String getBases();
 
-    /**
-     * Returns the number of base calls that match the reference sequence.
-     *
-     * @return the number of base calls
-     */
-    public int getReferenceMatchCount();
-
-    /**
-     * Returns the number of times the specified base has been called at the
-     * given sequence position.
-     *
-     * @param base the base
-     * @return the number of base calls
-     */
-    public int getBaseCallCount(String base);
-
-    /**
-     * Returns the consensus base call at the given sequence position.
-     *
-     * @return the consensus base call
-     */
-    public String getConsensusBaseCall();
-
-    /**
-     * Returns the consensus base call at the given position using
-     * an allele frequency cutoff to call heterozygous positions.
-     *
-     * @param alleleFrequencyCutoff minimum frequency at which a base will
-     *                              be considered a second allele at the
-     *                              given position
-     * @return the consensus base call
-     */
-    public String getConsensusBaseCall(double alleleFrequencyCutoff);
-
     /**
      * Returns the parent MultiPileup instance.
      *
@@ -92,14 +52,6 @@ public interface Pileup {
      */
     public String getQualities();
 
-    /**
-     * Returns true if any of the reads pileup at the given positions contains
-     * evidence for an indel with respect to the reference sequence.
-     *
-     * @return true if there is evidence for an indel
-     */
-    public boolean hasIndels();
-
     /**
      * Returns the base called at the given sequence position omitting indel calls.
      *
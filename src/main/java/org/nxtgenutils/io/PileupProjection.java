@@ -0,0 +1,154 @@
+package org.nxtgenutils.io;
+
+import java.util.Arrays;
+
+/**
+ * This file is part of NxtGenUtils.
+ *
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The pileups and columns of a multi-pileup file a MultiPileupParser
+ * decodes. Pileups that are not selected are skipped when a line is
+ * parsed and the records only hold the selected pileups, in the order
+ * of their indices. The bases and qualities columns can be excluded, in
+ * which case they are returned as empty strings. Base call counts and
+ * consensus calls are derived from the bases column, so excluding it
+ * leaves only the depth of coverage of the pileups.
+ */
+public final class PileupProjection {
+
+    /**
+     * projection of all pileups and columns
+     */
+    public static final PileupProjection ALL = new PileupProjection(null, true, true);
+
+    //selected pileup indices in ascending order, null if all pileups are selected
+    private int[] pileupIndices;
+    //projected index by pileup index, -1 if the pileup is not selected
+    private int[] projectedIndices;
+
+    private boolean bases;
+    private boolean qualities;
+
+    /**
+     * Constructs a projection.
+     *
+     * @param pileupIndices the indices of the pileups to decode (0-based),
+     *                      or null to decode all pileups
+     * @param bases         true if the bases column is needed
+     * @param qualities     true if the qualities column is needed
+     */
+    public PileupProjection(int[] pileupIndices, boolean bases, boolean qualities) {
+
+        if (pileupIndices != null) {
+
+            this.pileupIndices = pileupIndices.clone();
+            Arrays.sort(this.pileupIndices);
+
+            if (this.pileupIndices.length > 0 && this.pileupIndices[0] < 0) {
+                throw new IllegalArgumentException("Pileup index must not be negative: " + this.pileupIndices[0]);
+            }
+
+            int maxIndex = this.pileupIndices.length == 0 ? -1 : this.pileupIndices[this.pileupIndices.length - 1];
+            projectedIndices = new int[maxIndex + 1];
+            Arrays.fill(projectedIndices, -1);
+
+            int projectedIndex = 0;
+            for (int pileupIndex : this.pileupIndices) {
+                if (projectedIndices[pileupIndex] < 0) {
+                    projectedIndices[pileupIndex] = projectedIndex++;
+                }
+            }
+
+            if (projectedIndex < this.pileupIndices.length) {
+                throw new IllegalArgumentException("Duplicate pileup index: " + Arrays.toString(pileupIndices));
+            }
+
+        }
+
+        this.bases = bases;
+        this.qualities = qualities;
+
+    }
+
+    /**
+     * Returns true if all pileups are selected.
+     *
+     * @return true if all pileups are selected
+     */
+    public boolean isAllPileups() {
+        return pileupIndices == null;
+    }
+
+    /**
+     * Returns the indices of the selected pileups in ascending order,
+     * or null if all pileups are selected.
+     *
+     * @return the selected pileup indices
+     */
+    public int[] getPileupIndices() {
+        return pileupIndices == null ? null : pileupIndices.clone();
+    }
+
+    /**
+     * Returns true if a pileup is selected.
+     *
+     * @param pileupIndex the index of the pileup in the mpileup line
+     * @return true if the pileup is selected
+     */
+    public boolean isSelected(int pileupIndex) {
+        return pileupIndices == null || (pileupIndex < projectedIndices.length && projectedIndices[pileupIndex] >= 0);
+    }
+
+    /**
+     * Returns the index of the last selected pileup, after which the
+     * remaining columns of a line can be skipped.
+     *
+     * @return the index of the last selected pileup or Integer.MAX_VALUE
+     *         if all pileups are selected
+     */
+    public int getLastPileupIndex() {
+        return pileupIndices == null ? Integer.MAX_VALUE : projectedIndices.length - 1;
+    }
+
+    /**
+     * Returns true if the bases column is decoded.
+     *
+     * @return true if the bases column is decoded
+     */
+    public boolean includesBases() {
+        return bases;
+    }
+
+    /**
+     * Returns true if the qualities column is decoded.
+     *
+     * @return true if the qualities column is decoded
+     */
+    public boolean includesQualities() {
+        return qualities;
+    }
+
+    @Override
+    public String toString() {
+        return "PileupProjection{" +
+                "pileups=" + (pileupIndices == null ? "all" : Arrays.toString(pileupIndices)) +
+                ", bases=" + bases +
+                ", qualities=" + qualities +
+                '}';
+    }
+
+}
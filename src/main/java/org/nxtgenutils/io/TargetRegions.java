@@ -0,0 +1,352 @@
+package org.nxtgenutils.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The target regions of a MultiPileupParser, e.g. the targets of a capture
+ * panel read from a BED file. Overlapping and adjacent regions are merged,
+ * so that each position lies in at most one region. The regions of a
+ * sequence are addressed by their index in position order.
+ * <p/>
+ * Positions are 1-based and region ends are inclusive, as the positions of
+ * the pileup records, while BED records are 0-based with exclusive ends.
+ */
+public final class TargetRegions {
+
+    //the end of a region spanning a whole sequence
+    private static final int SEQUENCE_END = Integer.MAX_VALUE;
+
+    //region starts and ends by sequence name in the order the sequences appear in
+    private Map<String, int[]> starts = new LinkedHashMap<String, int[]>();
+    private Map<String, int[]> ends = new LinkedHashMap<String, int[]>();
+
+    private int regionCount = 0;
+
+    /**
+     * Constructs the target regions of BED records.
+     *
+     * @param bedRecords the BED records, e.g. of a SimpleBedParser
+     */
+    public TargetRegions(Iterator<BedRecord> bedRecords) {
+
+        Map<String, List<int[]>> regions = new LinkedHashMap<String, List<int[]>>();
+
+        while (bedRecords.hasNext()) {
+
+            BedRecord bedRecord = bedRecords.next();
+
+            if (bedRecord.getEnd() <= bedRecord.getStart()) {
+                continue;
+            }
+
+            List<int[]> sequenceRegions = regions.get(bedRecord.getChromosome());
+            if (sequenceRegions == null) {
+                sequenceRegions = new ArrayList<int[]>();
+                regions.put(bedRecord.getChromosome(), sequenceRegions);
+            }
+            sequenceRegions.add(new int[]{bedRecord.getStart() + 1, bedRecord.getEnd()});
+
+        }
+
+        for (Map.Entry<String, List<int[]>> entry : regions.entrySet()) {
+            addRegions(entry.getKey(), entry.getValue());
+        }
+
+    }
+
+    private TargetRegions() {
+    }
+
+    /**
+     * Returns a region spanning a whole sequence, e.g. to restrict a parser
+     * to the sequence of an unmethylated control.
+     *
+     * @param sequenceName the name of the sequence
+     * @return the region of the sequence
+     */
+    public static TargetRegions forSequence(String sequenceName) {
+        return new TargetRegions().withSequence(sequenceName);
+    }
+
+    /**
+     * Returns the regions extended by a number of positions on either side,
+     * e.g. to include the di-nucleotides overlapping the ends of the regions.
+     *
+     * @param positions the number of positions to add on either side
+     * @return the extended regions
+     */
+    public TargetRegions expand(int positions) {
+
+        TargetRegions retVal = new TargetRegions();
+
+        for (String sequenceName : starts.keySet()) {
+
+            int[] sequenceStarts = starts.get(sequenceName);
+            int[] sequenceEnds = ends.get(sequenceName);
+
+            List<int[]> regions = new ArrayList<int[]>(sequenceStarts.length);
+            for (int i = 0; i < sequenceStarts.length; i++) {
+                regions.add(new int[]{Math.max(1, sequenceStarts[i] - positions), (int) Math.min((long) sequenceEnds[i] + positions, SEQUENCE_END)});
+            }
+
+            retVal.addRegions(sequenceName, regions);
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the regions with a whole sequence added, e.g. the sequence of
+     * an unmethylated control.
+     *
+     * @param sequenceName the name of the sequence
+     * @return the regions including the sequence
+     */
+    public TargetRegions withSequence(String sequenceName) {
+
+        TargetRegions retVal = restrict(new ArrayList<String>(starts.keySet()));
+
+        retVal.regionCount -= retVal.getRegionCount(sequenceName);
+        retVal.addRegions(sequenceName, Collections.singletonList(new int[]{1, SEQUENCE_END}));
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the regions of some sequences, e.g. to restrict the
+     * iteration over an indexed file to a reference sequence.
+     *
+     * @param sequenceNames the names of the sequences
+     * @return the regions of the sequences
+     */
+    public TargetRegions restrict(List<String> sequenceNames) {
+
+        TargetRegions retVal = new TargetRegions();
+
+        for (String sequenceName : sequenceNames) {
+            if (starts.containsKey(sequenceName)) {
+                retVal.starts.put(sequenceName, starts.get(sequenceName));
+                retVal.ends.put(sequenceName, ends.get(sequenceName));
+                retVal.regionCount += starts.get(sequenceName).length;
+            }
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the names of the sequences with regions in the order they
+     * first appeared in.
+     *
+     * @return the sequence names
+     */
+    public List<String> getSequenceNames() {
+        return Collections.unmodifiableList(new ArrayList<String>(starts.keySet()));
+    }
+
+    /**
+     * Returns true if a sequence has regions.
+     *
+     * @param sequenceName the sequence name
+     * @return true if the sequence has regions
+     */
+    public boolean hasSequence(String sequenceName) {
+        return starts.containsKey(sequenceName);
+    }
+
+    /**
+     * Returns the number of regions.
+     *
+     * @return the number of regions of all sequences
+     */
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * Returns the number of regions of a sequence.
+     *
+     * @param sequenceName the sequence name
+     * @return the number of regions
+     */
+    public int getRegionCount(String sequenceName) {
+        int[] sequenceStarts = starts.get(sequenceName);
+        return sequenceStarts == null ? 0 : sequenceStarts.length;
+    }
+
+    /**
+     * Returns the index of the region holding a position.
+     *
+     * @param sequenceName the sequence name
+     * @param position     the position (1-based)
+     * @return the index of the region or -1 if the position is not targeted
+     */
+    public int getRegionIndex(String sequenceName, int position) {
+
+        int[] sequenceStarts = starts.get(sequenceName);
+        if (sequenceStarts == null) {
+            return -1;
+        }
+
+        int retVal = getNextRegionIndex(sequenceName, position);
+        if (retVal == sequenceStarts.length || sequenceStarts[retVal] > position) {
+            return -1;
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the index of the first region of a sequence that ends at or
+     * after a position, i.e. the region holding the position or the next
+     * region.
+     *
+     * @param sequenceName the sequence name
+     * @param position     the position (1-based)
+     * @return the index of the region or getRegionCount(sequenceName) if
+     *         no region ends at or after the position
+     */
+    public int getNextRegionIndex(String sequenceName, int position) {
+
+        int[] sequenceEnds = ends.get(sequenceName);
+        if (sequenceEnds == null) {
+            return 0;
+        }
+
+        int retVal = Arrays.binarySearch(sequenceEnds, position);
+
+        return retVal < 0 ? -retVal - 1 : retVal;
+
+    }
+
+    /**
+     * Returns the first position of a region.
+     *
+     * @param sequenceName the sequence name
+     * @param index        the index of the region
+     * @return the start of the region (1-based)
+     */
+    public int getStart(String sequenceName, int index) {
+        return starts.get(sequenceName)[index];
+    }
+
+    /**
+     * Returns the last position of a region.
+     *
+     * @param sequenceName the sequence name
+     * @param index        the index of the region
+     * @return the end of the region (1-based, inclusive)
+     */
+    public int getEnd(String sequenceName, int index) {
+        return ends.get(sequenceName)[index];
+    }
+
+    /**
+     * Sorts and merges the regions of a sequence.
+     */
+    private void addRegions(String sequenceName, List<int[]> regions) {
+
+        int[][] sorted = regions.toArray(new int[regions.size()][]);
+        Arrays.sort(sorted, new Comparator<int[]>() {
+            public int compare(int[] region1, int[] region2) {
+                return region1[0] < region2[0] ? -1 : (region1[0] == region2[0] ? 0 : 1);
+            }
+        });
+
+        int[] sequenceStarts = new int[sorted.length];
+        int[] sequenceEnds = new int[sorted.length];
+        int count = 0;
+
+        for (int[] region : sorted) {
+            if (count > 0 && region[0] <= (long) sequenceEnds[count - 1] + 1) {
+                sequenceEnds[count - 1] = Math.max(sequenceEnds[count - 1], region[1]);
+            } else {
+                sequenceStarts[count] = region[0];
+                sequenceEnds[count] = region[1];
+                count++;
+            }
+        }
+
+        starts.put(sequenceName, Arrays.copyOf(sequenceStarts, count));
+        ends.put(sequenceName, Arrays.copyOf(sequenceEnds, count));
+        regionCount += count;
+
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TargetRegions)) {
+            return false;
+        }
+
+        TargetRegions regions = (TargetRegions) o;
+
+        if (!starts.keySet().equals(regions.starts.keySet())) {
+            return false;
+        }
+
+        for (String sequenceName : starts.keySet()) {
+            if (!Arrays.equals(starts.get(sequenceName), regions.starts.get(sequenceName)) ||
+                    !Arrays.equals(ends.get(sequenceName), regions.ends.get(sequenceName))) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    @Override
+    public int hashCode() {
+
+        int retVal = 0;
+        for (String sequenceName : starts.keySet()) {
+            retVal += sequenceName.hashCode() ^ (31 * Arrays.hashCode(starts.get(sequenceName)) + Arrays.hashCode(ends.get(sequenceName)));
+        }
+
+        return retVal;
+
+    }
+
+    @Override
+    public String toString() {
+        return "TargetRegions{" +
+                "regions=" + regionCount +
+                ", sequences=" + starts.size() +
+                '}';
+    }
+
+}
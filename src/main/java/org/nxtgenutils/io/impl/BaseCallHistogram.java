@@ -0,0 +1,444 @@
+package org.nxtgenutils.io.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Counts the symbols of a pileup bases column in a single pass and derives
+ * base call counts and consensus base calls from the counts.
+ * <p/>
+ * The counts of a pileup occupy SIZE consecutive slots of an int array, so
+ * that the counts of all pileups of a multi-pileup record can be held in one
+ * array. Upper case base calls (forward strand) and lower case base calls
+ * (reverse strand) are counted separately. Read start markers and the mapping
+ * quality that follows them, read end markers and inserted or deleted bases
+ * are not counted as base calls. Base calls with a quality below a minimum base
+ * quality can be dropped while counting, in which case the qualities column is
+ * read along with the bases column.
+ */
+public final class BaseCallHistogram {
+
+    /**
+     * slots of the forward strand base calls A, C, G, T and N
+     */
+    public static final int FORWARD_A = 0;
+    public static final int FORWARD_C = 1;
+    public static final int FORWARD_G = 2;
+    public static final int FORWARD_T = 3;
+    public static final int FORWARD_N = 4;
+
+    /**
+     * slots of the reverse strand base calls a, c, g, t and n
+     */
+    public static final int REVERSE_A = 5;
+    public static final int REVERSE_C = 6;
+    public static final int REVERSE_G = 7;
+    public static final int REVERSE_T = 8;
+    public static final int REVERSE_N = 9;
+
+    /**
+     * slots of the forward (.) and reverse (,) strand reference matches
+     */
+    public static final int FORWARD_REFERENCE = 10;
+    public static final int REVERSE_REFERENCE = 11;
+
+    /**
+     * slot of the deleted base placeholders (* or #)
+     */
+    public static final int DELETION = 12;
+
+    /**
+     * slot of the number of insertions and deletions (+n or -n)
+     */
+    public static final int INDEL = 13;
+
+    /**
+     * number of slots per pileup
+     */
+    public static final int SIZE = 14;
+
+    /**
+     * base indices in the order A, C, G, T, N
+     */
+    public static final int A = 0;
+    public static final int C = 1;
+    public static final int G = 2;
+    public static final int T = 3;
+    public static final int N = 4;
+
+    /**
+     * consensus calls in the order of evaluation used by Pileup.getConsensusBaseCall()
+     */
+    private static final int[] CONSENSUS_ORDER = {A, T, C, G};
+
+    private static final char[] BASE_CHARACTERS = {'A', 'C', 'G', 'T', 'N'};
+
+    //consensus base call strings by consensus code
+    private static final String[] CONSENSUS_STRINGS = new String[25];
+
+    //slot offsets of base call symbols
+    private static final byte[] SYMBOL_SLOTS = new byte[256];
+
+    private static final byte NO_SLOT = -1;
+    private static final byte READ_START = -2;
+    private static final byte INDEL_START = -3;
+    private static final byte REFERENCE_SKIP = -4;
+
+    /**
+     * offset of the ASCII encoded Phred quality scores
+     */
+    public static final int QUALITY_OFFSET = 33;
+
+    static {
+
+        for (int i = 0; i < SYMBOL_SLOTS.length; i++) {
+            SYMBOL_SLOTS[i] = NO_SLOT;
+        }
+
+        SYMBOL_SLOTS['A'] = FORWARD_A;
+        SYMBOL_SLOTS['C'] = FORWARD_C;
+        SYMBOL_SLOTS['G'] = FORWARD_G;
+        SYMBOL_SLOTS['T'] = FORWARD_T;
+        SYMBOL_SLOTS['N'] = FORWARD_N;
+        SYMBOL_SLOTS['a'] = REVERSE_A;
+        SYMBOL_SLOTS['c'] = REVERSE_C;
+        SYMBOL_SLOTS['g'] = REVERSE_G;
+        SYMBOL_SLOTS['t'] = REVERSE_T;
+        SYMBOL_SLOTS['n'] = REVERSE_N;
+        SYMBOL_SLOTS['.'] = FORWARD_REFERENCE;
+        SYMBOL_SLOTS[','] = REVERSE_REFERENCE;
+        SYMBOL_SLOTS['*'] = DELETION;
+        SYMBOL_SLOTS['#'] = DELETION;
+        SYMBOL_SLOTS['^'] = READ_START;
+        SYMBOL_SLOTS['+'] = INDEL_START;
+        SYMBOL_SLOTS['-'] = INDEL_START;
+        SYMBOL_SLOTS['<'] = REFERENCE_SKIP;
+        SYMBOL_SLOTS['>'] = REFERENCE_SKIP;
+
+        for (int primary = 0; primary < BASE_CHARACTERS.length; primary++) {
+            for (int secondary = 0; secondary < BASE_CHARACTERS.length; secondary++) {
+                String consensus = String.valueOf(BASE_CHARACTERS[primary]);
+                if (secondary != N) {
+                    consensus = consensus + "/" + BASE_CHARACTERS[secondary];
+                }
+                CONSENSUS_STRINGS[primary * 5 + secondary] = consensus;
+            }
+        }
+
+    }
+
+    private BaseCallHistogram() {
+    }
+
+    /**
+     * Counts the symbols of a pileup bases column.
+     *
+     * @param buffer the buffer holding the bases column
+     * @param from   the buffer index of the first base
+     * @param to     the buffer index after the last base
+     * @param counts the array to write the counts to
+     * @param offset the index of the first slot to write to
+     */
+    public static void count(ByteBuffer buffer, int from, int to, int[] counts, int offset) {
+
+        for (int i = offset; i < offset + SIZE; i++) {
+            counts[i] = 0;
+        }
+
+        for (int i = from; i < to; i++) {
+
+            int slot = SYMBOL_SLOTS[buffer.get(i) & 0xff];
+
+            if (slot >= 0) {
+                counts[offset + slot]++;
+            } else if (slot == READ_START) {
+                //skip mapping quality
+                i++;
+            } else if (slot == INDEL_START) {
+                counts[offset + INDEL]++;
+                i = skipIndel(buffer, i, to);
+            }
+
+        }
+
+    }
+
+    /**
+     * Counts the symbols of a pileup bases column, dropping the base calls
+     * with a quality below a minimum base quality. The qualities column holds
+     * one quality per base call, deleted base placeholder and reference skip,
+     * and is read along with the bases column. Deleted base placeholders are
+     * not dropped.
+     *
+     * @param buffer         the buffer holding the bases column
+     * @param from           the buffer index of the first base
+     * @param to             the buffer index after the last base
+     * @param qualities      the buffer holding the qualities column
+     * @param qualitiesFrom  the buffer index of the first quality
+     * @param qualitiesTo    the buffer index after the last quality
+     * @param minBaseQuality the minimum base quality (Phred score)
+     * @param counts         the array to write the counts to
+     * @param offset         the index of the first slot to write to
+     * @return the number of dropped base calls
+     */
+    public static int count(ByteBuffer buffer, int from, int to, ByteBuffer qualities, int qualitiesFrom, int qualitiesTo,
+                            int minBaseQuality, int[] counts, int offset) {
+
+        for (int i = offset; i < offset + SIZE; i++) {
+            counts[i] = 0;
+        }
+
+        int retVal = 0;
+        int minQualityCharacter = minBaseQuality + QUALITY_OFFSET;
+
+        int q = qualitiesFrom;
+        for (int i = from; i < to; i++) {
+
+            int slot = SYMBOL_SLOTS[buffer.get(i) & 0xff];
+
+            if (slot >= 0) {
+                //calls without a quality are kept
+                if (slot != DELETION && q < qualitiesTo && (qualities.get(q) & 0xff) < minQualityCharacter) {
+                    retVal++;
+                } else {
+                    counts[offset + slot]++;
+                }
+                q++;
+            } else if (slot == REFERENCE_SKIP) {
+                q++;
+            } else if (slot == READ_START) {
+                //skip mapping quality
+                i++;
+            } else if (slot == INDEL_START) {
+                counts[offset + INDEL]++;
+                i = skipIndel(buffer, i, to);
+            }
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the buffer index of the last byte of an indel, e.g. +2AC,
+     * starting at the specified index.
+     */
+    private static int skipIndel(ByteBuffer buffer, int indelStart, int to) {
+
+        int i = indelStart;
+        int length = 0;
+        while (i + 1 < to) {
+            int digit = buffer.get(i + 1) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            length = length * 10 + digit;
+            i++;
+        }
+
+        return i + length;
+
+    }
+
+    /**
+     * Counts the symbols of a pileup bases column.
+     *
+     * @param bases  the bases column
+     * @param counts the array to write the counts to
+     * @param offset the index of the first slot to write to
+     */
+    public static void count(byte[] bases, int[] counts, int offset) {
+        count(ByteBuffer.wrap(bases), 0, bases.length, counts, offset);
+    }
+
+    /**
+     * Counts the symbols of a pileup bases column, dropping the base calls
+     * with a quality below a minimum base quality.
+     *
+     * @param bases          the bases column
+     * @param qualities      the qualities column
+     * @param minBaseQuality the minimum base quality (Phred score)
+     * @param counts         the array to write the counts to
+     * @param offset         the index of the first slot to write to
+     * @return the number of dropped base calls
+     */
+    public static int count(byte[] bases, byte[] qualities, int minBaseQuality, int[] counts, int offset) {
+        return count(ByteBuffer.wrap(bases), 0, bases.length, ByteBuffer.wrap(qualities), 0, qualities.length,
+                minBaseQuality, counts, offset);
+    }
+
+    /**
+     * Returns the index (A, C, G, T or N) of a base or -1 if the
+     * character is not a base.
+     *
+     * @param base the base character
+     * @return the base index
+     */
+    public static int baseIndex(int base) {
+        switch (base) {
+            case 'A':
+            case 'a':
+                return A;
+            case 'C':
+            case 'c':
+                return C;
+            case 'G':
+            case 'g':
+                return G;
+            case 'T':
+            case 't':
+                return T;
+            case 'N':
+            case 'n':
+                return N;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the number of reference matches on both strands.
+     *
+     * @param counts the counts
+     * @param offset the index of the first slot of the pileup
+     * @return the number of reference matches
+     */
+    public static int getReferenceMatchCount(int[] counts, int offset) {
+        return counts[offset + FORWARD_REFERENCE] + counts[offset + REVERSE_REFERENCE];
+    }
+
+    /**
+     * Returns the number of times a base has been called on both strands.
+     * Reference matches are counted as calls of the reference base.
+     *
+     * @param counts        the counts
+     * @param offset        the index of the first slot of the pileup
+     * @param baseIndex     the index of the base (A, C, G, T or N)
+     * @param referenceBase the index of the reference base
+     * @return the number of base calls
+     */
+    public static int getBaseCallCount(int[] counts, int offset, int baseIndex, int referenceBase) {
+
+        if (baseIndex < 0) {
+            return 0;
+        }
+
+        if (baseIndex == referenceBase) {
+            return getReferenceMatchCount(counts, offset);
+        }
+
+        return counts[offset + FORWARD_A + baseIndex] + counts[offset + REVERSE_A + baseIndex];
+
+    }
+
+    /**
+     * Returns true if the pileup contains an insertion or deletion.
+     *
+     * @param counts the counts
+     * @param offset the index of the first slot of the pileup
+     * @return true if there is evidence for an indel
+     */
+    public static boolean hasIndels(int[] counts, int offset) {
+        return counts[offset + INDEL] > 0;
+    }
+
+    /**
+     * Returns the consensus code of a pileup. The base with the highest count is
+     * the primary call. The first base in alphabetical order other than the primary
+     * call with a frequency of at least the allele frequency cutoff is the secondary
+     * call of a heterozygous position.
+     *
+     * @param counts                the counts
+     * @param offset                the index of the first slot of the pileup
+     * @param referenceBase         the index of the reference base
+     * @param coverage              the depth of coverage
+     * @param alleleFrequencyCutoff minimum frequency of a second allele
+     * @return the consensus code
+     */
+    public static int getConsensusCode(int[] counts, int offset, int referenceBase, int coverage, double alleleFrequencyCutoff) {
+
+        int primary = N;
+        int maxCount = 0;
+
+        for (int base : CONSENSUS_ORDER) {
+            int baseCount = getBaseCallCount(counts, offset, base, referenceBase);
+            if (baseCount > maxCount) {
+                maxCount = baseCount;
+                primary = base;
+            }
+        }
+
+        int secondary = N;
+        for (int base = A; base <= T; base++) {
+            double frequency = (double) getBaseCallCount(counts, offset, base, referenceBase) / (double) coverage;
+            if (frequency >= alleleFrequencyCutoff && base != primary) {
+                secondary = base;
+                break;
+            }
+        }
+
+        return getConsensusCode(primary, secondary);
+
+    }
+
+    /**
+     * Returns the consensus code of a primary and secondary base call.
+     *
+     * @param primary   the index of the primary base call
+     * @param secondary the index of the secondary base call or N if
+     *                  the call is homozygous
+     * @return the consensus code
+     */
+    public static int getConsensusCode(int primary, int secondary) {
+        return primary * 5 + secondary;
+    }
+
+    /**
+     * Returns the index of the primary base call of a consensus code.
+     *
+     * @param consensusCode the consensus code
+     * @return the index of the primary base call
+     */
+    public static int getPrimaryBase(int consensusCode) {
+        return consensusCode / 5;
+    }
+
+    /**
+     * Returns the index of the secondary base call of a consensus code,
+     * which is N for homozygous calls.
+     *
+     * @param consensusCode the consensus code
+     * @return the index of the secondary base call
+     */
+    public static int getSecondaryBase(int consensusCode) {
+        return consensusCode % 5;
+    }
+
+    /**
+     * Returns the consensus base call string of a consensus code, e.g. C or C/T.
+     *
+     * @param consensusCode the consensus code
+     * @return the consensus base call
+     */
+    public static String getConsensusString(int consensusCode) {
+        return CONSENSUS_STRINGS[consensusCode];
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.util.BgzfBlock;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Chunk source for BGZF compressed pileup files. The block headers and
+ * footers are scanned when the source is opened to map uncompressed offsets
+ * to blocks. Reads inflate the blocks covering the requested range.
+ */
+class BgzfPileupChunkSource implements PileupChunkSource {
+
+    private FileChannel channel;
+
+    //file offsets and uncompressed start offsets of the blocks,
+    //with the end offsets of the last block as last element
+    private long[] blockOffsets;
+    private long[] dataOffsets;
+    private int blockCount;
+
+    BgzfPileupChunkSource(File file) throws IOException {
+
+        this.channel = new FileInputStream(file).getChannel();
+
+        blockOffsets = new long[1024];
+        dataOffsets = new long[1024];
+
+        byte[] header = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+        long blockOffset = 0;
+        long dataOffset = 0;
+        int blockSize;
+        while ((blockSize = BgzfBlock.readBlockSize(channel, blockOffset, header)) > 0) {
+
+            int inputSize = BgzfBlock.readInputSize(channel, blockOffset, blockSize);
+
+            //skip empty blocks such as the end of file marker
+            if (inputSize > 0) {
+                if (blockCount + 1 >= blockOffsets.length) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+                    dataOffsets = Arrays.copyOf(dataOffsets, dataOffsets.length * 2);
+                }
+                blockOffsets[blockCount] = blockOffset;
+                dataOffsets[blockCount] = dataOffset;
+                blockCount++;
+            }
+
+            blockOffset += blockSize;
+            dataOffset += inputSize;
+
+        }
+
+        blockOffsets[blockCount] = blockOffset;
+        dataOffsets[blockCount] = dataOffset;
+
+    }
+
+    public long getLength() {
+        return dataOffsets[blockCount];
+    }
+
+    public long[] getSplitOffsets(long chunkSize) {
+
+        long[] retVal = new long[Math.max(1, blockCount)];
+        int chunkCount = 1;
+
+        long chunkStart = 0;
+        for (int i = 1; i < blockCount; i++) {
+            if (dataOffsets[i] - chunkStart >= chunkSize) {
+                chunkStart = dataOffsets[i];
+                retVal[chunkCount++] = chunkStart;
+            }
+        }
+
+        return Arrays.copyOf(retVal, chunkCount);
+
+    }
+
+    public byte[] read(long offset, int length) throws IOException {
+
+        long end = Math.min(offset + length, getLength());
+        if (end <= offset) {
+            return new byte[0];
+        }
+
+        byte[] retVal = new byte[(int) (end - offset)];
+        byte[] block = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+        byte[] data = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+        Inflater inflater = new Inflater(true);
+
+        try {
+
+            //last block starting at or before the offset
+            int i = Arrays.binarySearch(dataOffsets, 0, blockCount, offset);
+            if (i < 0) {
+                i = -i - 2;
+            }
+
+            for (; i < blockCount && dataOffsets[i] < end; i++) {
+
+                int blockSize = BgzfBlock.readBlock(channel, blockOffsets[i], block);
+                int dataSize = BgzfBlock.inflate(block, blockSize, data, inflater);
+
+                long from = Math.max(offset, dataOffsets[i]);
+                long to = Math.min(end, dataOffsets[i] + dataSize);
+                System.arraycopy(data, (int) (from - dataOffsets[i]), retVal, (int) (from - offset), (int) (to - from));
+
+            }
+
+        } finally {
+            inflater.end();
+        }
+
+        return retVal;
+
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
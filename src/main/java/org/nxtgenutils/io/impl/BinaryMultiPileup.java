@@ -0,0 +1,407 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.Pileup;
+import org.nxtgenutils.io.PileupCounts;
+import org.nxtgenutils.io.PileupProjection;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * MultiPileup record decoded from a binary pileup file (see
+ * BinaryPileupWriter). The record holds the depth of coverage and the
+ * base call counts of its pileups and can be decoded repeatedly, in
+ * which case its arrays and pileup views are reused. The bases and
+ * qualities columns of its pileups are rebuilt from the counts, see
+ * getPileup(int).
+ */
+public class BinaryMultiPileup implements MultiPileup {
+
+    private static final String[] BASE_STRINGS = new String[128];
+
+    //reference base characters by base code, upper and lower case
+    private static final byte[] REFERENCE_BASES = {'A', 'C', 'G', 'T', 'N'};
+    private static final byte[] MASKED_REFERENCE_BASES = {'a', 'c', 'g', 't', 'n'};
+
+    static {
+        for (int i = 0; i < BASE_STRINGS.length; i++) {
+            BASE_STRINGS[i] = String.valueOf((char) i);
+        }
+    }
+
+    private int sequenceId = -1;
+    private String sequenceName;
+    private int position;
+    private byte referenceBase;
+    private String recordString;
+
+    private int pileupCount = 0;
+    private int[] coverage = new int[0];
+
+    //base call counts and consensus codes, see BaseCallHistogram
+    private int[] counts = new int[0];
+    private int[] consensusCodes = new int[0];
+
+    //pileup views, reused when the record is decoded again
+    private BinaryPileup[] views = new BinaryPileup[0];
+
+    /**
+     * Returns a copy of a record holding the depth of coverage and the base
+     * call counts of its pileups. Unlike records of ByteMultiPileupParser,
+     * which read their pileups from the parser buffer, the copy remains
+     * valid after the parser has moved on. The bases and qualities columns
+     * of the pileups of the copy are rebuilt from the counts.
+     *
+     * @param multiPileup the record to copy
+     * @return the copy
+     */
+    public static BinaryMultiPileup copyOf(MultiPileup multiPileup) {
+
+        BinaryMultiPileup retVal = new BinaryMultiPileup();
+        retVal.copyFrom(multiPileup);
+
+        return retVal;
+
+    }
+
+    /**
+     * Overwrites the record with a copy of another record, see
+     * copyOf(MultiPileup), reusing the arrays of the record. The pileups
+     * of the copy can be examined on several threads, as long as each
+     * pileup is examined by a single thread.
+     *
+     * @param multiPileup the record to copy
+     */
+    public void copyFrom(MultiPileup multiPileup) {
+
+        sequenceId = -1;
+        sequenceName = multiPileup.getSequenceName();
+        position = multiPileup.getPosition();
+        referenceBase = (byte) multiPileup.getReferenceBase().charAt(0);
+        recordString = null;
+
+        pileupCount = multiPileup.getPileupCount();
+        ensureCapacity(pileupCount);
+
+        for (int i = 0; i < pileupCount; i++) {
+            copyCounts(multiPileup, i, counts, i * BaseCallHistogram.SIZE);
+            //the coverage of a ByteMultiPileup is final once its base calls are counted
+            coverage[i] = multiPileup.getPileupCounts(i).getCoverage();
+            consensusCodes[i] = -1;
+        }
+
+        //the views are created on demand, one slot per pileup
+        if (views.length < pileupCount) {
+            BinaryPileup[] grown = new BinaryPileup[coverage.length];
+            System.arraycopy(views, 0, grown, 0, views.length);
+            views = grown;
+        }
+
+    }
+
+    /**
+     * Copies the base call counts of a pileup of any record, see
+     * BaseCallHistogram.
+     *
+     * @param multiPileup the record
+     * @param index       the pileup index
+     * @param dest        the array to copy the counts to
+     * @param offset      the index of the first slot to copy to
+     */
+    static void copyCounts(MultiPileup multiPileup, int index, int[] dest, int offset) {
+
+        if (multiPileup instanceof ByteMultiPileup) {
+            ((ByteMultiPileup) multiPileup).copyCounts(index, dest, offset);
+        } else if (multiPileup instanceof BinaryMultiPileup) {
+            ((BinaryMultiPileup) multiPileup).copyCounts(index, dest, offset);
+        } else {
+            BaseCallHistogram.count(multiPileup.getPileup(index).getBases().getBytes(), dest, offset);
+        }
+
+    }
+
+    /**
+     * Decodes the record at the current position of a reader and moves the
+     * reader to the next record.
+     *
+     * @param reader   the reader
+     * @param previous the previous record of the file, or null for the first
+     *                 record, from which the sequence and position are derived
+     */
+    void decode(MappedPileupReader reader, BinaryMultiPileup previous) throws IOException {
+        decode(reader, previous, PileupProjection.ALL);
+    }
+
+    /**
+     * Decodes the selected pileups of the record at the current position of
+     * a reader and moves the reader to the next record. The counts of the
+     * pileups that are not selected are skipped.
+     *
+     * @param reader     the reader
+     * @param previous   the previous record of the file, or null for the first
+     *                   record, from which the sequence and position are derived
+     * @param projection the pileups to decode
+     */
+    void decode(MappedPileupReader reader, BinaryMultiPileup previous, PileupProjection projection) throws IOException {
+
+        reader.mapRecord();
+        recordString = null;
+
+        int flags = reader.readByte();
+        int baseCode = flags & BinaryPileupWriter.REFERENCE_BASE_MASK;
+        if (baseCode == BinaryPileupWriter.REFERENCE_OTHER) {
+            referenceBase = (byte) reader.readByte();
+        } else if ((flags & BinaryPileupWriter.REPEAT_MASKED) != 0) {
+            referenceBase = MASKED_REFERENCE_BASES[baseCode];
+        } else {
+            referenceBase = REFERENCE_BASES[baseCode];
+        }
+
+        if ((flags & BinaryPileupWriter.SEQUENCE_CHANGE) != 0) {
+            int id = reader.readVarInt();
+            if (id != sequenceId) {
+                sequenceId = id;
+                sequenceName = reader.getSequenceName(id);
+            }
+            position = reader.readVarInt();
+        } else if (previous == null) {
+            throw new IOException("Binary pileup record at offset " + reader.getPosition() + " lacks its sequence.");
+        } else {
+            sequenceId = previous.sequenceId;
+            sequenceName = previous.sequenceName;
+            position = previous.position + reader.readVarInt();
+        }
+
+        int fileCount = reader.getPileupCount();
+        int count = projection.isAllPileups() ? fileCount : projection.getPileupIndices().length;
+        pileupCount = count;
+        ensureCapacity(pileupCount);
+
+        int i = 0;
+        for (int pileupIndex = 0; pileupIndex < fileCount; pileupIndex++) {
+
+            if (!projection.isSelected(pileupIndex)) {
+                //the counts are varints and have to be read to find the next pileup
+                reader.readVarInt();
+                int mask = reader.readVarInt();
+                for (int slots = Integer.bitCount(mask); slots > 0; slots--) {
+                    reader.readVarInt();
+                }
+                continue;
+            }
+
+            coverage[i] = reader.readVarInt();
+            consensusCodes[i] = -1;
+
+            int offset = i * BaseCallHistogram.SIZE;
+            int mask = reader.readVarInt();
+            for (int slot = 0; slot < BaseCallHistogram.SIZE; slot++) {
+                counts[offset + slot] = (mask & (1 << slot)) != 0 ? reader.readVarInt() : 0;
+            }
+            i++;
+
+        }
+
+        if (i < pileupCount) {
+            throw new IOException("Binary pileup record at offset " + reader.getPosition() + " has " + fileCount
+                    + " pileups, projection: " + projection);
+        }
+
+    }
+
+    /**
+     * Adds a pileup. Not supported, the pileups of a decoded
+     * record are defined by the binary pileup file.
+     *
+     * @param pileup the pileup record.
+     */
+    public void addPileup(Pileup pileup) {
+        throw new UnsupportedOperationException("Pileups of a decoded binary pileup record cannot be modified.");
+    }
+
+    public int getPileupCount() {
+        return pileupCount;
+    }
+
+    /**
+     * Returns the pileups in the record, see getPileup(int).
+     *
+     * @return a set of pileup records
+     */
+    public Set<Pileup> getPileups() {
+
+        Set<Pileup> retVal = new LinkedHashSet<Pileup>();
+
+        for (int i = 0; i < pileupCount; i++) {
+            retVal.add(getPileup(i));
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the pileup at an index. Its bases and qualities columns are
+     * rebuilt from the base call counts, as binary pileup files store the
+     * counts only (see BinaryPileup).
+     *
+     * @param index the pileup index
+     * @return the pileup record
+     */
+    public Pileup getPileup(int index) {
+
+        if (index < 0 || index >= pileupCount) {
+            throw new IndexOutOfBoundsException("Pileup index: " + index + ", pileup count: " + pileupCount);
+        }
+
+        if (views.length < pileupCount) {
+            BinaryPileup[] grown = new BinaryPileup[coverage.length];
+            System.arraycopy(views, 0, grown, 0, views.length);
+            views = grown;
+        }
+
+        if (views[index] == null) {
+            views[index] = new BinaryPileup(this, index);
+        }
+
+        return views[index];
+
+    }
+
+    public PileupCounts getPileupCounts(int index) {
+        return getPileup(index);
+    }
+
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getReferenceBase() {
+        return BASE_STRINGS[referenceBase & 0x7f];
+    }
+
+    /**
+     * Returns the record string, if set. Binary pileup files do not store
+     * the mpileup lines, so the record string is null unless it has been
+     * set explicitly.
+     *
+     * @return the record string
+     */
+    public String getRecordString() {
+        return recordString;
+    }
+
+    public void setRecordString(String recordString) {
+        this.recordString = recordString;
+    }
+
+    public boolean isRepeatMasked() {
+        //check if bases are in lower case
+        return referenceBase >= 'a' && referenceBase <= 'z';
+    }
+
+    int getCoverage(int index) {
+        return coverage[index];
+    }
+
+    int getCount(int index, int slot) {
+        return counts[index * BaseCallHistogram.SIZE + slot];
+    }
+
+    int getBaseCallCount(int index, int baseIndex) {
+        return BaseCallHistogram.getBaseCallCount(counts, index * BaseCallHistogram.SIZE, baseIndex, BaseCallHistogram.baseIndex(referenceBase));
+    }
+
+    int getReferenceMatchCount(int index) {
+        return BaseCallHistogram.getReferenceMatchCount(counts, index * BaseCallHistogram.SIZE);
+    }
+
+    boolean hasIndels(int index) {
+        return BaseCallHistogram.hasIndels(counts, index * BaseCallHistogram.SIZE);
+    }
+
+    /**
+     * Returns the consensus code of a pileup, see BaseCallHistogram.
+     * The consensus is memoized, as the same record is examined as
+     * part of consecutive di-nucleotide positions.
+     *
+     * @param index the pileup index
+     * @return the consensus code
+     */
+    int getConsensusCode(int index) {
+
+        if (consensusCodes[index] < 0) {
+            consensusCodes[index] = BaseCallHistogram.getConsensusCode(counts, index * BaseCallHistogram.SIZE,
+                    BaseCallHistogram.baseIndex(referenceBase), coverage[index], ByteMultiPileup.HETEROZYGOUS_ALLELE_FREQUENCY_CUTOFF);
+        }
+
+        return consensusCodes[index];
+
+    }
+
+    int getConsensusCode(int index, double alleleFrequencyCutoff) {
+
+        if (alleleFrequencyCutoff == ByteMultiPileup.HETEROZYGOUS_ALLELE_FREQUENCY_CUTOFF) {
+            return getConsensusCode(index);
+        }
+
+        return BaseCallHistogram.getConsensusCode(counts, index * BaseCallHistogram.SIZE,
+                BaseCallHistogram.baseIndex(referenceBase), coverage[index], alleleFrequencyCutoff);
+
+    }
+
+    /**
+     * Copies the base call counts of a pileup, see BaseCallHistogram.
+     *
+     * @param index  the pileup index
+     * @param dest   the array to copy the counts to
+     * @param offset the index of the first slot to copy to
+     */
+    void copyCounts(int index, int[] dest, int offset) {
+        System.arraycopy(counts, index * BaseCallHistogram.SIZE, dest, offset, BaseCallHistogram.SIZE);
+    }
+
+    private void ensureCapacity(int size) {
+
+        if (coverage.length < size) {
+            coverage = new int[size];
+            consensusCodes = new int[size];
+            counts = new int[size * BaseCallHistogram.SIZE];
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return "MultiPileup{" +
+                "sequenceName='" + sequenceName + '\'' +
+                ", position=" + position +
+                ", referenceBase='" + getReferenceBase() + '\'' +
+                ", pileups=" + pileupCount +
+                '}';
+    }
+
+}
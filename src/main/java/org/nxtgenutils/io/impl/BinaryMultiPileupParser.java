@@ -0,0 +1,504 @@
+package org.nxtgenutils.io.impl;
+
+import org.apache.log4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupCursor;
+import org.nxtgenutils.io.MultiPileupParser;
+import org.nxtgenutils.io.PileupProjection;
+import org.nxtgenutils.io.TargetRegions;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * MultiPileupParser implementation for binary pileup files written by
+ * BinaryPileupWriter, e.g. with the ConvertPileup command. The file is
+ * memory mapped and the records are decoded from the base call counts
+ * stored in the file, so no text is parsed. The records do not provide
+ * the bases and qualities columns of the pileups.
+ * <p/>
+ * Region queries seek to the first record of the queried sequence using
+ * the sequence table of the file. As for ByteMultiPileupParser, the
+ * cursor alternates between two records which are decoded in place.
+ * <p/>
+ * The sequence and position of a record are delta encoded, so records
+ * outside the target regions (see setTargets(TargetRegions)) are decoded
+ * before they are skipped. Decoding reads the stored base call counts,
+ * there is no text to parse. The cursor seeks past sequences without
+ * target regions through the sequence table.
+ */
+public class BinaryMultiPileupParser implements MultiPileupParser {
+
+    private File mPileupFile;
+    private PileupProjection projection = PileupProjection.ALL;
+    private TargetRegions targets = null;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(BinaryMultiPileupParser.class);
+
+    /**
+     * Constructs a parser instance for a binary pileup file.
+     *
+     * @param binaryPileupFile the binary pileup file
+     */
+    public BinaryMultiPileupParser(File binaryPileupFile) {
+        this.mPileupFile = binaryPileupFile;
+    }
+
+    /**
+     * Returns true if a file is a binary pileup file.
+     *
+     * @param file the file to check
+     * @return true if the file starts with the binary pileup magic number
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isBinaryPileup(File file) throws IOException {
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return file.length() >= BinaryPileupWriter.HEADER_SIZE && in.readInt() == BinaryPileupWriter.MAGIC;
+        } finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Returns the number of pileups of the records of the file.
+     *
+     * @return the number of pileups per record
+     */
+    public int getPileupCount() {
+
+        int retVal = 0;
+
+        try {
+            MappedPileupReader reader = new MappedPileupReader(mPileupFile);
+            retVal = reader.getPileupCount();
+            reader.close();
+        } catch (IOException e) {
+            logger.error("Exception while opening binary pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the names of the reference sequences in file order, taken
+     * from the sequence table of the file.
+     *
+     * @return the sequence names
+     */
+    public List<String> getSequenceNames() {
+
+        List<String> retVal = null;
+
+        try {
+            MappedPileupReader reader = new MappedPileupReader(mPileupFile);
+            retVal = reader.getSequenceNames();
+            reader.close();
+        } catch (IOException e) {
+            logger.error("Exception while opening binary pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns a MultiPileup iterator.
+     *
+     * @return the MultiPileup iterator
+     */
+    public Iterator<MultiPileup> iterator() {
+
+        BinaryRecordIterator retVal = null;
+
+        try {
+            retVal = new BinaryRecordIterator(new MappedPileupReader(mPileupFile));
+        } catch (IOException e) {
+            logger.error("Exception while opening binary pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns an iterator over the records of a region of a reference
+     * sequence. The iteration starts at the first record of the sequence,
+     * located through the sequence table of the file.
+     *
+     * @param sequenceName the name of the reference sequence
+     * @param start        the first position of the region (1-based)
+     * @param end          the last position of the region (inclusive)
+     * @return the MultiPileup iterator
+     */
+    public Iterator<MultiPileup> query(String sequenceName, int start, int end) {
+
+        BinaryRecordIterator retVal = null;
+
+        try {
+
+            MappedPileupReader reader = new MappedPileupReader(mPileupFile);
+
+            long offset = reader.getSequenceOffset(sequenceName);
+            if (offset < 0) {
+                reader.close();
+                return Collections.<MultiPileup>emptyList().iterator();
+            }
+
+            reader.seek(offset);
+            retVal = new BinaryRecordIterator(reader);
+            retVal.setRegion(sequenceName, start, end);
+
+        } catch (IOException e) {
+            logger.error("Exception while querying binary pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns a MultiPileup cursor which reuses its two records.
+     *
+     * @return the MultiPileup cursor
+     */
+    public MultiPileupCursor cursor() {
+
+        BinaryRecordCursor retVal = null;
+
+        try {
+            retVal = new BinaryRecordCursor(new MappedPileupReader(mPileupFile));
+        } catch (IOException e) {
+            logger.error("Exception while opening binary pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Has no effect, binary pileup files do not store the mpileup lines.
+     *
+     * @param retainRecordStrings true if record strings should be retained
+     */
+    public void setRetainRecordStrings(boolean retainRecordStrings) {
+        if (retainRecordStrings) {
+            logger.warn("Record strings are not available for binary pileup file: " + mPileupFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Sets the pileups to decode. By default all pileups are decoded
+     * (PileupProjection.ALL). The column flags have no effect, binary
+     * pileup files store base call counts only. The projection applies
+     * to iterators and cursors created after the call.
+     *
+     * @param projection the projection
+     */
+    public void setProjection(PileupProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Has no effect, binary pileup files store base call counts and the base
+     * call qualities are not available. A minimum base quality can be applied
+     * when the binary pileup file is created.
+     *
+     * @param minBaseQuality the minimum base quality
+     */
+    public void setMinBaseQuality(int minBaseQuality) {
+        if (minBaseQuality > 0) {
+            logger.warn("Base call qualities are not available for binary pileup file: " + mPileupFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Restricts iterators, cursors and queries to the records within target
+     * regions. The regions apply to iterators and cursors created after the
+     * call.
+     *
+     * @param targets the target regions or null for all records
+     */
+    public void setTargets(TargetRegions targets) {
+        this.targets = targets;
+    }
+
+    /**
+     * Returns true if a record lies within the target regions.
+     */
+    private static boolean isTargeted(TargetRegions targets, BinaryMultiPileup record) {
+        return targets == null || targets.getRegionIndex(record.getSequenceName(), record.getPosition()) >= 0;
+    }
+
+    /**
+     * Iterator implementation decoding a new BinaryMultiPileup
+     * record for each position.
+     */
+    class BinaryRecordIterator implements Iterator<MultiPileup> {
+
+        MappedPileupReader reader;
+        PileupProjection projection = BinaryMultiPileupParser.this.projection;
+        TargetRegions targets = BinaryMultiPileupParser.this.targets;
+
+        //the most recently decoded record, from which the next record is decoded
+        BinaryMultiPileup decodedRecord = null;
+        BinaryMultiPileup nextRecord = null;
+        boolean closed = false;
+
+        //the region to iterate over, if any
+        String regionSequenceName = null;
+        int regionStart;
+        int regionEnd;
+
+        BinaryRecordIterator(MappedPileupReader reader) {
+            this.reader = reader;
+        }
+
+        void setRegion(String sequenceName, int start, int end) {
+            this.regionSequenceName = sequenceName;
+            this.regionStart = start;
+            this.regionEnd = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            decodeRecord();
+            return nextRecord != null;
+        }
+
+        @Override
+        public MultiPileup next() {
+
+            decodeRecord();
+
+            if (nextRecord == null) {
+                throw new NoSuchElementException("End of pileup file reached.");
+            }
+
+            MultiPileup retVal = nextRecord;
+            nextRecord = null;
+
+            return retVal;
+
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void decodeRecord() {
+
+            if (nextRecord != null || closed) {
+                return;
+            }
+
+            try {
+
+                while (reader.hasRecord()) {
+
+                    BinaryMultiPileup record = new BinaryMultiPileup();
+                    record.decode(reader, decodedRecord, projection);
+                    decodedRecord = record;
+
+                    if (regionSequenceName == null) {
+                        if (isTargeted(targets, record)) {
+                            nextRecord = record;
+                            return;
+                        }
+                        continue;
+                    }
+
+                    //the reader has been positioned at the first record of the sequence
+                    if (!record.getSequenceName().equals(regionSequenceName) || record.getPosition() > regionEnd) {
+                        break;
+                    }
+
+                    if (record.getPosition() >= regionStart && isTargeted(targets, record)) {
+                        nextRecord = record;
+                        return;
+                    }
+
+                }
+
+                closed = true;
+                reader.close();
+
+            } catch (IOException e) {
+                logger.error(e);
+                closed = true;
+            }
+
+        }
+
+    }
+
+    /**
+     * Cursor implementation holding the current and the previous record
+     * in a ring of slots. Advancing the cursor decodes the next record
+     * into the slot of the previous record. A third slot holds the last
+     * record skipped outside the target regions, from which the next
+     * record is decoded. Sequences without target regions are sought past
+     * through the sequence table, the first record after a seek has no
+     * previous record.
+     */
+    class BinaryRecordCursor implements MultiPileupCursor {
+
+        MappedPileupReader reader;
+        PileupProjection projection = BinaryMultiPileupParser.this.projection;
+        TargetRegions targets = BinaryMultiPileupParser.this.targets;
+
+        BinaryMultiPileup[] slots = {new BinaryMultiPileup(), new BinaryMultiPileup(), new BinaryMultiPileup()};
+        BinaryMultiPileup previousRecord = null;
+        BinaryMultiPileup currentRecord = null;
+        //the most recently decoded record, from which the next record is decoded
+        BinaryMultiPileup decodedRecord = null;
+
+        boolean closed = false;
+
+        BinaryRecordCursor(MappedPileupReader reader) {
+
+            this.reader = reader;
+
+            if (targets != null) {
+                seekTargetedSequence(0);
+            }
+
+        }
+
+        @Override
+        public boolean next() {
+
+            if (closed) {
+                return false;
+            }
+
+            BinaryMultiPileup record;
+            do {
+
+                if (!reader.hasRecord()) {
+                    close();
+                    return false;
+                }
+
+                record = slots[0];
+                for (int i = 1; record == currentRecord || record == decodedRecord; i++) {
+                    record = slots[i];
+                }
+
+                try {
+                    record.decode(reader, decodedRecord, projection);
+                } catch (IOException e) {
+                    logger.error(e);
+                    close();
+                    return false;
+                }
+                decodedRecord = record;
+
+                if (targets != null && !targets.hasSequence(record.getSequenceName())) {
+                    if (!seekTargetedSequence(reader.getSequenceNames().indexOf(record.getSequenceName()) + 1)) {
+                        return false;
+                    }
+                    continue;
+                }
+
+            } while (!isTargeted(targets, record));
+
+            previousRecord = currentRecord;
+            currentRecord = record;
+
+            return true;
+
+        }
+
+        /**
+         * Seeks the reader to the first record of the first sequence with
+         * target regions, starting from a sequence of the sequence table,
+         * and closes the cursor if no such sequence follows.
+         *
+         * @param sequenceIndex the index of the sequence in the table
+         * @return false if the cursor has been closed
+         */
+        private boolean seekTargetedSequence(int sequenceIndex) {
+
+            List<String> sequenceNames = reader.getSequenceNames();
+
+            for (int i = sequenceIndex; i < sequenceNames.size(); i++) {
+
+                long offset = reader.getSequenceOffset(sequenceNames.get(i));
+
+                if (targets.hasSequence(sequenceNames.get(i)) && offset >= 0) {
+                    reader.seek(offset);
+                    //records are decoded from the start of the sequence
+                    decodedRecord = null;
+                    currentRecord = null;
+                    return true;
+                }
+
+            }
+
+            close();
+
+            return false;
+
+        }
+
+        @Override
+        public MultiPileup getCurrent() {
+            return currentRecord;
+        }
+
+        @Override
+        public MultiPileup getPrevious() {
+            return previousRecord;
+        }
+
+        @Override
+        public void close() {
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.error(e);
+            }
+
+        }
+
+    }
+
+}
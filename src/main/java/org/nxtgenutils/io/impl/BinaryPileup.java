@@ -0,0 +1,141 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.Pileup;
+
+import java.util.Arrays;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * View of a single pileup of a BinaryMultiPileup record. Binary pileup
+ * files store the base call counts of a pileup only, so the bases and
+ * qualities columns are rebuilt from the counts: the reference matches
+ * and the base calls of each strand and the deleted bases are listed in
+ * this order rather than in the order of the reads. The sequences of
+ * insertions and deletions are not stored, so the bases column does not
+ * list them, see hasIndels(). The base call qualities are not stored
+ * either, the calls passed the minimum base quality of the parser that
+ * counted them and are listed with the highest quality.
+ */
+class BinaryPileup implements Pileup {
+
+    //the symbols of the calls by slot of BaseCallHistogram, in the order they are listed
+    private static final int[] SLOTS = {
+            BaseCallHistogram.FORWARD_REFERENCE, BaseCallHistogram.REVERSE_REFERENCE,
+            BaseCallHistogram.FORWARD_A, BaseCallHistogram.FORWARD_C, BaseCallHistogram.FORWARD_G, BaseCallHistogram.FORWARD_T, BaseCallHistogram.FORWARD_N,
+            BaseCallHistogram.REVERSE_A, BaseCallHistogram.REVERSE_C, BaseCallHistogram.REVERSE_G, BaseCallHistogram.REVERSE_T, BaseCallHistogram.REVERSE_N,
+            BaseCallHistogram.DELETION};
+    private static final char[] SYMBOLS = {'.', ',', 'A', 'C', 'G', 'T', 'N', 'a', 'c', 'g', 't', 'n', '*'};
+
+    //the highest quality of a call in Sanger encoding
+    private static final char MAX_QUALITY = '~';
+
+    private BinaryMultiPileup parent;
+    private int index;
+
+    BinaryPileup(BinaryMultiPileup parent, int index) {
+        this.parent = parent;
+        this.index = index;
+    }
+
+    /**
+     * Returns the bases column rebuilt from the base call counts, which
+     * does not list insertions and deletions.
+     *
+     * @return the base calls
+     */
+    public String getBases() {
+        return getBasesWithoutIndels();
+    }
+
+    public MultiPileup getPileupRecord() {
+        return parent;
+    }
+
+    /**
+     * Returns the qualities column, the highest quality for each call of
+     * the bases column.
+     *
+     * @return the ASCII encoded quality scores
+     */
+    public String getQualities() {
+
+        int length = 0;
+        for (int slot : SLOTS) {
+            length += parent.getCount(index, slot);
+        }
+
+        char[] retVal = new char[length];
+        Arrays.fill(retVal, MAX_QUALITY);
+
+        return new String(retVal);
+
+    }
+
+    public String getBasesWithoutIndels() {
+
+        StringBuilder retVal = new StringBuilder();
+
+        for (int i = 0; i < SLOTS.length; i++) {
+            for (int count = parent.getCount(index, SLOTS[i]); count > 0; count--) {
+                retVal.append(SYMBOLS[i]);
+            }
+        }
+
+        return retVal.toString();
+
+    }
+
+    public int getCoverage() {
+        return parent.getCoverage(index);
+    }
+
+    public int getReferenceMatchCount() {
+        return parent.getReferenceMatchCount(index);
+    }
+
+    public int getBaseCallCount(String base) {
+        return parent.getBaseCallCount(index, BaseCallHistogram.baseIndex(base.charAt(0)));
+    }
+
+    public String getConsensusBaseCall() {
+        return BaseCallHistogram.getConsensusString(parent.getConsensusCode(index));
+    }
+
+    int getConsensusCode() {
+        return parent.getConsensusCode(index);
+    }
+
+    public String getConsensusBaseCall(double alleleFrequencyCutoff) {
+        return BaseCallHistogram.getConsensusString(parent.getConsensusCode(index, alleleFrequencyCutoff));
+    }
+
+    public boolean hasIndels() {
+        return parent.hasIndels(index);
+    }
+
+    @Override
+    public String toString() {
+        return "Pileup{" +
+                "coverage=" + getCoverage() +
+                ", consensus='" + getConsensusBaseCall() + '\'' +
+                '}';
+    }
+
+}
@@ -0,0 +1,276 @@
+package org.nxtgenutils.io.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nxtgenutils.io.MultiPileup;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Writes MultiPileup records to a compact binary pileup file, which can be
+ * read with BinaryMultiPileupParser. Instead of the bases and qualities
+ * columns, the file stores the base call counts of each pileup (see
+ * BaseCallHistogram), which is all that is needed to profile methylation.
+ * <p/>
+ * The file starts with a header of HEADER_SIZE bytes: the magic number, the
+ * format version, the number of pileups per record and the offset of the
+ * sequence table. The records follow the header. Each record starts with a
+ * flag byte holding the reference base code (A, C, G, T, N or other, in which
+ * case the base character follows) and the repeat mask and sequence change
+ * bits. Unless the sequence has changed, the position is stored as the
+ * difference to the position of the previous record. After a sequence change
+ * the record stores the ID of the sequence and the absolute position. For each
+ * pileup the record stores the depth of coverage, a bit mask of the non-zero
+ * histogram slots and the counts of those slots. All numbers of a record are
+ * unsigned variable length integers. The sequence table at the end of the file
+ * lists the names of the sequences in the order of their IDs, along with the
+ * offset of the first record of each sequence.
+ */
+public class BinaryPileupWriter {
+
+    /**
+     * the magic number of binary pileup files ("NGBP")
+     */
+    public static final int MAGIC = 0x4e474250;
+
+    /**
+     * the format version
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * the size of the file header
+     */
+    public static final int HEADER_SIZE = 20;
+
+    //the maximum size of a variable length integer
+    static final int MAX_VARINT_SIZE = 5;
+
+    //reference base codes and flags of the record flag byte
+    static final int REFERENCE_BASE_MASK = 0x07;
+    static final int REFERENCE_OTHER = 5;
+    static final int REPEAT_MASKED = 0x08;
+    static final int SEQUENCE_CHANGE = 0x10;
+
+    private FileOutputStream fileOut;
+    private OutputStream out;
+    private long offset;
+
+    private int pileupCount = -1;
+
+    //interned sequence names
+    private Map<String, Integer> sequenceIds = new HashMap<String, Integer>();
+    private List<String> sequenceNames = new ArrayList<String>();
+    private List<Long> sequenceOffsets = new ArrayList<Long>();
+
+    private int previousSequenceId = -1;
+    private int previousPosition = 0;
+
+    private int[] counts = new int[0];
+    private byte[] record = new byte[1024];
+    private int recordLength;
+
+    private boolean closed = false;
+
+    /**
+     * Opens a binary pileup file for writing.
+     *
+     * @param file the output file
+     * @throws IOException if the file cannot be opened
+     */
+    public BinaryPileupWriter(File file) throws IOException {
+
+        fileOut = new FileOutputStream(file);
+        out = new BufferedOutputStream(fileOut, 1024 * 1024);
+
+        //the header is completed when the writer is closed
+        out.write(new byte[HEADER_SIZE]);
+        offset = HEADER_SIZE;
+
+    }
+
+    /**
+     * Writes a record. All records of a file must have the same
+     * number of pileups.
+     *
+     * @param multiPileup the record
+     * @throws IOException if the record cannot be written
+     */
+    public void write(MultiPileup multiPileup) throws IOException {
+
+        int count = multiPileup.getPileupCount();
+        if (pileupCount < 0) {
+            pileupCount = count;
+            counts = new int[pileupCount * BaseCallHistogram.SIZE];
+        } else if (count != pileupCount) {
+            throw new IllegalArgumentException("Record " + multiPileup.getSequenceName() + ":" + multiPileup.getPosition() +
+                    " has " + count + " pileups, expected " + pileupCount + ".");
+        }
+
+        getCounts(multiPileup);
+
+        int maxSize = 32 + pileupCount * MAX_VARINT_SIZE * (BaseCallHistogram.SIZE + 2);
+        if (record.length < maxSize) {
+            record = new byte[maxSize];
+        }
+        recordLength = 0;
+
+        //flags and reference base
+        String referenceBase = multiPileup.getReferenceBase();
+        char base = referenceBase.length() > 0 ? referenceBase.charAt(0) : 'N';
+        int baseCode = BaseCallHistogram.baseIndex(base);
+        int flags = baseCode < 0 ? REFERENCE_OTHER : baseCode;
+        if (multiPileup.isRepeatMasked()) {
+            flags |= REPEAT_MASKED;
+        }
+
+        String sequenceName = multiPileup.getSequenceName();
+        Integer sequenceId = sequenceIds.get(sequenceName);
+        if (sequenceId == null) {
+            sequenceId = sequenceNames.size();
+            sequenceIds.put(sequenceName, sequenceId);
+            sequenceNames.add(sequenceName);
+            sequenceOffsets.add(offset);
+        }
+
+        int position = multiPileup.getPosition();
+        boolean sequenceChange = sequenceId != previousSequenceId || position < previousPosition;
+        if (sequenceChange) {
+            flags |= SEQUENCE_CHANGE;
+        }
+
+        record[recordLength++] = (byte) flags;
+        if (baseCode < 0) {
+            record[recordLength++] = (byte) base;
+        }
+
+        if (sequenceChange) {
+            writeVarInt(sequenceId);
+            writeVarInt(position);
+        } else {
+            writeVarInt(position - previousPosition);
+        }
+
+        //pileups
+        for (int i = 0; i < pileupCount; i++) {
+
+            writeVarInt(multiPileup.getPileupCounts(i).getCoverage());
+
+            int slotOffset = i * BaseCallHistogram.SIZE;
+            int mask = 0;
+            for (int slot = 0; slot < BaseCallHistogram.SIZE; slot++) {
+                if (counts[slotOffset + slot] != 0) {
+                    mask |= 1 << slot;
+                }
+            }
+
+            writeVarInt(mask);
+            for (int slot = 0; slot < BaseCallHistogram.SIZE; slot++) {
+                if (counts[slotOffset + slot] != 0) {
+                    writeVarInt(counts[slotOffset + slot]);
+                }
+            }
+
+        }
+
+        out.write(record, 0, recordLength);
+        offset += recordLength;
+
+        previousSequenceId = sequenceId;
+        previousPosition = position;
+
+    }
+
+    /**
+     * Writes the sequence table, completes the header and closes the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+        DataOutputStream table = new DataOutputStream(tableBytes);
+        table.writeInt(sequenceNames.size());
+        for (int i = 0; i < sequenceNames.size(); i++) {
+            byte[] name = sequenceNames.get(i).getBytes("UTF-8");
+            table.writeShort(name.length);
+            table.write(name);
+            table.writeLong(sequenceOffsets.get(i));
+        }
+        table.close();
+
+        out.write(tableBytes.toByteArray());
+        out.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(Math.max(0, pileupCount));
+        header.putLong(offset);
+        header.flip();
+
+        FileChannel channel = fileOut.getChannel();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+
+        out.close();
+
+    }
+
+    /**
+     * Fills the counts array with the base call counts of the pileups.
+     */
+    private void getCounts(MultiPileup multiPileup) {
+
+        for (int i = 0; i < pileupCount; i++) {
+            BinaryMultiPileup.copyCounts(multiPileup, i, counts, i * BaseCallHistogram.SIZE);
+        }
+
+    }
+
+    private void writeVarInt(int value) {
+
+        while ((value & ~0x7f) != 0) {
+            record[recordLength++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        record[recordLength++] = (byte) value;
+
+    }
+
+}
@@ -0,0 +1,618 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.Pileup;
+import org.nxtgenutils.io.PileupCounts;
+import org.nxtgenutils.io.PileupProjection;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * MultiPileup implementation backed by the read buffer of a ByteMultiPileupParser.
+ * The record only stores the coverage and the offsets of the bases and qualities
+ * columns of each pileup. Bases and qualities are read from the buffer when they
+ * are accessed, which is only possible as long as the parser has not discarded
+ * the line from its buffer.
+ */
+public class ByteMultiPileup implements MultiPileup {
+
+    private static final String[] BASE_STRINGS = new String[128];
+
+    static {
+        for (int i = 0; i < BASE_STRINGS.length; i++) {
+            BASE_STRINGS[i] = String.valueOf((char) i);
+        }
+    }
+
+    private PileupLineReader source;
+    private long lineOffset;
+    private int lineLength;
+
+    private String sequenceName;
+    private int position;
+    private byte referenceBase;
+    private String recordString;
+
+    //pileup columns, offsets are relative to the start of the line
+    private int pileupCount = 0;
+    private int[] coverage = new int[0];
+    private int[] basesStart = new int[0];
+    private int[] basesEnd = new int[0];
+    private int[] qualitiesStart = new int[0];
+    private int[] qualitiesEnd = new int[0];
+    private boolean includesQualities = true;
+
+    //base calls with a lower quality are dropped while counting
+    private int minBaseQuality = 0;
+
+    //base call counts and consensus codes, see BaseCallHistogram
+    private int[] counts = new int[0];
+    private boolean[] counted = new boolean[0];
+    private int[] consensusCodes = new int[0];
+
+    //pileup views, reused when the record is parsed again
+    private BytePileup[] views = new BytePileup[0];
+    private Set<Pileup> pileups;
+
+    static final double HETEROZYGOUS_ALLELE_FREQUENCY_CUTOFF = 0.4;
+
+    /**
+     * Parses the current line of a line reader. A record can be parsed
+     * repeatedly, in which case the arrays and pileup views of the record
+     * are reused.
+     * <p/>
+     * Pileups that are not selected by the projection are skipped, and the
+     * bases column is only located if it is included. If a minimum base
+     * quality is set, the qualities column is only used to drop base calls
+     * while counting and the depth of coverage of a pileup is reduced by the
+     * number of dropped base calls.
+     *
+     * @param source               the line reader
+     * @param previousSequenceName the sequence name of the previous record, which
+     *                             is reused if the sequence name has not changed
+     * @param projection           the pileups and columns to parse
+     * @param minBaseQuality       the minimum base quality of counted base calls,
+     *                             or 0 to count all base calls
+     */
+    void parse(PileupLineReader source, String previousSequenceName, PileupProjection projection, int minBaseQuality) {
+
+        this.source = source;
+        this.lineOffset = source.getLineOffset();
+        this.recordString = null;
+        this.minBaseQuality = minBaseQuality;
+        this.includesQualities = projection.includesQualities() && minBaseQuality == 0;
+
+        ByteBuffer buffer = source.getBuffer();
+        int lineStart = source.getLineStart();
+        int lineEnd = source.getLineEnd();
+        lineLength = lineEnd - lineStart;
+
+        //sequence name
+        int fieldEnd = nextTab(buffer, lineStart, lineEnd);
+        if (previousSequenceName != null && equalsAscii(buffer, lineStart, fieldEnd, previousSequenceName)) {
+            sequenceName = previousSequenceName;
+        } else {
+            sequenceName = decodeAscii(buffer, lineStart, fieldEnd);
+        }
+
+        //position
+        int fieldStart = fieldEnd + 1;
+        fieldEnd = nextTab(buffer, fieldStart, lineEnd);
+        position = parseInt(buffer, fieldStart, fieldEnd);
+
+        //reference base
+        fieldStart = fieldEnd + 1;
+        fieldEnd = nextTab(buffer, fieldStart, lineEnd);
+        referenceBase = fieldStart < fieldEnd ? buffer.get(fieldStart) : (byte) 'N';
+
+        //pileups: coverage, bases and qualities
+        int previousPileupCount = pileupCount;
+        pileupCount = 0;
+        int lastPileupIndex = projection.getLastPileupIndex();
+        boolean includesBases = projection.includesBases();
+        fieldStart = fieldEnd + 1;
+        for (int pileupIndex = 0; fieldStart < lineEnd && pileupIndex <= lastPileupIndex; pileupIndex++) {
+
+            if (!projection.isSelected(pileupIndex)) {
+                //skip coverage, bases and qualities
+                for (int i = 0; i < 3; i++) {
+                    fieldEnd = nextTab(buffer, fieldStart, lineEnd);
+                    fieldStart = Math.min(fieldEnd + 1, lineEnd);
+                }
+                fieldStart = fieldEnd + 1;
+                continue;
+            }
+
+            ensureCapacity(pileupCount + 1);
+
+            fieldEnd = nextTab(buffer, fieldStart, lineEnd);
+            coverage[pileupCount] = parseInt(buffer, fieldStart, fieldEnd);
+
+            fieldStart = Math.min(fieldEnd + 1, lineEnd);
+            fieldEnd = nextTab(buffer, fieldStart, lineEnd);
+            basesStart[pileupCount] = fieldStart - lineStart;
+            basesEnd[pileupCount] = (includesBases ? fieldEnd : fieldStart) - lineStart;
+
+            fieldStart = Math.min(fieldEnd + 1, lineEnd);
+            fieldEnd = nextTab(buffer, fieldStart, lineEnd);
+            qualitiesStart[pileupCount] = fieldStart - lineStart;
+            qualitiesEnd[pileupCount] = fieldEnd - lineStart;
+
+            counted[pileupCount] = false;
+            consensusCodes[pileupCount] = -1;
+
+            pileupCount++;
+            fieldStart = fieldEnd + 1;
+
+        }
+
+        if (pileupCount != previousPileupCount) {
+            pileups = null;
+        }
+
+    }
+
+    /**
+     * Adds a pileup. Not supported, the pileups of a buffer backed
+     * record are defined by the parsed mpileup line.
+     *
+     * @param pileup the pileup record.
+     */
+    public void addPileup(Pileup pileup) {
+        throw new UnsupportedOperationException("Pileups of a parsed mpileup record cannot be modified.");
+    }
+
+    public int getPileupCount() {
+        return pileupCount;
+    }
+
+    public Set<Pileup> getPileups() {
+
+        if (pileups == null) {
+            pileups = new LinkedHashSet<Pileup>();
+            for (int i = 0; i < pileupCount; i++) {
+                pileups.add(getPileup(i));
+            }
+        }
+
+        return pileups;
+
+    }
+
+    public Pileup getPileup(int index) {
+
+        if (index < 0 || index >= pileupCount) {
+            throw new IndexOutOfBoundsException("Pileup index: " + index + ", pileup count: " + pileupCount);
+        }
+
+        if (views.length < pileupCount) {
+            BytePileup[] grown = new BytePileup[coverage.length];
+            System.arraycopy(views, 0, grown, 0, views.length);
+            views = grown;
+        }
+
+        if (views[index] == null) {
+            views[index] = new BytePileup(this, index);
+        }
+
+        return views[index];
+
+    }
+
+    public PileupCounts getPileupCounts(int index) {
+        return getPileup(index);
+    }
+
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getReferenceBase() {
+        return BASE_STRINGS[referenceBase & 0x7f];
+    }
+
+    /**
+     * Returns the mpileup record as a string. Unless the record string has
+     * been retained by the parser, the line is decoded from the parser buffer.
+     *
+     * @return the record string
+     */
+    public String getRecordString() {
+        if (recordString == null) {
+            checkBacked();
+            int lineStart = source.getBufferIndex(lineOffset);
+            return decodeAscii(source.getBuffer(), lineStart, lineStart + lineLength);
+        }
+        return recordString;
+    }
+
+    public void setRecordString(String recordString) {
+        this.recordString = recordString;
+    }
+
+    public boolean isRepeatMasked() {
+        //check if bases are in lower case
+        return referenceBase >= 'a' && referenceBase <= 'z';
+    }
+
+    /**
+     * Returns the absolute offset of the record's line in the parsed input.
+     *
+     * @return the line offset
+     */
+    long getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * Returns the depth of coverage of a pileup.
+     *
+     * @param index the pileup index
+     * @return the depth of coverage
+     */
+    int getCoverage(int index) {
+
+        if (minBaseQuality > 0) {
+            //the coverage is reduced when the base calls are counted
+            getCounts(index);
+        }
+
+        return coverage[index];
+
+    }
+
+    /**
+     * Returns the bases column of a pileup.
+     *
+     * @param index the pileup index
+     * @return the base calls
+     */
+    String getBases(int index) {
+        checkBacked();
+        int lineStart = source.getBufferIndex(lineOffset);
+        return decodeAscii(source.getBuffer(), lineStart + basesStart[index], lineStart + basesEnd[index]);
+    }
+
+    /**
+     * Returns the qualities column of a pileup, or an empty string if the
+     * column is excluded by the projection or has been used to drop base
+     * calls below the minimum base quality.
+     *
+     * @param index the pileup index
+     * @return the ASCII encoded quality scores
+     */
+    String getQualities(int index) {
+        if (!includesQualities) {
+            return "";
+        }
+        checkBacked();
+        int lineStart = source.getBufferIndex(lineOffset);
+        return decodeAscii(source.getBuffer(), lineStart + qualitiesStart[index], lineStart + qualitiesEnd[index]);
+    }
+
+    /**
+     * Returns the number of times a base has been called in a pileup.
+     * Reference matches are counted as calls of the reference base.
+     *
+     * @param index     the pileup index
+     * @param baseIndex the BaseCallHistogram index of the base
+     * @return the number of base calls
+     */
+    int getBaseCallCount(int index, int baseIndex) {
+        return BaseCallHistogram.getBaseCallCount(getCounts(index), index * BaseCallHistogram.SIZE, baseIndex, BaseCallHistogram.baseIndex(referenceBase));
+    }
+
+    /**
+     * Returns the number of reference matches in a pileup.
+     *
+     * @param index the pileup index
+     * @return the number of reference matches
+     */
+    int getReferenceMatchCount(int index) {
+        return BaseCallHistogram.getReferenceMatchCount(getCounts(index), index * BaseCallHistogram.SIZE);
+    }
+
+    /**
+     * Returns true if a pileup contains an indel.
+     *
+     * @param index the pileup index
+     * @return true if there is evidence for an indel
+     */
+    boolean hasIndels(int index) {
+        return BaseCallHistogram.hasIndels(getCounts(index), index * BaseCallHistogram.SIZE);
+    }
+
+    /**
+     * Returns the consensus code of a pileup, see BaseCallHistogram.
+     * The consensus is memoized, as the same record is examined as
+     * part of consecutive di-nucleotide positions.
+     *
+     * @param index the pileup index
+     * @return the consensus code
+     */
+    int getConsensusCode(int index) {
+
+        if (consensusCodes[index] < 0) {
+            consensusCodes[index] = BaseCallHistogram.getConsensusCode(getCounts(index), index * BaseCallHistogram.SIZE,
+                    BaseCallHistogram.baseIndex(referenceBase), coverage[index], HETEROZYGOUS_ALLELE_FREQUENCY_CUTOFF);
+        }
+
+        return consensusCodes[index];
+
+    }
+
+    /**
+     * Returns the consensus code of a pileup for an allele frequency cutoff.
+     *
+     * @param index                 the pileup index
+     * @param alleleFrequencyCutoff minimum frequency of a second allele
+     * @return the consensus code
+     */
+    int getConsensusCode(int index, double alleleFrequencyCutoff) {
+
+        if (alleleFrequencyCutoff == HETEROZYGOUS_ALLELE_FREQUENCY_CUTOFF) {
+            return getConsensusCode(index);
+        }
+
+        return BaseCallHistogram.getConsensusCode(getCounts(index), index * BaseCallHistogram.SIZE,
+                BaseCallHistogram.baseIndex(referenceBase), coverage[index], alleleFrequencyCutoff);
+
+    }
+
+    /**
+     * Counts the base calls of all pileups of the record, so that the
+     * counting is done by the thread parsing the record rather than the
+     * thread consuming it.
+     */
+    void countBaseCalls() {
+        for (int i = 0; i < pileupCount; i++) {
+            getCounts(i);
+        }
+    }
+
+    /**
+     * Copies the base call counts of a pileup, see BaseCallHistogram.
+     *
+     * @param index  the pileup index
+     * @param dest   the array to copy the counts to
+     * @param offset the index of the first slot to copy to
+     */
+    void copyCounts(int index, int[] dest, int offset) {
+        System.arraycopy(getCounts(index), index * BaseCallHistogram.SIZE, dest, offset, BaseCallHistogram.SIZE);
+    }
+
+    /**
+     * Returns the base call counts, counting the bases column
+     * of the pileup on first access.
+     */
+    private int[] getCounts(int index) {
+
+        if (!counted[index]) {
+            checkBacked();
+            ByteBuffer buffer = source.getBuffer();
+            int lineStart = source.getBufferIndex(lineOffset);
+            if (minBaseQuality > 0) {
+                coverage[index] -= BaseCallHistogram.count(buffer, lineStart + basesStart[index], lineStart + basesEnd[index],
+                        buffer, lineStart + qualitiesStart[index], lineStart + qualitiesEnd[index], minBaseQuality,
+                        counts, index * BaseCallHistogram.SIZE);
+            } else {
+                BaseCallHistogram.count(buffer, lineStart + basesStart[index], lineStart + basesEnd[index],
+                        counts, index * BaseCallHistogram.SIZE);
+            }
+            counted[index] = true;
+        }
+
+        return counts;
+
+    }
+
+    /**
+     * Returns the bases column of a pileup without inserted or deleted bases.
+     *
+     * @param index the pileup index
+     * @return the base calls without indels
+     */
+    String getBasesWithoutIndels(int index) {
+
+        checkBacked();
+
+        ByteBuffer buffer = source.getBuffer();
+        int lineStart = source.getBufferIndex(lineOffset);
+        int from = lineStart + basesStart[index];
+        int to = lineStart + basesEnd[index];
+
+        StringBuilder retVal = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            byte c = buffer.get(i);
+            if (c == '^') {
+                retVal.append((char) c);
+                if (i + 1 < to) {
+                    retVal.append((char) buffer.get(++i));
+                }
+            } else if (c == '+' || c == '-') {
+                i = skipIndel(buffer, i, to);
+            } else {
+                retVal.append((char) c);
+            }
+        }
+
+        return retVal.toString();
+
+    }
+
+    /**
+     * Returns the buffer index of the last byte of an indel starting at
+     * the specified index.
+     */
+    private static int skipIndel(ByteBuffer buffer, int indelStart, int to) {
+
+        int i = indelStart + 1;
+        int length = 0;
+        while (i < to) {
+            byte c = buffer.get(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            length = length * 10 + (c - '0');
+            i++;
+        }
+
+        return Math.min(i + length, to) - 1;
+
+    }
+
+    /**
+     * Returns true if an unparsed mpileup line belongs to a reference sequence.
+     *
+     * @param buffer       the buffer holding the line
+     * @param lineStart    the buffer index of the line start
+     * @param lineEnd      the buffer index of the line end
+     * @param sequenceName the sequence name
+     * @return true if the line's sequence name equals the sequence name
+     */
+    static boolean isSequence(ByteBuffer buffer, int lineStart, int lineEnd, String sequenceName) {
+        return equalsAscii(buffer, lineStart, nextTab(buffer, lineStart, lineEnd), sequenceName);
+    }
+
+    /**
+     * Returns the position of an unparsed mpileup line.
+     *
+     * @param buffer    the buffer holding the line
+     * @param lineStart the buffer index of the line start
+     * @param lineEnd   the buffer index of the line end
+     * @return the position in the reference sequence
+     */
+    static int parsePosition(ByteBuffer buffer, int lineStart, int lineEnd) {
+        int fieldStart = nextTab(buffer, lineStart, lineEnd) + 1;
+        return parseInt(buffer, fieldStart, nextTab(buffer, fieldStart, lineEnd));
+    }
+
+    /**
+     * Returns the sequence name of an unparsed mpileup line.
+     *
+     * @param buffer    the buffer holding the line
+     * @param lineStart the buffer index of the line start
+     * @param lineEnd   the buffer index of the line end
+     * @return the sequence name
+     */
+    static String parseSequenceName(ByteBuffer buffer, int lineStart, int lineEnd) {
+        return decodeAscii(buffer, lineStart, nextTab(buffer, lineStart, lineEnd));
+    }
+
+    private void checkBacked() {
+        if (lineOffset < source.getBufferStart()) {
+            throw new IllegalStateException("Pileup record " + sequenceName + ":" + position +
+                    " is no longer held in the parser buffer.");
+        }
+    }
+
+    private void ensureCapacity(int size) {
+
+        if (coverage.length < size) {
+            int capacity = Math.max(size, coverage.length * 2);
+            coverage = grow(coverage, capacity);
+            basesStart = grow(basesStart, capacity);
+            basesEnd = grow(basesEnd, capacity);
+            qualitiesStart = grow(qualitiesStart, capacity);
+            qualitiesEnd = grow(qualitiesEnd, capacity);
+            consensusCodes = grow(consensusCodes, capacity);
+            counted = new boolean[capacity];
+            counts = grow(counts, capacity * BaseCallHistogram.SIZE);
+        }
+
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] retVal = new int[capacity];
+        System.arraycopy(array, 0, retVal, 0, array.length);
+        return retVal;
+    }
+
+    private static int nextTab(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\t') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static int parseInt(ByteBuffer buffer, int from, int to) {
+
+        if (from >= to) {
+            throw new NumberFormatException("Empty numeric field in mpileup record.");
+        }
+
+        int retVal = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + decodeAscii(buffer, from, to) + "\"");
+            }
+            retVal = retVal * 10 + digit;
+        }
+
+        return retVal;
+
+    }
+
+    private static boolean equalsAscii(ByteBuffer buffer, int from, int to, String string) {
+
+        if (to - from != string.length()) {
+            return false;
+        }
+
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) != string.charAt(i - from)) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    private static String decodeAscii(ByteBuffer buffer, int from, int to) {
+
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            chars[i - from] = (char) (buffer.get(i) & 0xff);
+        }
+        return new String(chars);
+
+    }
+
+    @Override
+    public String toString() {
+        return "MultiPileup{" +
+                "sequenceName='" + sequenceName + '\'' +
+                ", position=" + position +
+                ", referenceBase='" + getReferenceBase() + '\'' +
+                ", pileups=" + pileupCount +
+                '}';
+    }
+
+}
@@ -0,0 +1,646 @@
+package org.nxtgenutils.io.impl;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.nxtgenutils.util.BgzfInputStream;
+import org.nxtgenutils.util.FileTypeDeterminator;
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupCursor;
+import org.nxtgenutils.io.MultiPileupParser;
+import org.nxtgenutils.io.PileupProjection;
+import org.nxtgenutils.io.TargetRegions;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Byte level implementation of the MultiPileupParser interface. The mpileup
+ * file is read into a large direct buffer and parsed in place: numeric columns
+ * are parsed from the raw bytes and the bases and qualities columns are kept as
+ * offsets into the buffer instead of being copied into strings.
+ * <p/>
+ * The records returned by the iterator are backed by the read buffer. A record
+ * stays accessible until the iterator has returned two further records, which
+ * is sufficient to process consecutive positions pairwise. Records that need to
+ * be kept longer have to be copied, for example through their record string
+ * (see setRetainRecordStrings(boolean)).
+ * <p/>
+ * The cursor returned by cursor() alternates between two records which are
+ * parsed in place, so that iterating over a file does not allocate any
+ * objects per position once the arrays of the records have been sized.
+ * <p/>
+ * Lines outside the target regions (see setTargets(TargetRegions)) are
+ * skipped by their sequence name and position. The cursor of an indexed
+ * file seeks past the lines between the regions instead of reading them.
+ */
+public class ByteMultiPileupParser implements MultiPileupParser {
+
+    //initial buffer capacity for reading the first line of a file
+    private static final int FIRST_LINE_BUFFER_SIZE = 64 * 1024;
+
+    private File mPileupFile;
+    private MultiPileupStream mPileupStream;
+    private int bufferSize;
+    private boolean retainRecordStrings = false;
+    private PileupProjection projection = PileupProjection.ALL;
+    private int minBaseQuality = 0;
+    private TargetRegions targets = null;
+
+    //the tabix index of the file, loaded on the first query
+    private TabixIndex index;
+    private boolean indexLoaded = false;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(ByteMultiPileupParser.class);
+
+    /**
+     * Constructs a parser instance for a multi-pileup file generated with samtools.
+     *
+     * @param multiPileUpFile the mpileup output file
+     */
+    public ByteMultiPileupParser(File multiPileUpFile) {
+        this(multiPileUpFile, PileupLineReader.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a parser instance for a multi-pileup file generated with samtools.
+     *
+     * @param multiPileUpFile the mpileup output file
+     * @param bufferSize      the capacity of the read buffer in bytes
+     */
+    public ByteMultiPileupParser(File multiPileUpFile, int bufferSize) {
+        this.mPileupFile = multiPileUpFile;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Constructs a parser instance for a multi-pileup stream, e.g. samtools
+     * mpileup output read from standard input or a named pipe. The stream
+     * is read ahead on a separate thread and can only be iterated once.
+     * Region queries are not supported.
+     *
+     * @param multiPileUpStream the mpileup output stream
+     */
+    public ByteMultiPileupParser(InputStream multiPileUpStream) {
+        this(multiPileUpStream, PileupLineReader.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a parser instance for a multi-pileup stream, e.g. samtools
+     * mpileup output read from standard input or a named pipe. The stream
+     * is read ahead on a separate thread and can only be iterated once.
+     * Region queries are not supported.
+     *
+     * @param multiPileUpStream the mpileup output stream
+     * @param bufferSize        the capacity of the read buffer in bytes
+     */
+    public ByteMultiPileupParser(InputStream multiPileUpStream, int bufferSize) {
+        this.mPileupStream = new MultiPileupStream(multiPileUpStream);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns the number of pileups per record, read from the first record.
+     * The first record of a stream is not consumed.
+     *
+     * @return the number of pileups per record or 0 if the input is empty
+     */
+    public int getPileupCount() {
+
+        int retVal = 0;
+
+        try {
+
+            if (mPileupStream != null) {
+                return mPileupStream.getPileupCount();
+            }
+
+            ReadableByteChannel channel = FileTypeDeterminator.determineChannelType(mPileupFile);
+            try {
+                PileupLineReader reader = new PileupLineReader(channel, FIRST_LINE_BUFFER_SIZE);
+                if (reader.readLine(-1)) {
+                    ByteMultiPileup record = new ByteMultiPileup();
+                    record.parse(reader, null, PileupProjection.ALL, 0);
+                    retVal = record.getPileupCount();
+                }
+            } finally {
+                channel.close();
+            }
+
+        } catch (IOException e) {
+            logger.error("Exception while reading pileup " + getInputName(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns a MultiPileup iterator.
+     *
+     * @return the MultiPileup iterator
+     */
+    public Iterator<MultiPileup> iterator() {
+
+        ByteRecordIterator retVal = null;
+
+        try {
+            retVal = new ByteRecordIterator(new PileupLineReader(openChannel(), bufferSize));
+            retVal.setTargets(targets);
+        } catch (IOException e) {
+            logger.error("Exception while opening pileup " + getInputName(), e);
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Returns an iterator over the records of a region of a reference
+     * sequence. If the file is BGZF compressed and a tabix index exists
+     * next to it, the parser seeks to the first record of the region.
+     * Otherwise the file is scanned from the start. In both cases the
+     * iteration stops after the last record of the region. Streams
+     * cannot be queried.
+     *
+     * @param sequenceName the name of the reference sequence
+     * @param start        the first position of the region (1-based)
+     * @param end          the last position of the region (inclusive)
+     * @return the MultiPileup iterator
+     */
+    public Iterator<MultiPileup> query(String sequenceName, int start, int end) {
+
+        if (mPileupStream != null) {
+            throw new UnsupportedOperationException("Region queries are not supported for pileup streams.");
+        }
+
+        ByteRecordIterator retVal = null;
+
+        try {
+
+            TabixIndex index = getIndex();
+            PileupLineReader reader;
+
+            if (index != null) {
+
+                long offset = index.getStartOffset(sequenceName, start - 1, end);
+                if (offset < 0) {
+                    return Collections.<MultiPileup>emptyList().iterator();
+                }
+
+                BgzfInputStream in = new BgzfInputStream(mPileupFile);
+                in.seek(offset);
+                reader = new PileupLineReader(Channels.newChannel(in), bufferSize);
+
+            } else {
+                reader = new PileupLineReader(FileTypeDeterminator.determineChannelType(mPileupFile, true), bufferSize);
+            }
+
+            retVal = new ByteRecordIterator(reader);
+            retVal.setRegion(sequenceName, start, end);
+            retVal.setTargets(targets);
+
+        } catch (IOException e) {
+            logger.error("Exception while querying pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the names of the reference sequences in file order, if the
+     * file is BGZF compressed and indexed with tabix.
+     *
+     * @return the sequence names or null if the input is not indexed
+     */
+    public List<String> getSequenceNames() {
+
+        if (mPileupStream != null) {
+            return null;
+        }
+
+        List<String> retVal = null;
+
+        try {
+            TabixIndex index = getIndex();
+            if (index != null) {
+                retVal = index.getSequenceNames();
+            }
+        } catch (IOException e) {
+            logger.error("Exception while reading tabix index of pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the tabix index of the file or null if the file is
+     * not BGZF compressed or has not been indexed.
+     */
+    private TabixIndex getIndex() throws IOException {
+
+        if (!indexLoaded) {
+
+            File indexFile = TabixIndex.getIndexFile(mPileupFile);
+            if (indexFile.exists() && FileTypeDeterminator.isBgzf(mPileupFile)) {
+                index = TabixIndex.read(indexFile);
+            } else {
+                logger.warn("No tabix index found for " + mPileupFile.getAbsolutePath() + ", region queries will scan the file.");
+            }
+
+            indexLoaded = true;
+
+        }
+
+        return index;
+
+    }
+
+    /**
+     * Returns a MultiPileup cursor which reuses its two records. If target
+     * regions are set and the file is BGZF compressed and indexed, the
+     * cursor seeks to the first region and past the lines between the
+     * regions.
+     *
+     * @return the MultiPileup cursor
+     */
+    public MultiPileupCursor cursor() {
+
+        ByteRecordCursor retVal = null;
+
+        try {
+
+            TabixIndex index = targets == null || mPileupStream != null ? null : getIndex();
+
+            if (index != null) {
+
+                BgzfInputStream in = new BgzfInputStream(mPileupFile);
+                TargetLineFilter targetFilter = new TargetLineFilter(targets, index, in);
+                PileupLineReader reader = new PileupLineReader(Channels.newChannel(in), bufferSize);
+
+                targetFilter.seekNextRegion(reader);
+                retVal = new ByteRecordCursor(reader, targetFilter);
+
+            } else {
+                retVal = new ByteRecordCursor(new PileupLineReader(openChannel(), bufferSize),
+                        targets == null ? null : new TargetLineFilter(targets));
+            }
+
+        } catch (IOException e) {
+            logger.error("Exception while opening pileup " + getInputName(), e);
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Opens a channel to the (decompressed) content of the file or stream.
+     */
+    private ReadableByteChannel openChannel() throws IOException {
+
+        if (mPileupStream != null) {
+            return Channels.newChannel(mPileupStream.open());
+        }
+
+        return FileTypeDeterminator.determineChannelType(mPileupFile, true);
+
+    }
+
+    private String getInputName() {
+        return mPileupStream != null ? "stream" : "file: " + mPileupFile.getAbsolutePath();
+    }
+
+    /**
+     * Sets whether or not the parser keeps a copy of the mpileup line
+     * for each record, accessible through MultiPileup.getRecordString().
+     * Disabled by default.
+     *
+     * @param retainRecordStrings true if record strings should be retained
+     */
+    public void setRetainRecordStrings(boolean retainRecordStrings) {
+        this.retainRecordStrings = retainRecordStrings;
+    }
+
+    /**
+     * Sets the pileups and columns to decode. By default all pileups
+     * and columns are decoded (PileupProjection.ALL). The projection
+     * applies to iterators and cursors created after the call.
+     *
+     * @param projection the projection
+     */
+    public void setProjection(PileupProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Sets the minimum base quality (Phred score) of counted base calls.
+     * Base calls with a lower quality are dropped while the bases column
+     * is counted and the depth of coverage of the pileup is reduced
+     * accordingly. The qualities column is not available from the records
+     * if a minimum base quality is set. The default of 0 counts all base
+     * calls. The minimum base quality applies to iterators and cursors
+     * created after the call.
+     *
+     * @param minBaseQuality the minimum base quality
+     */
+    public void setMinBaseQuality(int minBaseQuality) {
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * Restricts iterators, cursors and queries to the records within target
+     * regions. Lines outside the regions are skipped before their pileups
+     * are parsed. The cursor of a BGZF compressed, indexed file seeks past
+     * them. The regions apply to iterators and cursors created after the
+     * call.
+     *
+     * @param targets the target regions or null for all records
+     */
+    public void setTargets(TargetRegions targets) {
+        this.targets = targets;
+    }
+
+    /**
+     * Iterator implementation to iterate over the lines in the read buffer
+     * and create ByteMultiPileup records.
+     */
+    class ByteRecordIterator implements Iterator<MultiPileup> {
+
+        PileupLineReader reader;
+        PileupProjection projection = ByteMultiPileupParser.this.projection;
+        int minBaseQuality = ByteMultiPileupParser.this.minBaseQuality;
+
+        //the two most recently returned records, which are kept in the buffer
+        ByteMultiPileup previousRecord = null;
+        ByteMultiPileup lastRecord = null;
+
+        boolean lineRead = false;
+        boolean hasLine = false;
+
+        //the region to iterate over, if any
+        String regionSequenceName = null;
+        int regionStart;
+        int regionEnd;
+        boolean regionSequenceSeen = false;
+        boolean regionPassed = false;
+
+        //the filter of the target regions, if any
+        TargetLineFilter targetFilter = null;
+
+        ByteRecordIterator(PileupLineReader reader) {
+            this.reader = reader;
+        }
+
+        void setRegion(String sequenceName, int start, int end) {
+            this.regionSequenceName = sequenceName;
+            this.regionStart = start;
+            this.regionEnd = end;
+        }
+
+        void setTargets(TargetRegions targets) {
+            this.targetFilter = targets == null ? null : new TargetLineFilter(targets);
+        }
+
+        @Override
+        public boolean hasNext() {
+            readLine();
+            return hasLine;
+        }
+
+        @Override
+        public MultiPileup next() {
+
+            readLine();
+
+            if (!hasLine) {
+                throw new NoSuchElementException("End of pileup file reached.");
+            }
+
+            ByteMultiPileup retVal = new ByteMultiPileup();
+            retVal.parse(reader, lastRecord == null ? null : lastRecord.getSequenceName(), projection, minBaseQuality);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug(retVal.getRecordString());
+            }
+
+            if (retainRecordStrings) {
+                retVal.setRecordString(retVal.getRecordString());
+            }
+
+            previousRecord = lastRecord;
+            lastRecord = retVal;
+            lineRead = false;
+
+            return retVal;
+
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void readLine() {
+
+            if (lineRead) {
+                return;
+            }
+
+            long pinnedOffset = -1;
+            if (previousRecord != null) {
+                pinnedOffset = previousRecord.getLineOffset();
+            } else if (lastRecord != null) {
+                pinnedOffset = lastRecord.getLineOffset();
+            }
+
+            try {
+                hasLine = reader.readLine(pinnedOffset);
+                while (hasLine && !isSelected()) {
+                    hasLine = !regionPassed && reader.readLine(pinnedOffset);
+                }
+                if (!hasLine) {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                logger.error(e);
+                hasLine = false;
+            }
+
+            lineRead = true;
+
+        }
+
+        /**
+         * Checks whether the current line lies within the queried region and
+         * the target regions, if any, without parsing the pileups.
+         */
+        private boolean isSelected() {
+            return (regionSequenceName == null || isInRegion()) && (targetFilter == null || targetFilter.accept(reader));
+        }
+
+        /**
+         * Checks whether the current line lies within the region without
+         * parsing the pileups and notes when the region has been passed.
+         */
+        private boolean isInRegion() {
+
+            int lineStart = reader.getLineStart();
+            int lineEnd = reader.getLineEnd();
+
+            if (!ByteMultiPileup.isSequence(reader.getBuffer(), lineStart, lineEnd, regionSequenceName)) {
+                regionPassed = regionSequenceSeen;
+                return false;
+            }
+
+            regionSequenceSeen = true;
+
+            int position = ByteMultiPileup.parsePosition(reader.getBuffer(), lineStart, lineEnd);
+            if (position > regionEnd) {
+                regionPassed = true;
+                return false;
+            }
+
+            return position >= regionStart;
+
+        }
+
+    }
+
+    /**
+     * Cursor implementation holding the current and the previous record
+     * in a two slot ring. Advancing the cursor parses the next line into
+     * the slot of the previous record. Lines outside the target regions
+     * are skipped. If the cursor seeks to the next region, the records
+     * read before are dropped from the buffer and the first record of the
+     * region has no previous record.
+     */
+    class ByteRecordCursor implements MultiPileupCursor {
+
+        PileupLineReader reader;
+        PileupProjection projection = ByteMultiPileupParser.this.projection;
+        int minBaseQuality = ByteMultiPileupParser.this.minBaseQuality;
+
+        ByteMultiPileup[] slots = {new ByteMultiPileup(), new ByteMultiPileup()};
+        ByteMultiPileup previousRecord = null;
+        ByteMultiPileup currentRecord = null;
+
+        //the filter of the target regions, if any
+        TargetLineFilter targetFilter;
+
+        boolean closed = false;
+
+        ByteRecordCursor(PileupLineReader reader, TargetLineFilter targetFilter) {
+            this.reader = reader;
+            this.targetFilter = targetFilter;
+        }
+
+        @Override
+        public boolean next() {
+
+            if (closed) {
+                return false;
+            }
+
+            //keep the current record, which becomes the previous record, in the buffer
+            long pinnedOffset = currentRecord == null ? -1 : currentRecord.getLineOffset();
+
+            boolean hasLine;
+            try {
+
+                hasLine = reader.readLine(pinnedOffset);
+
+                while (hasLine && targetFilter != null && !targetFilter.accept(reader)) {
+
+                    if (targetFilter.seekNextRegion(reader)) {
+                        currentRecord = null;
+                        pinnedOffset = -1;
+                    }
+
+                    hasLine = !targetFilter.isPassed() && reader.readLine(pinnedOffset);
+
+                }
+
+            } catch (IOException e) {
+                logger.error(e);
+                hasLine = false;
+            }
+
+            if (!hasLine) {
+                close();
+                return false;
+            }
+
+            ByteMultiPileup record = currentRecord == slots[0] ? slots[1] : slots[0];
+            record.parse(reader, currentRecord == null ? null : currentRecord.getSequenceName(), projection, minBaseQuality);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug(record.getRecordString());
+            }
+
+            if (retainRecordStrings) {
+                record.setRecordString(record.getRecordString());
+            }
+
+            previousRecord = currentRecord;
+            currentRecord = record;
+
+            return true;
+
+        }
+
+        @Override
+        public MultiPileup getCurrent() {
+            return currentRecord;
+        }
+
+        @Override
+        public MultiPileup getPrevious() {
+            return previousRecord;
+        }
+
+        @Override
+        public void close() {
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.error(e);
+            }
+
+        }
+
+    }
+
+}
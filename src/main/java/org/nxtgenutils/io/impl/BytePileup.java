@@ -0,0 +1,89 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.Pileup;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * View on a single pileup of a ByteMultiPileup record.
+ */
+class BytePileup implements Pileup {
+
+    private ByteMultiPileup parent;
+    private int index;
+
+    BytePileup(ByteMultiPileup parent, int index) {
+        this.parent = parent;
+        this.index = index;
+    }
+
+    public int getCoverage() {
+        return parent.getCoverage(index);
+    }
+
+    public String getBases() {
+        return parent.getBases(index);
+    }
+
+    public int getReferenceMatchCount() {
+        return parent.getReferenceMatchCount(index);
+    }
+
+    public int getBaseCallCount(String base) {
+        return parent.getBaseCallCount(index, BaseCallHistogram.baseIndex(base.charAt(0)));
+    }
+
+    public String getConsensusBaseCall() {
+        return BaseCallHistogram.getConsensusString(parent.getConsensusCode(index));
+    }
+
+    int getConsensusCode() {
+        return parent.getConsensusCode(index);
+    }
+
+    public String getConsensusBaseCall(double alleleFrequencyCutoff) {
+        return BaseCallHistogram.getConsensusString(parent.getConsensusCode(index, alleleFrequencyCutoff));
+    }
+
+    public MultiPileup getPileupRecord() {
+        return parent;
+    }
+
+    public String getQualities() {
+        return parent.getQualities(index);
+    }
+
+    public boolean hasIndels() {
+        return parent.hasIndels(index);
+    }
+
+    public String getBasesWithoutIndels() {
+        return parent.getBasesWithoutIndels(index);
+    }
+
+    @Override
+    public String toString() {
+        return "Pileup{" +
+                "coverage=" + getCoverage() +
+                ", bases='" + getBases() + '\'' +
+                ", qualities='" + getQualities() + '\'' +
+                '}';
+    }
+
+}
@@ -0,0 +1,312 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.Strand;
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupCursor;
+import org.nxtgenutils.io.PileupCounts;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A cursor keeping a window of consecutive records around the di-nucleotide
+ * of the previous and the current record, from which the sequence contexts
+ * (see SequenceContext) of the cytosines of the di-nucleotide are derived
+ * in the same pass over the pileup.
+ * <p/>
+ * The context of the forward strand cytosine of the previous record extends
+ * downstream, the context of the reverse strand cytosine of the current
+ * record upstream. For contexts of up to contextLength positions the cursor
+ * reads contextLength - 2 records ahead of the underlying cursor and keeps
+ * contextLength - 1 records behind the current record in a ring of detached
+ * copies, i.e. the previous and the current record are those of the
+ * underlying cursor, returned with a delay. Positions beyond the
+ * di-nucleotide that are not covered by a record, e.g. in gaps of the
+ * coverage or past the end of a sequence, are N in the contexts.
+ * <p/>
+ * The di-nucleotide contexts of the profile records, i.e. whether a
+ * cytosine is in a CpG context, are derived from the di-nucleotide alone
+ * by the static getReferenceContextCode and getSampleContextCode methods,
+ * which read the bases of the positions as the window does. The codes of
+ * contexts of length 2 are the codes of these di-nucleotide contexts.
+ */
+public class ContextWindowCursor implements MultiPileupCursor {
+
+    private static final int N = BaseCallHistogram.getConsensusCode(BaseCallHistogram.N, BaseCallHistogram.N);
+
+    private MultiPileupCursor pileupCursor;
+    private int contextLength;
+
+    //record n of the underlying cursor is held in slot n % records.length
+    private BinaryMultiPileup[] records;
+    //true if the record of a slot is preceded by the record before it
+    private boolean[] paired;
+
+    //the number of the current record and the number of records read
+    private long current = -1;
+    private long loaded = 0;
+    private boolean endOfInput = false;
+
+    /**
+     * Constructs a cursor for contexts of up to contextLength positions.
+     *
+     * @param pileupCursor  the underlying cursor
+     * @param contextLength the maximum length of the contexts, at least 2
+     *                      and at most SequenceContext.MAX_LENGTH
+     */
+    public ContextWindowCursor(MultiPileupCursor pileupCursor, int contextLength) {
+
+        if (contextLength < 2 || contextLength > SequenceContext.MAX_LENGTH) {
+            throw new IllegalArgumentException("Context length must be between 2 and " + SequenceContext.MAX_LENGTH + ": " + contextLength);
+        }
+
+        this.pileupCursor = pileupCursor;
+        this.contextLength = contextLength;
+
+        records = new BinaryMultiPileup[2 * contextLength - 2];
+        paired = new boolean[records.length];
+
+    }
+
+    public boolean next() {
+
+        //the records up to contextLength - 2 positions after the next record
+        while (!endOfInput && loaded < current + contextLength) {
+
+            if (!pileupCursor.next()) {
+                endOfInput = true;
+                break;
+            }
+
+            int slot = getSlot(loaded);
+            if (records[slot] == null) {
+                records[slot] = BinaryMultiPileup.copyOf(pileupCursor.getCurrent());
+            } else {
+                records[slot].copyFrom(pileupCursor.getCurrent());
+            }
+            paired[slot] = pileupCursor.getPrevious() != null;
+
+            loaded++;
+
+        }
+
+        if (current + 1 >= loaded) {
+            return false;
+        }
+
+        current++;
+
+        return true;
+
+    }
+
+    public MultiPileup getCurrent() {
+        return current >= 0 ? records[getSlot(current)] : null;
+    }
+
+    public MultiPileup getPrevious() {
+        return current > 0 && paired[getSlot(current)] ? records[getSlot(current - 1)] : null;
+    }
+
+    public void close() {
+        pileupCursor.close();
+    }
+
+    /**
+     * Returns the maximum length of the contexts.
+     *
+     * @return the context length
+     */
+    public int getContextLength() {
+        return contextLength;
+    }
+
+    /**
+     * Returns the code of the reference context of the cytosine of the
+     * current di-nucleotide on a strand. Only valid if the current record
+     * has a previous record.
+     *
+     * @param strand the strand of the cytosine
+     * @param length the length of the context, at most the context length
+     * @return the context code (see SequenceContext)
+     */
+    public int getReferenceContextCode(Strand strand, int length) {
+
+        checkLength(length);
+
+        int retVal = 0;
+
+        for (int i = 0; i < length; i++) {
+
+            MultiPileup record = getContextRecord(strand, i);
+
+            retVal = SequenceContext.append(retVal, record == null ? N : getReferenceBaseCode(record, strand));
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the code of the context of a sample at the cytosine of the
+     * current di-nucleotide on a strand. As for the di-nucleotide context of
+     * a sample, the base calls of the opposite strand are used, unless they
+     * are subject to bisulfite conversion, i.e. the strand of the cytosine
+     * has a G. Only valid if the current record has a previous record.
+     *
+     * @param sampleIndex the index of the sample
+     * @param strand      the strand of the cytosine
+     * @param length      the length of the context, at most the context length
+     * @return the context code (see SequenceContext)
+     */
+    public int getSampleContextCode(int sampleIndex, Strand strand, int length) {
+
+        checkLength(length);
+
+        int retVal = 0;
+
+        for (int i = 0; i < length; i++) {
+
+            MultiPileup record = getContextRecord(strand, i);
+
+            retVal = SequenceContext.append(retVal, record == null ? N : getSampleBaseCode(record.getPileupCounts(2 * sampleIndex), record.getPileupCounts(2 * sampleIndex + 1), strand));
+
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the code of the reference context of the cytosine of a
+     * di-nucleotide on a strand, i.e. its context of length 2.
+     *
+     * @param previousPileup the first position of the di-nucleotide
+     * @param currentPileup  the second position of the di-nucleotide
+     * @param strand         the strand of the cytosine
+     * @return the context code (see SequenceContext and DinucleotideContext)
+     */
+    public static int getReferenceContextCode(MultiPileup previousPileup, MultiPileup currentPileup, Strand strand) {
+
+        MultiPileup cytosine = strand == Strand.FORWARD ? previousPileup : currentPileup;
+        MultiPileup next = strand == Strand.FORWARD ? currentPileup : previousPileup;
+
+        return SequenceContext.append(getReferenceBaseCode(cytosine, strand), getReferenceBaseCode(next, strand));
+
+    }
+
+    /**
+     * Returns the code of the context of a sample at the cytosine of a
+     * di-nucleotide on a strand, i.e. its context of length 2, see
+     * getSampleContextCode(int, Strand, int).
+     *
+     * @param previousReversePileup the reverse strand pileup of the sample at the first position
+     * @param previousForwardPileup the forward strand pileup of the sample at the first position
+     * @param currentReversePileup  the reverse strand pileup of the sample at the second position
+     * @param currentForwardPileup  the forward strand pileup of the sample at the second position
+     * @param strand                the strand of the cytosine
+     * @return the context code (see SequenceContext and DinucleotideContext)
+     */
+    public static int getSampleContextCode(PileupCounts previousReversePileup, PileupCounts previousForwardPileup,
+                                           PileupCounts currentReversePileup, PileupCounts currentForwardPileup, Strand strand) {
+
+        int previousBase = getSampleBaseCode(previousReversePileup, previousForwardPileup, strand);
+        int currentBase = getSampleBaseCode(currentReversePileup, currentForwardPileup, strand);
+
+        if (strand == Strand.FORWARD) {
+            return SequenceContext.append(previousBase, currentBase);
+        }
+
+        return SequenceContext.append(currentBase, previousBase);
+
+    }
+
+    /**
+     * Returns the code of the reference base of a position read on the
+     * strand of a cytosine.
+     */
+    private static int getReferenceBaseCode(MultiPileup record, Strand strand) {
+
+        int retVal = DinucleotideContext.getBaseCode(record.getReferenceBase().toUpperCase());
+
+        return strand == Strand.FORWARD ? retVal : DinucleotideContext.complement(retVal);
+
+    }
+
+    /**
+     * Returns the code of the base calls of a sample at a position read on
+     * the strand of a cytosine. The base calls of the opposite strand are
+     * used to determine the genotype, unless the strand of the cytosine has
+     * a G: then the opposite strand has a cytosine that is subject to
+     * bisulfite conversion and the strand of the cytosine is used.
+     */
+    private static int getSampleBaseCode(PileupCounts reverseStrandPileup, PileupCounts forwardStrandPileup, Strand strand) {
+
+        int reverseStrandBase = DinucleotideContext.getBaseCode(reverseStrandPileup);
+        int forwardStrandBase = DinucleotideContext.getBaseCode(forwardStrandPileup);
+
+        if (strand == Strand.FORWARD) {
+            return DinucleotideContext.contains(forwardStrandBase, BaseCallHistogram.G) ? forwardStrandBase : reverseStrandBase;
+        }
+
+        return DinucleotideContext.complement(DinucleotideContext.contains(reverseStrandBase, BaseCallHistogram.C) ? reverseStrandBase : forwardStrandBase);
+
+    }
+
+    /**
+     * Returns the record of a position of the context of the cytosine of the
+     * current di-nucleotide, or null if no record of the window lies at the
+     * position. The positions of the di-nucleotide are its records, the
+     * positions beyond have to follow on the sequence of the cytosine.
+     */
+    private MultiPileup getContextRecord(Strand strand, int index) {
+
+        long cytosine = strand == Strand.FORWARD ? current - 1 : current;
+        long number = strand == Strand.FORWARD ? cytosine + index : cytosine - index;
+
+        if (index < 2) {
+            return records[getSlot(number)];
+        }
+
+        if (number < 0 || number >= loaded) {
+            return null;
+        }
+
+        MultiPileup cytosineRecord = records[getSlot(cytosine)];
+        MultiPileup record = records[getSlot(number)];
+
+        int offset = strand == Strand.FORWARD ? index : -index;
+        if (record.getPosition() != cytosineRecord.getPosition() + offset || !record.getSequenceName().equals(cytosineRecord.getSequenceName())) {
+            return null;
+        }
+
+        return record;
+
+    }
+
+    private void checkLength(int length) {
+        if (length < 1 || length > contextLength) {
+            throw new IllegalArgumentException("Context length must be between 1 and " + contextLength + ": " + length);
+        }
+    }
+
+    private int getSlot(long number) {
+        return (int) (number % records.length);
+    }
+
+}
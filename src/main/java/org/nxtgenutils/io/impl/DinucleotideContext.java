@@ -0,0 +1,383 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.PileupCounts;
+
+import java.util.regex.Pattern;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Integer codes of the di-nucleotide contexts of methylation profiles and
+ * tables classifying them, so that contexts are compared and classified
+ * without building or matching strings.
+ * <p/>
+ * A base code is a consensus code of BaseCallHistogram, i.e. a homozygous
+ * call such as C, a heterozygous call such as C/T or N, or OTHER_BASE for a
+ * reference base other than A, C, G, T and N. A context code combines the
+ * base codes of the two positions of a di-nucleotide. The context strings
+ * are the strings the profiles have always used, e.g. CG or C/TA, and are
+ * looked up from the code when a record is formatted. Contexts holding
+ * OTHER_BASE have no string.
+ * <p/>
+ * The SNP types of all pairs of reference and sample contexts are computed
+ * once from the pattern rules documented at getSnpType(int, int).
+ */
+public final class DinucleotideContext {
+
+    /**
+     * base code of reference bases other than A, C, G, T and N
+     */
+    public static final int OTHER_BASE = 25;
+
+    /**
+     * number of base codes
+     */
+    public static final int BASE_CODES = 26;
+
+    /**
+     * number of context codes
+     */
+    public static final int CONTEXT_CODES = BASE_CODES * BASE_CODES;
+
+    /**
+     * context code of strings that are not di-nucleotide contexts
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final char[] BASE_CHARACTERS = {'A', 'C', 'G', 'T', 'N'};
+
+    //base index by upper case character, -1 for other characters
+    private static final int[] BASE_INDICES = new int[128];
+
+    private static final int[] COMPLEMENT_BASES = {BaseCallHistogram.T, BaseCallHistogram.G, BaseCallHistogram.C, BaseCallHistogram.A, BaseCallHistogram.N};
+
+    //context strings by context code, null for contexts holding OTHER_BASE
+    private static final String[] CONTEXT_STRINGS = new String[CONTEXT_CODES];
+
+    private static final int[] COMPLEMENTS = new int[BASE_CODES];
+
+    //SNP types by reference context code * CONTEXT_CODES + sample context code
+    private static final byte[] SNP_TYPES = new byte[CONTEXT_CODES * CONTEXT_CODES];
+
+    //true for the non-CpG cytosine contexts CA, CC and CT
+    private static final boolean[] NON_CPG_CYTOSINES = new boolean[CONTEXT_CODES];
+
+    static {
+
+        for (int i = 0; i < BASE_INDICES.length; i++) {
+            BASE_INDICES[i] = -1;
+        }
+        for (int i = 0; i < BASE_CHARACTERS.length; i++) {
+            BASE_INDICES[BASE_CHARACTERS[i]] = i;
+        }
+
+        String[] baseStrings = new String[BASE_CODES];
+        for (int baseCode = 0; baseCode < OTHER_BASE; baseCode++) {
+            baseStrings[baseCode] = BaseCallHistogram.getConsensusString(baseCode);
+            COMPLEMENTS[baseCode] = BaseCallHistogram.getConsensusCode(COMPLEMENT_BASES[BaseCallHistogram.getPrimaryBase(baseCode)],
+                    COMPLEMENT_BASES[BaseCallHistogram.getSecondaryBase(baseCode)]);
+        }
+        COMPLEMENTS[OTHER_BASE] = OTHER_BASE;
+
+        for (int first = 0; first < OTHER_BASE; first++) {
+            for (int second = 0; second < OTHER_BASE; second++) {
+                CONTEXT_STRINGS[getContextCode(first, second)] = baseStrings[first] + baseStrings[second];
+            }
+        }
+
+        //any character other than A, C, G, T, N and / stands in for OTHER_BASE,
+        //as none of the patterns matches it and no sample context contains it
+        baseStrings[OTHER_BASE] = "X";
+
+        for (int referenceContext = 0; referenceContext < CONTEXT_CODES; referenceContext++) {
+
+            String reference = baseStrings[referenceContext / BASE_CODES] + baseStrings[referenceContext % BASE_CODES];
+
+            for (int sampleContext = 0; sampleContext < CONTEXT_CODES; sampleContext++) {
+                String sample = baseStrings[sampleContext / BASE_CODES] + baseStrings[sampleContext % BASE_CODES];
+                SNP_TYPES[referenceContext * CONTEXT_CODES + sampleContext] = (byte) classify(reference, sample);
+            }
+
+            NON_CPG_CYTOSINES[referenceContext] = Patterns.c_atc.matcher(reference).matches();
+
+        }
+
+    }
+
+    private DinucleotideContext() {
+    }
+
+    /**
+     * Returns the base code of a consensus base call, e.g. C or C/T, or of an
+     * upper case reference base.
+     *
+     * @param baseCall the consensus base call or reference base
+     * @return the base code, OTHER_BASE if the base is not A, C, G, T or N
+     */
+    public static int getBaseCode(String baseCall) {
+        return getBaseCode(baseCall, 0, baseCall.length());
+    }
+
+    /**
+     * Returns the base code of the consensus base call of a pileup, which is
+     * taken from the consensus code of the parser records without building
+     * the consensus string.
+     *
+     * @param pileup the pileup
+     * @return the base code
+     */
+    public static int getBaseCode(PileupCounts pileup) {
+
+        if (pileup instanceof BytePileup) {
+            return ((BytePileup) pileup).getConsensusCode();
+        } else if (pileup instanceof BinaryPileup) {
+            return ((BinaryPileup) pileup).getConsensusCode();
+        }
+
+        return getBaseCode(pileup.getConsensusBaseCall());
+
+    }
+
+    /**
+     * Returns the context code of two base codes.
+     *
+     * @param first  the base code of the first position
+     * @param second the base code of the second position
+     * @return the context code
+     */
+    public static int getContextCode(int first, int second) {
+        return first * BASE_CODES + second;
+    }
+
+    /**
+     * Returns the context code of a context string.
+     *
+     * @param context the context string, e.g. CG or C/TA
+     * @return the context code or UNKNOWN if the string is not a
+     *         di-nucleotide context of consensus base calls
+     */
+    public static int getContextCode(String context) {
+
+        if (context == null || context.length() < 2) {
+            return UNKNOWN;
+        }
+
+        int split = context.charAt(1) == '/' ? 3 : 1;
+        if (split >= context.length()) {
+            return UNKNOWN;
+        }
+
+        int first = getBaseCode(context, 0, split);
+        int second = getBaseCode(context, split, context.length());
+
+        if (first == OTHER_BASE || second == OTHER_BASE) {
+            return UNKNOWN;
+        }
+
+        return getContextCode(first, second);
+
+    }
+
+    /**
+     * Returns the string of a context code.
+     *
+     * @param contextCode the context code
+     * @return the context string or null if the context holds OTHER_BASE
+     */
+    public static String toString(int contextCode) {
+        return contextCode < 0 ? null : CONTEXT_STRINGS[contextCode];
+    }
+
+    /**
+     * Returns the base code of the complement of a base, e.g. G/A for C/T.
+     *
+     * @param baseCode the base code
+     * @return the base code of the complement
+     */
+    public static int complement(int baseCode) {
+        return COMPLEMENTS[baseCode];
+    }
+
+    /**
+     * Returns true if a consensus base call contains a base, i.e. the base is
+     * its primary call or the secondary call of a heterozygous position.
+     *
+     * @param baseCode the base code of the consensus base call
+     * @param base     the base index, e.g. BaseCallHistogram.C
+     * @return true if the base call contains the base
+     */
+    public static boolean contains(int baseCode, int base) {
+
+        if (baseCode == OTHER_BASE) {
+            return false;
+        }
+
+        int secondary = BaseCallHistogram.getSecondaryBase(baseCode);
+
+        return BaseCallHistogram.getPrimaryBase(baseCode) == base || (secondary == base && secondary != BaseCallHistogram.N);
+
+    }
+
+    /**
+     * Returns true if a context is a non-CpG cytosine context, i.e. CA, CC
+     * or CT.
+     *
+     * @param contextCode the context code
+     * @return true for the non-CpG cytosine contexts
+     */
+    public static boolean isNonCpGCytosine(int contextCode) {
+        return contextCode >= 0 && NON_CPG_CYTOSINES[contextCode];
+    }
+
+    /**
+     * Returns the SNP type of a sample context relative to the reference
+     * context.
+     * <p/>
+     * SNP
+     * 0=no SNP
+     * CpG context (CpG in reference)
+     * 1=CG -> TG transition                    loss of cytosin -> false positive unmethylated
+     * 2=CG -> [AG]G transversion               loss of cytosin -> no methylation signal
+     * 3=CG -> C[ATC] transition/transversion   loss of CpG di-nucleotide -> potentially methylated site
+     * 4=CG -> [ATG][ATC]                       loss of CpG di-nucleotide -> no methylation signal
+     * 5=TG -> CG transition                    gain of CpG di-nucleotide -> potential CpG methylation site
+     * 6=[AG]G -> CG transversion               gain of CpG di-nucleotide -> potential CpG methylation site
+     * 7=CA -> CG  transition                   gain of CpG di-nucleotide -> potential CpG methylation site
+     * 8=C[CT] -> CG transversion               gain of CpG di-nucleotide -> potential CpG methylation site
+     * 9=[ATG][ATC] -> CG                       gain of CpG di-nucleotide -> potential CpG methylation site
+     * non-CpG context (non-CpG in reference)
+     * 10=C[ACT] -> T[ACT] transition            loss of cytosin -> false positive unmethylated
+     * 11=C[ACT] -> [AG][ACT] transversion       loss of cytosin -> no methylation signal
+     * 12=T[ACT] -> C[ACT] transition            gain of cytosin -> potential methylation site
+     * 13=[AG][ACT] -> C[ACT] transversion       gain of cytosin -> potential methylation site
+     * 14=other
+     * <p/>
+     * -1 if the sample context holds an N or a heterozygous call and
+     * differs from the reference context.
+     *
+     * @param referenceContextCode the reference context code
+     * @param sampleContextCode    the sample context code
+     * @return the SNP type
+     */
+    public static int getSnpType(int referenceContextCode, int sampleContextCode) {
+        return SNP_TYPES[referenceContextCode * CONTEXT_CODES + sampleContextCode];
+    }
+
+    /**
+     * Returns the base code of the base call held by a range of a string.
+     */
+    private static int getBaseCode(String baseCall, int start, int end) {
+
+        int primary = getBaseIndex(baseCall.charAt(start));
+
+        if (end - start == 1) {
+            return primary < 0 ? OTHER_BASE : BaseCallHistogram.getConsensusCode(primary, BaseCallHistogram.N);
+        }
+
+        int secondary = end - start == 3 && baseCall.charAt(start + 1) == '/' ? getBaseIndex(baseCall.charAt(start + 2)) : -1;
+        if (primary < 0 || secondary < 0 || secondary == BaseCallHistogram.N) {
+            return OTHER_BASE;
+        }
+
+        return BaseCallHistogram.getConsensusCode(primary, secondary);
+
+    }
+
+    private static int getBaseIndex(char c) {
+        return c < BASE_INDICES.length ? BASE_INDICES[c] : -1;
+    }
+
+    /**
+     * Classifies a pair of context strings by the pattern rules of
+     * getSnpType(int, int).
+     */
+    private static int classify(String referenceContext, String sampleContext) {
+
+        if (referenceContext.equals(sampleContext)) {
+            return 0;
+        }
+        //if one of the sample bases used for SNP determination is not called
+        //we can return -1
+        if (sampleContext.contains("N")) {
+            return -1;
+        }
+
+        //if one of the sample base calls is heterozygous we return -1
+        if (sampleContext.contains("/")) {
+            return -1;
+        }
+
+        int retVal;
+
+        //CpG context (CpG in reference)
+        if (Patterns.cg.matcher(referenceContext).matches() && Patterns.tg.matcher(sampleContext).matches()) {
+            retVal = 1;
+        } else if (Patterns.cg.matcher(referenceContext).matches() && Patterns.ag_g.matcher(sampleContext).matches()) {
+            retVal = 2;
+        } else if (Patterns.cg.matcher(referenceContext).matches() && Patterns.c_atc.matcher(sampleContext).matches()) {
+            retVal = 3;
+        } else if (Patterns.cg.matcher(referenceContext).matches() && Patterns.atg_atc.matcher(sampleContext).matches()) {
+            retVal = 4;
+        } else if (Patterns.tg.matcher(referenceContext).matches() && Patterns.cg.matcher(sampleContext).matches()) {
+            retVal = 5;
+        } else if (Patterns.ag_g.matcher(referenceContext).matches() && Patterns.cg.matcher(sampleContext).matches()) {
+            retVal = 6;
+        } else if (Patterns.ca.matcher(referenceContext).matches() && Patterns.cg.matcher(sampleContext).matches()) {
+            retVal = 7;
+        } else if (Patterns.c_ct.matcher(referenceContext).matches() && Patterns.cg.matcher(sampleContext).matches()) {
+            retVal = 8;
+        } else if (Patterns.atg_atc.matcher(referenceContext).matches() && Patterns.cg.matcher(sampleContext).matches()) {
+            retVal = 9;
+        }
+
+        //non-CpG context (non-CpG in reference)
+        else if (Patterns.c_act.matcher(referenceContext).matches() && Patterns.t_act.matcher(sampleContext).matches()) {
+            retVal = 10;
+        } else if (Patterns.c_act.matcher(referenceContext).matches() && Patterns.ag_act.matcher(sampleContext).matches()) {
+            retVal = 11;
+        } else if (Patterns.t_act.matcher(referenceContext).matches() && Patterns.c_act.matcher(sampleContext).matches()) {
+            retVal = 12;
+        } else if (Patterns.ag_act.matcher(referenceContext).matches() && Patterns.c_act.matcher(sampleContext).matches()) {
+            retVal = 13;
+        } else {
+            retVal = 14;
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * The patterns the SNP type table is computed from.
+     */
+    private static class Patterns {
+
+        static Pattern cg = Pattern.compile("CG");
+        static Pattern tg = Pattern.compile("TG");
+        static Pattern ag_g = Pattern.compile("[AG]G");
+        static Pattern c_atc = Pattern.compile("C[ATC]");
+        static Pattern ca = Pattern.compile("CA");
+        static Pattern c_ct = Pattern.compile("C[CT]");
+        static Pattern c_act = Pattern.compile("C[ACT]");
+        static Pattern t_act = Pattern.compile("T[ACT]");
+        static Pattern ag_act = Pattern.compile("AG[ACT]");
+        static Pattern atg_atc = Pattern.compile("[ATG][ATC]");
+
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.nxtgenutils.io.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Chunk source for uncompressed pileup files, read with positional
+ * reads on a shared FileChannel.
+ */
+class FilePileupChunkSource implements PileupChunkSource {
+
+    private FileChannel channel;
+    private long length;
+
+    FilePileupChunkSource(File file) throws IOException {
+        this.channel = new FileInputStream(file).getChannel();
+        this.length = channel.size();
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long[] getSplitOffsets(long chunkSize) {
+
+        int chunkCount = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+        long[] retVal = new long[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            retVal[i] = i * chunkSize;
+        }
+
+        return retVal;
+
+    }
+
+    public byte[] read(long offset, int length) throws IOException {
+
+        int readLength = (int) Math.max(0, Math.min(length, this.length - offset));
+        ByteBuffer buffer = ByteBuffer.allocate(readLength);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        if (buffer.hasRemaining()) {
+            byte[] retVal = new byte[buffer.position()];
+            System.arraycopy(buffer.array(), 0, retVal, 0, retVal.length);
+            return retVal;
+        }
+
+        return buffer.array();
+
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.nxtgenutils.io.impl;
+
+import org.apache.log4j.Logger;
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupCursor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Cursor implementation on top of a record iterator.
+ */
+public class IteratorMultiPileupCursor implements MultiPileupCursor {
+
+    private Iterator<MultiPileup> iterator;
+    private Closeable closeable;
+
+    private MultiPileup previousRecord = null;
+    private MultiPileup currentRecord = null;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(IteratorMultiPileupCursor.class);
+
+    /**
+     * Constructs a cursor.
+     *
+     * @param iterator  the record iterator
+     * @param closeable the resource to close when the cursor is closed,
+     *                  or null if the iterator releases its resources
+     */
+    public IteratorMultiPileupCursor(Iterator<MultiPileup> iterator, Closeable closeable) {
+        this.iterator = iterator;
+        this.closeable = closeable;
+    }
+
+    public boolean next() {
+
+        if (!iterator.hasNext()) {
+            return false;
+        }
+
+        previousRecord = currentRecord;
+        currentRecord = iterator.next();
+
+        return true;
+
+    }
+
+    public MultiPileup getCurrent() {
+        return currentRecord;
+    }
+
+    public MultiPileup getPrevious() {
+        return previousRecord;
+    }
+
+    public void close() {
+
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.error(e);
+        }
+
+    }
+
+}
@@ -0,0 +1,203 @@
+package org.nxtgenutils.io.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Reads the records of a binary pileup file (see BinaryPileupWriter)
+ * through a memory mapped window of the file. The window is moved on
+ * when the next record might extend beyond it, so files larger than
+ * a single mapping can be read.
+ */
+class MappedPileupReader {
+
+    //size of the mapped windows
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private FileChannel channel;
+    private long fileSize;
+
+    private int pileupCount;
+    private long dataEnd;
+    private String[] sequenceNames;
+    private long[] sequenceOffsets;
+
+    //upper bound of the encoded size of a record
+    private int maxRecordSize;
+
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private long windowEnd = 0;
+
+    //absolute offset of the next byte to read
+    private long position;
+
+    MappedPileupReader(File file) throws IOException {
+
+        channel = new FileInputStream(file).getChannel();
+        fileSize = channel.size();
+
+        try {
+            readHeader(file);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        maxRecordSize = 32 + pileupCount * (BinaryPileupWriter.MAX_VARINT_SIZE * (BaseCallHistogram.SIZE + 2));
+        position = BinaryPileupWriter.HEADER_SIZE;
+
+    }
+
+    private void readHeader(File file) throws IOException {
+
+        ByteBuffer header = read(0, BinaryPileupWriter.HEADER_SIZE);
+        if (header.remaining() < BinaryPileupWriter.HEADER_SIZE || header.getInt() != BinaryPileupWriter.MAGIC) {
+            throw new IOException("Not a binary pileup file: " + file.getAbsolutePath());
+        }
+
+        int version = header.getInt();
+        if (version != BinaryPileupWriter.VERSION) {
+            throw new IOException("Unsupported binary pileup version " + version + ": " + file.getAbsolutePath());
+        }
+
+        pileupCount = header.getInt();
+        dataEnd = header.getLong();
+        if (dataEnd < BinaryPileupWriter.HEADER_SIZE || dataEnd > fileSize) {
+            throw new IOException("Incomplete binary pileup file: " + file.getAbsolutePath());
+        }
+
+        //sequence table
+        ByteBuffer table = read(dataEnd, (int) (fileSize - dataEnd));
+        int sequenceCount = table.getInt();
+        sequenceNames = new String[sequenceCount];
+        sequenceOffsets = new long[sequenceCount];
+        for (int i = 0; i < sequenceCount; i++) {
+            byte[] name = new byte[table.getShort() & 0xffff];
+            table.get(name);
+            sequenceNames[i] = new String(name, "UTF-8");
+            sequenceOffsets[i] = table.getLong();
+        }
+
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+
+        ByteBuffer retVal = ByteBuffer.allocate(length);
+        while (retVal.hasRemaining() && channel.read(retVal, offset + retVal.position()) >= 0) {
+            //read until the buffer is full or the end of the file is reached
+        }
+        retVal.flip();
+
+        return retVal;
+
+    }
+
+    int getPileupCount() {
+        return pileupCount;
+    }
+
+    String getSequenceName(int sequenceId) {
+        return sequenceNames[sequenceId];
+    }
+
+    List<String> getSequenceNames() {
+        return Collections.unmodifiableList(Arrays.asList(sequenceNames));
+    }
+
+    /**
+     * Returns the offset of the first record of a sequence
+     * or -1 if the file has no records of the sequence.
+     */
+    long getSequenceOffset(String sequenceName) {
+
+        for (int i = 0; i < sequenceNames.length; i++) {
+            if (sequenceNames[i].equals(sequenceName)) {
+                return sequenceOffsets[i];
+            }
+        }
+
+        return -1;
+
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    void seek(long position) {
+        this.position = position;
+    }
+
+    boolean hasRecord() {
+        return position < dataEnd;
+    }
+
+    /**
+     * Makes sure that the mapped window holds the record at the current
+     * position.
+     */
+    void mapRecord() throws IOException {
+
+        if (position >= windowStart && (position + maxRecordSize <= windowEnd || windowEnd == dataEnd)) {
+            return;
+        }
+
+        windowStart = position;
+        windowEnd = Math.min(dataEnd, position + Math.max(WINDOW_SIZE, maxRecordSize));
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+
+    }
+
+    int readByte() {
+        return window.get((int) (position++ - windowStart)) & 0xff;
+    }
+
+    int readVarInt() {
+
+        int index = (int) (position - windowStart);
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = window.get(index++);
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        position = windowStart + index;
+
+        return value;
+
+    }
+
+    void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+}
@@ -32,7 +32,9 @@ import org.nxtgenutils.io.MethylationProfileSampleRecord;
  */
 public class MethylationProfileSampleRecordImpl implements MethylationProfileSampleRecord {
 
+    //null if the context string is looked up from the context code
     private String sampleContext;
+    private int sampleContextCode;
     private int cCount;
     private int ctCoverage;
     private int nonCtCoverage;
@@ -54,6 +56,25 @@ public class MethylationProfileSampleRecordImpl implements MethylationProfileSam
     public MethylationProfileSampleRecordImpl(MethylationProfileRecord parentRecord, String sampleContext, int cCount, int ctCoverage, int nonCtCoverage) {
         this.methylationProfileRecord = parentRecord;
         this.sampleContext = sampleContext;
+        this.sampleContextCode = DinucleotideContext.getContextCode(sampleContext);
+        this.cCount = cCount;
+        this.ctCoverage = ctCoverage;
+        this.nonCtCoverage = nonCtCoverage;
+    }
+
+    /**
+     * Constructs a MethylationProfileSampleRecord instance from an encoded
+     * sample context (see DinucleotideContext).
+     *
+     * @param parentRecord the parent MethylationProfileRecord instance
+     * @param sampleContextCode the code of the sample nucleotide context of the profiled position
+     * @param cCount the number of cytosine base calls at the profiled position
+     * @param ctCoverage the number of cytosine and thymidine base calls at the profiled position
+     * @param nonCtCoverage the number of non-cytosine/thymidine base calls at the profiled position
+     */
+    public MethylationProfileSampleRecordImpl(MethylationProfileRecord parentRecord, int sampleContextCode, int cCount, int ctCoverage, int nonCtCoverage) {
+        this.methylationProfileRecord = parentRecord;
+        this.sampleContextCode = sampleContextCode;
         this.cCount = cCount;
         this.ctCoverage = ctCoverage;
         this.nonCtCoverage = nonCtCoverage;
@@ -73,6 +94,7 @@ public class MethylationProfileSampleRecordImpl implements MethylationProfileSam
         this.sampleName = sampleName;
         this.methylationProfileRecord = parentRecord;
         this.sampleContext = sampleContext;
+        this.sampleContextCode = DinucleotideContext.getContextCode(sampleContext);
         this.cCount = cCount;
         this.ctCoverage = ctCoverage;
         this.nonCtCoverage = nonCtCoverage;
@@ -95,6 +117,7 @@ public class MethylationProfileSampleRecordImpl implements MethylationProfileSam
         this.sampleName = sampleName;
         this.methylationProfileRecord = parentRecord;
         this.sampleContext = sampleContext;
+        this.sampleContextCode = DinucleotideContext.getContextCode(sampleContext);
         this.cCount = cCount;
         this.ctCoverage = ctCoverage;
         this.nonCtCoverage = nonCtCoverage;
@@ -110,7 +133,7 @@ public class MethylationProfileSampleRecordImpl implements MethylationProfileSam
      */
     @Override
     public String getSampleContext() {
-        return sampleContext;
+        return sampleContext == null ? DinucleotideContext.toString(sampleContextCode) : sampleContext;
     }
 
     /**
@@ -121,6 +144,19 @@ public class MethylationProfileSampleRecordImpl implements MethylationProfileSam
     @Override
     public void setSampleContext(String sampleContext) {
         this.sampleContext = sampleContext;
+        this.sampleContextCode = DinucleotideContext.getContextCode(sampleContext);
+    }
+
+    /**
+     * Returns the code of the sample nucleotide context at the profiled
+     * position (see DinucleotideContext).
+     *
+     * @return the sample context code or -1 if the context is not a
+     *         di-nucleotide of consensus base calls
+     */
+    @Override
+    public int getSampleContextCode() {
+        return sampleContextCode;
     }
 
     /**
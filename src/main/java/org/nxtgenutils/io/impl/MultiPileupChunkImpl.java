@@ -0,0 +1,57 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupChunk;
+
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+class MultiPileupChunkImpl implements MultiPileupChunk {
+
+    private int chunkIndex;
+    private MultiPileup overlapRecord;
+    private List<MultiPileup> records;
+
+    MultiPileupChunkImpl(int chunkIndex, MultiPileup overlapRecord, List<MultiPileup> records) {
+        this.chunkIndex = chunkIndex;
+        this.overlapRecord = overlapRecord;
+        this.records = records;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public MultiPileup getOverlapRecord() {
+        return overlapRecord;
+    }
+
+    public List<MultiPileup> getRecords() {
+        return records;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiPileupChunk{" +
+                "chunkIndex=" + chunkIndex +
+                ", records=" + records.size() +
+                '}';
+    }
+
+}
@@ -2,9 +2,12 @@ package org.nxtgenutils.io.impl;
 
 import org.nxtgenutils.io.MultiPileup;
 import org.nxtgenutils.io.Pileup;
+import org.nxtgenutils.io.PileupCounts;
 
 import java.util.Set;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ArrayList;
 
 /**
  * This file is part of NxtGenUtils.
@@ -38,6 +41,7 @@ public class MultiPileupImpl implements MultiPileup {
     private int position;
     private String referenceBase;
     private Set<Pileup> pileups = new LinkedHashSet<Pileup>();
+    private List<Pileup> pileupList = new ArrayList<Pileup>();
     private String recordString;
 
     public MultiPileupImpl(String sequenceName, int position, String referenceBase) {
@@ -47,7 +51,9 @@ public class MultiPileupImpl implements MultiPileup {
     }
 
     public void addPileup(Pileup pileup){
-        this.pileups.add(pileup);
+        if (this.pileups.add(pileup)) {
+            this.pileupList.add(pileup);
+        }
     }
 
     public int getPileupCount(){
@@ -58,6 +64,14 @@ public class MultiPileupImpl implements MultiPileup {
         return this.pileups;
     }
 
+    public Pileup getPileup(int index){
+        return this.pileupList.get(index);
+    }
+
+    public PileupCounts getPileupCounts(int index){
+        return getPileup(index);
+    }
+
     public String getSequenceName() {
         return sequenceName;
     }
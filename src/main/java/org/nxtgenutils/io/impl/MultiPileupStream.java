@@ -0,0 +1,139 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.PileupProjection;
+import org.nxtgenutils.util.FileTypeDeterminator;
+import org.nxtgenutils.util.ReadAheadInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Multi-pileup input read from a stream that can only be read once, e.g.
+ * samtools mpileup output piped to standard input or a named pipe. The
+ * stream is read on a double buffered read-ahead thread, so that reading
+ * the producer's output overlaps with parsing, and is decompressed if it
+ * is compressed.
+ * <p/>
+ * The first line of the stream can be examined before the stream is
+ * opened, e.g. to determine the number of pileups, and is then passed on
+ * to the parser as part of the stream.
+ */
+class MultiPileupStream {
+
+    private InputStream in;
+    private InputStream decodedStream = null;
+    private byte[] firstLine = null;
+    private boolean opened = false;
+
+    /**
+     * Constructs a multi-pileup stream.
+     *
+     * @param in the stream to read from
+     */
+    MultiPileupStream(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Returns the number of pileups of the first record of the stream
+     * without consuming it.
+     *
+     * @return the number of pileups or 0 if the stream is empty
+     * @throws IOException if the stream cannot be read
+     */
+    synchronized int getPileupCount() throws IOException {
+
+        if (firstLine == null) {
+            if (opened) {
+                throw new IllegalStateException("The pileup stream has already been read.");
+            }
+            firstLine = readFirstLine();
+        }
+
+        PileupLineReader reader = new PileupLineReader(ByteBuffer.wrap(firstLine), 0);
+        if (!reader.readLine(-1)) {
+            return 0;
+        }
+
+        ByteMultiPileup record = new ByteMultiPileup();
+        record.parse(reader, null, PileupProjection.ALL, 0);
+
+        return record.getPileupCount();
+
+    }
+
+    /**
+     * Opens the decompressed stream, which is only possible once.
+     *
+     * @return the decompressed stream
+     * @throws IOException if the stream cannot be read
+     */
+    synchronized InputStream open() throws IOException {
+
+        if (opened) {
+            throw new IllegalStateException("The pileup stream has already been read.");
+        }
+        opened = true;
+
+        InputStream retVal = getDecodedStream();
+        if (firstLine != null && firstLine.length > 0) {
+            retVal = new SequenceInputStream(new ByteArrayInputStream(firstLine), retVal);
+        }
+
+        return retVal;
+
+    }
+
+    private InputStream getDecodedStream() throws IOException {
+
+        if (decodedStream == null) {
+            decodedStream = FileTypeDeterminator.determineStreamType(new ReadAheadInputStream(in, ReadAheadInputStream.DEFAULT_BUFFER_SIZE, 2), true);
+            if (decodedStream == null) {
+                //less than four bytes, which cannot hold a pileup record
+                decodedStream = new ByteArrayInputStream(new byte[0]);
+            }
+        }
+
+        return decodedStream;
+
+    }
+
+    private byte[] readFirstLine() throws IOException {
+
+        InputStream stream = getDecodedStream();
+        ByteArrayOutputStream retVal = new ByteArrayOutputStream();
+
+        int b;
+        while ((b = stream.read()) >= 0) {
+            retVal.write(b);
+            if (b == '\n') {
+                break;
+            }
+        }
+
+        return retVal.toByteArray();
+
+    }
+
+}
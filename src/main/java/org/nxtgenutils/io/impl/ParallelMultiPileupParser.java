@@ -0,0 +1,787 @@
+package org.nxtgenutils.io.impl;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.nxtgenutils.util.FileTypeDeterminator;
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupChunk;
+import org.nxtgenutils.io.MultiPileupCursor;
+import org.nxtgenutils.io.MultiPileupParser;
+import org.nxtgenutils.io.PileupProjection;
+import org.nxtgenutils.io.TargetRegions;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * MultiPileupParser implementation parsing chunks of the mpileup file on a
+ * pool of worker threads. Uncompressed files are split into byte ranges and
+ * BGZF compressed files into ranges of blocks, which the workers read,
+ * decompress and parse independently. Each worker aligns its range to line
+ * boundaries: a chunk holds the lines starting within its range and, as
+ * overlap record, the last line of the preceding range. Other compressed
+ * files cannot be split and are read sequentially by the consuming thread,
+ * with parsing still done by the workers.
+ * <p/>
+ * Workers parse the records into ByteMultiPileup objects backed by the chunk
+ * data and count their base calls. Chunks are handed out in file order by
+ * chunkIterator(), while iterator() and cursor() return the records of the
+ * chunks as one stream. The number of chunks in flight is limited to twice
+ * the number of threads. Unlike the records of ByteMultiPileupParser, the
+ * records stay accessible for as long as they are referenced.
+ * <p/>
+ * Workers skip the lines outside the target regions, if any (see
+ * setTargets(TargetRegions)), before parsing their pileups. The records of
+ * an indexed file restricted to target regions are read sequentially by a
+ * ByteMultiPileupParser, which seeks past the lines between the regions.
+ */
+public class ParallelMultiPileupParser implements MultiPileupParser {
+
+    /**
+     * the default chunk size (8 MB)
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    //initial distance to look beyond a range for the adjacent line breaks
+    private static final int LINE_SEARCH_SIZE = 64 * 1024;
+
+    private File mPileupFile;
+    private MultiPileupStream mPileupStream;
+    private int threadCount;
+    private int chunkSize;
+    private boolean retainRecordStrings = false;
+    private PileupProjection projection = PileupProjection.ALL;
+    private int minBaseQuality = 0;
+    private TargetRegions targets = null;
+
+    //sequential parser used for region queries
+    private ByteMultiPileupParser regionParser;
+
+    /**
+     * the log4j logger
+     */
+    private static Logger logger = Logger.getLogger(ParallelMultiPileupParser.class);
+
+    /**
+     * Constructs a parser instance for a multi-pileup file generated with samtools.
+     *
+     * @param multiPileUpFile the mpileup output file
+     * @param threadCount     the number of worker threads
+     */
+    public ParallelMultiPileupParser(File multiPileUpFile, int threadCount) {
+        this(multiPileUpFile, threadCount, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a parser instance for a multi-pileup file generated with samtools.
+     *
+     * @param multiPileUpFile the mpileup output file
+     * @param threadCount     the number of worker threads
+     * @param chunkSize       the (uncompressed) size of the chunks in bytes
+     */
+    public ParallelMultiPileupParser(File multiPileUpFile, int threadCount, int chunkSize) {
+
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threadCount);
+        }
+
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1: " + chunkSize);
+        }
+
+        this.mPileupFile = multiPileUpFile;
+        this.threadCount = threadCount;
+        this.chunkSize = chunkSize;
+
+    }
+
+    /**
+     * Constructs a parser instance for a multi-pileup stream, e.g. samtools
+     * mpileup output read from standard input or a named pipe. The stream
+     * is read ahead on a separate thread, split into chunks sequentially and
+     * can only be iterated once. Region queries are not supported.
+     *
+     * @param multiPileUpStream the mpileup output stream
+     * @param threadCount       the number of worker threads
+     */
+    public ParallelMultiPileupParser(InputStream multiPileUpStream, int threadCount) {
+        this((File) null, threadCount, DEFAULT_CHUNK_SIZE);
+        this.mPileupStream = new MultiPileupStream(multiPileUpStream);
+    }
+
+    /**
+     * Returns the number of pileups per record, read from the first record.
+     * The first record of a stream is not consumed.
+     *
+     * @return the number of pileups per record or 0 if the input is empty
+     */
+    public int getPileupCount() {
+
+        if (mPileupStream == null) {
+            return new ByteMultiPileupParser(mPileupFile).getPileupCount();
+        }
+
+        int retVal = 0;
+
+        try {
+            retVal = mPileupStream.getPileupCount();
+        } catch (IOException e) {
+            logger.error("Exception while reading pileup stream", e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns an iterator over the chunks of the file in file order.
+     *
+     * @return the MultiPileupChunk iterator
+     */
+    public Iterator<MultiPileupChunk> chunkIterator() {
+        return openChunks();
+    }
+
+    /**
+     * Returns a MultiPileup iterator.
+     *
+     * @return the MultiPileup iterator
+     */
+    public Iterator<MultiPileup> iterator() {
+
+        if (isSoughtByTargets()) {
+            return getRegionParser().iterator();
+        }
+
+        ChunkIterator chunks = openChunks();
+        if (chunks == null) {
+            return null;
+        }
+
+        return new RecordIterator(chunks);
+
+    }
+
+    /**
+     * Returns a MultiPileup cursor.
+     *
+     * @return the MultiPileup cursor
+     */
+    public MultiPileupCursor cursor() {
+
+        if (isSoughtByTargets()) {
+            return getRegionParser().cursor();
+        }
+
+        ChunkIterator chunks = openChunks();
+        if (chunks == null) {
+            return null;
+        }
+
+        return new IteratorMultiPileupCursor(new RecordIterator(chunks), chunks);
+
+    }
+
+    /**
+     * Returns an iterator over the records of a region of a reference
+     * sequence. Regions are read sequentially by a ByteMultiPileupParser,
+     * which seeks to the region if the file has a tabix index. Streams
+     * cannot be queried.
+     *
+     * @param sequenceName the name of the reference sequence
+     * @param start        the first position of the region (1-based)
+     * @param end          the last position of the region (inclusive)
+     * @return the MultiPileup iterator
+     */
+    public Iterator<MultiPileup> query(String sequenceName, int start, int end) {
+
+        if (mPileupStream != null) {
+            throw new UnsupportedOperationException("Region queries are not supported for pileup streams.");
+        }
+
+        return getRegionParser().query(sequenceName, start, end);
+
+    }
+
+    /**
+     * Returns the names of the reference sequences in file order, if the
+     * file is BGZF compressed and indexed with tabix.
+     *
+     * @return the sequence names or null if the input is not indexed
+     */
+    public List<String> getSequenceNames() {
+
+        if (mPileupStream != null) {
+            return null;
+        }
+
+        return getRegionParser().getSequenceNames();
+
+    }
+
+    /**
+     * Returns true if the records are restricted to target regions and the
+     * file is indexed, so that seeking past the lines between the regions
+     * takes less time than parsing them on several threads.
+     */
+    private boolean isSoughtByTargets() {
+        return targets != null && mPileupStream == null && getRegionParser().getSequenceNames() != null;
+    }
+
+    private ByteMultiPileupParser getRegionParser() {
+
+        if (regionParser == null) {
+            regionParser = new ByteMultiPileupParser(mPileupFile);
+        }
+        regionParser.setRetainRecordStrings(retainRecordStrings);
+        regionParser.setProjection(projection);
+        regionParser.setMinBaseQuality(minBaseQuality);
+        regionParser.setTargets(targets);
+
+        return regionParser;
+
+    }
+
+    /**
+     * Sets whether or not the parser keeps a copy of the mpileup line
+     * for each record, accessible through MultiPileup.getRecordString().
+     * Disabled by default.
+     *
+     * @param retainRecordStrings true if record strings should be retained
+     */
+    public void setRetainRecordStrings(boolean retainRecordStrings) {
+        this.retainRecordStrings = retainRecordStrings;
+    }
+
+    /**
+     * Sets the pileups and columns to decode. By default all pileups
+     * and columns are decoded (PileupProjection.ALL). The projection
+     * applies to iterators and cursors created after the call.
+     *
+     * @param projection the projection
+     */
+    public void setProjection(PileupProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Sets the minimum base quality (Phred score) of counted base calls.
+     * Base calls with a lower quality are dropped while the bases column
+     * is counted and the depth of coverage of the pileup is reduced
+     * accordingly. The qualities column is not available from the records
+     * if a minimum base quality is set. The default of 0 counts all base
+     * calls. The minimum base quality applies to iterators and cursors
+     * created after the call.
+     *
+     * @param minBaseQuality the minimum base quality
+     */
+    public void setMinBaseQuality(int minBaseQuality) {
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * Restricts iterators, cursors and queries to the records within target
+     * regions. The workers skip the lines outside the regions before parsing
+     * their pileups. The overlap record of a chunk is dropped if it lies
+     * outside the regions. The regions apply to iterators and cursors
+     * created after the call.
+     *
+     * @param targets the target regions or null for all records
+     */
+    public void setTargets(TargetRegions targets) {
+        this.targets = targets;
+    }
+
+    private String getInputName() {
+        return mPileupStream != null ? "stream" : "file: " + mPileupFile.getAbsolutePath();
+    }
+
+    private ChunkIterator openChunks() {
+
+        ChunkIterator retVal = null;
+
+        try {
+            retVal = new ChunkIterator();
+        } catch (IOException e) {
+            logger.error("Exception while opening pileup " + getInputName(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Parses the lines of a chunk.
+     *
+     * @param chunkIndex   the index of the chunk
+     * @param data         the chunk data
+     * @param dataOffset   the absolute offset of the first byte of the data
+     * @param overlapStart the index of the overlap line or -1 if there is none
+     * @param firstLine    the index of the first line of the chunk
+     * @param end          the index after the line break of the last line
+     * @param projection     the pileups and columns to decode
+     * @param minBaseQuality the minimum base quality of counted base calls
+     * @param targets        the target regions or null
+     * @return the chunk
+     */
+    private MultiPileupChunk parseChunk(int chunkIndex, byte[] data, long dataOffset, int overlapStart, int firstLine, int end,
+                                        PileupProjection projection, int minBaseQuality, TargetRegions targets) {
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.limit(end);
+        buffer.position(overlapStart >= 0 ? overlapStart : firstLine);
+        PileupLineReader reader = new PileupLineReader(buffer, dataOffset + buffer.position());
+        TargetLineFilter targetFilter = targets == null ? null : new TargetLineFilter(targets);
+
+        try {
+
+            ByteMultiPileup overlapRecord = null;
+            if (overlapStart >= 0 && firstLine < end && reader.readLine(-1) && (targetFilter == null || targetFilter.accept(reader))) {
+                overlapRecord = new ByteMultiPileup();
+                overlapRecord.parse(reader, null, projection, minBaseQuality);
+            }
+
+            List<MultiPileup> records = new ArrayList<MultiPileup>();
+            String sequenceName = overlapRecord == null ? null : overlapRecord.getSequenceName();
+            while (reader.readLine(-1)) {
+
+                if (targetFilter != null && !targetFilter.accept(reader)) {
+                    continue;
+                }
+
+                ByteMultiPileup record = new ByteMultiPileup();
+                record.parse(reader, sequenceName, projection, minBaseQuality);
+                record.countBaseCalls();
+
+                if (retainRecordStrings) {
+                    record.setRecordString(record.getRecordString());
+                }
+
+                sequenceName = record.getSequenceName();
+                records.add(record);
+
+            }
+
+            return new MultiPileupChunkImpl(chunkIndex, overlapRecord, records);
+
+        } catch (IOException e) {
+            //cannot happen, the reader does not read from a channel
+            throw new IllegalStateException(e);
+        }
+
+    }
+
+    private static int indexOf(byte[] data, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] data, byte b, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Task reading a range of a splittable file and parsing the
+     * lines starting within the range.
+     */
+    class RangeTask implements Callable<MultiPileupChunk> {
+
+        PileupChunkSource source;
+        int chunkIndex;
+        long start;
+        long end;
+        PileupProjection projection;
+        int minBaseQuality;
+        TargetRegions targets;
+
+        RangeTask(PileupChunkSource source, int chunkIndex, long start, long end, PileupProjection projection, int minBaseQuality, TargetRegions targets) {
+            this.source = source;
+            this.chunkIndex = chunkIndex;
+            this.start = start;
+            this.end = end;
+            this.projection = projection;
+            this.minBaseQuality = minBaseQuality;
+            this.targets = targets;
+        }
+
+        @Override
+        public MultiPileupChunk call() throws IOException {
+
+            long length = source.getLength();
+            int before = start > 0 ? LINE_SEARCH_SIZE : 0;
+            int after = LINE_SEARCH_SIZE;
+
+            while (true) {
+
+                long from = Math.max(0, start - before);
+                long to = Math.min(length, end + after);
+                byte[] data = source.read(from, (int) (to - from));
+
+                int rangeStart = (int) (start - from);
+                int rangeEnd = (int) (end - from);
+
+                //the first line starts after the first line break at or after the byte preceding the range
+                int firstLine = rangeStart;
+                if (start > 0) {
+                    int lineBreak = indexOf(data, (byte) '\n', rangeStart - 1, rangeEnd);
+                    firstLine = lineBreak < 0 ? rangeEnd : lineBreak + 1;
+                }
+
+                if (firstLine >= rangeEnd) {
+                    return new MultiPileupChunkImpl(chunkIndex, null, Collections.<MultiPileup>emptyList());
+                }
+
+                //the last line ends with the first line break at or after the last byte of the range
+                int lineBreak = indexOf(data, (byte) '\n', rangeEnd - 1, data.length);
+                int lastLineEnd;
+                if (lineBreak >= 0) {
+                    lastLineEnd = lineBreak + 1;
+                } else if (to == length) {
+                    lastLineEnd = data.length;
+                } else {
+                    after *= 2;
+                    continue;
+                }
+
+                //the overlap line ends with the line break preceding the first line
+                int overlapStart = -1;
+                if (firstLine > 0) {
+                    lineBreak = lastIndexOf(data, (byte) '\n', 0, firstLine - 1);
+                    if (lineBreak >= 0) {
+                        overlapStart = lineBreak + 1;
+                    } else if (from == 0) {
+                        overlapStart = 0;
+                    } else {
+                        before *= 2;
+                        continue;
+                    }
+                }
+
+                return parseChunk(chunkIndex, data, from, overlapStart, firstLine, lastLineEnd, projection, minBaseQuality, targets);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Iterator submitting the chunks of the file to the worker pool and
+     * returning the parsed chunks in file order.
+     */
+    class ChunkIterator implements Iterator<MultiPileupChunk>, Closeable {
+
+        ExecutorService executor;
+        Deque<Future<MultiPileupChunk>> pending = new ArrayDeque<Future<MultiPileupChunk>>();
+        int chunkCount = 0;
+        boolean closed = false;
+
+        //the projection, minimum base quality and targets at the time the iterator was opened
+        PileupProjection projection = ParallelMultiPileupParser.this.projection;
+        int minBaseQuality = ParallelMultiPileupParser.this.minBaseQuality;
+        TargetRegions targets = ParallelMultiPileupParser.this.targets;
+
+        //splittable input
+        PileupChunkSource source = null;
+        long[] splitOffsets;
+
+        //sequentially read input
+        InputStream stream = null;
+        long streamOffset = 0;
+        byte[] overlapLine = new byte[0];
+        byte[] remainder = new byte[0];
+        boolean endOfStream = false;
+
+        ChunkIterator() throws IOException {
+
+            if (mPileupStream != null) {
+                stream = mPileupStream.open();
+            } else if (FileTypeDeterminator.isBgzf(mPileupFile)) {
+                source = new BgzfPileupChunkSource(mPileupFile);
+            } else {
+                ReadableByteChannel channel = FileTypeDeterminator.determineChannelType(mPileupFile, true);
+                if (channel instanceof FileChannel) {
+                    channel.close();
+                    source = new FilePileupChunkSource(mPileupFile);
+                } else {
+                    logger.info("Compressed pileup file is not BGZF compressed and will be read sequentially: " + mPileupFile.getAbsolutePath());
+                    stream = Channels.newInputStream(channel);
+                }
+            }
+
+            if (source != null) {
+                splitOffsets = source.getSplitOffsets(chunkSize);
+            }
+
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+
+                int threadCounter = 0;
+
+                public Thread newThread(Runnable runnable) {
+                    Thread retVal = new Thread(runnable, "pileup-parser-" + (++threadCounter));
+                    retVal.setDaemon(true);
+                    return retVal;
+                }
+
+            });
+
+        }
+
+        @Override
+        public boolean hasNext() {
+            submit();
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public MultiPileupChunk next() {
+
+            submit();
+
+            if (pending.isEmpty()) {
+                throw new NoSuchElementException("End of pileup file reached.");
+            }
+
+            Future<MultiPileupChunk> future = pending.poll();
+            submit();
+
+            MultiPileupChunk retVal;
+            try {
+                retVal = future.get();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while parsing pileup " + getInputName(), e);
+            } catch (ExecutionException e) {
+                close();
+                throw new IllegalStateException("Exception while parsing pileup " + getInputName(), e.getCause());
+            }
+
+            if (pending.isEmpty()) {
+                close();
+            }
+
+            return retVal;
+
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            executor.shutdownNow();
+            pending.clear();
+
+            try {
+                if (source != null) {
+                    source.close();
+                }
+                if (stream != null) {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                logger.error(e);
+            }
+
+        }
+
+        /**
+         * Submits chunks until the maximum number of chunks in flight is reached.
+         */
+        private void submit() {
+
+            while (!closed && pending.size() < 2 * threadCount) {
+
+                Callable<MultiPileupChunk> task;
+                try {
+                    task = source != null ? nextRangeTask() : nextStreamTask();
+                } catch (IOException e) {
+                    close();
+                    throw new IllegalStateException("Exception while reading pileup " + getInputName(), e);
+                }
+
+                if (task == null) {
+                    return;
+                }
+
+                pending.add(executor.submit(task));
+                chunkCount++;
+
+            }
+
+        }
+
+        private Callable<MultiPileupChunk> nextRangeTask() {
+
+            if (chunkCount >= splitOffsets.length) {
+                return null;
+            }
+
+            long start = splitOffsets[chunkCount];
+            long end = chunkCount + 1 < splitOffsets.length ? splitOffsets[chunkCount + 1] : source.getLength();
+
+            return new RangeTask(source, chunkCount, start, end, projection, minBaseQuality, targets);
+
+        }
+
+        /**
+         * Reads the next chunk of complete lines from the stream and
+         * returns a task parsing it.
+         */
+        private Callable<MultiPileupChunk> nextStreamTask() throws IOException {
+
+            if (endOfStream && remainder.length == 0) {
+                return null;
+            }
+
+            int overlapLength = overlapLine.length;
+            byte[] data = new byte[overlapLength + remainder.length + chunkSize];
+            System.arraycopy(overlapLine, 0, data, 0, overlapLength);
+            System.arraycopy(remainder, 0, data, overlapLength, remainder.length);
+            int length = overlapLength + remainder.length;
+
+            //read until the chunk is full and contains a line break
+            int end;
+            while (true) {
+
+                while (!endOfStream && length < data.length) {
+                    int n = stream.read(data, length, data.length - length);
+                    if (n < 0) {
+                        endOfStream = true;
+                    } else {
+                        length += n;
+                    }
+                }
+
+                int lineBreak = lastIndexOf(data, (byte) '\n', overlapLength, length);
+                if (lineBreak >= 0) {
+                    end = lineBreak + 1;
+                    break;
+                } else if (endOfStream) {
+                    end = length;
+                    break;
+                }
+
+                data = Arrays.copyOf(data, data.length * 2);
+
+            }
+
+            remainder = Arrays.copyOfRange(data, end, length);
+            if (end == overlapLength) {
+                return null;
+            }
+
+            final int index = chunkCount;
+            final byte[] chunkData = data;
+            final long dataOffset = streamOffset - overlapLength;
+            final int overlapStart = overlapLength > 0 ? 0 : -1;
+            final int firstLine = overlapLength;
+            final int chunkEnd = end;
+
+            //the last line of the chunk is the overlap line of the next chunk
+            int lastLine = lastIndexOf(data, (byte) '\n', overlapLength, end - 1) + 1;
+            lastLine = Math.max(lastLine, overlapLength);
+            overlapLine = Arrays.copyOfRange(data, lastLine, end);
+            streamOffset += end - overlapLength;
+
+            return new Callable<MultiPileupChunk>() {
+                public MultiPileupChunk call() {
+                    return parseChunk(index, chunkData, dataOffset, overlapStart, firstLine, chunkEnd, projection, minBaseQuality, targets);
+                }
+            };
+
+        }
+
+    }
+
+    /**
+     * Iterator over the records of the chunks.
+     */
+    static class RecordIterator implements Iterator<MultiPileup> {
+
+        Iterator<MultiPileupChunk> chunks;
+        Iterator<MultiPileup> records = Collections.<MultiPileup>emptyList().iterator();
+
+        RecordIterator(Iterator<MultiPileupChunk> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!records.hasNext() && chunks.hasNext()) {
+                records = chunks.next().getRecords().iterator();
+            }
+            return records.hasNext();
+        }
+
+        @Override
+        public MultiPileup next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("End of pileup file reached.");
+            }
+            return records.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
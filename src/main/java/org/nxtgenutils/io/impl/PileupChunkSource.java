@@ -0,0 +1,63 @@
+package org.nxtgenutils.io.impl;
+
+import java.io.IOException;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Random access to the (uncompressed) content of a pileup file, which allows
+ * several threads to read different byte ranges of the file concurrently.
+ */
+interface PileupChunkSource {
+
+    /**
+     * Returns the length of the uncompressed content.
+     *
+     * @return the content length in bytes
+     */
+    long getLength();
+
+    /**
+     * Returns the offsets at which the content can be split into chunks of
+     * approximately the specified size, starting with 0. Compressed sources
+     * split at block boundaries.
+     *
+     * @param chunkSize the target chunk size in bytes
+     * @return the chunk start offsets
+     */
+    long[] getSplitOffsets(long chunkSize);
+
+    /**
+     * Reads a range of the uncompressed content. Safe to be called
+     * concurrently.
+     *
+     * @param offset the offset of the first byte
+     * @param length the number of bytes to read
+     * @return the bytes, fewer than length if the end of the content is reached
+     * @throws IOException if the file cannot be read
+     */
+    byte[] read(long offset, int length) throws IOException;
+
+    /**
+     * Closes the underlying file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    void close() throws IOException;
+
+}
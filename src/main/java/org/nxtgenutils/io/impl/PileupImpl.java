@@ -6,6 +6,7 @@ import org.nxtgenutils.io.Pileup;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.*;
+import java.nio.charset.Charset;
 
 /**
  * This file is part of NxtGenUtils.
@@ -41,6 +42,10 @@ public class PileupImpl implements Pileup {
     public String qualities;
     private double heterozygousAlleleFrequencyCutOff = 0.4;
     private List<String> indels = null;
+    private int[] counts = null;
+    private int consensusCode = -1;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
 
     public static Pattern patternReferenceMatch = Pattern.compile("[\\.|,]");
     public static Pattern patternIndel = Pattern.compile("([\\+-])([0-9]+)([ACGTNacgtn]+)");
@@ -52,6 +57,31 @@ public class PileupImpl implements Pileup {
         this.qualities = qualities;
     }
 
+    /**
+     * Constructs a pileup, dropping the base calls with a quality below a
+     * minimum base quality. The depth of coverage is reduced by the number
+     * of dropped base calls and the qualities are discarded once the base
+     * calls have been counted.
+     *
+     * @param parent         the multi-pileup record
+     * @param coverage       the depth of coverage
+     * @param bases          the bases column
+     * @param qualities      the qualities column
+     * @param minBaseQuality the minimum base quality (Phred score), or 0 to
+     *                       count all base calls
+     */
+    public PileupImpl(MultiPileup parent, int coverage, String bases, String qualities, int minBaseQuality) {
+
+        this(parent, coverage, bases, qualities);
+
+        if (minBaseQuality > 0) {
+            counts = new int[BaseCallHistogram.SIZE];
+            this.coverage -= BaseCallHistogram.count(bases.getBytes(ASCII), qualities.getBytes(ASCII), minBaseQuality, counts, 0);
+            this.qualities = "";
+        }
+
+    }
+
     public int getCoverage() {
         return coverage;
     }
@@ -61,83 +91,58 @@ public class PileupImpl implements Pileup {
     }
 
     public int getReferenceMatchCount() {
-
-        Matcher m = patternReferenceMatch.matcher(bases);
-        int retVal = 0;
-        while (m.find()) {
-            retVal++;
-        }
-        return retVal;
-
+        return BaseCallHistogram.getReferenceMatchCount(getCounts(), 0);
     }
 
     public int getBaseCallCount(String base) {
+        return BaseCallHistogram.getBaseCallCount(getCounts(), 0, BaseCallHistogram.baseIndex(base.charAt(0)), getReferenceBaseIndex());
+    }
 
-        Pattern p;
-        if (base.equalsIgnoreCase(parent.getReferenceBase())) {
-            p = patternReferenceMatch;
-        } else {
-            p = Pattern.compile("[" + base.toLowerCase() + base.toUpperCase() + "]");
-        }
+    public String getConsensusBaseCall() {
 
-        String basesNoIndels = getBasesWithoutIndels();
-        Matcher m = p.matcher(basesNoIndels);
-        int retVal = 0;
-        while (m.find()) {
-            retVal++;
+        //memoized, as the same pileup is examined as part of
+        //consecutive di-nucleotide positions
+        if (consensusCode < 0) {
+            consensusCode = BaseCallHistogram.getConsensusCode(getCounts(), 0, getReferenceBaseIndex(), coverage, heterozygousAlleleFrequencyCutOff);
         }
-        return retVal;
 
-    }
+        return BaseCallHistogram.getConsensusString(consensusCode);
 
-    public String getConsensusBaseCall() {
-        return this.getConsensusBaseCall(heterozygousAlleleFrequencyCutOff);
     }
 
     public String getConsensusBaseCall(double alleleFrequencyCutoff) {
 
-        String retVal = "N";
-        int maxCount = 0;
-
-        String[] bases = {"A", "T", "C", "G"};
-
-        Map<String, Double> frequencies = new TreeMap<String, Double>();
-
-        for (String base : bases) {
-            int baseCount = this.getBaseCallCount(base);
-            double frequency = (double) baseCount / (double) this.getCoverage();
-
-            if (baseCount > maxCount) {
-                maxCount = baseCount;
-                retVal = base;
-            }
-
-            frequencies.put(base, frequency);
-
+        if (alleleFrequencyCutoff == heterozygousAlleleFrequencyCutOff) {
+            return getConsensusBaseCall();
         }
 
-        //check if there is a base call with
-        //a frequency above the allele frequency
-        //cutoff for heterozyous calls
-        for (String base : frequencies.keySet()) {
-
-            double frequency = frequencies.get(base);
-            if (frequency >= alleleFrequencyCutoff && !base.equals(retVal)) {
-
-                retVal = retVal + "/" + base;
-                break;
+        return BaseCallHistogram.getConsensusString(BaseCallHistogram.getConsensusCode(getCounts(), 0, getReferenceBaseIndex(), coverage, alleleFrequencyCutoff));
 
-            }
+    }
 
+    /**
+     * Returns the base call counts of the pileup, counting
+     * the bases column on first access.
+     *
+     * @return the base call counts
+     */
+    private int[] getCounts() {
+
+        if (counts == null) {
+            counts = new int[BaseCallHistogram.SIZE];
+            BaseCallHistogram.count(bases.getBytes(ASCII), counts, 0);
         }
 
+        return counts;
 
-//        if(!hetAllele.toString().equals(retVal)){
-//            retVal = hetAllele.toString();
-//        }
-
-        return retVal;
+    }
 
+    private int getReferenceBaseIndex() {
+        String referenceBase = parent.getReferenceBase();
+        if (referenceBase.length() != 1) {
+            return -1;
+        }
+        return BaseCallHistogram.baseIndex(referenceBase.charAt(0));
     }
 
     public MultiPileup getPileupRecord(){
@@ -168,10 +173,7 @@ public class PileupImpl implements Pileup {
     }
 
     public boolean hasIndels(){
-        if(indels == null){
-            indels = parseIndels();
-        }
-        return indels.size() > 0;
+        return BaseCallHistogram.hasIndels(getCounts(), 0);
     }
 
     public String getBasesWithoutIndels() {
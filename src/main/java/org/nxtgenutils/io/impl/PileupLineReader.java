@@ -0,0 +1,260 @@
+package org.nxtgenutils.io.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Reads lines of a text file into a large direct byte buffer and hands out
+ * the line boundaries as buffer offsets, so that callers can parse the
+ * lines in place.
+ * <p/>
+ * Offsets are absolute, i.e. they count bytes from the start of the input,
+ * and are translated into buffer indices with getBufferIndex(long). When the
+ * buffer runs out of data, bytes before the oldest pinned offset are discarded
+ * to make room. Offsets below getBufferStart() are no longer backed by the buffer.
+ */
+class PileupLineReader {
+
+    /**
+     * the default buffer capacity (8 MB)
+     */
+    static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    private ReadableByteChannel channel;
+    private ByteBuffer buffer;
+
+    //absolute offset of buffer index 0
+    private long bufferStart = 0;
+    //number of valid bytes in the buffer
+    private int limit = 0;
+    //buffer index of the next line
+    private int next = 0;
+    //buffer index up to which the next line has been searched for a line break
+    private int searched = 0;
+    private boolean endOfInput = false;
+
+    //buffer indices of the last line returned by readLine()
+    private int lineStart;
+    private int lineEnd;
+
+    /**
+     * Constructs a line reader for a channel.
+     *
+     * @param channel    the channel to read from
+     * @param bufferSize the initial buffer capacity in bytes
+     */
+    PileupLineReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Constructs a line reader for data already held in a buffer. Lines are
+     * read from the buffer position to the buffer limit.
+     *
+     * @param data        the buffer holding the data
+     * @param startOffset the absolute offset of the buffer's first byte
+     */
+    PileupLineReader(ByteBuffer data, long startOffset) {
+        this.channel = null;
+        this.buffer = data;
+        this.bufferStart = startOffset - data.position();
+        this.next = data.position();
+        this.searched = data.position();
+        this.limit = data.limit();
+        this.endOfInput = true;
+    }
+
+    /**
+     * Advances to the next line. Data from pinnedOffset onwards is kept in
+     * the buffer while reading.
+     *
+     * @param pinnedOffset the absolute offset of the oldest byte that must
+     *                     stay in the buffer or -1 if nothing is pinned
+     * @return false if the end of the input has been reached
+     * @throws IOException if the channel cannot be read
+     */
+    boolean readLine(long pinnedOffset) throws IOException {
+
+        while (true) {
+
+            for (int i = searched; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    setLine(next, i);
+                    next = i + 1;
+                    searched = next;
+                    return true;
+                }
+            }
+            searched = limit;
+
+            if (endOfInput) {
+                if (next < limit) {
+                    setLine(next, limit);
+                    next = limit;
+                    searched = limit;
+                    return true;
+                }
+                return false;
+            }
+
+            fill(pinnedOffset);
+
+        }
+
+    }
+
+    /**
+     * Returns the buffer holding the data.
+     *
+     * @return the buffer
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the absolute offset of the first byte still held in the buffer.
+     *
+     * @return the absolute offset
+     */
+    long getBufferStart() {
+        return bufferStart;
+    }
+
+    /**
+     * Translates an absolute offset into a buffer index.
+     *
+     * @param offset the absolute offset
+     * @return the buffer index
+     */
+    int getBufferIndex(long offset) {
+        return (int) (offset - bufferStart);
+    }
+
+    /**
+     * Returns the absolute offset of the current line.
+     *
+     * @return the line offset
+     */
+    long getLineOffset() {
+        return bufferStart + lineStart;
+    }
+
+    /**
+     * Returns the buffer index of the first byte of the current line.
+     *
+     * @return the buffer index
+     */
+    int getLineStart() {
+        return lineStart;
+    }
+
+    /**
+     * Returns the buffer index after the last byte of the current line,
+     * excluding line terminators.
+     *
+     * @return the buffer index
+     */
+    int getLineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * Discards the buffered data, e.g. after the stream underlying the
+     * channel has been sought. The next line is read from the current
+     * position of the channel. Lines read before, and records backed by
+     * them, are no longer accessible.
+     */
+    void discard() {
+        bufferStart += limit;
+        limit = 0;
+        next = 0;
+        searched = 0;
+        endOfInput = false;
+    }
+
+    /**
+     * Closes the underlying channel.
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+    void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+    }
+
+    /**
+     * Discards data before the pinned offset and the next line, grows the
+     * buffer if the retained data fills it and reads more data from the channel.
+     */
+    private void fill(long pinnedOffset) throws IOException {
+
+        int keepFrom = next;
+        //data discarded before has nothing left to keep
+        if (pinnedOffset >= bufferStart) {
+            keepFrom = Math.min(keepFrom, getBufferIndex(pinnedOffset));
+        }
+
+        if (keepFrom > 0) {
+            buffer.limit(limit);
+            buffer.position(keepFrom);
+            buffer.compact();
+            bufferStart += keepFrom;
+            limit -= keepFrom;
+            next -= keepFrom;
+            searched -= keepFrom;
+        }
+
+        if (limit == buffer.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            buffer.limit(limit);
+            buffer.position(0);
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+        buffer.limit(buffer.capacity());
+        buffer.position(limit);
+        int read = 0;
+        while (read == 0) {
+            read = channel.read(buffer);
+        }
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit = buffer.position();
+        }
+
+        buffer.clear();
+
+    }
+
+}
@@ -0,0 +1,198 @@
+package org.nxtgenutils.io.impl;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Integer codes of the sequence contexts of a cytosine of up to MAX_LENGTH
+ * positions, e.g. the tri-nucleotide CAG, and their classification into the
+ * cytosine contexts CG, CHG and CHH (H being A, C or T).
+ * <p/>
+ * A context code combines the base codes (see DinucleotideContext) of the
+ * positions of a context, starting with the cytosine, as the digits of a
+ * number of base DinucleotideContext.BASE_CODES. The code of a context of
+ * length 2 is its di-nucleotide context code. As the code of a context does
+ * not hold its length, the length is passed along with the code.
+ */
+public final class SequenceContext {
+
+    /**
+     * the maximum length of a context, whose codes fit into an int
+     */
+    public static final int MAX_LENGTH = 6;
+
+    /**
+     * cytosine context code of the CG context
+     */
+    public static final int CG = 0;
+
+    /**
+     * cytosine context code of the CHG context
+     */
+    public static final int CHG = 1;
+
+    /**
+     * cytosine context code of the CHH context
+     */
+    public static final int CHH = 2;
+
+    /**
+     * number of cytosine context codes
+     */
+    public static final int CYTOSINE_CONTEXTS = 3;
+
+    /**
+     * cytosine context code of contexts that are not classified, e.g. of a
+     * position other than a cytosine or of a context holding an N
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final String[] CYTOSINE_CONTEXT_NAMES = {"CG", "CHG", "CHH"};
+
+    private static final int A = BaseCallHistogram.getConsensusCode(BaseCallHistogram.A, BaseCallHistogram.N);
+    private static final int C = BaseCallHistogram.getConsensusCode(BaseCallHistogram.C, BaseCallHistogram.N);
+    private static final int G = BaseCallHistogram.getConsensusCode(BaseCallHistogram.G, BaseCallHistogram.N);
+    private static final int T = BaseCallHistogram.getConsensusCode(BaseCallHistogram.T, BaseCallHistogram.N);
+
+    private SequenceContext() {
+    }
+
+    /**
+     * Appends the base code of the next position to a context code.
+     *
+     * @param contextCode the context code of the preceding positions, 0 for
+     *                    an empty context
+     * @param baseCode    the base code of the next position
+     * @return the context code of the extended context
+     */
+    public static int append(int contextCode, int baseCode) {
+        return contextCode * DinucleotideContext.BASE_CODES + baseCode;
+    }
+
+    /**
+     * Returns the base code of a position of a context.
+     *
+     * @param contextCode the context code
+     * @param length      the length of the context
+     * @param index       the index of the position, 0 for the cytosine
+     * @return the base code
+     */
+    public static int getBaseCode(int contextCode, int length, int index) {
+
+        for (int i = index + 1; i < length; i++) {
+            contextCode /= DinucleotideContext.BASE_CODES;
+        }
+
+        return contextCode % DinucleotideContext.BASE_CODES;
+
+    }
+
+    /**
+     * Returns the string of a context code, e.g. CAG or CA/GG.
+     *
+     * @param contextCode the context code
+     * @param length      the length of the context
+     * @return the context string or null if the context holds
+     *         DinucleotideContext.OTHER_BASE
+     */
+    public static String toString(int contextCode, int length) {
+
+        StringBuilder retVal = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+
+            int baseCode = getBaseCode(contextCode, length, i);
+            if (baseCode == DinucleotideContext.OTHER_BASE) {
+                return null;
+            }
+
+            retVal.append(BaseCallHistogram.getConsensusString(baseCode));
+
+        }
+
+        return retVal.toString();
+
+    }
+
+    /**
+     * Returns the cytosine context of a context starting with a homozygous
+     * C: CG if it is followed by a G, CHG or CHH by the third position if
+     * it is followed by an A, C or T. Contexts with an N or a heterozygous
+     * call at one of these positions, and CH contexts shorter than three
+     * positions, are not classified.
+     *
+     * @param contextCode the context code
+     * @param length      the length of the context
+     * @return the cytosine context code or UNKNOWN
+     */
+    public static int getCytosineContext(int contextCode, int length) {
+
+        if (length < 2 || getBaseCode(contextCode, length, 0) != C) {
+            return UNKNOWN;
+        }
+
+        int second = getBaseCode(contextCode, length, 1);
+        if (second == G) {
+            return CG;
+        }
+        if (!isH(second) || length < 3) {
+            return UNKNOWN;
+        }
+
+        int third = getBaseCode(contextCode, length, 2);
+        if (third == G) {
+            return CHG;
+        }
+
+        return isH(third) ? CHH : UNKNOWN;
+
+    }
+
+    /**
+     * Returns the cytosine context code of a name.
+     *
+     * @param name the name of the cytosine context, e.g. CHG
+     * @return the cytosine context code or UNKNOWN if the name is not
+     *         CG, CHG or CHH
+     */
+    public static int getCytosineContext(String name) {
+
+        for (int i = 0; i < CYTOSINE_CONTEXTS; i++) {
+            if (CYTOSINE_CONTEXT_NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+
+        return UNKNOWN;
+
+    }
+
+    /**
+     * Returns the name of a cytosine context code.
+     *
+     * @param cytosineContext the cytosine context code
+     * @return the name, e.g. CHG
+     */
+    public static String getCytosineContextName(int cytosineContext) {
+        return CYTOSINE_CONTEXT_NAMES[cytosineContext];
+    }
+
+    private static boolean isH(int baseCode) {
+        return baseCode == A || baseCode == C || baseCode == T;
+    }
+
+}
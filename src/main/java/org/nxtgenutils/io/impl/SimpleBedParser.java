@@ -159,7 +159,8 @@ public class SimpleBedParser {
             String chr = tokenizer.nextToken();
             int start = Integer.parseInt(tokenizer.nextToken());
             int end = Integer.parseInt(tokenizer.nextToken());
-            String name = tokenizer.nextToken();
+            //the name column is optional, e.g. in the BED3 files of target regions
+            String name = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : null;
 
             retVal = new BedRecordImpl(chr, start, end, name);
 
@@ -6,13 +6,20 @@ import java.io.File;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.NoSuchElementException;
 
+import org.nxtgenutils.util.BgzfInputStream;
 import org.nxtgenutils.util.FileTypeDeterminator;
 import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupCursor;
 import org.nxtgenutils.io.MultiPileupParser;
+import org.nxtgenutils.io.PileupProjection;
+import org.nxtgenutils.io.TargetRegions;
 
 /**
  * This file is part of NxtGenUtils.
@@ -45,6 +52,15 @@ public class SimpleMultiPileupParser implements MultiPileupParser {
 
     private File mPileupFile;
 
+    private boolean retainRecordStrings = false;
+    private PileupProjection projection = PileupProjection.ALL;
+    private TargetRegions targets = null;
+    private int minBaseQuality = 0;
+
+    //the tabix index of the file, loaded on the first query
+    private TabixIndex index;
+    private boolean indexLoaded = false;
+
     /**
      * the log4j logger
      */
@@ -79,6 +95,194 @@ public class SimpleMultiPileupParser implements MultiPileupParser {
         return retVal;
     }
 
+    /**
+     * Returns an iterator over the records of a region of a reference
+     * sequence. If the file is BGZF compressed and a tabix index exists
+     * next to it, the parser seeks to the first record of the region.
+     * Otherwise the file is scanned from the start.
+     *
+     * @param sequenceName the name of the reference sequence
+     * @param start        the first position of the region (1-based)
+     * @param end          the last position of the region (inclusive)
+     * @return the MultiPileup iterator
+     */
+    public Iterator<MultiPileup> query(String sequenceName, int start, int end) {
+
+        PileupRecordIterator retVal = null;
+
+        try {
+
+            TabixIndex index = getIndex();
+
+            BufferedReader br;
+            if (index != null) {
+
+                long offset = index.getStartOffset(sequenceName, start - 1, end);
+                if (offset < 0) {
+                    return Collections.<MultiPileup>emptyList().iterator();
+                }
+
+                BgzfInputStream in = new BgzfInputStream(mPileupFile);
+                in.seek(offset);
+                br = new BufferedReader(new InputStreamReader(in));
+
+            } else {
+                br = new BufferedReader(FileTypeDeterminator.determineFileType(new FileInputStream(mPileupFile), true));
+            }
+
+            retVal = new PileupRecordIterator(br, sequenceName, start, end);
+
+        } catch (IOException e) {
+            logger.error("Exception while querying pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the names of the reference sequences in file order, if the
+     * file is BGZF compressed and indexed with tabix.
+     *
+     * @return the sequence names or null if the input is not indexed
+     */
+    public List<String> getSequenceNames() {
+
+        List<String> retVal = null;
+
+        try {
+            TabixIndex index = getIndex();
+            if (index != null) {
+                retVal = index.getSequenceNames();
+            }
+        } catch (IOException e) {
+            logger.error("Exception while reading tabix index of pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Returns the tabix index of the file or null if the file is
+     * not BGZF compressed or has not been indexed.
+     */
+    private TabixIndex getIndex() throws IOException {
+
+        if (!indexLoaded) {
+
+            File indexFile = TabixIndex.getIndexFile(mPileupFile);
+            if (indexFile.exists() && FileTypeDeterminator.isBgzf(mPileupFile)) {
+                index = TabixIndex.read(indexFile);
+            } else {
+                logger.warn("No tabix index found for " + mPileupFile.getAbsolutePath() + ", region queries will scan the file.");
+            }
+
+            indexLoaded = true;
+
+        }
+
+        return index;
+
+    }
+
+    /**
+     * Returns a MultiPileup cursor. A new record is created for
+     * each line of the file.
+     *
+     * @return the MultiPileup cursor
+     */
+    public MultiPileupCursor cursor() {
+
+        MultiPileupCursor retVal = null;
+
+        try {
+            PileupRecordIterator iterator = new PileupRecordIterator(mPileupFile);
+            retVal = new IteratorMultiPileupCursor(iterator, iterator.br);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Returns the number of pileups per record, read from the first record.
+     *
+     * @return the number of pileups per record or 0 if the file is empty
+     */
+    public int getPileupCount() {
+
+        int retVal = 0;
+
+        try {
+
+            BufferedReader br = new BufferedReader(FileTypeDeterminator.determineFileType(new FileInputStream(mPileupFile)));
+            String line = br.readLine();
+            br.close();
+
+            if (line != null) {
+                //sequence name, position and reference base followed by three columns per pileup
+                retVal = (line.split("\t", -1).length - 3) / 3;
+            }
+
+        } catch (IOException e) {
+            logger.error("Exception while reading pileup file: " + mPileupFile.getAbsolutePath(), e);
+        }
+
+        return retVal;
+
+    }
+
+    /**
+     * Sets whether or not the parser keeps a copy of the mpileup line
+     * for each record, accessible through MultiPileup.getRecordString().
+     * Disabled by default.
+     *
+     * @param retainRecordStrings true if record strings should be retained
+     */
+    public void setRetainRecordStrings(boolean retainRecordStrings) {
+        this.retainRecordStrings = retainRecordStrings;
+    }
+
+    /**
+     * Sets the pileups and columns to decode. By default all pileups
+     * and columns are decoded (PileupProjection.ALL). The projection
+     * applies to iterators and cursors created after the call.
+     *
+     * @param projection the projection
+     */
+    public void setProjection(PileupProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Sets the minimum base quality (Phred score) of counted base calls.
+     * Base calls with a lower quality are dropped while the bases column
+     * is counted and the depth of coverage of the pileup is reduced
+     * accordingly. The qualities column is not available from the records
+     * if a minimum base quality is set. The default of 0 counts all base
+     * calls. The minimum base quality applies to iterators and cursors
+     * created after the call.
+     *
+     * @param minBaseQuality the minimum base quality
+     */
+    public void setMinBaseQuality(int minBaseQuality) {
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * Restricts iterators, cursors and queries to the records within target
+     * regions. Lines outside the regions are skipped before they are split
+     * into columns. The regions apply to iterators and cursors created after
+     * the call.
+     *
+     * @param targets the target regions or null for all records
+     */
+    public void setTargets(TargetRegions targets) {
+        this.targets = targets;
+    }
+
     /**
      * Iterator implementation to iterate over records in a multi-pileup file file
      * and create MultiPileup objects.
@@ -87,10 +291,92 @@ public class SimpleMultiPileupParser implements MultiPileupParser {
 
         BufferedReader br;
         String nextLine = null;
+        PileupProjection projection = SimpleMultiPileupParser.this.projection;
+        int minBaseQuality = SimpleMultiPileupParser.this.minBaseQuality;
+        TargetRegions targets = SimpleMultiPileupParser.this.targets;
+
+        //the region to iterate over, if any
+        String regionPrefix = null;
+        int regionStart;
+        int regionEnd;
+        boolean regionSequenceSeen = false;
 
         PileupRecordIterator(File vcfFile) throws IOException {
-            br = new BufferedReader(FileTypeDeterminator.determineFileType(new FileInputStream(vcfFile)));
-            nextLine = br.readLine();
+            br = new BufferedReader(FileTypeDeterminator.determineFileType(new FileInputStream(vcfFile), true));
+            nextLine = readTargetLine();
+        }
+
+        PileupRecordIterator(BufferedReader br, String sequenceName, int start, int end) throws IOException {
+            this.br = br;
+            this.regionPrefix = sequenceName + "\t";
+            this.regionStart = start;
+            this.regionEnd = end;
+            nextLine = readRegionLine();
+        }
+
+        /**
+         * Returns the next line within the region or null if the
+         * region has been passed.
+         */
+        private String readRegionLine() throws IOException {
+
+            String line;
+            while ((line = br.readLine()) != null) {
+
+                if (!line.startsWith(regionPrefix)) {
+                    if (regionSequenceSeen) {
+                        return null;
+                    }
+                    continue;
+                }
+
+                regionSequenceSeen = true;
+
+                int positionEnd = line.indexOf('\t', regionPrefix.length());
+                int position = Integer.parseInt(positionEnd < 0 ? line.substring(regionPrefix.length()) : line.substring(regionPrefix.length(), positionEnd));
+                if (position > regionEnd) {
+                    return null;
+                }
+                if (position >= regionStart && isTargeted(line)) {
+                    return line;
+                }
+
+            }
+
+            return null;
+
+        }
+
+        /**
+         * Returns the next line within the target regions, if any, or null
+         * if the end of the file has been reached.
+         */
+        private String readTargetLine() throws IOException {
+
+            String line;
+            while ((line = br.readLine()) != null && !isTargeted(line)) {
+            }
+
+            return line;
+
+        }
+
+        /**
+         * Checks the sequence name and position of a line against the
+         * target regions.
+         */
+        private boolean isTargeted(String line) {
+
+            if (targets == null) {
+                return true;
+            }
+
+            int sequenceEnd = line.indexOf('\t');
+            int positionEnd = line.indexOf('\t', sequenceEnd + 1);
+            int position = Integer.parseInt(positionEnd < 0 ? line.substring(sequenceEnd + 1) : line.substring(sequenceEnd + 1, positionEnd));
+
+            return targets.getRegionIndex(line.substring(0, sequenceEnd), position) >= 0;
+
         }
 
         @Override
@@ -114,21 +400,28 @@ public class SimpleMultiPileupParser implements MultiPileupParser {
             String referenceBase = tokenizer.nextToken();
 
             retVal = new MultiPileupImpl(sequenceName, start, referenceBase);
-            logger.error(nextLine);
-            while (tokenizer.hasMoreElements()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(nextLine);
+            }
+            if (projection != PileupProjection.ALL) {
+                addProjectedPileups(retVal, nextLine);
+            }
+            while (projection == PileupProjection.ALL && tokenizer.hasMoreElements()) {
 
                 int coverage = Integer.parseInt(tokenizer.nextToken());
                 String bases = tokenizer.nextToken();
                 String qualities = tokenizer.nextToken();
 
-                retVal.addPileup(new PileupImpl(retVal, coverage, bases, qualities));
+                retVal.addPileup(new PileupImpl(retVal, coverage, bases, qualities, minBaseQuality));
 
             }
 
-            retVal.setRecordString(nextLine);
+            if (retainRecordStrings) {
+                retVal.setRecordString(nextLine);
+            }
 
             try {
-                nextLine = br.readLine();
+                nextLine = regionPrefix == null ? readTargetLine() : readRegionLine();
 
                 if (nextLine == null) {
                     br.close();
@@ -145,6 +438,61 @@ public class SimpleMultiPileupParser implements MultiPileupParser {
             throw new UnsupportedOperationException();
         }
 
+        /**
+         * Adds the selected pileups of a line to a record. The columns of
+         * pileups that are not selected are skipped without creating
+         * substrings, and the rest of the line is skipped after the last
+         * selected pileup.
+         *
+         * @param record the record
+         * @param line   the mpileup line
+         */
+        private void addProjectedPileups(MultiPileup record, String line) {
+
+            //skip sequence name, position and reference base
+            int fieldStart = 0;
+            for (int i = 0; i < 3 && fieldStart >= 0; i++) {
+                fieldStart = nextField(line, fieldStart);
+            }
+
+            int lastPileupIndex = projection.getLastPileupIndex();
+            for (int pileupIndex = 0; fieldStart >= 0 && pileupIndex <= lastPileupIndex; pileupIndex++) {
+
+                if (!projection.isSelected(pileupIndex)) {
+                    for (int i = 0; i < 3 && fieldStart >= 0; i++) {
+                        fieldStart = nextField(line, fieldStart);
+                    }
+                    continue;
+                }
+
+                int coverageEnd = fieldEnd(line, fieldStart);
+                int coverage = Integer.parseInt(line.substring(fieldStart, coverageEnd));
+
+                int basesStart = Math.min(coverageEnd + 1, line.length());
+                int basesEnd = fieldEnd(line, basesStart);
+                String bases = projection.includesBases() ? line.substring(basesStart, basesEnd) : "";
+
+                int qualitiesStart = Math.min(basesEnd + 1, line.length());
+                int qualitiesEnd = fieldEnd(line, qualitiesStart);
+                String qualities = projection.includesQualities() || minBaseQuality > 0 ? line.substring(qualitiesStart, qualitiesEnd) : "";
+
+                record.addPileup(new PileupImpl(record, coverage, bases, qualities, minBaseQuality));
+
+                fieldStart = qualitiesEnd < line.length() ? qualitiesEnd + 1 : -1;
+
+            }
+
+        }
+
+        private int nextField(String line, int fieldStart) {
+            int tab = line.indexOf('\t', fieldStart);
+            return tab < 0 ? -1 : tab + 1;
+        }
+
+        private int fieldEnd(String line, int fieldStart) {
+            int tab = line.indexOf('\t', fieldStart);
+            return tab < 0 ? line.length() : tab;
+        }
 
     }
 
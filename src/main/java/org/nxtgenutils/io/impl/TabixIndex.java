@@ -0,0 +1,427 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.util.BgzfInputStream;
+import org.nxtgenutils.util.BgzfOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A coordinate index for BGZF compressed, coordinate sorted text files in the
+ * tabix (.tbi) format, as written by "tabix -s1 -b2 -e2" for mpileup files.
+ * The index maps genomic regions to chunks of virtual file offsets (see
+ * BgzfBlock) holding the records overlapping the region, using the binning
+ * scheme and linear index of the tabix format.
+ * <p/>
+ * Coordinates passed to the index are zero-based and half-open.
+ */
+public class TabixIndex {
+
+    /**
+     * the tabix format codes for generic, SAM and VCF files
+     */
+    public static final int FORMAT_GENERIC = 0;
+    public static final int FORMAT_SAM = 1;
+    public static final int FORMAT_VCF = 2;
+
+    /**
+     * the window size of the linear index (16 kb)
+     */
+    static final int LINEAR_INDEX_SHIFT = 14;
+
+    private static final byte[] MAGIC = {'T', 'B', 'I', 1};
+
+    private int format;
+    private int sequenceColumn;
+    private int beginColumn;
+    private int endColumn;
+    private char metaCharacter;
+    private int skipLines;
+
+    private List<String> sequenceNames;
+    private Map<String, Integer> sequenceIndices = new HashMap<String, Integer>();
+
+    //per sequence: chunks of each bin as pairs of begin and end offsets
+    private List<Map<Integer, long[]>> bins;
+    //per sequence: smallest offset of the records overlapping each 16 kb window
+    private List<long[]> linearIndices;
+
+    TabixIndex(int format, int sequenceColumn, int beginColumn, int endColumn, char metaCharacter, int skipLines,
+               List<String> sequenceNames, List<Map<Integer, long[]>> bins, List<long[]> linearIndices) {
+
+        this.format = format;
+        this.sequenceColumn = sequenceColumn;
+        this.beginColumn = beginColumn;
+        this.endColumn = endColumn;
+        this.metaCharacter = metaCharacter;
+        this.skipLines = skipLines;
+        this.sequenceNames = sequenceNames;
+        this.bins = bins;
+        this.linearIndices = linearIndices;
+
+        for (int i = 0; i < sequenceNames.size(); i++) {
+            sequenceIndices.put(sequenceNames.get(i), i);
+        }
+
+    }
+
+    /**
+     * Returns the index file of a data file, i.e. the data file
+     * path with the extension .tbi appended.
+     *
+     * @param dataFile the BGZF compressed data file
+     * @return the index file
+     */
+    public static File getIndexFile(File dataFile) {
+        return new File(dataFile.getPath() + ".tbi");
+    }
+
+    /**
+     * Reads a tabix index file.
+     *
+     * @param indexFile the index file
+     * @return the index
+     * @throws IOException if the file cannot be read or is not a tabix index
+     */
+    public static TabixIndex read(File indexFile) throws IOException {
+
+        InputStream in = new BgzfInputStream(indexFile);
+
+        try {
+
+            byte[] magic = new byte[4];
+            readFully(in, magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a tabix index file: " + indexFile.getAbsolutePath());
+            }
+
+            int sequenceCount = readInt(in);
+            int format = readInt(in);
+            int sequenceColumn = readInt(in);
+            int beginColumn = readInt(in);
+            int endColumn = readInt(in);
+            char metaCharacter = (char) readInt(in);
+            int skipLines = readInt(in);
+
+            byte[] names = new byte[readInt(in)];
+            readFully(in, names);
+            List<String> sequenceNames = new ArrayList<String>();
+            int nameStart = 0;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == 0) {
+                    sequenceNames.add(new String(names, nameStart, i - nameStart, "US-ASCII"));
+                    nameStart = i + 1;
+                }
+            }
+
+            if (sequenceNames.size() != sequenceCount) {
+                throw new IOException("Corrupt tabix index file: " + indexFile.getAbsolutePath());
+            }
+
+            List<Map<Integer, long[]>> bins = new ArrayList<Map<Integer, long[]>>();
+            List<long[]> linearIndices = new ArrayList<long[]>();
+            for (int i = 0; i < sequenceCount; i++) {
+
+                int binCount = readInt(in);
+                Map<Integer, long[]> sequenceBins = new HashMap<Integer, long[]>();
+                for (int j = 0; j < binCount; j++) {
+                    int bin = readInt(in);
+                    long[] chunks = new long[2 * readInt(in)];
+                    for (int k = 0; k < chunks.length; k++) {
+                        chunks[k] = readLong(in);
+                    }
+                    sequenceBins.put(bin, chunks);
+                }
+                bins.add(sequenceBins);
+
+                long[] linearIndex = new long[readInt(in)];
+                for (int j = 0; j < linearIndex.length; j++) {
+                    linearIndex[j] = readLong(in);
+                }
+                linearIndices.add(linearIndex);
+
+            }
+
+            return new TabixIndex(format, sequenceColumn, beginColumn, endColumn, metaCharacter, skipLines,
+                    sequenceNames, bins, linearIndices);
+
+        } finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Writes the index to a file.
+     *
+     * @param indexFile the index file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File indexFile) throws IOException {
+
+        OutputStream out = new BgzfOutputStream(indexFile);
+
+        try {
+
+            out.write(MAGIC);
+            writeInt(out, sequenceNames.size());
+            writeInt(out, format);
+            writeInt(out, sequenceColumn);
+            writeInt(out, beginColumn);
+            writeInt(out, endColumn);
+            writeInt(out, metaCharacter);
+            writeInt(out, skipLines);
+
+            int namesLength = 0;
+            for (String name : sequenceNames) {
+                namesLength += name.length() + 1;
+            }
+            writeInt(out, namesLength);
+            for (String name : sequenceNames) {
+                out.write(name.getBytes("US-ASCII"));
+                out.write(0);
+            }
+
+            for (int i = 0; i < sequenceNames.size(); i++) {
+
+                Map<Integer, long[]> sequenceBins = bins.get(i);
+                writeInt(out, sequenceBins.size());
+                for (Integer bin : new TreeSet<Integer>(sequenceBins.keySet())) {
+                    long[] chunks = sequenceBins.get(bin);
+                    writeInt(out, bin);
+                    writeInt(out, chunks.length / 2);
+                    for (long offset : chunks) {
+                        writeLong(out, offset);
+                    }
+                }
+
+                long[] linearIndex = linearIndices.get(i);
+                writeInt(out, linearIndex.length);
+                for (long offset : linearIndex) {
+                    writeLong(out, offset);
+                }
+
+            }
+
+        } finally {
+            out.close();
+        }
+
+    }
+
+    /**
+     * Returns the names of the indexed sequences in file order.
+     *
+     * @return the sequence names
+     */
+    public List<String> getSequenceNames() {
+        return Collections.unmodifiableList(sequenceNames);
+    }
+
+    /**
+     * Returns true if the index holds records of a sequence.
+     *
+     * @param sequenceName the sequence name
+     * @return true if the sequence is indexed
+     */
+    public boolean hasSequence(String sequenceName) {
+        return sequenceIndices.containsKey(sequenceName);
+    }
+
+    /**
+     * Returns the chunks of the file which may hold records overlapping a region,
+     * as sorted, non-overlapping pairs of begin and end virtual offsets.
+     *
+     * @param sequenceName the sequence name
+     * @param begin        the zero-based region start
+     * @param end          the zero-based, exclusive region end
+     * @return the chunk offsets, empty if there are no records in the region
+     */
+    public long[] getChunks(String sequenceName, int begin, int end) {
+
+        Integer sequenceIndex = sequenceIndices.get(sequenceName);
+        if (sequenceIndex == null || end <= begin) {
+            return new long[0];
+        }
+
+        long[] linearIndex = linearIndices.get(sequenceIndex);
+        long minOffset = 0;
+        if (linearIndex.length > 0) {
+            minOffset = linearIndex[Math.min(begin >> LINEAR_INDEX_SHIFT, linearIndex.length - 1)];
+        }
+
+        Map<Integer, long[]> sequenceBins = bins.get(sequenceIndex);
+        List<long[]> chunks = new ArrayList<long[]>();
+        for (int bin : regionToBins(begin, end)) {
+            long[] binChunks = sequenceBins.get(bin);
+            if (binChunks != null) {
+                for (int i = 0; i < binChunks.length; i += 2) {
+                    if (binChunks[i + 1] > minOffset) {
+                        chunks.add(new long[]{Math.max(binChunks[i], minOffset), binChunks[i + 1]});
+                    }
+                }
+            }
+        }
+
+        Collections.sort(chunks, new Comparator<long[]>() {
+            public int compare(long[] chunk1, long[] chunk2) {
+                return chunk1[0] < chunk2[0] ? -1 : (chunk1[0] == chunk2[0] ? 0 : 1);
+            }
+        });
+
+        //merge overlapping chunks
+        long[] retVal = new long[2 * chunks.size()];
+        int length = 0;
+        for (long[] chunk : chunks) {
+            if (length > 0 && chunk[0] <= retVal[length - 1]) {
+                retVal[length - 1] = Math.max(retVal[length - 1], chunk[1]);
+            } else {
+                retVal[length++] = chunk[0];
+                retVal[length++] = chunk[1];
+            }
+        }
+
+        return Arrays.copyOf(retVal, length);
+
+    }
+
+    /**
+     * Returns the virtual offset from which to read the records overlapping
+     * a region in a coordinate sorted file.
+     *
+     * @param sequenceName the sequence name
+     * @param begin        the zero-based region start
+     * @param end          the zero-based, exclusive region end
+     * @return the virtual offset or -1 if there are no records in the region
+     */
+    public long getStartOffset(String sequenceName, int begin, int end) {
+
+        long[] chunks = getChunks(sequenceName, begin, end);
+        if (chunks.length == 0) {
+            return -1;
+        }
+
+        return chunks[0];
+
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getSequenceColumn() {
+        return sequenceColumn;
+    }
+
+    public int getBeginColumn() {
+        return beginColumn;
+    }
+
+    public int getEndColumn() {
+        return endColumn;
+    }
+
+    public char getMetaCharacter() {
+        return metaCharacter;
+    }
+
+    public int getSkipLines() {
+        return skipLines;
+    }
+
+    /**
+     * Returns the bin of a region in the tabix binning scheme.
+     *
+     * @param begin the zero-based region start
+     * @param end   the zero-based, exclusive region end
+     * @return the bin
+     */
+    static int regionToBin(int begin, int end) {
+
+        end--;
+        if (begin >> 14 == end >> 14) return ((1 << 15) - 1) / 7 + (begin >> 14);
+        if (begin >> 17 == end >> 17) return ((1 << 12) - 1) / 7 + (begin >> 17);
+        if (begin >> 20 == end >> 20) return ((1 << 9) - 1) / 7 + (begin >> 20);
+        if (begin >> 23 == end >> 23) return ((1 << 6) - 1) / 7 + (begin >> 23);
+        if (begin >> 26 == end >> 26) return ((1 << 3) - 1) / 7 + (begin >> 26);
+        return 0;
+
+    }
+
+    /**
+     * Returns the bins which may hold records overlapping a region.
+     *
+     * @param begin the zero-based region start
+     * @param end   the zero-based, exclusive region end
+     * @return the bins
+     */
+    static List<Integer> regionToBins(int begin, int end) {
+
+        List<Integer> retVal = new ArrayList<Integer>();
+        end--;
+
+        retVal.add(0);
+        for (int k = 1 + (begin >> 26); k <= 1 + (end >> 26); k++) retVal.add(k);
+        for (int k = 9 + (begin >> 23); k <= 9 + (end >> 23); k++) retVal.add(k);
+        for (int k = 73 + (begin >> 20); k <= 73 + (end >> 20); k++) retVal.add(k);
+        for (int k = 585 + (begin >> 17); k <= 585 + (end >> 17); k++) retVal.add(k);
+        for (int k = 4681 + (begin >> 14); k <= 4681 + (end >> 14); k++) retVal.add(k);
+
+        return retVal;
+
+    }
+
+    private static void readFully(InputStream in, byte[] b) throws IOException {
+        int count = 0;
+        while (count < b.length) {
+            int n = in.read(b, count, b.length - count);
+            if (n < 0) {
+                throw new IOException("Unexpected end of tabix index file.");
+            }
+            count += n;
+        }
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        byte[] b = new byte[4];
+        readFully(in, b);
+        return (b[0] & 0xff) | ((b[1] & 0xff) << 8) | ((b[2] & 0xff) << 16) | ((b[3] & 0xff) << 24);
+    }
+
+    private static long readLong(InputStream in) throws IOException {
+        return (readInt(in) & 0xffffffffL) | ((long) readInt(in) << 32);
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, (int) value);
+        writeInt(out, (int) (value >>> 32));
+    }
+
+}
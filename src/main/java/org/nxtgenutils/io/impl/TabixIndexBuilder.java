@@ -0,0 +1,375 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.util.BgzfInputStream;
+import org.nxtgenutils.util.ParallelBgzfOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Builds a TabixIndex from the records of a coordinate sorted BGZF file,
+ * which are added in file order together with their virtual offsets.
+ * Records written to a ParallelBgzfOutputStream are added with their
+ * uncompressed positions instead, which are translated into virtual
+ * offsets when the index is built.
+ */
+public class TabixIndexBuilder {
+
+    private int format;
+    private int sequenceColumn;
+    private int beginColumn;
+    private int endColumn;
+    private char metaCharacter;
+    private int skipLines;
+
+    private List<String> sequenceNames = new ArrayList<String>();
+    private List<Map<Integer, long[]>> bins = new ArrayList<Map<Integer, long[]>>();
+    private List<long[]> linearIndices = new ArrayList<long[]>();
+
+    //state of the current sequence
+    private Map<Integer, long[]> sequenceBins;
+    private long[] linearIndex;
+    private int linearIndexLength;
+    private int lastBegin;
+
+    //the chunk being extended
+    private int chunkBin = -1;
+    private long chunkBegin;
+    private long chunkEnd;
+
+    //the number of lines passed to addLine
+    private int lineCounter = 0;
+
+    /**
+     * Constructs a builder.
+     *
+     * @param format         the tabix format code
+     * @param sequenceColumn the one-based column of the sequence name
+     * @param beginColumn    the one-based column of the record start
+     * @param endColumn      the one-based column of the record end
+     * @param metaCharacter  the prefix of comment lines
+     * @param skipLines      the number of header lines
+     */
+    public TabixIndexBuilder(int format, int sequenceColumn, int beginColumn, int endColumn, char metaCharacter, int skipLines) {
+        this.format = format;
+        this.sequenceColumn = sequenceColumn;
+        this.beginColumn = beginColumn;
+        this.endColumn = endColumn;
+        this.metaCharacter = metaCharacter;
+        this.skipLines = skipLines;
+    }
+
+    /**
+     * Returns a builder for mpileup files, equivalent to "tabix -s1 -b2 -e2".
+     *
+     * @return the builder
+     */
+    public static TabixIndexBuilder forPileup() {
+        return new TabixIndexBuilder(TabixIndex.FORMAT_GENERIC, 1, 2, 2, '#', 0);
+    }
+
+    /**
+     * Returns a builder for methylation profiles, equivalent to
+     * "tabix -s1 -b2 -e3 -S1", i.e. skipping the header line.
+     *
+     * @return the builder
+     */
+    public static TabixIndexBuilder forMethylationProfile() {
+        return new TabixIndexBuilder(TabixIndex.FORMAT_GENERIC, 1, 2, 3, '#', 1);
+    }
+
+    /**
+     * Adds a line of the file to the index, taking the sequence name and the
+     * one-based record start and end from the columns of the builder.
+     * Header lines and lines starting with the meta character are skipped.
+     *
+     * @param line        the bytes of the line without the line break
+     * @param length      the length of the line
+     * @param startOffset the virtual offset of the start of the line
+     * @param endOffset   the virtual offset after the end of the line
+     */
+    public void addLine(byte[] line, int length, long startOffset, long endOffset) {
+
+        lineCounter++;
+
+        if (lineCounter <= skipLines || length == 0 || line[0] == metaCharacter) {
+            return;
+        }
+
+        String sequenceName = null;
+        int begin = -1;
+        int end = -1;
+
+        int column = 1;
+        int columnStart = 0;
+        for (int i = 0; i <= length && column <= Math.max(sequenceColumn, Math.max(beginColumn, endColumn)); i++) {
+
+            if (i < length && line[i] != '\t') {
+                continue;
+            }
+
+            if (column == sequenceColumn) {
+                sequenceName = new String(line, columnStart, i - columnStart);
+            }
+            if (column == beginColumn) {
+                begin = parsePosition(line, columnStart, i) - 1;
+            }
+            if (column == endColumn) {
+                end = parsePosition(line, columnStart, i);
+            }
+
+            column++;
+            columnStart = i + 1;
+
+        }
+
+        if (sequenceName == null || begin < 0) {
+            throw new IllegalArgumentException("Malformed line " + lineCounter + ": " + new String(line, 0, length));
+        }
+
+        addRecord(sequenceName, begin, end < 0 ? begin + 1 : end, startOffset, endOffset);
+
+    }
+
+    /**
+     * Indexes the lines of a BGZF compressed file.
+     *
+     * @param bgzfFile the BGZF compressed file
+     * @return the index
+     * @throws IOException if the file cannot be read
+     */
+    public TabixIndex index(File bgzfFile) throws IOException {
+
+        BgzfInputStream in = new BgzfInputStream(bgzfFile);
+
+        try {
+
+            byte[] line = new byte[1024];
+            int length = 0;
+            long startOffset = in.getVirtualOffset();
+
+            int b;
+            do {
+
+                b = in.read();
+
+                if (b >= 0 && b != '\n') {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, 2 * length);
+                    }
+                    line[length++] = (byte) b;
+                } else if (b >= 0 || length > 0) {
+                    long endOffset = in.getVirtualOffset();
+                    addLine(line, length, startOffset, endOffset);
+                    startOffset = endOffset;
+                    length = 0;
+                }
+
+            } while (b >= 0);
+
+        } finally {
+            in.close();
+        }
+
+        return build();
+
+    }
+
+    /**
+     * Adds a record to the index. Records have to be added in file order and
+     * be sorted by position within each sequence.
+     *
+     * @param sequenceName the sequence name
+     * @param begin        the zero-based record start
+     * @param end          the zero-based, exclusive record end
+     * @param startOffset  the virtual offset of the start of the record
+     * @param endOffset    the virtual offset after the end of the record
+     */
+    public void addRecord(String sequenceName, int begin, int end, long startOffset, long endOffset) {
+
+        if (sequenceNames.isEmpty() || !sequenceNames.get(sequenceNames.size() - 1).equals(sequenceName)) {
+            if (sequenceNames.contains(sequenceName)) {
+                throw new IllegalArgumentException("File is not sorted: records of sequence " + sequenceName + " are not contiguous.");
+            }
+            finishSequence();
+            sequenceNames.add(sequenceName);
+            sequenceBins = new HashMap<Integer, long[]>();
+            linearIndex = new long[64];
+            linearIndexLength = 0;
+            lastBegin = 0;
+        }
+
+        if (begin < lastBegin) {
+            throw new IllegalArgumentException("File is not sorted: " + sequenceName + ":" + (begin + 1) + " follows " + sequenceName + ":" + (lastBegin + 1) + ".");
+        }
+        lastBegin = begin;
+
+        if (end <= begin) {
+            end = begin + 1;
+        }
+
+        //chunks
+        int bin = TabixIndex.regionToBin(begin, end);
+        if (bin != chunkBin) {
+            finishChunk();
+            chunkBin = bin;
+            chunkBegin = startOffset;
+        }
+        chunkEnd = endOffset;
+
+        //linear index
+        int lastWindow = (end - 1) >> TabixIndex.LINEAR_INDEX_SHIFT;
+        if (lastWindow >= linearIndex.length) {
+            linearIndex = Arrays.copyOf(linearIndex, Math.max(lastWindow + 1, 2 * linearIndex.length));
+        }
+        for (int window = begin >> TabixIndex.LINEAR_INDEX_SHIFT; window <= lastWindow; window++) {
+            if (window >= linearIndexLength) {
+                Arrays.fill(linearIndex, linearIndexLength, window + 1, -1L);
+                linearIndexLength = window + 1;
+            }
+            if (linearIndex[window] == -1L) {
+                linearIndex[window] = startOffset;
+            }
+        }
+
+    }
+
+    /**
+     * Returns the index of the records added.
+     *
+     * @return the index
+     */
+    public TabixIndex build() {
+
+        finishSequence();
+
+        return new TabixIndex(format, sequenceColumn, beginColumn, endColumn, metaCharacter, skipLines,
+                new ArrayList<String>(sequenceNames), new ArrayList<Map<Integer, long[]>>(bins), new ArrayList<long[]>(linearIndices));
+
+    }
+
+    /**
+     * Returns the index of the records added with the uncompressed positions
+     * of a ParallelBgzfOutputStream in place of virtual offsets. The
+     * positions are translated into the virtual offsets of the stream, which
+     * requires the records to have been written, e.g. by closing the stream.
+     *
+     * @param out the stream the records have been written to
+     * @return the index
+     */
+    public TabixIndex build(ParallelBgzfOutputStream out) {
+
+        finishSequence();
+
+        List<Map<Integer, long[]>> translatedBins = new ArrayList<Map<Integer, long[]>>();
+        for (Map<Integer, long[]> sequenceBins : bins) {
+            Map<Integer, long[]> translatedSequenceBins = new HashMap<Integer, long[]>();
+            for (Map.Entry<Integer, long[]> entry : sequenceBins.entrySet()) {
+                translatedSequenceBins.put(entry.getKey(), translate(entry.getValue(), out));
+            }
+            translatedBins.add(translatedSequenceBins);
+        }
+
+        List<long[]> translatedLinearIndices = new ArrayList<long[]>();
+        for (long[] linearIndex : linearIndices) {
+            translatedLinearIndices.add(translate(linearIndex, out));
+        }
+
+        return new TabixIndex(format, sequenceColumn, beginColumn, endColumn, metaCharacter, skipLines,
+                new ArrayList<String>(sequenceNames), translatedBins, translatedLinearIndices);
+
+    }
+
+    private long[] translate(long[] positions, ParallelBgzfOutputStream out) {
+
+        long[] retVal = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            retVal[i] = positions[i] < 0 ? positions[i] : out.getVirtualOffset(positions[i]);
+        }
+
+        return retVal;
+
+    }
+
+    private int parsePosition(byte[] line, int from, int to) {
+
+        if (from == to) {
+            return -1;
+        }
+
+        int retVal = 0;
+        for (int i = from; i < to; i++) {
+            if (line[i] < '0' || line[i] > '9') {
+                return -1;
+            }
+            retVal = 10 * retVal + line[i] - '0';
+        }
+
+        return retVal;
+
+    }
+
+    private void finishChunk() {
+
+        if (chunkBin < 0) {
+            return;
+        }
+
+        long[] chunks = sequenceBins.get(chunkBin);
+        if (chunks == null) {
+            sequenceBins.put(chunkBin, new long[]{chunkBegin, chunkEnd});
+        } else if (chunks[chunks.length - 1] == chunkBegin) {
+            //contiguous with the previous chunk of the bin
+            chunks[chunks.length - 1] = chunkEnd;
+        } else {
+            chunks = Arrays.copyOf(chunks, chunks.length + 2);
+            chunks[chunks.length - 2] = chunkBegin;
+            chunks[chunks.length - 1] = chunkEnd;
+            sequenceBins.put(chunkBin, chunks);
+        }
+
+        chunkBin = -1;
+
+    }
+
+    private void finishSequence() {
+
+        if (sequenceBins == null) {
+            return;
+        }
+
+        finishChunk();
+
+        //windows without records start at the offset of the following window
+        long[] sequenceLinearIndex = Arrays.copyOf(linearIndex, linearIndexLength);
+        for (int i = sequenceLinearIndex.length - 2; i >= 0; i--) {
+            if (sequenceLinearIndex[i] == -1L) {
+                sequenceLinearIndex[i] = sequenceLinearIndex[i + 1];
+            }
+        }
+
+        bins.add(sequenceBins);
+        linearIndices.add(sequenceLinearIndex);
+        sequenceBins = null;
+
+    }
+
+}
@@ -0,0 +1,192 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.TargetRegions;
+import org.nxtgenutils.util.BgzfInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Checks the lines of an mpileup file against target regions (see
+ * TargetRegions) by their sequence name and position, before the pileups
+ * of a line are parsed. The sequence name of a line is compared to the
+ * sequence name of the previous line in place, it is only decoded when the
+ * sequence changes.
+ * <p/>
+ * If the file is BGZF compressed and indexed with tabix, the filter seeks
+ * the file to the next region once a line outside the regions has been
+ * read (see seekNextRegion), so that the lines between the regions are not
+ * inflated. A filter is not thread safe, each iterator or worker uses a
+ * filter of its own.
+ */
+class TargetLineFilter {
+
+    //the largest position of a reference sequence in a tabix index
+    private static final int MAX_POSITION = 1 << 29;
+
+    private TargetRegions targets;
+
+    //the sequence and position of the last line checked
+    private String sequenceName = null;
+    private int position = 0;
+
+    //the index and stream of a file the filter seeks in, null otherwise
+    private TabixIndex index = null;
+    private BgzfInputStream in = null;
+
+    //the index of the sequence of the last line checked in file order
+    private int sequenceIndex = -1;
+
+    //the first region following the last rejected line, which has been sought
+    private String candidateSequenceName = null;
+    private int candidateRegion = -1;
+
+    private boolean passed = false;
+
+    /**
+     * Constructs a filter for the lines of a file that is read sequentially.
+     *
+     * @param targets the target regions
+     */
+    TargetLineFilter(TargetRegions targets) {
+        this.targets = targets;
+    }
+
+    /**
+     * Constructs a filter seeking in a BGZF compressed, indexed file.
+     *
+     * @param targets the target regions
+     * @param index   the tabix index of the file
+     * @param in      the stream the lines are read from
+     */
+    TargetLineFilter(TargetRegions targets, TabixIndex index, BgzfInputStream in) {
+        this.targets = targets;
+        this.index = index;
+        this.in = in;
+    }
+
+    /**
+     * Returns true if the current line of a reader lies within a region.
+     *
+     * @param reader the reader positioned at a line
+     * @return true if the line lies within a region
+     */
+    boolean accept(PileupLineReader reader) {
+
+        ByteBuffer buffer = reader.getBuffer();
+        int lineStart = reader.getLineStart();
+        int lineEnd = reader.getLineEnd();
+
+        if (sequenceName == null || !ByteMultiPileup.isSequence(buffer, lineStart, lineEnd, sequenceName)) {
+            sequenceName = ByteMultiPileup.parseSequenceName(buffer, lineStart, lineEnd);
+            if (index != null) {
+                sequenceIndex = index.getSequenceNames().indexOf(sequenceName);
+            }
+        }
+
+        position = ByteMultiPileup.parsePosition(buffer, lineStart, lineEnd);
+
+        return targets.getRegionIndex(sequenceName, position) >= 0;
+
+    }
+
+    /**
+     * Seeks the file to the first region following the last line checked,
+     * or to the first region of the file before the first line has been
+     * read, unless the data of the region has already been read from the
+     * file. The data buffered by the reader is discarded when the file is
+     * sought, i.e. the lines read before are no longer accessible. Has no
+     * effect if the filter does not seek.
+     *
+     * @param reader the reader of the lines
+     * @return true if the file has been sought
+     * @throws IOException if the file cannot be sought
+     */
+    boolean seekNextRegion(PileupLineReader reader) throws IOException {
+
+        if (index == null || passed) {
+            return false;
+        }
+
+        List<String> sequenceNames = index.getSequenceNames();
+
+        int i = 0;
+        int region = 0;
+        if (sequenceName != null) {
+            if (sequenceIndex < 0) {
+                return false;
+            }
+            i = sequenceIndex;
+            region = targets.getNextRegionIndex(sequenceName, position);
+        }
+
+        //the candidate of the previous line, the lines in between are not targeted
+        if (i < sequenceNames.size() && sequenceNames.get(i).equals(candidateSequenceName) && region == candidateRegion) {
+            return false;
+        }
+
+        if (i < sequenceNames.size()) {
+            candidateSequenceName = sequenceNames.get(i);
+            candidateRegion = region;
+        }
+
+        for (; i < sequenceNames.size(); i++, region = 0) {
+
+            String name = sequenceNames.get(i);
+            for (; region < targets.getRegionCount(name); region++) {
+
+                int end = Math.min(targets.getEnd(name, region), MAX_POSITION);
+                long offset = index.getStartOffset(name, targets.getStart(name, region) - 1, end);
+
+                //regions without records are skipped
+                if (offset < 0) {
+                    continue;
+                }
+
+                if (offset > in.getVirtualOffset()) {
+                    in.seek(offset);
+                    reader.discard();
+                    return true;
+                }
+
+                return false;
+
+            }
+
+        }
+
+        passed = true;
+
+        return false;
+
+    }
+
+    /**
+     * Returns true if no region with records follows the last line checked,
+     * in which case the remaining lines of an indexed file are skipped.
+     *
+     * @return true if all regions have been passed
+     */
+    boolean isPassed() {
+        return passed;
+    }
+
+}
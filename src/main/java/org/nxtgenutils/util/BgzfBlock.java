@@ -0,0 +1,394 @@
+package org.nxtgenutils.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Helper methods for BGZF, the blocked gzip format used by samtools and
+ * tabix. A BGZF file is a series of gzip members of at most 64 KB, each of
+ * which stores its compressed size in a "BC" extra field. Blocks can thus be
+ * located without decompressing the file and inflated independently.
+ * <p/>
+ * Positions in a BGZF file are addressed by virtual offsets, which combine
+ * the file offset of a block (upper 48 bits) with an offset into the
+ * uncompressed data of the block (lower 16 bits).
+ */
+public final class BgzfBlock {
+
+    /**
+     * the maximum size of a compressed or uncompressed block
+     */
+    public static final int MAX_BLOCK_SIZE = 65536;
+
+    /**
+     * the maximum number of uncompressed bytes written to a block, which
+     * leaves room for the block overhead if the data does not compress
+     */
+    public static final int MAX_DATA_SIZE = 65280;
+
+    /**
+     * the size of the header of a block written by this class, samtools or tabix
+     */
+    public static final int HEADER_SIZE = 18;
+
+    /**
+     * the size of the CRC32 and ISIZE block footer
+     */
+    public static final int FOOTER_SIZE = 8;
+
+    /**
+     * the empty block marking the end of a BGZF file
+     */
+    public static final byte[] EOF_BLOCK = {
+            0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43,
+            0x02, 0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
+
+    private BgzfBlock() {
+    }
+
+    /**
+     * Returns the virtual offset of a position in a block.
+     *
+     * @param blockAddress the file offset of the block
+     * @param dataOffset   the offset into the uncompressed data of the block
+     * @return the virtual offset
+     */
+    public static long getVirtualOffset(long blockAddress, int dataOffset) {
+        return (blockAddress << 16) | dataOffset;
+    }
+
+    /**
+     * Returns the file offset of the block of a virtual offset.
+     *
+     * @param virtualOffset the virtual offset
+     * @return the block address
+     */
+    public static long getBlockAddress(long virtualOffset) {
+        return virtualOffset >>> 16;
+    }
+
+    /**
+     * Returns the offset into the uncompressed block data of a virtual offset.
+     *
+     * @param virtualOffset the virtual offset
+     * @return the data offset
+     */
+    public static int getDataOffset(long virtualOffset) {
+        return (int) (virtualOffset & 0xffff);
+    }
+
+    /**
+     * Returns true if the bytes start with a gzip header carrying the BGZF
+     * block size field.
+     *
+     * @param header the first bytes of a block
+     * @param length the number of valid bytes
+     * @return true if the header is a BGZF block header
+     */
+    public static boolean isBgzfHeader(byte[] header, int length) {
+
+        if (length < 12 || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b ||
+                header[2] != 8 || (header[3] & 4) == 0) {
+            return false;
+        }
+
+        return findBlockSizeField(header, length) > 0;
+
+    }
+
+    /**
+     * Returns the size of a block, including header and footer,
+     * from its header.
+     *
+     * @param header the block header
+     * @param length the number of valid bytes
+     * @return the block size
+     * @throws IOException if the header is not a BGZF block header
+     */
+    public static int getBlockSize(byte[] header, int length) throws IOException {
+
+        int field = findBlockSizeField(header, length);
+        if (field < 0) {
+            throw new IOException("Invalid BGZF block header.");
+        }
+
+        return readUnsignedShort(header, field) + 1;
+
+    }
+
+    /**
+     * Returns the size of the header of a block, which is 18 bytes unless
+     * the block carries additional extra fields.
+     *
+     * @param header the block header
+     * @return the header size
+     */
+    public static int getHeaderSize(byte[] header) {
+        return 12 + readUnsignedShort(header, 10);
+    }
+
+    /**
+     * Returns the uncompressed size of a block from its footer.
+     *
+     * @param block     the compressed block
+     * @param blockSize the size of the compressed block
+     * @return the uncompressed size
+     */
+    public static int getInputSize(byte[] block, int blockSize) {
+        return readInt(block, blockSize - 4);
+    }
+
+    /**
+     * Reads the block starting at a file offset.
+     *
+     * @param channel the file channel
+     * @param offset  the file offset of the block
+     * @param block   the array to read the block to, at least MAX_BLOCK_SIZE bytes
+     * @return the size of the block or -1 at the end of the file
+     * @throws IOException if the block cannot be read
+     */
+    public static int readBlock(FileChannel channel, long offset, byte[] block) throws IOException {
+
+        int blockSize = readBlockSize(channel, offset, block);
+        if (blockSize < 0) {
+            return -1;
+        }
+
+        int headerSize = getHeaderSize(block);
+        if (readFully(channel, offset + headerSize, block, headerSize, blockSize - headerSize) < blockSize - headerSize) {
+            throw new IOException("Truncated BGZF block at offset " + offset + ".");
+        }
+
+        return blockSize;
+
+    }
+
+    /**
+     * Reads the header of the block starting at a file offset and returns the
+     * block size, without reading the compressed data.
+     *
+     * @param channel the file channel
+     * @param offset  the file offset of the block
+     * @param header  the array to read the header to, at least MAX_BLOCK_SIZE bytes
+     * @return the size of the block or -1 at the end of the file
+     * @throws IOException if the header cannot be read
+     */
+    public static int readBlockSize(FileChannel channel, long offset, byte[] header) throws IOException {
+
+        int headerLength = readFully(channel, offset, header, 0, HEADER_SIZE);
+        if (headerLength == 0) {
+            return -1;
+        }
+
+        if (headerLength < 12) {
+            throw new IOException("Truncated BGZF block at offset " + offset + ".");
+        }
+
+        int headerSize = getHeaderSize(header);
+        if (headerSize > headerLength) {
+            headerLength += readFully(channel, offset + headerLength, header, headerLength, headerSize - headerLength);
+        }
+
+        return getBlockSize(header, headerLength);
+
+    }
+
+    /**
+     * Reads the uncompressed size of a block from its footer.
+     *
+     * @param channel   the file channel
+     * @param offset    the file offset of the block
+     * @param blockSize the size of the block
+     * @return the uncompressed size
+     * @throws IOException if the footer cannot be read
+     */
+    public static int readInputSize(FileChannel channel, long offset, int blockSize) throws IOException {
+
+        byte[] footer = new byte[4];
+        if (readFully(channel, offset + blockSize - 4, footer, 0, 4) < 4) {
+            throw new IOException("Truncated BGZF block at offset " + offset + ".");
+        }
+
+        return readInt(footer, 0);
+
+    }
+
+    /**
+     * Inflates a compressed block and verifies its checksum.
+     *
+     * @param block     the compressed block
+     * @param blockSize the size of the compressed block
+     * @param data      the array to inflate to, at least MAX_BLOCK_SIZE bytes
+     * @param inflater  the inflater to use, created with nowrap set to true
+     * @return the number of uncompressed bytes
+     * @throws IOException if the block is corrupt
+     */
+    public static int inflate(byte[] block, int blockSize, byte[] data, Inflater inflater) throws IOException {
+
+        int headerSize = getHeaderSize(block);
+        int inputSize = getInputSize(block, blockSize);
+
+        inflater.reset();
+        inflater.setInput(block, headerSize, blockSize - headerSize - FOOTER_SIZE);
+
+        try {
+            int inflated = 0;
+            while (inflated < inputSize) {
+                int n = inflater.inflate(data, inflated, inputSize - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != inputSize) {
+                throw new IOException("Corrupt BGZF block: expected " + inputSize + " bytes, inflated " + inflated + ".");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block: " + e.getMessage(), e);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, inputSize);
+        if ((int) crc.getValue() != readInt(block, blockSize - FOOTER_SIZE)) {
+            throw new IOException("Corrupt BGZF block: CRC32 checksum mismatch.");
+        }
+
+        return inputSize;
+
+    }
+
+    /**
+     * Compresses data into a block. Data that does not compress into a
+     * single block is stored without compression.
+     *
+     * @param data     the data, at most MAX_DATA_SIZE bytes
+     * @param length   the number of bytes to compress
+     * @param block    the array to write the block to, at least MAX_BLOCK_SIZE bytes
+     * @param deflater the deflater to use, created with nowrap set to true
+     * @return the size of the block
+     */
+    public static int deflate(byte[] data, int length, byte[] block, Deflater deflater) {
+
+        if (length > MAX_DATA_SIZE) {
+            throw new IllegalArgumentException("BGZF block data exceeds " + MAX_DATA_SIZE + " bytes: " + length);
+        }
+
+        int capacity = MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE;
+
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        int compressedSize = deflater.deflate(block, HEADER_SIZE, capacity);
+
+        if (!deflater.finished()) {
+            //incompressible data, store it
+            Deflater storer = new Deflater(Deflater.NO_COMPRESSION, true);
+            try {
+                storer.setInput(data, 0, length);
+                storer.finish();
+                compressedSize = storer.deflate(block, HEADER_SIZE, capacity);
+            } finally {
+                storer.end();
+            }
+        }
+
+        int blockSize = HEADER_SIZE + compressedSize + FOOTER_SIZE;
+
+        block[0] = 0x1f;
+        block[1] = (byte) 0x8b;
+        block[2] = 8;
+        block[3] = 4;
+        writeInt(block, 4, 0);
+        block[8] = 0;
+        block[9] = (byte) 0xff;
+        writeShort(block, 10, 6);
+        block[12] = 'B';
+        block[13] = 'C';
+        writeShort(block, 14, 2);
+        writeShort(block, 16, blockSize - 1);
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeInt(block, blockSize - FOOTER_SIZE, (int) crc.getValue());
+        writeInt(block, blockSize - 4, length);
+
+        return blockSize;
+
+    }
+
+    /**
+     * Returns the index of the BSIZE value in the header or -1 if the
+     * header has no BC extra field.
+     */
+    private static int findBlockSizeField(byte[] header, int length) {
+
+        int extraEnd = Math.min(12 + readUnsignedShort(header, 10), length);
+        int i = 12;
+        while (i + 4 <= extraEnd) {
+            int fieldLength = readUnsignedShort(header, i + 2);
+            if (header[i] == 'B' && header[i + 1] == 'C' && fieldLength == 2 && i + 6 <= extraEnd) {
+                return i + 4;
+            }
+            i += 4 + fieldLength;
+        }
+
+        return -1;
+
+    }
+
+    private static int readFully(FileChannel channel, long offset, byte[] array, int from, int length) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(array, from, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position() - from) < 0) {
+                break;
+            }
+        }
+
+        return buffer.position() - from;
+
+    }
+
+    static int readUnsignedShort(byte[] array, int i) {
+        return (array[i] & 0xff) | ((array[i + 1] & 0xff) << 8);
+    }
+
+    static void writeShort(byte[] array, int i, int value) {
+        array[i] = (byte) value;
+        array[i + 1] = (byte) (value >>> 8);
+    }
+
+    static void writeInt(byte[] array, int i, int value) {
+        array[i] = (byte) value;
+        array[i + 1] = (byte) (value >>> 8);
+        array[i + 2] = (byte) (value >>> 16);
+        array[i + 3] = (byte) (value >>> 24);
+    }
+
+    static int readInt(byte[] array, int i) {
+        return (array[i] & 0xff) | ((array[i + 1] & 0xff) << 8) | ((array[i + 2] & 0xff) << 16) | ((array[i + 3] & 0xff) << 24);
+    }
+
+}
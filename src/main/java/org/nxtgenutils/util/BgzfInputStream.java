@@ -0,0 +1,166 @@
+package org.nxtgenutils.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.zip.Inflater;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * InputStream reading the uncompressed content of a BGZF file, which can
+ * be positioned at virtual offsets, e.g. those stored in a tabix index.
+ */
+public class BgzfInputStream extends InputStream {
+
+    private FileChannel channel;
+
+    private byte[] block = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+    private byte[] data = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+    private Inflater inflater = new Inflater(true);
+
+    //file offsets of the current and the next block
+    private long blockAddress = 0;
+    private long nextBlockAddress = 0;
+
+    private int dataLength = 0;
+    private int dataPosition = 0;
+
+    /**
+     * Opens a BGZF file positioned at its start.
+     *
+     * @param file the BGZF file
+     * @throws IOException if the file cannot be opened
+     */
+    public BgzfInputStream(File file) throws IOException {
+        this.channel = new FileInputStream(file).getChannel();
+    }
+
+    /**
+     * Positions the stream at a virtual offset.
+     *
+     * @param virtualOffset the virtual offset
+     * @throws IOException if the block at the offset cannot be read
+     */
+    public void seek(long virtualOffset) throws IOException {
+
+        long address = BgzfBlock.getBlockAddress(virtualOffset);
+        int offset = BgzfBlock.getDataOffset(virtualOffset);
+
+        if (address != blockAddress || dataLength == 0) {
+            nextBlockAddress = address;
+            dataLength = 0;
+            dataPosition = 0;
+            readBlock();
+        }
+
+        if (offset > dataLength) {
+            throw new IOException("Invalid virtual offset " + virtualOffset + ": block at " + address + " holds " + dataLength + " bytes.");
+        }
+
+        dataPosition = offset;
+
+    }
+
+    /**
+     * Returns the virtual offset of the next byte to be read. At the end
+     * of a block this is the start of the following block.
+     *
+     * @return the virtual offset
+     */
+    public long getVirtualOffset() {
+
+        if (dataPosition == dataLength) {
+            return BgzfBlock.getVirtualOffset(nextBlockAddress, 0);
+        }
+
+        return BgzfBlock.getVirtualOffset(blockAddress, dataPosition);
+
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        if (dataPosition == dataLength && !readBlock()) {
+            return -1;
+        }
+
+        return data[dataPosition++] & 0xff;
+
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (dataPosition == dataLength && !readBlock()) {
+            return -1;
+        }
+
+        int n = Math.min(len, dataLength - dataPosition);
+        System.arraycopy(data, dataPosition, b, off, n);
+        dataPosition += n;
+
+        return n;
+
+    }
+
+    @Override
+    public int available() {
+        return dataLength - dataPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    /**
+     * Reads and inflates the next non-empty block.
+     *
+     * @return false at the end of the file
+     */
+    private boolean readBlock() throws IOException {
+
+        while (true) {
+
+            int blockSize = BgzfBlock.readBlock(channel, nextBlockAddress, block);
+            if (blockSize < 0) {
+                return false;
+            }
+
+            blockAddress = nextBlockAddress;
+            nextBlockAddress += blockSize;
+            dataLength = BgzfBlock.inflate(block, blockSize, data, inflater);
+            dataPosition = 0;
+
+            if (dataLength > 0) {
+                return true;
+            }
+
+        }
+
+    }
+
+}
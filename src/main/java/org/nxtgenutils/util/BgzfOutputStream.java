@@ -0,0 +1,179 @@
+package org.nxtgenutils.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * OutputStream writing BGZF compressed data, which stays readable by any
+ * gzip reader. The virtual offset of the next byte to be written can be
+ * used to build a tabix index while writing.
+ */
+public class BgzfOutputStream extends OutputStream {
+
+    private OutputStream out;
+
+    private byte[] data = new byte[BgzfBlock.MAX_DATA_SIZE];
+    private byte[] block = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+    private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+    private int dataLength = 0;
+    //file offset of the block currently being filled
+    private long blockAddress = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Constructs a BGZF stream writing to a file.
+     *
+     * @param file the output file
+     * @throws IOException if the file cannot be opened
+     */
+    public BgzfOutputStream(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    /**
+     * Constructs a BGZF stream writing to an OutputStream.
+     *
+     * @param out the underlying stream
+     */
+    public BgzfOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Returns the virtual offset of the next byte to be written.
+     *
+     * @return the virtual offset
+     */
+    public long getVirtualOffset() {
+        return BgzfBlock.getVirtualOffset(blockAddress, dataLength);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+
+        data[dataLength++] = (byte) b;
+        if (dataLength == data.length) {
+            writeBlock();
+        }
+
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        while (len > 0) {
+
+            int n = Math.min(len, data.length - dataLength);
+            System.arraycopy(b, off, data, dataLength, n);
+            dataLength += n;
+            off += n;
+            len -= n;
+
+            if (dataLength == data.length) {
+                writeBlock();
+            }
+
+        }
+
+    }
+
+    /**
+     * Compresses the buffered data into a block, even if the block is
+     * not full, and flushes the underlying stream.
+     *
+     * @throws IOException if the block cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+
+        if (dataLength > 0) {
+            writeBlock();
+        }
+
+        out.flush();
+
+    }
+
+    /**
+     * Writes the remaining data without the end of file marker block and
+     * leaves the underlying stream open, e.g. to write several parts of a
+     * BGZF file which are concatenated later. Nothing can be written to the
+     * stream afterwards and closing it has no effect.
+     *
+     * @throws IOException if the data cannot be written
+     */
+    public void finish() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (dataLength > 0) {
+            writeBlock();
+        }
+
+        deflater.end();
+        out.flush();
+
+    }
+
+    /**
+     * Writes the remaining data and the end of file marker block
+     * and closes the underlying stream.
+     *
+     * @throws IOException if the data cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (dataLength > 0) {
+            writeBlock();
+        }
+
+        out.write(BgzfBlock.EOF_BLOCK);
+        deflater.end();
+        out.close();
+
+    }
+
+    private void writeBlock() throws IOException {
+
+        int blockSize = BgzfBlock.deflate(data, dataLength, block, deflater);
+        out.write(block, 0, blockSize);
+
+        blockAddress += blockSize;
+        dataLength = 0;
+
+    }
+
+}
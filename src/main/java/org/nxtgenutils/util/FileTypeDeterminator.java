@@ -1,6 +1,10 @@
 package org.nxtgenutils.util;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -35,6 +39,38 @@ import java.net.URL;
  */
 public class FileTypeDeterminator {
 
+    /**
+     * the number of threads inflating the blocks of BGZF compressed streams
+     */
+    private static int decompressionThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Sets the number of threads inflating the blocks of BGZF compressed
+     * streams opened by determineStreamType(InputStream). Defaults to the
+     * number of available processors.
+     *
+     * @param threadCount the number of threads, at least 1
+     */
+    public static void setDecompressionThreads(int threadCount) {
+
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threadCount);
+        }
+
+        decompressionThreads = threadCount;
+
+    }
+
+    /**
+     * Returns the number of threads inflating the blocks of BGZF compressed
+     * streams.
+     *
+     * @return the number of threads
+     */
+    public static int getDecompressionThreads() {
+        return decompressionThreads;
+    }
+
     /**
      * This method will try to determine whether this stream is connected to a zip file,
      * a gzipped file, a possible text file or a possible binary file, in that order.
@@ -45,37 +81,94 @@ public class FileTypeDeterminator {
      * @return Reader   with a Reader into the converted stream.
      */
     public static Reader determineFileType(InputStream aStream) throws IOException {
+        return determineFileType(aStream, false);
+    }
+
+    /**
+     * Counterpart of determineFileType(InputStream) that optionally inflates gzip
+     * streams on a read-ahead thread (see determineStreamType(InputStream, boolean)).
+     *
+     * @param aStream   InputStream to determine the nature of
+     * @param readAhead true to inflate gzip streams on a read-ahead thread
+     * @return Reader   with a Reader into the converted stream.
+     */
+    public static Reader determineFileType(InputStream aStream, boolean readAhead) throws IOException {
         Reader result = null;
+        InputStream is = determineStreamType(aStream, readAhead);
+        if(is != null) {
+            result = new InputStreamReader(is);
+        }
+        return result;
+    }
+
+    /**
+     * Byte level counterpart of determineFileType(InputStream). Returns an InputStream
+     * delivering the decompressed content of a zip or gzip file or the content of a
+     * possible text or binary file as is, or 'null' if the type was not recognizable
+     * (ie: we could not read the four bytes constituting the magic number).
+     * BGZF compressed streams are inflated block-wise on getDecompressionThreads()
+     * threads, other gzip streams on the calling thread.
+     *
+     * @param aStream   InputStream to determine the nature of
+     * @return InputStream  into the converted stream.
+     */
+    public static InputStream determineStreamType(InputStream aStream) throws IOException {
+        return determineStreamType(aStream, false);
+    }
+
+    /**
+     * Counterpart of determineStreamType(InputStream) that optionally inflates gzip
+     * streams, other than BGZF streams, on a read-ahead thread (see ReadAheadInputStream).
+     * Read-ahead pays off for streams that are read to the end, e.g. by the pileup
+     * parsers, while it wastes its buffers on streams of which only a few lines are
+     * read. A read-ahead stream has to be closed to release its thread.
+     *
+     * @param aStream   InputStream to determine the nature of
+     * @param readAhead true to inflate gzip streams on a read-ahead thread
+     * @return InputStream  into the converted stream.
+     */
+    public static InputStream determineStreamType(InputStream aStream, boolean readAhead) throws IOException {
+        InputStream result = null;
         try {
-            // Reading the first four bytes.
-            byte[] firstFour = new byte[4];
-            PushbackInputStream pbi = new PushbackInputStream(aStream, 4);
-            int count = pbi.read(firstFour, 0, 4);
+            // Reading the first four bytes, and the rest of a BGZF block header if there is one.
+            byte[] firstFour = new byte[BgzfBlock.HEADER_SIZE];
+            PushbackInputStream pbi = new PushbackInputStream(aStream, BgzfBlock.HEADER_SIZE);
+            int count = 0;
+            int n;
+            while(count < firstFour.length && (n = pbi.read(firstFour, count, firstFour.length - count)) >= 0) {
+                count += n;
+            }
             // If we couldn't even read 4 bytes, it cannot be good. In that case we'll therefore return 'null'.
-            if(count == 4) {
+            if(count >= 4) {
                 //logger.debug("Read magic numbers (first four bytes: " + firstFour[0] + " " + firstFour[1] + " " + firstFour[2] + " " + firstFour[3] + " " + ").");
                 // Now unread our bytes.
-                pbi.unread(firstFour);
+                pbi.unread(firstFour, 0, count);
                 // Okay, let's check these magic numbers, shall we?
-                if(firstFour[0] == (byte)0x1F && firstFour[1] == (byte)0x8b) {
+                if(BgzfBlock.isBgzfHeader(firstFour, count)) {
+                    // BGZF, inflate the blocks in parallel.
+                    result = new ParallelBgzfInputStream(pbi, decompressionThreads);
+                } else if(isGzip(firstFour)) {
                     // GZIP!
                     //logger.debug("Detected GZIP format.");
-                    result = new InputStreamReader(new GZIPInputStream(pbi));
-                } else if(firstFour[0] == (byte)0x50 && firstFour[1] == (byte)0x4b && firstFour[2] == (byte)0x03 && firstFour[3] == (byte)0x04) {
+                    result = new GZIPInputStream(pbi);
+                    if(readAhead) {
+                        result = new ReadAheadInputStream(result);
+                    }
+                } else if(isZip(firstFour)) {
                     // (pk)ZIP!
                     //logger.debug("Detected ZIP format.");
                     ZipInputStream zis = new ZipInputStream(pbi);
                     ZipEntry ze = zis.getNextEntry();
                     // Extra check: ze cannot be 'null'!
                     if(ze != null) {
-                        result = new InputStreamReader(zis);
+                        result = zis;
                     }
                 }
                 // If we are here and result is still 'null', we weren't able to identify it as either GZIP or ZIP.
-                // So create a regular reader and go from here.
+                // So return the stream as is and go from here.
                 if(result == null) {
-                    //logger.debug("Defaulted to standard Reader.");
-                    result = new InputStreamReader(pbi);
+                    //logger.debug("Defaulted to standard stream.");
+                    result = pbi;
                 }
             }
         } catch(IOException ioe) {
@@ -86,6 +179,82 @@ public class FileTypeDeterminator {
         return result;
     }
 
+    /**
+     * Opens a channel to the content of a file. Uncompressed files are read through
+     * their FileChannel directly, so that the bytes can be transferred into a (direct)
+     * ByteBuffer without intermediate copies. Zip and gzip files are read through the
+     * decompressing stream returned by determineStreamType(InputStream).
+     *
+     * @param aFile the file to open
+     * @return ReadableByteChannel into the (decompressed) file content
+     */
+    public static ReadableByteChannel determineChannelType(File aFile) throws IOException {
+        return determineChannelType(aFile, false);
+    }
+
+    /**
+     * Counterpart of determineChannelType(File) that optionally inflates gzip files
+     * on a read-ahead thread (see determineStreamType(InputStream, boolean)).
+     *
+     * @param aFile     the file to open
+     * @param readAhead true to inflate gzip files on a read-ahead thread
+     * @return ReadableByteChannel into the (decompressed) file content
+     */
+    public static ReadableByteChannel determineChannelType(File aFile, boolean readAhead) throws IOException {
+
+        FileInputStream fis = new FileInputStream(aFile);
+        FileChannel channel = fis.getChannel();
+
+        // Check the magic numbers without consuming them.
+        ByteBuffer firstFour = ByteBuffer.allocate(4);
+        while(firstFour.hasRemaining() && channel.read(firstFour) >= 0) {
+            // keep reading until we have four bytes or the end of the file
+        }
+        channel.position(0);
+
+        byte[] magic = firstFour.array();
+        if(firstFour.position() == 4 && (isGzip(magic) || isZip(magic))) {
+            InputStream is = determineStreamType(fis, readAhead);
+            return Channels.newChannel(is);
+        }
+
+        return channel;
+
+    }
+
+    /**
+     * Returns true if the file is compressed with BGZF, the blocked gzip
+     * variant written by samtools, tabix and bgzip, which allows random access
+     * and independent decompression of blocks.
+     *
+     * @param aFile the file to check
+     * @return true if the file starts with a BGZF block
+     */
+    public static boolean isBgzf(File aFile) throws IOException {
+
+        FileInputStream fis = new FileInputStream(aFile);
+        try {
+            byte[] header = new byte[BgzfBlock.HEADER_SIZE];
+            int count = 0;
+            int n;
+            while(count < header.length && (n = fis.read(header, count, header.length - count)) >= 0) {
+                count += n;
+            }
+            return BgzfBlock.isBgzfHeader(header, count);
+        } finally {
+            fis.close();
+        }
+
+    }
+
+    private static boolean isGzip(byte[] firstFour) {
+        return firstFour[0] == (byte)0x1F && firstFour[1] == (byte)0x8b;
+    }
+
+    private static boolean isZip(byte[] firstFour) {
+        return firstFour[0] == (byte)0x50 && firstFour[1] == (byte)0x4b && firstFour[2] == (byte)0x03 && firstFour[3] == (byte)0x04;
+    }
+
     public static Reader determineFileType(URL aURL) throws IOException {
 
             InputStream is = null;
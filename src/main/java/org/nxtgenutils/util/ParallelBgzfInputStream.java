@@ -0,0 +1,259 @@
+package org.nxtgenutils.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * InputStream reading the uncompressed content of a BGZF stream, inflating
+ * the blocks on a pool of worker threads. The compressed blocks are read
+ * ahead of the consumer, up to twice the number of threads, and handed out
+ * in stream order. Idle worker threads terminate, so a stream that is not
+ * closed does not keep threads alive.
+ */
+public class ParallelBgzfInputStream extends InputStream {
+
+    //inflater of each worker thread
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private InputStream in;
+    private ThreadPoolExecutor pool;
+    private int maxBlocksInFlight;
+
+    private Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+    private boolean inputEnd = false;
+
+    private Block current;
+    private int dataPosition = 0;
+
+    /**
+     * Constructs a stream inflating the blocks read from a BGZF stream.
+     *
+     * @param in          the BGZF compressed stream
+     * @param threadCount the number of worker threads
+     */
+    public ParallelBgzfInputStream(InputStream in, int threadCount) {
+
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threadCount);
+        }
+
+        this.in = in;
+        this.maxBlocksInFlight = 2 * threadCount;
+
+        pool = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "bgzf-inflater");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        if (!hasData()) {
+            return -1;
+        }
+
+        return current.data[dataPosition++] & 0xff;
+
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!hasData()) {
+            return -1;
+        }
+
+        int n = Math.min(len, current.length - dataPosition);
+        System.arraycopy(current.data, dataPosition, b, off, n);
+        dataPosition += n;
+
+        return n;
+
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - dataPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        for (Future<Block> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        current = null;
+        inputEnd = true;
+
+        pool.shutdown();
+        in.close();
+
+    }
+
+    /**
+     * Moves to the next non-empty block if the current one is exhausted.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean hasData() throws IOException {
+
+        while (current == null || dataPosition == current.length) {
+
+            while (!inputEnd && pending.size() < maxBlocksInFlight) {
+                byte[] block = readBlock();
+                if (block == null) {
+                    inputEnd = true;
+                } else {
+                    pending.add(pool.submit(new InflateTask(block)));
+                }
+            }
+
+            if (pending.isEmpty()) {
+                current = null;
+                return false;
+            }
+
+            try {
+                current = pending.poll().get();
+                dataPosition = 0;
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while inflating BGZF block.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Exception while inflating BGZF block.", e.getCause());
+            }
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Reads the next compressed block from the underlying stream.
+     *
+     * @return the block or null at the end of the stream
+     */
+    private byte[] readBlock() throws IOException {
+
+        byte[] header = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+        int count = readFully(header, 0, 12);
+        if (count == 0) {
+            return null;
+        }
+
+        if (count < 12) {
+            throw new IOException("Truncated BGZF block header.");
+        }
+
+        int headerSize = BgzfBlock.getHeaderSize(header);
+        if (readFully(header, 12, headerSize - 12) < headerSize - 12) {
+            throw new IOException("Truncated BGZF block header.");
+        }
+
+        int blockSize = BgzfBlock.getBlockSize(header, headerSize);
+        if (readFully(header, headerSize, blockSize - headerSize) < blockSize - headerSize) {
+            throw new IOException("Truncated BGZF block.");
+        }
+
+        return header;
+
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException {
+
+        int count = 0;
+        int n;
+        while (count < len && (n = in.read(b, off + count, len - count)) >= 0) {
+            count += n;
+        }
+
+        return count;
+
+    }
+
+    /**
+     * Uncompressed content of a block.
+     */
+    private static class Block {
+
+        byte[] data;
+        int length;
+
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * Inflates a block on a worker thread.
+     */
+    private static class InflateTask implements Callable<Block> {
+
+        private byte[] block;
+
+        InflateTask(byte[] block) {
+            this.block = block;
+        }
+
+        public Block call() throws IOException {
+
+            int blockSize = BgzfBlock.getBlockSize(block, block.length);
+            byte[] data = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+
+            return new Block(data, BgzfBlock.inflate(block, blockSize, data, INFLATER.get()));
+
+        }
+
+    }
+
+}
@@ -0,0 +1,361 @@
+package org.nxtgenutils.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * OutputStream writing BGZF compressed data, deflating the blocks on a pool
+ * of worker threads. Full blocks are handed to the workers while the next
+ * block is filled, up to twice the number of threads, and are written in
+ * stream order on the producer thread. The output stays readable by any
+ * gzip reader.
+ * <p/>
+ * The address of a block is not known before the blocks preceding it have
+ * been compressed, so the stream reports the uncompressed position of the
+ * next byte to be written instead of its virtual offset. Positions are
+ * translated into virtual offsets once their block has been written, e.g.
+ * after the stream has been closed.
+ */
+public class ParallelBgzfOutputStream extends OutputStream {
+
+    //deflater of each worker thread
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    private OutputStream out;
+    private ThreadPoolExecutor pool;
+    private int maxBlocksInFlight;
+
+    private Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+    private Deque<Block> freeBlocks = new ArrayDeque<Block>();
+
+    private Block current = null;
+    //uncompressed position of the next byte
+    private long position = 0;
+
+    //uncompressed positions and file offsets of the blocks written
+    private long[] blockPositions = new long[1024];
+    private long[] blockAddresses = new long[1024];
+    private int blockCount = 0;
+    //uncompressed position and file offset after the blocks written
+    private long writtenPosition = 0;
+    private long writtenAddress = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Constructs a BGZF stream writing to a file.
+     *
+     * @param file        the output file
+     * @param threadCount the number of worker threads
+     * @throws IOException if the file cannot be opened
+     */
+    public ParallelBgzfOutputStream(File file, int threadCount) throws IOException {
+        this(new FileOutputStream(file), threadCount);
+    }
+
+    /**
+     * Constructs a BGZF stream deflating the blocks on a number of threads.
+     *
+     * @param out         the underlying stream
+     * @param threadCount the number of worker threads
+     */
+    public ParallelBgzfOutputStream(OutputStream out, int threadCount) {
+
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threadCount);
+        }
+
+        this.out = out;
+        this.maxBlocksInFlight = 2 * threadCount;
+
+        pool = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "bgzf-deflater");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+
+    }
+
+    /**
+     * Returns the uncompressed position of the next byte to be written.
+     *
+     * @return the number of bytes written
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the virtual offset of an uncompressed position. The block of
+     * the position must have been written, which is the case for all
+     * positions once the stream has been closed.
+     *
+     * @param position the uncompressed position, at most getPosition()
+     * @return the virtual offset
+     * @throws IllegalStateException if the block of the position has not
+     *                               been written yet
+     */
+    public long getVirtualOffset(long position) {
+
+        if (position < 0 || position > writtenPosition) {
+            throw new IllegalStateException("The BGZF block of position " + position + " has not been written.");
+        }
+
+        if (position == writtenPosition) {
+            return BgzfBlock.getVirtualOffset(writtenAddress, 0);
+        }
+
+        //the last block starting at or before the position
+        int i = Arrays.binarySearch(blockPositions, 0, blockCount, position);
+        if (i < 0) {
+            i = -i - 2;
+        }
+
+        return BgzfBlock.getVirtualOffset(blockAddresses[i], (int) (position - blockPositions[i]));
+
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+
+        if (current == null) {
+            nextBlock();
+        }
+
+        current.data[current.length++] = (byte) b;
+        position++;
+
+        if (current.length == current.data.length) {
+            handOver();
+        }
+
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        while (len > 0) {
+
+            if (current == null) {
+                nextBlock();
+            }
+
+            int n = Math.min(len, current.data.length - current.length);
+            System.arraycopy(b, off, current.data, current.length, n);
+            current.length += n;
+            position += n;
+            off += n;
+            len -= n;
+
+            if (current.length == current.data.length) {
+                handOver();
+            }
+
+        }
+
+    }
+
+    /**
+     * Compresses the buffered data into a block, even if the block is not
+     * full, writes all blocks and flushes the underlying stream.
+     *
+     * @throws IOException if a block cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+
+        checkClosed();
+
+        if (current != null && current.length > 0) {
+            handOver();
+        }
+
+        while (!pending.isEmpty()) {
+            writeBlock();
+        }
+
+        out.flush();
+
+    }
+
+    /**
+     * Writes the remaining data and the end of file marker block and closes
+     * the underlying stream.
+     *
+     * @throws IOException if the data cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        try {
+
+            flush();
+            out.write(BgzfBlock.EOF_BLOCK);
+
+        } finally {
+
+            closed = true;
+
+            for (Future<Block> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+            current = null;
+
+            pool.shutdown();
+            out.close();
+
+        }
+
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+    }
+
+    /**
+     * Takes a recycled block or allocates a new one.
+     */
+    private void nextBlock() throws IOException {
+
+        checkClosed();
+
+        current = freeBlocks.poll();
+        if (current == null) {
+            current = new Block();
+        }
+
+        current.length = 0;
+        current.position = position;
+
+    }
+
+    /**
+     * Passes the current block to the workers, writing the oldest block
+     * first if the maximum number of blocks is in flight.
+     */
+    private void handOver() throws IOException {
+
+        while (pending.size() >= maxBlocksInFlight) {
+            writeBlock();
+        }
+
+        pending.add(pool.submit(new DeflateTask(current)));
+        current = null;
+
+    }
+
+    /**
+     * Waits for the oldest block to be compressed and writes it.
+     */
+    private void writeBlock() throws IOException {
+
+        Block block;
+
+        try {
+            block = pending.poll().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while deflating BGZF block.");
+        } catch (ExecutionException e) {
+            throw new IOException("Exception while deflating BGZF block.", e.getCause());
+        }
+
+        out.write(block.compressed, 0, block.compressedLength);
+
+        if (blockCount == blockPositions.length) {
+            blockPositions = Arrays.copyOf(blockPositions, 2 * blockCount);
+            blockAddresses = Arrays.copyOf(blockAddresses, 2 * blockCount);
+        }
+        blockPositions[blockCount] = block.position;
+        blockAddresses[blockCount] = writtenAddress;
+        blockCount++;
+
+        writtenPosition = block.position + block.length;
+        writtenAddress += block.compressedLength;
+
+        freeBlocks.add(block);
+
+    }
+
+    /**
+     * Uncompressed data of a block and the block it is compressed into.
+     */
+    private static class Block {
+
+        byte[] data = new byte[BgzfBlock.MAX_DATA_SIZE];
+        int length;
+        long position;
+
+        byte[] compressed = new byte[BgzfBlock.MAX_BLOCK_SIZE];
+        int compressedLength;
+
+    }
+
+    /**
+     * Deflates a block on a worker thread.
+     */
+    private static class DeflateTask implements Callable<Block> {
+
+        private Block block;
+
+        DeflateTask(Block block) {
+            this.block = block;
+        }
+
+        public Block call() {
+
+            block.compressedLength = BgzfBlock.deflate(block.data, block.length, block.compressed, DEFLATER.get());
+
+            return block;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,258 @@
+package org.nxtgenutils.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * InputStream reading ahead of the consumer on a background thread, e.g.
+ * to decompress a gzip stream while the consumer parses the previous
+ * buffer. Buffers are recycled between the two threads.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    /**
+     * the default buffer size (256 KB)
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * the default number of buffers
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    private InputStream in;
+    private Thread reader;
+    private volatile boolean closed = false;
+
+    private BlockingQueue<Buffer> freeBuffers;
+    private BlockingQueue<Buffer> filledBuffers;
+
+    private Buffer current;
+    private int position = 0;
+    private boolean end = false;
+
+    /**
+     * Constructs a stream reading ahead with the default buffers.
+     *
+     * @param in the stream to read from
+     */
+    public ReadAheadInputStream(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * Constructs a stream reading ahead into a number of buffers.
+     *
+     * @param in          the stream to read from
+     * @param bufferSize  the size of the buffers
+     * @param bufferCount the number of buffers, at least 2
+     */
+    public ReadAheadInputStream(InputStream in, int bufferSize, int bufferCount) {
+
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("Buffer count must be at least 2: " + bufferCount);
+        }
+
+        this.in = in;
+
+        freeBuffers = new ArrayBlockingQueue<Buffer>(bufferCount);
+        //one extra slot for the end of stream marker
+        filledBuffers = new ArrayBlockingQueue<Buffer>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            freeBuffers.add(new Buffer(new byte[bufferSize]));
+        }
+
+        reader = new Thread(new Runnable() {
+            public void run() {
+                readAhead();
+            }
+        }, "read-ahead");
+        reader.setDaemon(true);
+        reader.start();
+
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        if (!hasData()) {
+            return -1;
+        }
+
+        return current.data[position++] & 0xff;
+
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!hasData()) {
+            return -1;
+        }
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+
+        return n;
+
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        reader.interrupt();
+
+        //the reading thread must not be inside in.read() when in is closed
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while closing the stream.");
+        } finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Moves to the next buffer if the current one is exhausted.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean hasData() throws IOException {
+
+        while (current == null || position == current.length) {
+
+            if (end) {
+                return false;
+            }
+
+            if (current != null) {
+                freeBuffers.offer(current);
+                current = null;
+            }
+
+            Buffer buffer;
+            try {
+                buffer = filledBuffers.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for input.");
+            }
+
+            if (buffer.error != null) {
+                end = true;
+                throw buffer.error;
+            }
+
+            if (buffer.length < 0) {
+                end = true;
+                return false;
+            }
+
+            current = buffer;
+            position = 0;
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Fills the free buffers until the end of the stream is reached.
+     */
+    private void readAhead() {
+
+        Buffer marker = new Buffer(null);
+        marker.length = -1;
+
+        try {
+
+            while (!closed) {
+
+                Buffer buffer = freeBuffers.take();
+
+                int count = 0;
+                int n;
+                while (count < buffer.data.length && (n = in.read(buffer.data, count, buffer.data.length - count)) >= 0) {
+                    count += n;
+                }
+
+                if (count > 0) {
+                    buffer.length = count;
+                    filledBuffers.put(buffer);
+                }
+
+                if (count < buffer.data.length) {
+                    break;
+                }
+
+            }
+
+        } catch (IOException e) {
+            if (!closed) {
+                marker.error = e;
+            }
+        } catch (RuntimeException e) {
+            //e.g. thrown by a decompressing stream on corrupt input
+            if (!closed) {
+                marker.error = new IOException(e);
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        filledBuffers.offer(marker);
+
+    }
+
+    /**
+     * Buffer passed between the reading thread and the consumer.
+     */
+    private static class Buffer {
+
+        byte[] data;
+        int length;
+        IOException error;
+
+        Buffer(byte[] data) {
+            this.data = data;
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.nxtgenutils.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * InputStream copying the bytes it reads to an OutputStream, e.g. to keep
+ * a copy of a stream that can only be read once. The copy is flushed when
+ * the end of the stream is reached and closed with the stream.
+ */
+public class TeeInputStream extends InputStream {
+
+    private InputStream in;
+    private OutputStream branch;
+    private boolean closed = false;
+
+    /**
+     * Constructs a stream copying the bytes read from a stream.
+     *
+     * @param in     the stream to read from
+     * @param branch the stream to copy the bytes to
+     */
+    public TeeInputStream(InputStream in, OutputStream branch) {
+        this.in = in;
+        this.branch = branch;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        int retVal = in.read();
+
+        if (retVal >= 0) {
+            branch.write(retVal);
+        } else {
+            branch.flush();
+        }
+
+        return retVal;
+
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        int retVal = in.read(b, off, len);
+
+        if (retVal > 0) {
+            branch.write(b, off, retVal);
+        } else if (retVal < 0) {
+            branch.flush();
+        }
+
+        return retVal;
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            in.close();
+        } finally {
+            branch.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+package org.nxtgenutils.bsseq.impl;
+
+import junit.framework.TestCase;
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.impl.BinaryMultiPileup;
+import org.nxtgenutils.io.impl.BinaryPileupWriter;
+import org.nxtgenutils.io.impl.SimpleMultiPileupParser;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Commits profiled parts to a ProfileCheckpoint and restores them from a
+ * checkpoint reopened for the same run.
+ */
+public class ProfileCheckpointTest extends TestCase {
+
+    private static final List<String> CONTEXTS = Arrays.asList("CHG", "CHH", "total");
+    private static final List<String> SAMPLE_NAMES = Arrays.asList("sample1", "sample2");
+
+    private File outputFile;
+    private MultiPileup firstMultiPileup;
+    private MultiPileup lastMultiPileup;
+
+    protected void setUp() throws IOException {
+
+        outputFile = File.createTempFile("profile", ".gz");
+
+        File pileupFile = File.createTempFile("pileup", ".pileup");
+        try {
+
+            Writer writer = new OutputStreamWriter(new FileOutputStream(pileupFile), "UTF-8");
+            try {
+                writer.write("chr1\t100\tC\t4\t..,T\tIIII\t3\t.,t\tIII\n");
+                writer.write("chr1\t180\tG\t2\t,,\tII\t3\t.+1A,a\tIII\n");
+            } finally {
+                writer.close();
+            }
+
+            Iterator<MultiPileup> iterator = new SimpleMultiPileupParser(pileupFile).iterator();
+            firstMultiPileup = BinaryMultiPileup.copyOf(iterator.next());
+            lastMultiPileup = BinaryMultiPileup.copyOf(iterator.next());
+
+        } finally {
+            pileupFile.delete();
+        }
+
+    }
+
+    protected void tearDown() {
+
+        File directory = new File(outputFile.getAbsolutePath() + ".checkpoint");
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+        outputFile.delete();
+
+    }
+
+    public void testCommitRestore() throws IOException {
+
+        ProfileCheckpoint checkpoint = new ProfileCheckpoint(outputFile, "run");
+        assertFalse(checkpoint.isComplete(0));
+
+        ProfileBlock block = createBlock(checkpoint, 0);
+        block.lineCounter = 42;
+        block.nonCpGContextCCount.add(0, 1, 7);
+        block.nonCpGContextTCount.add(2, 0, 1234567890123L);
+        block.firstMultiPileup = firstMultiPileup;
+        block.lastMultiPileup = lastMultiPileup;
+        checkpoint.commit(0, block);
+
+        //a part without records has no boundary positions
+        checkpoint.commit(1, createBlock(checkpoint, 1));
+
+        ProfileCheckpoint reopened = new ProfileCheckpoint(outputFile, "run");
+        assertTrue(reopened.isComplete(0));
+        assertTrue(reopened.isComplete(1));
+        assertFalse(reopened.isComplete(2));
+
+        ProfileBlock restored = reopened.restore(0, createBlock(reopened, 0));
+        assertEquals(42, restored.lineCounter);
+        for (int context = 0; context < CONTEXTS.size(); context++) {
+            for (int sample = 0; sample < SAMPLE_NAMES.size(); sample++) {
+                assertEquals(block.nonCpGContextCCount.get(context, sample), restored.nonCpGContextCCount.get(context, sample));
+                assertEquals(block.nonCpGContextTCount.get(context, sample), restored.nonCpGContextTCount.get(context, sample));
+            }
+        }
+        assertMultiPileupEquals(firstMultiPileup, restored.firstMultiPileup);
+        assertMultiPileupEquals(lastMultiPileup, restored.lastMultiPileup);
+
+        restored = reopened.restore(1, createBlock(reopened, 1));
+        assertEquals(0, restored.lineCounter);
+        assertNull(restored.firstMultiPileup);
+        assertNull(restored.lastMultiPileup);
+
+    }
+
+    public void testOtherRunDiscarded() throws IOException {
+
+        ProfileCheckpoint checkpoint = new ProfileCheckpoint(outputFile, "run");
+        checkpoint.commit(0, createBlock(checkpoint, 0));
+        assertTrue(checkpoint.isComplete(0));
+
+        checkpoint = new ProfileCheckpoint(outputFile, "other run");
+        assertFalse(checkpoint.isComplete(0));
+
+    }
+
+    public void testTruncatedBoundary() throws IOException {
+
+        ProfileCheckpoint checkpoint = new ProfileCheckpoint(outputFile, "run");
+
+        ProfileBlock block = createBlock(checkpoint, 0);
+        block.lineCounter = 2;
+        block.firstMultiPileup = firstMultiPileup;
+        block.lastMultiPileup = lastMultiPileup;
+        checkpoint.commit(0, block);
+
+        //overwrite the boundary with the first position only
+        BinaryPileupWriter writer = new BinaryPileupWriter(new File(checkpoint.directory, "0.boundary"));
+        try {
+            writer.write(firstMultiPileup);
+        } finally {
+            writer.close();
+        }
+
+        try {
+            checkpoint.restore(0, createBlock(checkpoint, 0));
+            fail("Restored a truncated boundary file.");
+        } catch (IOException e) {
+            //expected
+        }
+
+    }
+
+    public void testDelete() throws IOException {
+
+        ProfileCheckpoint checkpoint = new ProfileCheckpoint(outputFile, "run");
+        checkpoint.commit(0, createBlock(checkpoint, 0));
+        assertTrue(checkpoint.directory.isDirectory());
+
+        checkpoint.delete();
+        assertFalse(checkpoint.directory.exists());
+
+    }
+
+    private ProfileBlock createBlock(ProfileCheckpoint checkpoint, int part) {
+        return new ProfileBlock(checkpoint.getBlockFile(part),
+                new ContextSampleCounter(CONTEXTS, SAMPLE_NAMES), new ContextSampleCounter(CONTEXTS, SAMPLE_NAMES));
+    }
+
+    private void assertMultiPileupEquals(MultiPileup expected, MultiPileup actual) {
+
+        assertEquals(expected.getSequenceName(), actual.getSequenceName());
+        assertEquals(expected.getPosition(), actual.getPosition());
+        assertEquals(expected.getReferenceBase(), actual.getReferenceBase());
+        assertEquals(expected.getPileupCount(), actual.getPileupCount());
+
+        for (int i = 0; i < expected.getPileupCount(); i++) {
+            assertEquals(expected.getPileupCounts(i).getCoverage(), actual.getPileupCounts(i).getCoverage());
+            assertEquals(expected.getPileupCounts(i).getReferenceMatchCount(), actual.getPileupCounts(i).getReferenceMatchCount());
+            assertEquals(expected.getPileupCounts(i).getBaseCallCount("T"), actual.getPileupCounts(i).getBaseCallCount("T"));
+            assertEquals(expected.getPileupCounts(i).getBaseCallCount("A"), actual.getPileupCounts(i).getBaseCallCount("A"));
+            assertEquals(expected.getPileupCounts(i).hasIndels(), actual.getPileupCounts(i).hasIndels());
+        }
+
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.nxtgenutils.io.impl;
+
+import junit.framework.TestCase;
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.Pileup;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Writes the records of a multi-pileup file to a binary pileup file and
+ * reads them back with BinaryMultiPileupParser.
+ */
+public class BinaryPileupWriterTest extends TestCase {
+
+    private static final String[] RECORDS = {
+            "chr1\t100\tC\t4\t..,T\tIIII\t3\t.,t\tIII",
+            "chr1\t101\tG\t2\t.$,\tII\t1\ta\tI",
+            "chr1\t250\tA\t3\t^F.+2AC,*\tIII\t1\tA\tI",
+            "chr2\t5\tT\t2\t,.\tII\t2\t.c\tII"
+    };
+
+    private File pileupFile;
+    private File binaryFile;
+
+    protected void setUp() throws IOException {
+
+        pileupFile = File.createTempFile("pileup", ".pileup");
+        binaryFile = File.createTempFile("pileup", ".bpileup");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(pileupFile), "UTF-8");
+        try {
+            for (String record : RECORDS) {
+                writer.write(record + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        BinaryPileupWriter binaryWriter = new BinaryPileupWriter(binaryFile);
+        try {
+            Iterator<MultiPileup> iterator = new SimpleMultiPileupParser(pileupFile).iterator();
+            while (iterator.hasNext()) {
+                binaryWriter.write(iterator.next());
+            }
+        } finally {
+            binaryWriter.close();
+        }
+
+    }
+
+    protected void tearDown() {
+        pileupFile.delete();
+        binaryFile.delete();
+    }
+
+    public void testRoundTrip() throws IOException {
+
+        assertTrue(BinaryMultiPileupParser.isBinaryPileup(binaryFile));
+
+        BinaryMultiPileupParser parser = new BinaryMultiPileupParser(binaryFile);
+        assertEquals(2, parser.getPileupCount());
+
+        List<String> sequenceNames = new ArrayList<String>();
+        sequenceNames.add("chr1");
+        sequenceNames.add("chr2");
+        assertEquals(sequenceNames, parser.getSequenceNames());
+
+        Iterator<MultiPileup> expected = new SimpleMultiPileupParser(pileupFile).iterator();
+        Iterator<MultiPileup> actual = parser.iterator();
+
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            assertRecordEquals(expected.next(), actual.next());
+        }
+        assertFalse(actual.hasNext());
+
+    }
+
+    public void testRebuiltColumns() {
+
+        Iterator<MultiPileup> iterator = new BinaryMultiPileupParser(binaryFile).iterator();
+
+        MultiPileup multiPileup = iterator.next();
+        assertEquals("..,T", multiPileup.getPileup(0).getBases());
+        assertEquals(".,t", multiPileup.getPileup(1).getBases());
+        assertEquals("~~~~", multiPileup.getPileup(0).getQualities());
+        assertSame(multiPileup, multiPileup.getPileup(0).getPileupRecord());
+        assertEquals(2, multiPileup.getPileups().size());
+
+        multiPileup = iterator.next();
+        assertEquals(".,", multiPileup.getPileup(0).getBases());
+        assertEquals("a", multiPileup.getPileup(1).getBases());
+
+        //the read start, its mapping quality and the insertion are not listed
+        multiPileup = iterator.next();
+        assertEquals(".,*", multiPileup.getPileup(0).getBasesWithoutIndels());
+        assertTrue(multiPileup.getPileup(0).hasIndels());
+
+    }
+
+    public void testQuery() {
+
+        Iterator<MultiPileup> iterator = new BinaryMultiPileupParser(binaryFile).query("chr1", 101, 250);
+
+        assertEquals(101, iterator.next().getPosition());
+        assertEquals(250, iterator.next().getPosition());
+        assertFalse(iterator.hasNext());
+
+        iterator = new BinaryMultiPileupParser(binaryFile).query("chr2", 1, 10);
+
+        MultiPileup multiPileup = iterator.next();
+        assertEquals("chr2", multiPileup.getSequenceName());
+        assertEquals(5, multiPileup.getPosition());
+        assertFalse(iterator.hasNext());
+
+    }
+
+    private void assertRecordEquals(MultiPileup expected, MultiPileup actual) {
+
+        assertEquals(expected.getSequenceName(), actual.getSequenceName());
+        assertEquals(expected.getPosition(), actual.getPosition());
+        assertEquals(expected.getReferenceBase(), actual.getReferenceBase());
+        assertEquals(expected.getPileupCount(), actual.getPileupCount());
+
+        for (int i = 0; i < expected.getPileupCount(); i++) {
+
+            Pileup expectedPileup = expected.getPileup(i);
+            Pileup actualPileup = actual.getPileup(i);
+
+            assertEquals(expectedPileup.getCoverage(), actualPileup.getCoverage());
+            assertEquals(expectedPileup.getReferenceMatchCount(), actualPileup.getReferenceMatchCount());
+            for (String base : new String[]{"A", "C", "G", "T", "N"}) {
+                assertEquals(expectedPileup.getBaseCallCount(base), actualPileup.getBaseCallCount(base));
+            }
+            assertEquals(expectedPileup.getConsensusBaseCall(), actualPileup.getConsensusBaseCall());
+            assertEquals(expectedPileup.hasIndels(), actualPileup.hasIndels());
+
+        }
+
+    }
+
+}
@@ -0,0 +1,175 @@
+package org.nxtgenutils.io.impl;
+
+import junit.framework.TestCase;
+import org.nxtgenutils.util.BgzfBlock;
+import org.nxtgenutils.util.BgzfOutputStream;
+import org.nxtgenutils.util.ParallelBgzfOutputStream;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Writes a methylation profile with ParallelBgzfOutputStream and reads it
+ * back with a plain gzip reader. The profile spans several BGZF blocks,
+ * so that the blocks are deflated by more than one worker thread.
+ */
+public class ParallelBgzfOutputStreamTest extends TestCase {
+
+    private static final int LINE_COUNT = 20000;
+
+    private byte[] profile;
+    private File profileFile;
+
+    protected void setUp() throws IOException {
+
+        StringBuilder lines = new StringBuilder("chr\tstart\tend\tsample1\tsample2\n");
+        for (int i = 0; i < LINE_COUNT; i++) {
+            String sequenceName = i < LINE_COUNT / 2 ? "chr1" : "chr2";
+            int position = 10 * (i % (LINE_COUNT / 2)) + 1;
+            lines.append(sequenceName).append('\t').append(position).append('\t').append(position + 1)
+                    .append('\t').append(i % 17).append('/').append(i % 23)
+                    .append('\t').append(i % 13).append('/').append(i % 29).append('\n');
+        }
+
+        profile = lines.toString().getBytes("UTF-8");
+        profileFile = File.createTempFile("profile", ".gz");
+
+    }
+
+    protected void tearDown() {
+        profileFile.delete();
+    }
+
+    public void testGzipReadable() throws IOException {
+
+        assertTrue(profile.length > 4 * BgzfBlock.MAX_DATA_SIZE);
+
+        for (int threadCount : new int[]{1, 4}) {
+
+            ParallelBgzfOutputStream out = new ParallelBgzfOutputStream(profileFile, threadCount);
+            try {
+                //write in pieces not aligned to the block size
+                for (int i = 0; i < profile.length; i += 1000) {
+                    out.write(profile, i, Math.min(1000, profile.length - i));
+                }
+            } finally {
+                out.close();
+            }
+
+            assertTrue(Arrays.equals(profile, gunzip(profileFile)));
+            assertTrue(endsWithEofBlock(profileFile));
+
+        }
+
+    }
+
+    public void testSequentialStreamEquivalent() throws IOException {
+
+        File sequentialFile = File.createTempFile("profile", ".gz");
+
+        try {
+
+            BgzfOutputStream out = new BgzfOutputStream(sequentialFile);
+            try {
+                out.write(profile);
+            } finally {
+                out.close();
+            }
+
+            assertTrue(Arrays.equals(profile, gunzip(sequentialFile)));
+            assertTrue(endsWithEofBlock(sequentialFile));
+
+        } finally {
+            sequentialFile.delete();
+        }
+
+    }
+
+    public void testIndex() throws IOException {
+
+        TabixIndexBuilder builder = TabixIndexBuilder.forMethylationProfile();
+
+        ParallelBgzfOutputStream out = new ParallelBgzfOutputStream(profileFile, 4);
+        try {
+            int lineStart = 0;
+            for (int i = 0; i < profile.length; i++) {
+                if (profile[i] == '\n') {
+                    long startPosition = out.getPosition();
+                    out.write(profile, lineStart, i + 1 - lineStart);
+                    builder.addLine(Arrays.copyOfRange(profile, lineStart, i), i - lineStart, startPosition, out.getPosition());
+                    lineStart = i + 1;
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        //the positions recorded while writing translate into the offsets of a scan
+        TabixIndex index = builder.build(out);
+        TabixIndex scannedIndex = TabixIndexBuilder.forMethylationProfile().index(profileFile);
+
+        assertEquals(scannedIndex.getSequenceNames(), index.getSequenceNames());
+        for (String sequenceName : new String[]{"chr1", "chr2"}) {
+            for (int begin : new int[]{0, 12345, 65000, 99990}) {
+                long[] chunks = scannedIndex.getChunks(sequenceName, begin, begin + 100);
+                assertTrue(chunks.length > 0);
+                assertTrue(Arrays.equals(chunks, index.getChunks(sequenceName, begin, begin + 100)));
+            }
+        }
+
+    }
+
+    private byte[] gunzip(File file) throws IOException {
+
+        ByteArrayOutputStream retVal = new ByteArrayOutputStream();
+
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                retVal.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        return retVal.toByteArray();
+
+    }
+
+    private boolean endsWithEofBlock(File file) throws IOException {
+
+        byte[] tail = new byte[BgzfBlock.EOF_BLOCK.length];
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(in.length() - tail.length);
+            in.readFully(tail);
+        } finally {
+            in.close();
+        }
+
+        return Arrays.equals(BgzfBlock.EOF_BLOCK, tail);
+
+    }
+
+}
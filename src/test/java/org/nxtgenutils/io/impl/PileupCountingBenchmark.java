@@ -0,0 +1,242 @@
+package org.nxtgenutils.io.impl;
+
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.Pileup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares the single pass base call histogram of PileupImpl with the
+ * previous regular expression based counting. Each invocation creates a
+ * pileup and queries it the way MethylationProfiler does for one position:
+ * the consensus call three times (cytosine check, current and previous
+ * sample context), the C and T counts and the indel flag.
+ * <p/>
+ * Run with: mvn -Pbenchmark test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PileupCountingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int depth;
+
+    private MultiPileup multiPileup;
+    private String bases;
+    private String qualities;
+
+    @Setup
+    public void setup() {
+
+        multiPileup = new MultiPileupImpl("chr1", 1000, "C");
+
+        Random random = new Random(42);
+        StringBuilder basesBuilder = new StringBuilder();
+        StringBuilder qualitiesBuilder = new StringBuilder();
+        String calls = "..,,..,,TtTtAaGgN*";
+        for (int i = 0; i < depth; i++) {
+            if (random.nextDouble() < 0.02) {
+                basesBuilder.append('^').append('I');
+            }
+            basesBuilder.append(calls.charAt(random.nextInt(calls.length())));
+            if (random.nextDouble() < 0.01) {
+                basesBuilder.append("+2AC");
+            }
+            if (random.nextDouble() < 0.02) {
+                basesBuilder.append('$');
+            }
+            qualitiesBuilder.append((char) (33 + random.nextInt(40)));
+        }
+
+        bases = basesBuilder.toString();
+        qualities = qualitiesBuilder.toString();
+
+    }
+
+    @Benchmark
+    public void histogram(Blackhole blackhole) {
+        query(new PileupImpl(multiPileup, depth, bases, qualities), blackhole);
+    }
+
+    @Benchmark
+    public void regularExpressions(Blackhole blackhole) {
+        query(new LegacyPileup(multiPileup, depth, bases), blackhole);
+    }
+
+    private static void query(Pileup pileup, Blackhole blackhole) {
+        blackhole.consume(pileup.getConsensusBaseCall());
+        blackhole.consume(pileup.getConsensusBaseCall());
+        blackhole.consume(pileup.getConsensusBaseCall());
+        blackhole.consume(pileup.getBaseCallCount("C"));
+        blackhole.consume(pileup.getBaseCallCount("T"));
+        blackhole.consume(pileup.hasIndels());
+    }
+
+    /**
+     * The regular expression based counting PileupImpl used before the
+     * introduction of BaseCallHistogram.
+     */
+    static class LegacyPileup implements Pileup {
+
+        private static Pattern patternReferenceMatch = Pattern.compile("[\\.|,]");
+        private static Pattern patternIndel = Pattern.compile("([\\+-])([0-9]+)([ACGTNacgtn]+)");
+
+        private MultiPileup parent;
+        private int coverage;
+        private String bases;
+        private String basesWithoutIndels;
+        private List<String> indels = null;
+
+        LegacyPileup(MultiPileup parent, int coverage, String bases) {
+            this.parent = parent;
+            this.coverage = coverage;
+            this.bases = bases;
+        }
+
+        public int getCoverage() {
+            return coverage;
+        }
+
+        public String getBases() {
+            return bases;
+        }
+
+        public int getReferenceMatchCount() {
+            Matcher m = patternReferenceMatch.matcher(bases);
+            int retVal = 0;
+            while (m.find()) {
+                retVal++;
+            }
+            return retVal;
+        }
+
+        public int getBaseCallCount(String base) {
+
+            Pattern p;
+            if (base.equalsIgnoreCase(parent.getReferenceBase())) {
+                p = patternReferenceMatch;
+            } else {
+                p = Pattern.compile("[" + base.toLowerCase() + base.toUpperCase() + "]");
+            }
+
+            Matcher m = p.matcher(getBasesWithoutIndels());
+            int retVal = 0;
+            while (m.find()) {
+                retVal++;
+            }
+            return retVal;
+
+        }
+
+        public String getConsensusBaseCall() {
+            return getConsensusBaseCall(0.4);
+        }
+
+        public String getConsensusBaseCall(double alleleFrequencyCutoff) {
+
+            String retVal = "N";
+            int maxCount = 0;
+
+            Map<String, Double> frequencies = new TreeMap<String, Double>();
+            for (String base : new String[]{"A", "T", "C", "G"}) {
+                int baseCount = this.getBaseCallCount(base);
+                if (baseCount > maxCount) {
+                    maxCount = baseCount;
+                    retVal = base;
+                }
+                frequencies.put(base, (double) baseCount / (double) this.getCoverage());
+            }
+
+            for (String base : frequencies.keySet()) {
+                if (frequencies.get(base) >= alleleFrequencyCutoff && !base.equals(retVal)) {
+                    retVal = retVal + "/" + base;
+                    break;
+                }
+            }
+
+            return retVal;
+
+        }
+
+        public MultiPileup getPileupRecord() {
+            return parent;
+        }
+
+        public String getQualities() {
+            return null;
+        }
+
+        private List<String> parseIndels() {
+            List<String> retVal = new ArrayList<String>();
+            Matcher m = patternIndel.matcher(bases);
+            while (m.find()) {
+                int indelSize = Integer.parseInt(m.group(2));
+                retVal.add(m.group(1) + indelSize + m.group(3).substring(0, indelSize));
+            }
+            return retVal;
+        }
+
+        public boolean hasIndels() {
+            if (indels == null) {
+                indels = parseIndels();
+            }
+            return indels.size() > 0;
+        }
+
+        public String getBasesWithoutIndels() {
+
+            if (basesWithoutIndels != null) {
+                return basesWithoutIndels;
+            }
+
+            basesWithoutIndels = bases;
+            if (indels == null) {
+                indels = parseIndels();
+            }
+            for (String indel : indels) {
+                basesWithoutIndels = basesWithoutIndels.replace(indel, "");
+            }
+
+            return basesWithoutIndels;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,146 @@
+package org.nxtgenutils.io.impl;
+
+import junit.framework.TestCase;
+import org.nxtgenutils.io.MultiPileup;
+import org.nxtgenutils.io.MultiPileupParser;
+import org.nxtgenutils.util.BgzfBlock;
+import org.nxtgenutils.util.BgzfOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This file is part of NxtGenUtils.
+ * <p/>
+ * NxtGenUtils is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * NxtGenUtils is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with NxtGenUtils.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Writes a BGZF compressed multi-pileup file with a tabix index and
+ * queries regions of it with the text and byte parsers. Records cover
+ * every third position of chr1 and every position of chr2, so that chr1
+ * spans several BGZF blocks.
+ */
+public class TabixIndexTest extends TestCase {
+
+    private static final int CHR1_LENGTH = 30000;
+    private static final int CHR2_LENGTH = 3000;
+
+    private File pileupFile;
+    private File indexFile;
+
+    protected void setUp() throws IOException {
+
+        pileupFile = File.createTempFile("pileup", ".pileup.gz");
+        indexFile = TabixIndex.getIndexFile(pileupFile);
+
+        TabixIndexBuilder builder = TabixIndexBuilder.forPileup();
+
+        BgzfOutputStream out = new BgzfOutputStream(pileupFile);
+        try {
+            for (int position = 1; position <= CHR1_LENGTH; position += 3) {
+                writeRecord(out, builder, "chr1", position);
+            }
+            for (int position = 1; position <= CHR2_LENGTH; position++) {
+                writeRecord(out, builder, "chr2", position);
+            }
+        } finally {
+            out.close();
+        }
+
+        builder.build().write(indexFile);
+
+    }
+
+    protected void tearDown() {
+        pileupFile.delete();
+        indexFile.delete();
+    }
+
+    public void testIndex() throws IOException {
+
+        TabixIndex index = TabixIndex.read(indexFile);
+
+        assertEquals(Arrays.asList("chr1", "chr2"), index.getSequenceNames());
+        assertTrue(index.hasSequence("chr2"));
+        assertFalse(index.hasSequence("chr3"));
+
+        //the end of chr1 is not in the first block
+        assertTrue(BgzfBlock.getBlockAddress(index.getStartOffset("chr1", 29990, 30000)) > 0);
+
+        //the index of a scan of the file is the same
+        TabixIndex scannedIndex = TabixIndexBuilder.forPileup().index(pileupFile);
+        for (int begin : new int[]{0, 5000, 16383, 16384, 29990}) {
+            assertTrue(Arrays.equals(scannedIndex.getChunks("chr1", begin, begin + 100), index.getChunks("chr1", begin, begin + 100)));
+        }
+
+    }
+
+    public void testQuery() {
+
+        for (MultiPileupParser parser : new MultiPileupParser[]{
+                new SimpleMultiPileupParser(pileupFile), new ByteMultiPileupParser(pileupFile)}) {
+
+            assertEquals(Arrays.asList("chr1", "chr2"), parser.getSequenceNames());
+
+            assertQuery(parser, "chr1", 1, 1);
+            assertQuery(parser, "chr1", 2, 3);
+            assertQuery(parser, "chr1", 16380, 16390);
+            assertQuery(parser, "chr1", 29990, 40000);
+            assertQuery(parser, "chr2", 1, 10);
+            assertQuery(parser, "chr2", 2995, 3000);
+            assertQuery(parser, "chr3", 1, 10);
+
+        }
+
+    }
+
+    private void assertQuery(MultiPileupParser parser, String sequenceName, int start, int end) {
+
+        List<Integer> expected = new ArrayList<Integer>();
+        int length = sequenceName.equals("chr1") ? CHR1_LENGTH : (sequenceName.equals("chr2") ? CHR2_LENGTH : 0);
+        for (int position = start; position <= Math.min(end, length); position++) {
+            if (!sequenceName.equals("chr1") || position % 3 == 1) {
+                expected.add(position);
+            }
+        }
+
+        List<Integer> actual = new ArrayList<Integer>();
+        Iterator<MultiPileup> iterator = parser.query(sequenceName, start, end);
+        while (iterator.hasNext()) {
+            MultiPileup multiPileup = iterator.next();
+            assertEquals(sequenceName, multiPileup.getSequenceName());
+            actual.add(multiPileup.getPosition());
+        }
+
+        assertEquals(sequenceName + ":" + start + "-" + end, expected, actual);
+
+    }
+
+    private void writeRecord(BgzfOutputStream out, TabixIndexBuilder builder, String sequenceName, int position) throws IOException {
+
+        byte[] line = (sequenceName + "\t" + position + "\tC\t3\t..,\tIII\t2\tT,\tII").getBytes("UTF-8");
+
+        long startOffset = out.getVirtualOffset();
+        out.write(line);
+        out.write('\n');
+        builder.addLine(line, line.length, startOffset, out.getVirtualOffset());
+
+    }
+
+}